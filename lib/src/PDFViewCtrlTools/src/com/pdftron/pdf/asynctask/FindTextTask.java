@@ -18,15 +18,30 @@ import com.pdftron.pdf.TextSearchResult;
 import com.pdftron.pdf.controls.SearchResultsView;
 import com.pdftron.pdf.tools.R;
 import com.pdftron.pdf.utils.AnalyticsHandlerAdapter;
+import com.pdftron.pdf.utils.TextSearchIndex;
 import com.pdftron.pdf.utils.Utils;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A class that asynchronously finds a pattern through the document
  */
 public class FindTextTask extends AsyncTask<Void, Boolean, Integer> {
 
+    /**
+     * The number of pages each worker searches while holding a read lock
+     * when the task runs in parallel mode.
+     */
+    public static final int PARALLEL_CHUNK_SIZE = 16;
+
+    private static final int MAX_DEFAULT_WORKER_COUNT = 4;
+
     private PDFDoc mPdfDoc;
     private String mPattern;
     private int mTextSearchMode;
@@ -35,6 +50,9 @@ public class FindTextTask extends AsyncTask<Void, Boolean, Integer> {
     private final ArrayList<String> mSectionTitleList;
     private int mPagesSearched;
     private String mFacingCoverText;
+    private int mWorkerCount = Math.max(1, Math.min(MAX_DEFAULT_WORKER_COUNT,
+        Runtime.getRuntime().availableProcessors() - 1));
+    private int[] mCandidatePages;
     private Callback mCallback;
 
     /**
@@ -80,6 +98,8 @@ public class FindTextTask extends AsyncTask<Void, Boolean, Integer> {
         mSectionList = sectionList;
         mSectionTitleList = sectionTitleList;
         mFacingCoverText = pdfViewCtrl.getContext().getResources().getString(R.string.pref_viewmode_facingcover_short);
+        // if the document is indexed, only the pages that may contain the pattern are searched
+        mCandidatePages = TextSearchIndex.getCandidatePages(pdfViewCtrl, pattern, textSearchMode);
     }
 
     /**
@@ -93,6 +113,23 @@ public class FindTextTask extends AsyncTask<Void, Boolean, Integer> {
         mCallback = callback;
     }
 
+    /**
+     * Sets the number of worker threads used to search the document.
+     *
+     * If the worker count is greater than one, the page range is split into
+     * chunks of {@link #PARALLEL_CHUNK_SIZE} pages which are searched concurrently,
+     * each holding a read lock only for the duration of its chunk. Results are
+     * still reported in page order. By default, one less than the number of
+     * processors, up to {@link #MAX_DEFAULT_WORKER_COUNT}.
+     *
+     * Must be called before the task is executed.
+     *
+     * @param workerCount The number of worker threads
+     */
+    public void setWorkerCount(int workerCount) {
+        mWorkerCount = Math.max(1, workerCount);
+    }
+
     @Override
     protected void onPreExecute() {
         if (mCallback != null) {
@@ -106,6 +143,10 @@ public class FindTextTask extends AsyncTask<Void, Boolean, Integer> {
             return 0;
         }
 
+        if (mWorkerCount > 1 || mCandidatePages != null) {
+            return findTextInChunks();
+        }
+
         TextSearch textSearch = new TextSearch();
         int numResults = 0;
         boolean foundResultOnPage = false;
@@ -135,53 +176,9 @@ public class FindTextTask extends AsyncTask<Void, Boolean, Integer> {
                         // Get result's section if doc has sections
                         if (currentSectionIndex >= 0) {
                             // Get position of result's first quad (bottom-left)
-                            double resultX = -1, resultY = -1;
-                            Highlights highlights = result.getHighlights();
-                            highlights.begin(mPdfDoc);
-                            if (highlights.hasNext()) {
-                                double[] quads = highlights.getCurrentQuads();
-                                if (quads.length / 8 > 0) {
-                                    resultX = quads[0];
-                                    resultY = quads[1];
-                                }
-                            }
-                            if (result.getPageNum() < mSectionList.get(0).mPageNum) { // Result appears before the first section
-                                mSectionTitleList.add(numResults, mFacingCoverText);
-                            } else {
-                                // Results are found in-order, so the lookup time can be reduced by starting the lookup
-                                // at the last result's section.
-                                for (int index = currentSectionIndex; index < mSectionList.size(); index++) {
-                                    if (index < mSectionList.size() - 1) {
-                                        // Check if result occurs before the next section
-                                        SearchResultsView.Section nextSection = mSectionList.get(index + 1);
-                                        boolean inNextSection = false;
-                                        if (result.getPageNum() < nextSection.mPageNum) { // Result is in current section
-                                            inNextSection = false;
-                                        } else if (result.getPageNum() == nextSection.mPageNum && resultX >= 0 && resultY >= 0) {
-                                            // Result is on same page as next section: check positions
-                                            if (nextSection.top >= 0) { // Section's top offset is defined
-                                                inNextSection = (resultY < nextSection.top);
-                                                if (inNextSection && nextSection.left >= 0) { // Result might be in section, so check left offset
-                                                    inNextSection = (resultX >= nextSection.left);
-                                                }
-                                            } else if (nextSection.left >= 0) {
-                                                inNextSection = (resultX >= nextSection.left);
-                                            }
-                                        } else {
-                                            inNextSection = true;
-                                        }
-                                        if (!inNextSection) {
-                                            mSectionTitleList.add(numResults, mSectionList.get(index).mBookmark.getTitle());
-                                            currentSectionIndex = index; // All subsequent results will be in this or a later section
-                                            break;
-                                        }
-                                    } else { // on last section, so result must be in this section
-                                        mSectionTitleList.add(numResults, mSectionList.get(index).mBookmark.getTitle());
-                                        currentSectionIndex = index;
-                                        break;
-                                    }
-                                }
-                            }
+                            double[] position = getResultPosition(result);
+                            currentSectionIndex = addSectionTitle(numResults, result.getPageNum(),
+                                position[0], position[1], currentSectionIndex);
                         }
                         numResults++;
                     } else if (result.getCode() == TextSearchResult.e_page) {
@@ -205,6 +202,234 @@ public class FindTextTask extends AsyncTask<Void, Boolean, Integer> {
         return numResults;
     }
 
+    private int findTextInChunks() {
+        int pageCount = 0;
+        boolean shouldUnlockRead = false;
+        try {
+            mPdfDoc.lockRead();
+            shouldUnlockRead = true;
+            pageCount = mPdfDoc.getPageCount();
+        } catch (PDFNetException e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        } finally {
+            if (shouldUnlockRead) {
+                Utils.unlockReadQuietly(mPdfDoc);
+            }
+        }
+        if (pageCount <= 0) {
+            return 0;
+        }
+
+        int numResults = 0;
+        synchronized (mSectionList) {
+            int currentSectionIndex = (!mSectionList.isEmpty()) ? 0 : -1;
+            mPagesSearched = 0;
+
+            List<SearchChunk> chunks = createChunks(pageCount, currentSectionIndex >= 0);
+            if (chunks.isEmpty()) {
+                // the text search index ruled out every page
+                mPagesSearched = pageCount;
+                return 0;
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(mWorkerCount, chunks.size()));
+            List<Future<SearchChunk>> futures = new ArrayList<>(chunks.size());
+            for (SearchChunk chunk : chunks) {
+                futures.add(executor.submit(chunk));
+            }
+            executor.shutdown();
+
+            try {
+                // Chunks are merged in submission order so results stay sorted by page,
+                // which the section lookup below relies on
+                for (Future<SearchChunk> future : futures) {
+                    if (isCancelled()) {
+                        break;
+                    }
+                    SearchChunk chunk = future.get();
+                    if (!chunk.mInitialized) {
+                        break;
+                    }
+                    for (int i = 0, count = chunk.mResults.size(); i < count; ++i) {
+                        TextSearchResult result = chunk.mResults.get(i);
+                        mResults.add(numResults, result);
+                        if (currentSectionIndex >= 0) {
+                            double[] position = chunk.mPositions.get(i);
+                            currentSectionIndex = addSectionTitle(numResults, result.getPageNum(),
+                                position[0], position[1], currentSectionIndex);
+                        }
+                        numResults++;
+                    }
+                    // pages skipped between chunks are known not to match
+                    mPagesSearched = chunk.mEndPage;
+                    publishProgress(!chunk.mResults.isEmpty());
+                }
+            } catch (InterruptedException e) {
+                // task has been cancelled
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                AnalyticsHandlerAdapter.getInstance().sendException(e);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        return numResults;
+    }
+
+    /**
+     * Splits the pages to search into chunks of at most {@link #PARALLEL_CHUNK_SIZE} consecutive pages.
+     * If the text search index provided candidate pages, only those pages are searched.
+     */
+    private List<SearchChunk> createChunks(int pageCount, boolean needsPositions) {
+        List<SearchChunk> chunks = new ArrayList<>();
+        if (mCandidatePages == null) {
+            for (int startPage = 1; startPage <= pageCount; startPage += PARALLEL_CHUNK_SIZE) {
+                int endPage = Math.min(startPage + PARALLEL_CHUNK_SIZE - 1, pageCount);
+                chunks.add(new SearchChunk(startPage, endPage, needsPositions));
+            }
+            return chunks;
+        }
+
+        int startPage = -1;
+        int endPage = -1;
+        for (int pageNum : mCandidatePages) {
+            if (pageNum < 1 || pageNum > pageCount) {
+                continue;
+            }
+            if (startPage > 0 && pageNum == endPage + 1 && pageNum - startPage < PARALLEL_CHUNK_SIZE) {
+                endPage = pageNum;
+                continue;
+            }
+            if (startPage > 0) {
+                chunks.add(new SearchChunk(startPage, endPage, needsPositions));
+            }
+            startPage = endPage = pageNum;
+        }
+        if (startPage > 0) {
+            chunks.add(new SearchChunk(startPage, endPage, needsPositions));
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns the bottom-left position of the first quad of the result,
+     * or {-1, -1} if the result has no quads. Requires a read lock on the document.
+     */
+    private double[] getResultPosition(TextSearchResult result) throws PDFNetException {
+        double[] position = new double[]{-1, -1};
+        Highlights highlights = result.getHighlights();
+        highlights.begin(mPdfDoc);
+        if (highlights.hasNext()) {
+            double[] quads = highlights.getCurrentQuads();
+            if (quads.length / 8 > 0) {
+                position[0] = quads[0];
+                position[1] = quads[1];
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Adds the title of the section containing the result to the section title list.
+     *
+     * @return The index of the section the result belongs to
+     */
+    private int addSectionTitle(int resultIndex, int pageNum, double resultX, double resultY, int currentSectionIndex) {
+        if (pageNum < mSectionList.get(0).mPageNum) { // Result appears before the first section
+            mSectionTitleList.add(resultIndex, mFacingCoverText);
+            return currentSectionIndex;
+        }
+        // Results are found in-order, so the lookup time can be reduced by starting the lookup
+        // at the last result's section.
+        for (int index = currentSectionIndex; index < mSectionList.size(); index++) {
+            if (index < mSectionList.size() - 1) {
+                // Check if result occurs before the next section
+                SearchResultsView.Section nextSection = mSectionList.get(index + 1);
+                boolean inNextSection = false;
+                if (pageNum < nextSection.mPageNum) { // Result is in current section
+                    inNextSection = false;
+                } else if (pageNum == nextSection.mPageNum && resultX >= 0 && resultY >= 0) {
+                    // Result is on same page as next section: check positions
+                    if (nextSection.top >= 0) { // Section's top offset is defined
+                        inNextSection = (resultY < nextSection.top);
+                        if (inNextSection && nextSection.left >= 0) { // Result might be in section, so check left offset
+                            inNextSection = (resultX >= nextSection.left);
+                        }
+                    } else if (nextSection.left >= 0) {
+                        inNextSection = (resultX >= nextSection.left);
+                    }
+                } else {
+                    inNextSection = true;
+                }
+                if (!inNextSection) {
+                    mSectionTitleList.add(resultIndex, mSectionList.get(index).mBookmark.getTitle());
+                    return index; // All subsequent results will be in this or a later section
+                }
+            } else { // on last section, so result must be in this section
+                mSectionTitleList.add(resultIndex, mSectionList.get(index).mBookmark.getTitle());
+                return index;
+            }
+        }
+        return currentSectionIndex;
+    }
+
+    /**
+     * Searches a range of pages while holding a read lock only for that range.
+     */
+    private class SearchChunk implements Callable<SearchChunk> {
+        private final int mStartPage;
+        private final int mEndPage;
+        private final ArrayList<TextSearchResult> mResults = new ArrayList<>();
+        private final ArrayList<double[]> mPositions = new ArrayList<>();
+        private final boolean mNeedsPositions;
+        private boolean mInitialized;
+
+        SearchChunk(int startPage, int endPage, boolean needsPositions) {
+            mStartPage = startPage;
+            mEndPage = endPage;
+            mNeedsPositions = needsPositions;
+        }
+
+        @Override
+        public SearchChunk call() throws Exception {
+            if (isCancelled()) {
+                return this;
+            }
+
+            TextSearch textSearch = new TextSearch();
+            boolean shouldUnlockRead = false;
+            try {
+                mPdfDoc.lockRead();
+                shouldUnlockRead = true;
+
+                if (!textSearch.begin(mPdfDoc, mPattern, mTextSearchMode, mStartPage, mEndPage)) {
+                    // if text search cannot be initialized
+                    AnalyticsHandlerAdapter.getInstance().sendException(new Exception("pattern: " + mPattern + " | mode: " + mTextSearchMode));
+                    return this;
+                }
+                mInitialized = true;
+
+                while (!isCancelled()) {
+                    TextSearchResult result = textSearch.run();
+
+                    if (result.getCode() == TextSearchResult.e_found) {
+                        mResults.add(result);
+                        // positions are only needed to resolve sections, but the highlights
+                        // must be read while the lock is held
+                        mPositions.add(mNeedsPositions ? getResultPosition(result) : null);
+                    } else if (result.getCode() != TextSearchResult.e_page) {
+                        break;
+                    }
+                }
+            } finally {
+                if (shouldUnlockRead) {
+                    Utils.unlockReadQuietly(mPdfDoc);
+                }
+            }
+            return this;
+        }
+    }
+
     @Override
     protected void onProgressUpdate(Boolean... values) {
         if (mCallback != null) {
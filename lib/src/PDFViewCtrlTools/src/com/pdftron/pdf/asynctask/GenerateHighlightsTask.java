@@ -16,6 +16,7 @@ import com.pdftron.pdf.PDFViewCtrl;
 import com.pdftron.pdf.TextSearch;
 import com.pdftron.pdf.TextSearchResult;
 import com.pdftron.pdf.utils.AnalyticsHandlerAdapter;
+import com.pdftron.pdf.utils.TextSearchIndex;
 import com.pdftron.pdf.utils.Utils;
 
 /**
@@ -31,6 +32,7 @@ public class GenerateHighlightsTask extends AsyncTask<Void, Void, Void> {
     private Highlights[] mHighlights;
     private final boolean mIsRtl;
     private final PDFDoc mDoc;
+    private final int[] mCandidatePages;
 
     /**
      * Callback interface invoked when search highlights are obtained.
@@ -98,6 +100,9 @@ public class GenerateHighlightsTask extends AsyncTask<Void, Void, Void> {
         for (int i = 0, cnt = mHighlights.length; i < cnt; i++) {
             mHighlights[i] = new Highlights();
         }
+
+        // if the document is indexed, pages that cannot contain the pattern are skipped
+        mCandidatePages = TextSearchIndex.getCandidatePages(pdfViewCtrl, searchPattern, mTextSearchMode);
     }
 
     /**
@@ -113,33 +118,35 @@ public class GenerateHighlightsTask extends AsyncTask<Void, Void, Void> {
 
     @Override
     protected Void doInBackground(Void... params) {
-        TextSearch textSearch = new TextSearch();
-        int i = 0;
-
-        if (mIsRtl) {
-            textSearch.setRightToLeftLanguage(true);
-        }
-
         boolean shouldUnlockRead = false;
         try {
             mDoc.lockRead();
             shouldUnlockRead = true;
 
-            if (!textSearch.begin(mDoc, mSearchPattern, mTextSearchMode, mPageStart, mPageEnd)) {
-                // if text search cannot be initialized
-                return null;
-            }
-
-            while (!isCancelled()) {
-                TextSearchResult result = textSearch.run();
-
-                if (result.getCode() == TextSearchResult.e_found) {
-                    // Add result and Highlights to lists
-                    mHighlights[i].add(result.getHighlights());
-                } else if (result.getCode() == TextSearchResult.e_page) {
-                    i++;
-                } else {
-                    break;
+            if (mCandidatePages == null) {
+                searchPages(mPageStart, mPageEnd);
+            } else {
+                // search consecutive runs of candidate pages within the range
+                int runStart = -1;
+                int runEnd = -1;
+                for (int pageNum : mCandidatePages) {
+                    if (isCancelled()) {
+                        break;
+                    }
+                    if (pageNum < mPageStart || pageNum > mPageEnd) {
+                        continue;
+                    }
+                    if (runStart > 0 && pageNum == runEnd + 1) {
+                        runEnd = pageNum;
+                        continue;
+                    }
+                    if (runStart > 0 && !searchPages(runStart, runEnd)) {
+                        return null;
+                    }
+                    runStart = runEnd = pageNum;
+                }
+                if (runStart > 0 && !isCancelled()) {
+                    searchPages(runStart, runEnd);
                 }
             }
         } catch (PDFNetException e) {
@@ -153,6 +160,39 @@ public class GenerateHighlightsTask extends AsyncTask<Void, Void, Void> {
         return null;
     }
 
+    /**
+     * Searches the pages from start to end, inclusive. Requires a read lock on the document.
+     *
+     * @return False if text search could not be initialized
+     */
+    private boolean searchPages(int pageStart, int pageEnd) throws PDFNetException {
+        TextSearch textSearch = new TextSearch();
+        int i = pageStart - mPageStart;
+
+        if (mIsRtl) {
+            textSearch.setRightToLeftLanguage(true);
+        }
+
+        if (!textSearch.begin(mDoc, mSearchPattern, mTextSearchMode, pageStart, pageEnd)) {
+            // if text search cannot be initialized
+            return false;
+        }
+
+        while (!isCancelled()) {
+            TextSearchResult result = textSearch.run();
+
+            if (result.getCode() == TextSearchResult.e_found) {
+                // Add result and Highlights to lists
+                mHighlights[i].add(result.getHighlights());
+            } else if (result.getCode() == TextSearchResult.e_page) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return true;
+    }
+
     @Override
     protected void onCancelled() {
         if (mCallback != null) {
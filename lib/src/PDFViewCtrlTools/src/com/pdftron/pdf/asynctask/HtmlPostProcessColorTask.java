@@ -19,15 +19,18 @@ import com.pdftron.pdf.utils.AnalyticsHandlerAdapter;
 import com.pdftron.pdf.utils.CustomAsyncTask;
 import com.pdftron.pdf.utils.Utils;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashMap;
 
 
 /**
@@ -36,7 +39,16 @@ import java.util.regex.Pattern;
  */
 public class HtmlPostProcessColorTask extends CustomAsyncTask<Void, Void, Void> {
 
+    private static final String COLOR_PREFIX = "color:#";
+    private static final String HIGHLIGHT_PREFIX = "background-color:#";
+    private static final int COLOR_LENGTH = 6;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final String DEFAULT_OUTPUT_SUFFIX = "-cus";
+
     private String mHtmlFilename;
+    private String mOutputSuffix = DEFAULT_OUTPUT_SUFFIX;
+    // post-processed colors in hexadecimal keyed by input RGB
+    private final HashMap<Integer, String> mColorCache = new HashMap<>();
     private ReflowControl.OnPostProcessColorListener mOnPostProcessColorListener;
     private Callback mCallback;
 
@@ -75,6 +87,19 @@ public class HtmlPostProcessColorTask extends CustomAsyncTask<Void, Void, Void>
         mCallback = callback;
     }
 
+    /**
+     * Sets the suffix appended to the name of the input html file to form the name of the
+     * generated html file, which is written to the same folder. The default suffix is "-cus".
+     * <p>
+     * Different suffixes should be used for outputs that need to coexist, e.g. for different
+     * color modes of the same page.
+     *
+     * @param suffix The suffix of the output filename, without extension
+     */
+    public void setOutputFileSuffix(@NonNull String suffix) {
+        mOutputSuffix = suffix;
+    }
+
     /**
      * Sets the OnPostProcessColorListener listener.
      * <p>
@@ -94,78 +119,23 @@ public class HtmlPostProcessColorTask extends CustomAsyncTask<Void, Void, Void>
         if (Utils.isNullOrEmpty(mHtmlFilename) || mOnPostProcessColorListener == null) {
             return null;
         }
-        InputStream inputStream = null;
-        OutputStream outputStream = null;
+        Reader reader = null;
+        Writer writer = null;
 
         try {
-            File inputFile = new File(mHtmlFilename);
-            byte[] input = new byte[(int) inputFile.length()];
-            inputStream = new FileInputStream(inputFile);
-            //noinspection ResultOfMethodCallIgnored
-            inputStream.read(input);
-            String data = new String(input, "UTF-8");
-
-            if (isCancelled()) {
-                return null;
-            }
-
-            File outputFile = new File(getCustomColorPath(mHtmlFilename), getCustomColorName(mHtmlFilename));
-            outputStream = new FileOutputStream(outputFile);
-            StringBuilder buffer = new StringBuilder();
-            int index = 0;
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(mHtmlFilename), "UTF-8"), BUFFER_SIZE);
 
             if (isCancelled()) {
                 return null;
             }
 
-            Pattern tagPattern = Pattern.compile("<.*?>");
-            Pattern colorPattern = Pattern.compile("color:#[0-9|a-f|A-F]{6}");
-            Pattern highlightPattern = Pattern.compile("background-color:#[0-9|a-f|A-F]{6}");
-            Pattern paragraphPattern = Pattern.compile("<p.*?>");
-            Pattern spanPattern = Pattern.compile("<span.*?>");
-
-            Matcher tagMatcher = tagPattern.matcher(data);
-            while (tagMatcher.find()) { // Find each match in turn
-                String tag = tagMatcher.group();
-                Matcher colorMatcher = colorPattern.matcher(tag);
-                while (colorMatcher.find() && !isCancelled()) { // Find each match in turn
-                    // output until the matched string
-                    String subStr = data.substring(index, tagMatcher.start() + colorMatcher.start());
-                    buffer.append(subStr);
-                    index += subStr.length();
-
-                    if (!highlightPattern.matcher(tag).find() &&
-                        (paragraphPattern.matcher(tag).find() || spanPattern.matcher(tag).find())) {
-                        // the matched color pattern doesn't belong to background color which
-                        // indicates highlighted text, while belongs to either paragraph or span
-                        String color = colorMatcher.group();
-                        ColorPt inputCP = getColorPt(color.substring(7, 13));
-                        if (inputCP == null) {
-                            inputCP = new ColorPt();
-                        }
-                        ReflowControl.OnPostProcessColorListener listener = mOnPostProcessColorListener;
-                        if (listener == null) {
-                            return null;
-                        }
-                        ColorPt outputCP = listener.getPostProcessedColor(inputCP);
-                        if (outputCP == null) {
-                            outputCP = inputCP;
-                        }
-                        // As an alternative solution we can cache outputCP for later
-                        // use to ignore frequent calls to the core.
-                        String customColor = "color:#" + getHexadecimal(outputCP);
-                        buffer.append(customColor);
-                        index += customColor.length();
-                    }
-                }
-            }
+            File outputFile = new File(getCustomColorPath(mHtmlFilename), getCustomColorName(mHtmlFilename, mOutputSuffix));
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile), "UTF-8"), BUFFER_SIZE);
 
-            if (isCancelled()) {
+            if (!postProcessColors(reader, writer)) {
                 return null;
             }
-
-            buffer.append(data.substring(index));
-            outputStream.write(buffer.toString().getBytes());
+            writer.flush();
         } catch (FileNotFoundException e) {
             Context context = getContext();
             if (context instanceof FragmentActivity && !((FragmentActivity) context).isFinishing()) {
@@ -177,12 +147,151 @@ public class HtmlPostProcessColorTask extends CustomAsyncTask<Void, Void, Void>
         } catch (PDFNetException e) {
             AnalyticsHandlerAdapter.getInstance().sendException(e);
         } finally {
-            Utils.closeQuietly(inputStream);
-            Utils.closeQuietly(outputStream);
+            Utils.closeQuietly(reader);
+            Utils.closeQuietly(writer);
         }
         return null;
     }
 
+    /**
+     * Copies the html in a single pass, replacing the text colors of paragraph and span tags
+     * (i.e. tags with {@code color:#xxxxxx} but no highlight {@code background-color:#xxxxxx})
+     * by their post-processed colors. As with the pattern {@code <.*?>}, a tag cannot span lines.
+     *
+     * @return False if the task was cancelled or the listener removed
+     */
+    private boolean postProcessColors(Reader reader, Writer writer) throws IOException, PDFNetException {
+        char[] buffer = new char[BUFFER_SIZE];
+        StringBuilder tag = new StringBuilder();
+        boolean inTag = false;
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            // start of the text to be output as is
+            int start = 0;
+            for (int i = 0; i < count; ++i) {
+                char ch = buffer[i];
+                if (inTag) {
+                    if (isLineTerminator(ch)) {
+                        // not a tag; output as is
+                        writer.append(tag);
+                        tag.setLength(0);
+                        inTag = false;
+                        start = i;
+                    } else {
+                        tag.append(ch);
+                        if (ch == '>') {
+                            if (isCancelled() || !processTag(tag)) {
+                                return false;
+                            }
+                            writer.append(tag);
+                            tag.setLength(0);
+                            inTag = false;
+                            start = i + 1;
+                        }
+                    }
+                } else if (ch == '<') {
+                    writer.write(buffer, start, i - start);
+                    tag.append(ch);
+                    inTag = true;
+                }
+            }
+            if (!inTag) {
+                writer.write(buffer, start, count - start);
+            }
+        }
+        writer.append(tag);
+        return true;
+    }
+
+    /**
+     * Replaces the text colors of the tag in place.
+     *
+     * @return False if the listener has been removed
+     */
+    private boolean processTag(StringBuilder tag) throws PDFNetException {
+        int index = tag.indexOf(COLOR_PREFIX);
+        if (index == -1) {
+            return true;
+        }
+        if (tag.indexOf("<p") == -1 && tag.indexOf("<span") == -1) {
+            return true;
+        }
+        // the color of highlighted text is kept
+        for (int i = tag.indexOf(HIGHLIGHT_PREFIX); i != -1; i = tag.indexOf(HIGHLIGHT_PREFIX, i + 1)) {
+            if (parseColor(tag, i + HIGHLIGHT_PREFIX.length()) != -1) {
+                return true;
+            }
+        }
+
+        while (index != -1) {
+            int colorStart = index + COLOR_PREFIX.length();
+            int rgb = parseColor(tag, colorStart);
+            if (rgb == -1) {
+                index = tag.indexOf(COLOR_PREFIX, index + 1);
+                continue;
+            }
+            String customColor = getPostProcessedColor(rgb);
+            if (customColor == null) {
+                return false;
+            }
+            tag.replace(colorStart, colorStart + COLOR_LENGTH, customColor);
+            index = tag.indexOf(COLOR_PREFIX, colorStart + customColor.length());
+        }
+        return true;
+    }
+
+    @Nullable
+    private String getPostProcessedColor(int rgb) throws PDFNetException {
+        String customColor = mColorCache.get(rgb);
+        if (customColor != null) {
+            return customColor;
+        }
+        ReflowControl.OnPostProcessColorListener listener = mOnPostProcessColorListener;
+        if (listener == null) {
+            return null;
+        }
+        ColorPt inputCP = new ColorPt(((rgb >> 16) & 0xFF) / 255., ((rgb >> 8) & 0xFF) / 255., (rgb & 0xFF) / 255.);
+        ColorPt outputCP = listener.getPostProcessedColor(inputCP);
+        if (outputCP == null) {
+            outputCP = inputCP;
+        }
+        customColor = getHexadecimal(outputCP);
+        if (customColor.length() != COLOR_LENGTH) {
+            customColor = String.format("%06X", rgb);
+        }
+        mColorCache.put(rgb, customColor);
+        return customColor;
+    }
+
+    /**
+     * @return The RGB value of the six hexadecimal digits at the specified index, -1 if invalid
+     */
+    private static int parseColor(CharSequence text, int start) {
+        if (start + COLOR_LENGTH > text.length()) {
+            return -1;
+        }
+        int rgb = 0;
+        for (int i = start; i < start + COLOR_LENGTH; ++i) {
+            char c = text.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+            } else {
+                return -1;
+            }
+            rgb = (rgb << 4) | digit;
+        }
+        return rgb;
+    }
+
+    private static boolean isLineTerminator(char ch) {
+        return ch == '\n' || ch == '\r' || ch == '\u0085' || ch == '\u2028' || ch == '\u2029';
+    }
+
     private static String getAvailableInternalMemorySize() {
         if (!Utils.isJellyBeanMR2()) {
             return "";
@@ -243,12 +352,12 @@ public class HtmlPostProcessColorTask extends CustomAsyncTask<Void, Void, Void>
         if (index != -1) {
             outputFilename = outputFilename.substring(0, index);
         }
-        outputFilename += "-cus.html";
+        outputFilename += mOutputSuffix + ".html";
 
         return outputFilepath + "/" + outputFilename;
     }
 
-    private static String getCustomColorName(String inputFilename) {
+    private static String getCustomColorName(String inputFilename, String suffix) {
         String outputFilename;
         int index = inputFilename.lastIndexOf('/');
         outputFilename = inputFilename.substring(index + 1);
@@ -256,7 +365,7 @@ public class HtmlPostProcessColorTask extends CustomAsyncTask<Void, Void, Void>
         if (index != -1) {
             outputFilename = outputFilename.substring(0, index);
         }
-        outputFilename += "-cus.html";
+        outputFilename += suffix + ".html";
 
         return outputFilename;
     }
@@ -270,35 +379,6 @@ public class HtmlPostProcessColorTask extends CustomAsyncTask<Void, Void, Void>
         return outputFilepath;
     }
 
-    private static ColorPt getColorPt(String str) {
-        int len = str.length();
-        if (len != 6 && len != 8) {
-            return null;
-        }
-
-        double x, y, z, w = 0;
-        if (len == 8) {
-            w = Integer.parseInt(str.substring(len - 2, len), 16);
-            len -= 2;
-        }
-        z = Integer.parseInt(str.substring(len - 2, len), 16);
-        len -= 2;
-        y = Integer.parseInt(str.substring(len - 2, len), 16);
-        len -= 2;
-        x = Integer.parseInt(str.substring(len - 2, len), 16);
-
-        try {
-            len = str.length();
-            if (len == 6) {
-                return new ColorPt(x / 255., y / 255., z / 255.);
-            } else { // if (len == 8)
-                return new ColorPt(x / 255., y / 255., z / 255., w / 255.);
-            }
-        } catch (PDFNetException e) {
-            return null;
-        }
-    }
-
     private static String getHexadecimal(ColorPt cp) {
         try {
             int x = (int) (cp.get(0) * 255.0);
@@ -9,29 +9,38 @@ package com.pdftron.pdf.asynctask;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.support.annotation.Nullable;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
-import com.pdftron.pdf.PDFNet;
 import com.pdftron.pdf.config.ToolConfig;
 import com.pdftron.pdf.model.FontResource;
 import com.pdftron.pdf.tools.R;
 import com.pdftron.pdf.tools.Tool;
 import com.pdftron.pdf.utils.AnalyticsHandlerAdapter;
 import com.pdftron.pdf.utils.CustomAsyncTask;
+import com.pdftron.pdf.utils.FontCatalog;
 import com.pdftron.pdf.utils.Utils;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
- * Async Task for loading fonts in system path.
+ * Async Task for loading fonts in system path. System fonts are read from {@link FontCatalog}.
  */
 public class LoadFontAsyncTask extends CustomAsyncTask<Void, Void, ArrayList<FontResource>> {
+    // the font names of the last parsed font list of the tool preferences
+    private static String sSavedFontInfo;
+    private static Map<String, String> sSavedFontNames;
+
     private ArrayList<FontResource> mFonts;
     private Set<String> mWhiteListFonts;
     private Callback mCallback;
@@ -71,120 +80,56 @@ public class LoadFontAsyncTask extends CustomAsyncTask<Void, Void, ArrayList<Fon
 
     private void loadFontResources() {
         try {
-            SharedPreferences settings;
-            {
-                Context context = getContext();
-                if (context == null) {
-                    return;
-                }
-                settings = Tool.getToolPreferences(context);
+            Context context = getContext();
+            if (context == null) {
+                return;
             }
-            String fontInfo = settings.getString(Tool.ANNOTATION_FREE_TEXT_FONTS, "");
-
-            if (fontInfo.equals("")) {
-                fontInfo = PDFNet.getSystemFontList();
+            List<FontCatalog.Font> catalog = FontCatalog.getInstance(context).getFonts();
 
-                // save font list
-                SharedPreferences.Editor editor = settings.edit();
-                editor.putString(Tool.ANNOTATION_FREE_TEXT_FONTS, fontInfo);
-                editor.apply();
-            }
-
-            JSONObject fontInfoObject = new JSONObject(fontInfo);
-            JSONArray fontInfoArray = fontInfoObject.getJSONArray(Tool.ANNOTATION_FREE_TEXT_JSON_FONT);
+            SharedPreferences settings = Tool.getToolPreferences(context);
+            String fontInfo = settings.getString(Tool.ANNOTATION_FREE_TEXT_FONTS, "");
+            Map<String, String> savedFontNames = getSavedFontNames(fontInfo);
 
-            int numWhiteListFonts = 0;
-            int numFoundWhiteListFonts = 0;
-            if (mWhiteListFonts != null && !mWhiteListFonts.isEmpty()) {
-                numWhiteListFonts = mWhiteListFonts.size();
-            } else {
+            // if white list fonts is null or empty, show the fonts that are white listed by
+            // default. If not, only show the white listed fonts.
+            boolean useDefaultWhiteList = mWhiteListFonts == null || mWhiteListFonts.isEmpty();
+            if (useDefaultWhiteList) {
                 mWhiteListFonts = new HashSet<>();
-                fontInfo = FontResource.whiteListFonts(fontInfo);
-
-                fontInfoObject = new JSONObject(fontInfo);
-                fontInfoArray = fontInfoObject.getJSONArray(Tool.ANNOTATION_FREE_TEXT_JSON_FONT);
-
-                // white list the fonts
-                for (int i = 0; i < fontInfoArray.length(); i++) {
-                    JSONObject font = fontInfoArray.getJSONObject(i);
-                    String entryValue = font.getString(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_FILE_PATH);
-
-                    // set default values
-                    String whiteList = font.getString(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_DISPLAY_IN_LIST);
-                    if (whiteList.equals("true")) {
-                        mWhiteListFonts.add(entryValue);
-                    }
-                }
             }
 
-            for (int i = 0; i < fontInfoArray.length(); i++) {
-                // check if font is selected in settings
-                JSONObject font = fontInfoArray.getJSONObject(i);
-                String filePath = font.getString(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_FILE_PATH);
-
-                // if white list fonts equals null, show all fonts to users. If not, only show
-                // the white listed fonts.
+            ArrayList<FontCatalog.Font> unsavedFonts = new ArrayList<>();
+            // the catalog is sorted by display name already
+            for (FontCatalog.Font font : catalog) {
+                String filePath = font.getFilePath();
+                if (useDefaultWhiteList && font.isWhiteListed()) {
+                    mWhiteListFonts.add(filePath);
+                }
+                if (!savedFontNames.containsKey(filePath)) {
+                    unsavedFonts.add(font);
+                }
                 if (mWhiteListFonts.contains(filePath)) {
-                    // if display name is null or empty, replace it will the file name
-                    String displayName = font.getString(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_DISPLAY_NAME);
-                    if (displayName == null || displayName.equals("")) {
-                        displayName = Utils.getFontFileName(font.getString(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_FILE_PATH));
-                        font.put(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_DISPLAY_NAME, displayName);
-                    }
-
-                    // check if the font has it's font name (used for setting the location
-                    // of the font spinner)
-                    String fontName = "";
-                    if (font.has(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_NAME)) {
-                        fontName = font.getString(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_NAME);
-                    }
-
-                    // create fontResource and add to fonts
-                    String pdfTronName = font.getString(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_PDFTRON_NAME);
-                    FontResource fontResource = new FontResource(displayName, filePath, fontName, pdfTronName);
-                    mFonts.add(fontResource);
-
-                    numFoundWhiteListFonts++;
+                    // the font name is saved once the font is used (used for setting the
+                    // location of the font spinner)
+                    String fontName = savedFontNames.get(filePath);
+                    mFonts.add(new FontResource(font.getDisplayName(), filePath, fontName, font.getPDFTronName()));
                 }
             }
 
-            // if the number of found white listed fonts does not equal the number
-            // of white listed fonts, then the user has added another font
-            if (numFoundWhiteListFonts != numWhiteListFonts) {
-                // get system list - used to compare against the saved font list
-                // to determine which fonts are missing
-                String fontSystemInfo = PDFNet.getSystemFontList();
-                JSONObject fontSystemObject = new JSONObject(fontSystemInfo);
-                JSONArray fontSystemArray = fontSystemObject.getJSONArray(Tool.ANNOTATION_FREE_TEXT_JSON_FONT);
-
-                for (int i = 0; i < fontSystemArray.length(); i++) {
-                    String fontSystemFilePath = fontSystemArray.getJSONObject(i).getString(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_FILE_PATH);
-                    Boolean found = false;
-
-                    for (int j = 0; j < fontInfoArray.length(); j++) {
-                        String fontInfoFilePath = fontInfoArray.getJSONObject(j).getString(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_FILE_PATH);
-
-                        // if font is already in font info string, break loop and don't
-                        // add font to array
-                        if (fontSystemFilePath.equals(fontInfoFilePath)) {
-                            found = true;
-                            break;
-                        }
-                    }
-
-                    if (!found) {
-                        // add font to JSON array
-                        fontInfoArray.put(fontSystemArray.getJSONObject(i));
-
-                        // add font to list of fonts if on white list
-                        String filePath = fontSystemArray.getJSONObject(i).getString(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_FILE_PATH);
-                        if (mWhiteListFonts.contains(filePath)) {
-                            String displayName = fontSystemArray.getJSONObject(i).getString(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_DISPLAY_NAME);
-                            String pdftronName = fontSystemArray.getJSONObject(i).getString(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_PDFTRON_NAME);
-                            FontResource fontResource = new FontResource(displayName, filePath, "", pdftronName);
-                            mFonts.add(fontResource);
-                        }
-                    }
+            // add new fonts to the saved font list, so that their font names can be saved
+            if (!unsavedFonts.isEmpty()) {
+                JSONObject fontInfoObject = fontInfo.equals("") ? new JSONObject() : new JSONObject(fontInfo);
+                JSONArray fontInfoArray = fontInfoObject.optJSONArray(Tool.ANNOTATION_FREE_TEXT_JSON_FONT);
+                if (fontInfoArray == null) {
+                    fontInfoArray = new JSONArray();
+                    fontInfoObject.put(Tool.ANNOTATION_FREE_TEXT_JSON_FONT, fontInfoArray);
+                }
+                for (FontCatalog.Font font : unsavedFonts) {
+                    JSONObject fontObj = new JSONObject();
+                    fontObj.put(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_FILE_PATH, font.getFilePath());
+                    fontObj.put(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_DISPLAY_NAME, font.getDisplayName());
+                    fontObj.put(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_PDFTRON_NAME, font.getPDFTronName());
+                    fontObj.put(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_DISPLAY_IN_LIST, font.isWhiteListed());
+                    fontInfoArray.put(fontObj);
                 }
 
                 fontInfo = fontInfoObject.toString();
@@ -192,18 +137,71 @@ public class LoadFontAsyncTask extends CustomAsyncTask<Void, Void, ArrayList<Fon
                 editor.putString(Tool.ANNOTATION_FREE_TEXT_FONTS, fontInfo);
                 editor.apply();
             }
-
         } catch (Exception e) {
             AnalyticsHandlerAdapter.getInstance().sendException(e);
         }
+    }
+
+    /**
+     * Returns the font names saved in the font list of the tool preferences, by font file path.
+     * Fonts that have no saved font name are mapped to an empty string.
+     */
+    private static Map<String, String> getSavedFontNames(String fontInfo) throws IOException {
+        synchronized (LoadFontAsyncTask.class) {
+            if (fontInfo.equals(sSavedFontInfo)) {
+                return sSavedFontNames;
+            }
+        }
 
-        // sort fonts alphabetically
-        Collections.sort(mFonts, new Comparator<FontResource>() {
-            @Override
-            public int compare(FontResource lhs, FontResource rhs) {
-                return lhs.getDisplayName().compareTo(rhs.getDisplayName());
+        HashMap<String, String> fontNames = new HashMap<>();
+        if (!fontInfo.equals("")) {
+            JsonReader reader = new JsonReader(new StringReader(fontInfo));
+            try {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (Tool.ANNOTATION_FREE_TEXT_JSON_FONT.equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            readSavedFontName(reader, fontNames);
+                        }
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } finally {
+                Utils.closeQuietly(reader);
+            }
+        }
+
+        synchronized (LoadFontAsyncTask.class) {
+            sSavedFontInfo = fontInfo;
+            sSavedFontNames = fontNames;
+        }
+        return fontNames;
+    }
+
+    private static void readSavedFontName(JsonReader reader, Map<String, String> fontNames) throws IOException {
+        String filePath = null;
+        String fontName = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() != JsonToken.STRING) {
+                reader.skipValue();
+            } else if (Tool.ANNOTATION_FREE_TEXT_JSON_FONT_FILE_PATH.equals(name)) {
+                filePath = reader.nextString();
+            } else if (Tool.ANNOTATION_FREE_TEXT_JSON_FONT_NAME.equals(name)) {
+                fontName = reader.nextString();
+            } else {
+                reader.skipValue();
             }
-        });
+        }
+        reader.endObject();
+        if (filePath != null) {
+            fontNames.put(filePath, fontName);
+        }
     }
 
     /**
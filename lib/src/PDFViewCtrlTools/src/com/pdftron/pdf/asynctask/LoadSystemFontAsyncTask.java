@@ -10,6 +10,7 @@ import android.content.Context;
 import com.pdftron.common.PDFNetException;
 import com.pdftron.pdf.PDFNet;
 import com.pdftron.pdf.utils.CustomAsyncTask;
+import com.pdftron.pdf.utils.FontCatalog;
 
 import java.util.ArrayList;
 
@@ -54,7 +55,12 @@ public class LoadSystemFontAsyncTask extends CustomAsyncTask<Void, Void, Void> {
     @Override
     protected Void doInBackground(Void... voids) {
         try {
-            PDFNet.getSystemFontList();
+            String fontList = PDFNet.getSystemFontList();
+            // keep the font catalog up to date, so that font pickers do not need to parse the list
+            Context context = getContext();
+            if (context != null) {
+                FontCatalog.getInstance(context).updateIfChanged(fontList);
+            }
         } catch (PDFNetException e) {
             e.printStackTrace();
         }
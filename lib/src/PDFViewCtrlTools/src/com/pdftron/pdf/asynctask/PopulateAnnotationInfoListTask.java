@@ -8,13 +8,13 @@ package com.pdftron.pdf.asynctask;
 import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.Log;
 
 import com.pdftron.common.PDFNetException;
 import com.pdftron.pdf.Annot;
 import com.pdftron.pdf.PDFDoc;
 import com.pdftron.pdf.PDFViewCtrl;
 import com.pdftron.pdf.Page;
-import com.pdftron.pdf.PageIterator;
 import com.pdftron.pdf.TextExtractor;
 import com.pdftron.pdf.annots.Markup;
 import com.pdftron.pdf.controls.AnnotationDialogFragment;
@@ -25,14 +25,30 @@ import com.pdftron.pdf.utils.Utils;
 import java.lang.ref.WeakReference;
 import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A class that asynchronously populates a list of annotation info, See {@link com.pdftron.pdf.controls.AnnotationDialogFragment.AnnotationInfo}
+ * <p>
+ * Pages are processed in chunks by a small pool of threads. Each chunk holds the read lock of
+ * the document only while it is processed, and the text of a page is extracted at most once.
+ * The callback is notified on the UI thread whenever the chunks following the annotations
+ * already reported are complete, so annotations are always reported in page order.
  */
-public class PopulateAnnotationInfoListTask extends AsyncTask<Void, Void, ArrayList<AnnotationDialogFragment.AnnotationInfo>> {
+public class PopulateAnnotationInfoListTask extends AsyncTask<Void, ArrayList<AnnotationDialogFragment.AnnotationInfo>, ArrayList<AnnotationDialogFragment.AnnotationInfo>> {
+
+    private static final String TAG = PopulateAnnotationInfoListTask.class.getName();
+    private static boolean sDebug;
+
+    private static final int PAGES_PER_CHUNK = 8;
+    private static final int MAX_THREAD_COUNT = 4;
 
     private WeakReference<PDFViewCtrl> mPdfViewCtrlRef;
 
+    // only modified on the UI thread
     private ArrayList<AnnotationDialogFragment.AnnotationInfo> mAnnotList;
 
     private Callback mCallback;
@@ -44,7 +60,9 @@ public class PopulateAnnotationInfoListTask extends AsyncTask<Void, Void, ArrayL
         /**
          * Called when annotations info have been populated.
          *
-         * @param result The populated annotations info
+         * @param result The populated annotations info. The same list is passed on every call,
+         *               and new annotations are only appended to it
+         * @param done   True if all annotations have been populated
          */
         void getAnnotationsInfo(ArrayList<AnnotationDialogFragment.AnnotationInfo> result, boolean done);
     }
@@ -73,83 +91,162 @@ public class PopulateAnnotationInfoListTask extends AsyncTask<Void, Void, ArrayL
     /**
      * The overloaded implementation of {@link android.os.AsyncTask#doInBackground(Object[])}.
      **/
-    @SuppressWarnings("ConstantConditions")
+    @SuppressWarnings("unchecked")
     @Override
     protected ArrayList<AnnotationDialogFragment.AnnotationInfo> doInBackground(Void... params) {
         PDFViewCtrl pdfViewCtrl = mPdfViewCtrlRef.get();
         if (pdfViewCtrl == null) {
             return null;
         }
-        PageIterator pageIterator;
+
+        int pageCount = 0;
         boolean shouldUnlockRead = false;
         try {
             pdfViewCtrl.docLockRead();
             shouldUnlockRead = true;
             PDFDoc doc = pdfViewCtrl.getDoc();
             if (doc != null) {
-                pageIterator = doc.getPageIterator(1);
-
-                int pageNum = 0;
-                TextExtractor textExtractor = new TextExtractor();
+                pageCount = doc.getPageCount();
+            }
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        } finally {
+            if (shouldUnlockRead) {
+                pdfViewCtrl.docUnlockRead();
+            }
+        }
+        if (pageCount <= 0) {
+            return mAnnotList;
+        }
 
-                while (pageIterator.hasNext() || mPdfViewCtrlRef.get() == null) {
-                    if (isCancelled()) {
-                        return null;
+        long startTime = System.currentTimeMillis();
+        int chunkCount = (pageCount + PAGES_PER_CHUNK - 1) / PAGES_PER_CHUNK;
+        int threadCount = Math.max(1, Math.min(Math.min(MAX_THREAD_COUNT,
+            Runtime.getRuntime().availableProcessors()), chunkCount));
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            ArrayList<Future<ArrayList<AnnotationDialogFragment.AnnotationInfo>>> chunks = new ArrayList<>(chunkCount);
+            for (int firstPage = 1; firstPage <= pageCount; firstPage += PAGES_PER_CHUNK) {
+                final int first = firstPage;
+                final int last = Math.min(pageCount, firstPage + PAGES_PER_CHUNK - 1);
+                chunks.add(executor.submit(new Callable<ArrayList<AnnotationDialogFragment.AnnotationInfo>>() {
+                    @Override
+                    public ArrayList<AnnotationDialogFragment.AnnotationInfo> call() throws Exception {
+                        return populatePages(first, last);
                     }
+                }));
+            }
 
-                    pageNum++;
-                    Page page = pageIterator.next();
+            // report the chunks in page order as they complete
+            for (Future<ArrayList<AnnotationDialogFragment.AnnotationInfo>> chunk : chunks) {
+                if (isCancelled()) {
+                    return null;
+                }
+                ArrayList<AnnotationDialogFragment.AnnotationInfo> annots = chunk.get();
+                if (annots == null) {
+                    return null;
+                }
+                if (!annots.isEmpty()) {
+                    publishProgress(annots);
+                }
+            }
+        } catch (InterruptedException e) {
+            return null;
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        } finally {
+            executor.shutdownNow();
+        }
 
-                    if (page.isValid()) {
-                        int annotationCount = page.getNumAnnots();
-                        for (int a = 0; a < annotationCount; a++) {
-                            if (isCancelled() || mPdfViewCtrlRef.get() == null) {
-                                return null;
-                            }
+        if (sDebug) {
+            Log.d(TAG, "populated " + pageCount + " pages in "
+                + (System.currentTimeMillis() - startTime) + "ms using " + threadCount + " threads");
+        }
+        return mAnnotList;
+    }
 
-                            try {
-                                Annot annotation = page.getAnnot(a);
-                                if (annotation == null || !annotation.isValid()) {
-                                    continue;
-                                }
+    /**
+     * Populates the annotations info of a range of pages while holding the read lock.
+     *
+     * @return The annotations info, or null if the task is cancelled
+     */
+    private ArrayList<AnnotationDialogFragment.AnnotationInfo> populatePages(int firstPage, int lastPage) {
+        ArrayList<AnnotationDialogFragment.AnnotationInfo> annotList = new ArrayList<>();
+        PDFViewCtrl pdfViewCtrl = mPdfViewCtrlRef.get();
+        if (pdfViewCtrl == null || isCancelled()) {
+            return null;
+        }
 
-                                String contents = "";
-                                int type = annotation.getType();
+        // DateFormat is not thread-safe, so share one instance per chunk
+        DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT);
+        TextExtractor textExtractor = null;
+        boolean shouldUnlockRead = false;
+        try {
+            pdfViewCtrl.docLockRead();
+            shouldUnlockRead = true;
+            PDFDoc doc = pdfViewCtrl.getDoc();
+            if (doc == null) {
+                return annotList;
+            }
 
-                                if (AnnotUtils.getAnnotImageResId(type) == android.R.id.empty) {
-                                    continue;
-                                }
+            for (int pageNum = firstPage; pageNum <= lastPage; ++pageNum) {
+                Page page = doc.getPage(pageNum);
+                if (page == null || !page.isValid()) {
+                    continue;
+                }
+                boolean textExtracted = false;
+                int annotationCount = page.getNumAnnots();
+                for (int a = 0; a < annotationCount; a++) {
+                    if (isCancelled() || mPdfViewCtrlRef.get() == null) {
+                        return null;
+                    }
 
-                                Markup markup = new Markup(annotation);
-                                switch (type) {
-                                    case Annot.e_FreeText:
-                                        contents = annotation.getContents();
-                                        break;
-                                    case Annot.e_Underline:
-                                    case Annot.e_StrikeOut:
-                                    case Annot.e_Highlight:
-                                    case Annot.e_Squiggly:
-                                        // For text markup we show the text itself as the contents
-                                        textExtractor.begin(page);
-                                        contents = textExtractor.getTextUnderAnnot(annotation);
-                                        break;
-                                    default:
-                                        break;
-                                }
-                                if (markup.getPopup() != null && markup.getPopup().isValid()) {
-                                    String popupContent = markup.getPopup().getContents();
-                                    if (!Utils.isNullOrEmpty(popupContent)) {
-                                        contents = popupContent;
+                    try {
+                        Annot annotation = page.getAnnot(a);
+                        if (annotation == null || !annotation.isValid()) {
+                            continue;
+                        }
+
+                        String contents = "";
+                        int type = annotation.getType();
+
+                        if (AnnotUtils.getAnnotImageResId(type) == android.R.id.empty) {
+                            continue;
+                        }
+
+                        Markup markup = new Markup(annotation);
+                        switch (type) {
+                            case Annot.e_FreeText:
+                                contents = annotation.getContents();
+                                break;
+                            case Annot.e_Underline:
+                            case Annot.e_StrikeOut:
+                            case Annot.e_Highlight:
+                            case Annot.e_Squiggly:
+                                // For text markup we show the text itself as the contents
+                                if (!textExtracted) {
+                                    if (textExtractor == null) {
+                                        textExtractor = new TextExtractor();
                                     }
+                                    textExtractor.begin(page);
+                                    textExtracted = true;
                                 }
-                                java.util.Date annotLocalDate = AnnotUtils.getAnnotLocalDate(annotation);
-                                String dateStr = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT).format(annotLocalDate);
-                                mAnnotList.add(new AnnotationDialogFragment.AnnotationInfo(type, pageNum, contents, markup.getTitle(), dateStr, annotation));
-                            } catch (PDFNetException ignored) {
-                                // this annotation has some problem, let's skip it and continue with others
+                                contents = textExtractor.getTextUnderAnnot(annotation);
+                                break;
+                            default:
+                                break;
+                        }
+                        if (markup.getPopup() != null && markup.getPopup().isValid()) {
+                            String popupContent = markup.getPopup().getContents();
+                            if (!Utils.isNullOrEmpty(popupContent)) {
+                                contents = popupContent;
                             }
                         }
-                        publishProgress();
+                        java.util.Date annotLocalDate = AnnotUtils.getAnnotLocalDate(annotation);
+                        String dateStr = dateFormat.format(annotLocalDate);
+                        annotList.add(new AnnotationDialogFragment.AnnotationInfo(type, pageNum, contents, markup.getTitle(), dateStr, annotation));
+                    } catch (PDFNetException ignored) {
+                        // this annotation has some problem, let's skip it and continue with others
                     }
                 }
             }
@@ -160,14 +257,19 @@ public class PopulateAnnotationInfoListTask extends AsyncTask<Void, Void, ArrayL
                 pdfViewCtrl.docUnlockRead();
             }
         }
-
-        return mAnnotList;
+        return annotList;
     }
 
+    /**
+     * The overloaded implementation of {@link android.os.AsyncTask#onProgressUpdate(Object[])}.
+     **/
     @Override
-    protected void onProgressUpdate(Void... values) {
+    protected void onProgressUpdate(ArrayList<AnnotationDialogFragment.AnnotationInfo>... values) {
         super.onProgressUpdate(values);
 
+        for (ArrayList<AnnotationDialogFragment.AnnotationInfo> annots : values) {
+            mAnnotList.addAll(annots);
+        }
         if (mCallback != null) {
             mCallback.getAnnotationsInfo(mAnnotList, false);
         }
@@ -182,4 +284,8 @@ public class PopulateAnnotationInfoListTask extends AsyncTask<Void, Void, ArrayL
             mCallback.getAnnotationsInfo(result, true);
         }
     }
+
+    public static void setDebug(boolean debug) {
+        sDebug = debug;
+    }
 }
@@ -7,6 +7,8 @@ package com.pdftron.pdf.config;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.res.Configuration;
+import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Color;
 import android.support.annotation.ArrayRes;
@@ -14,11 +16,13 @@ import android.support.annotation.AttrRes;
 import android.support.annotation.ColorInt;
 import android.support.annotation.NonNull;
 import android.support.annotation.StyleRes;
+import android.util.LongSparseArray;
 import android.util.SparseIntArray;
 
 import com.pdftron.pdf.Annot;
 import com.pdftron.pdf.model.AnnotStyle;
 import com.pdftron.pdf.model.FontResource;
+import com.pdftron.pdf.model.RulerItem;
 import com.pdftron.pdf.tools.R;
 import com.pdftron.pdf.tools.SoundCreate;
 import com.pdftron.pdf.tools.Tool;
@@ -27,6 +31,7 @@ import com.pdftron.pdf.utils.UnitConverter;
 import com.pdftron.pdf.utils.Utils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * A helper class for configuring style of annotation creator tools.
@@ -95,6 +100,26 @@ public class ToolStyleConfig {
      */
     private SparseIntArray mAnnotPresetMap;
 
+    /**
+     * Resolved default styles, keyed by style attribute and style resource.
+     * Also used as the lock of the other caches.
+     */
+    private final LongSparseArray<ResolvedStyle> mResolvedStyles = new LongSparseArray<>();
+
+    /**
+     * Preset style resources, keyed by preset attribute and default array resource
+     */
+    private final LongSparseArray<int[]> mPresetStyleRes = new LongSparseArray<>();
+
+    /**
+     * Preset styles parsed from settings, keyed by annotation type and preset index
+     */
+    private final HashMap<String, ParsedPreset> mParsedPresets = new HashMap<>();
+
+    // the theme and configuration the caches were resolved with
+    private Resources.Theme mResolvedTheme;
+    private Configuration mResolvedConfiguration;
+
     /**
      * Class constructor
      */
@@ -341,11 +366,8 @@ public class ToolStyleConfig {
      */
     public @ColorInt
     int getDefaultColor(@NonNull Context context, @AttrRes int defStyleAttr, @StyleRes int defStyleRes) {
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defStyleAttr, defStyleRes);
-        int color = a.getColor(R.styleable.ToolStyle_annot_color, Color.BLACK);
-        a.recycle();
-        return color;
+        ResolvedStyle style = getResolvedStyle(context, defStyleAttr, defStyleRes);
+        return style.mColor;
     }
 
     /**
@@ -418,11 +440,8 @@ public class ToolStyleConfig {
      */
     @ColorInt
     public int getDefaultTextColor(@NonNull Context context, @AttrRes int attrRes, @StyleRes int defStyleRes) {
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, attrRes, defStyleRes);
-        int color = a.getColor(R.styleable.ToolStyle_annot_text_color, Color.BLACK);
-        a.recycle();
-        return color;
+        ResolvedStyle style = getResolvedStyle(context, attrRes, defStyleRes);
+        return style.mTextColor;
     }
 
     /**
@@ -443,11 +462,8 @@ public class ToolStyleConfig {
      * @return default thickness
      */
     public float getDefaultThickness(@NonNull Context context, @AttrRes int defAttrRes, @StyleRes int defStyleRes) {
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defAttrRes, defStyleRes);
-        float thickness = a.getFloat(R.styleable.ToolStyle_annot_thickness, 1.0f);
-        a.recycle();
-        return thickness;
+        ResolvedStyle style = getResolvedStyle(context, defAttrRes, defStyleRes);
+        return style.mThickness;
     }
 
     /**
@@ -468,11 +484,8 @@ public class ToolStyleConfig {
      * @return default value
      */
     public float getDefaultRulerBaseValue(@NonNull Context context, @AttrRes int defAttrRes, @StyleRes int defStyleRes) {
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defAttrRes, defStyleRes);
-        float value = a.getFloat(R.styleable.ToolStyle_ruler_base_value, 1.0f);
-        a.recycle();
-        return value;
+        ResolvedStyle style = getResolvedStyle(context, defAttrRes, defStyleRes);
+        return style.mRulerBaseValue;
     }
 
     /**
@@ -493,14 +506,8 @@ public class ToolStyleConfig {
      * @return default unit
      */
     public String getDefaultRulerBaseUnit(@NonNull Context context, @AttrRes int defAttrRes, @StyleRes int defStyleRes) {
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defAttrRes, defStyleRes);
-        String unit = a.getString(R.styleable.ToolStyle_ruler_base_unit);
-        if (unit == null) {
-            unit = UnitConverter.INCH;
-        }
-        a.recycle();
-        return unit;
+        ResolvedStyle style = getResolvedStyle(context, defAttrRes, defStyleRes);
+        return style.mRulerBaseUnit;
     }
 
     /**
@@ -521,11 +528,8 @@ public class ToolStyleConfig {
      * @return default value
      */
     public float getDefaultRulerTranslateValue(@NonNull Context context, @AttrRes int defAttrRes, @StyleRes int defStyleRes) {
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defAttrRes, defStyleRes);
-        float value = a.getFloat(R.styleable.ToolStyle_ruler_translate_value, 1.0f);
-        a.recycle();
-        return value;
+        ResolvedStyle style = getResolvedStyle(context, defAttrRes, defStyleRes);
+        return style.mRulerTranslateValue;
     }
 
     /**
@@ -546,14 +550,8 @@ public class ToolStyleConfig {
      * @return default unit
      */
     public String getDefaultRulerTranslateUnit(@NonNull Context context, @AttrRes int defAttrRes, @StyleRes int defStyleRes) {
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defAttrRes, defStyleRes);
-        String unit = a.getString(R.styleable.ToolStyle_ruler_translate_unit);
-        if (unit == null) {
-            unit = UnitConverter.INCH;
-        }
-        a.recycle();
-        return unit;
+        ResolvedStyle style = getResolvedStyle(context, defAttrRes, defStyleRes);
+        return style.mRulerTranslateUnit;
     }
 
     /**
@@ -587,16 +585,8 @@ public class ToolStyleConfig {
      * @return default font size
      */
     public float getDefaultTextSize(@NonNull Context context, @AttrRes int defAttrRes, @StyleRes int defStyleRes) {
-
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defAttrRes, defStyleRes);
-        float fontSize;
-        try {
-            fontSize = a.getFloat(R.styleable.ToolStyle_annot_font_size, 16);
-        } finally {
-            a.recycle();
-        }
-        return fontSize;
+        ResolvedStyle style = getResolvedStyle(context, defAttrRes, defStyleRes);
+        return style.mTextSize;
     }
 
 
@@ -620,15 +610,8 @@ public class ToolStyleConfig {
      */
     @ColorInt
     public int getDefaultFillColor(@NonNull Context context, @AttrRes int defAttrRes, @StyleRes int defStyleRes) {
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defAttrRes, defStyleRes);
-        int color;
-        try {
-            color = a.getColor(R.styleable.ToolStyle_annot_fill_color, Color.TRANSPARENT);
-        } finally {
-            a.recycle();
-        }
-        return color;
+        ResolvedStyle style = getResolvedStyle(context, defAttrRes, defStyleRes);
+        return style.mFillColor;
     }
 
     /**
@@ -649,15 +632,8 @@ public class ToolStyleConfig {
      * @return maximum thickness
      */
     public float getDefaultMaxThickness(@NonNull Context context, @AttrRes int defAttrRes, @StyleRes int defStyleRes) {
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defAttrRes, defStyleRes);
-        float thickness;
-        try {
-            thickness = a.getFloat(R.styleable.ToolStyle_annot_thickness_max, 1.0f);
-        } finally {
-            a.recycle();
-        }
-        return thickness;
+        ResolvedStyle style = getResolvedStyle(context, defAttrRes, defStyleRes);
+        return style.mThicknessMax;
     }
 
     /**
@@ -678,15 +654,8 @@ public class ToolStyleConfig {
      * @return minimum thickness
      */
     public float getDefaultMinThickness(@NonNull Context context, @AttrRes int defAttrRes, @StyleRes int defStyleRes) {
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defAttrRes, defStyleRes);
-        float thickness;
-        try {
-            thickness = a.getFloat(R.styleable.ToolStyle_annot_thickness_min, 0);
-        } finally {
-            a.recycle();
-        }
-        return thickness;
+        ResolvedStyle style = getResolvedStyle(context, defAttrRes, defStyleRes);
+        return style.mThicknessMin;
     }
 
     /**
@@ -706,15 +675,8 @@ public class ToolStyleConfig {
      * @return minimum text size
      */
     public float getDefaultMinTextSize(@NonNull Context context, @AttrRes int defAttrRes, @StyleRes int defStyleRes) {
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defAttrRes, defStyleRes);
-        float thickness;
-        try {
-            thickness = a.getFloat(R.styleable.ToolStyle_annot_text_size_min, 1.0f);
-        } finally {
-            a.recycle();
-        }
-        return thickness;
+        ResolvedStyle style = getResolvedStyle(context, defAttrRes, defStyleRes);
+        return style.mTextSizeMin;
     }
 
     /**
@@ -734,15 +696,8 @@ public class ToolStyleConfig {
      * @return maximum text size
      */
     public float getDefaultMaxTextSize(@NonNull Context context, @AttrRes int defAttrRes, @StyleRes int defStyleRes) {
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defAttrRes, defStyleRes);
-        float thickness;
-        try {
-            thickness = a.getFloat(R.styleable.ToolStyle_annot_text_size_max, 72.0f);
-        } finally {
-            a.recycle();
-        }
-        return thickness;
+        ResolvedStyle style = getResolvedStyle(context, defAttrRes, defStyleRes);
+        return style.mTextSizeMax;
     }
 
     /**
@@ -763,18 +718,8 @@ public class ToolStyleConfig {
      * @return default font
      */
     public String getDefaultFont(@NonNull Context context, @AttrRes int defAttrRes, @StyleRes int defStyleRes) {
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defAttrRes, defStyleRes);
-        String font;
-        try {
-            font = a.getString(R.styleable.ToolStyle_annot_font);
-        } finally {
-            a.recycle();
-        }
-        if (null == font) {
-            return "";
-        }
-        return font;
+        ResolvedStyle style = getResolvedStyle(context, defAttrRes, defStyleRes);
+        return style.mFont;
     }
 
     /**
@@ -795,18 +740,8 @@ public class ToolStyleConfig {
      * @return default icon
      */
     public String getDefaultIcon(@NonNull Context context, @AttrRes int defAttrRes, @StyleRes int defStyleRes) {
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defAttrRes, defStyleRes);
-        String result;
-        try {
-            result = a.getString(R.styleable.ToolStyle_annot_icon);
-        } finally {
-            a.recycle();
-        }
-        if (null == result) {
-            return "";
-        }
-        return result;
+        ResolvedStyle style = getResolvedStyle(context, defAttrRes, defStyleRes);
+        return style.mIcon;
     }
 
     /**
@@ -827,15 +762,8 @@ public class ToolStyleConfig {
      * @return default opacity
      */
     public float getDefaultOpacity(@NonNull Context context, @AttrRes int defAttrRes, @StyleRes int defStyleRes) {
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defAttrRes, defStyleRes);
-        float result;
-        try {
-            result = a.getFloat(R.styleable.ToolStyle_annot_opacity, 1.0f);
-        } finally {
-            a.recycle();
-        }
-        return result;
+        ResolvedStyle style = getResolvedStyle(context, defAttrRes, defStyleRes);
+        return style.mOpacity;
     }
 
     /**
@@ -857,17 +785,8 @@ public class ToolStyleConfig {
      * @return thickness range
      */
     public float getDefaultThicknessRange(@NonNull Context context, @AttrRes int defAttrRes, @StyleRes int defStyleRes) {
-        context = context.getApplicationContext();
-        TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defAttrRes, defStyleRes);
-        float thicknessRange;
-        try {
-            float thicknessMin = a.getFloat(R.styleable.ToolStyle_annot_thickness_min, 0);
-            float thicknessMax = a.getFloat(R.styleable.ToolStyle_annot_thickness_max, 1);
-            thicknessRange = thicknessMax - thicknessMin;
-        } finally {
-            a.recycle();
-        }
-        return thicknessRange;
+        ResolvedStyle style = getResolvedStyle(context, defAttrRes, defStyleRes);
+        return style.mThicknessMax - style.mThicknessMin;
     }
 
     /**
@@ -1205,7 +1124,18 @@ public class ToolStyleConfig {
         // load preset from settings first
         String presetJSON = PdfViewCtrlSettingsManager.getAnnotStylePreset(context, annotType, index);
         if (!Utils.isNullOrEmpty(presetJSON)) {
-            return AnnotStyle.loadJSONString(context, presetJSON, annotType);
+            // the preset is parsed again only if the saved JSON has changed
+            String key = annotType + "_" + index;
+            AnnotStyle annotStyle;
+            synchronized (mResolvedStyles) {
+                ParsedPreset preset = mParsedPresets.get(key);
+                if (preset == null || !preset.mJSON.equals(presetJSON)) {
+                    preset = new ParsedPreset(presetJSON, AnnotStyle.loadJSONString(context, presetJSON, annotType));
+                    mParsedPresets.put(key, preset);
+                }
+                annotStyle = preset.mAnnotStyle;
+            }
+            return copyOf(annotStyle);
         }
 
         return getDefaultAnnotPresetStyle(context, annotType, index, getPresetsAttr(annotType), getDefaultPresetsArrayRes(annotType));
@@ -1226,14 +1156,7 @@ public class ToolStyleConfig {
         // load the preset from style attributes
 
         context = context.getApplicationContext();
-        TypedArray typedArray = context.obtainStyledAttributes(new int[]{attrRes});
-        int presetArrayRes = typedArray.getResourceId(0, arrayRes);
-        typedArray.recycle();
-
-        TypedArray presetsArray = context.getResources().obtainTypedArray(presetArrayRes);
-        int styleResId = presetsArray.getResourceId(index, getDefaultStyle(annotType));
-
-        presetsArray.recycle();
+        int styleResId = getPresetStyleRes(context, index, attrRes, arrayRes, getDefaultStyle(annotType));
 
         AnnotStyle annotStyle = new AnnotStyle();
         annotStyle.setAnnotType(annotType);
@@ -1272,14 +1195,7 @@ public class ToolStyleConfig {
      */
     public int getPresetColor(@NonNull Context context, int index, @AttrRes int attrRes, @ArrayRes int arrayRes, @StyleRes int defaultStyleRes) {
         context = context.getApplicationContext();
-        TypedArray typedArray = context.obtainStyledAttributes(new int[]{attrRes});
-        int presetArrayRes = typedArray.getResourceId(0, arrayRes);
-        typedArray.recycle();
-
-        TypedArray presetsArray = context.getResources().obtainTypedArray(presetArrayRes);
-        int styleResId = presetsArray.getResourceId(index, defaultStyleRes);
-
-        presetsArray.recycle();
+        int styleResId = getPresetStyleRes(context, index, attrRes, arrayRes, defaultStyleRes);
 
         return getDefaultColor(context, 0, styleResId);
     }
@@ -1358,4 +1274,164 @@ public class ToolStyleConfig {
 
         return annotProperty + extraTag + mode;
     }
+
+    /**
+     * Clears the resolved default styles and presets. They are resolved again the next time
+     * they are requested. The caches are also cleared automatically when the theme or the
+     * configuration of the application changes, and a preset is parsed again when its settings
+     * change; so this method is only needed if resources are overridden at run time.
+     */
+    public void clearCache() {
+        synchronized (mResolvedStyles) {
+            clearCacheLocked();
+        }
+    }
+
+    private void clearCacheLocked() {
+        mResolvedStyles.clear();
+        mPresetStyleRes.clear();
+        mParsedPresets.clear();
+        mResolvedTheme = null;
+        mResolvedConfiguration = null;
+    }
+
+    private void validateCacheLocked(@NonNull Context context) {
+        Resources.Theme theme = context.getTheme();
+        Configuration configuration = context.getResources().getConfiguration();
+        if (theme != mResolvedTheme || mResolvedConfiguration == null || !mResolvedConfiguration.equals(configuration)) {
+            clearCacheLocked();
+            mResolvedTheme = theme;
+            mResolvedConfiguration = new Configuration(configuration);
+        }
+    }
+
+    private static long getCacheKey(int high, int low) {
+        return ((long) high << 32) | (low & 0xffffffffL);
+    }
+
+    /**
+     * Gets all tool style attributes of a default style, reading them from resources only
+     * the first time.
+     */
+    @NonNull
+    private ResolvedStyle getResolvedStyle(@NonNull Context context, @AttrRes int defAttrRes, @StyleRes int defStyleRes) {
+        context = context.getApplicationContext();
+        long key = getCacheKey(defAttrRes, defStyleRes);
+        synchronized (mResolvedStyles) {
+            validateCacheLocked(context);
+            ResolvedStyle style = mResolvedStyles.get(key);
+            if (style == null) {
+                TypedArray a = context.obtainStyledAttributes(null, R.styleable.ToolStyle, defAttrRes, defStyleRes);
+                try {
+                    style = new ResolvedStyle(a);
+                } finally {
+                    a.recycle();
+                }
+                mResolvedStyles.put(key, style);
+            }
+            return style;
+        }
+    }
+
+    /**
+     * Gets the style resource of a preset, resolving the preset array only the first time.
+     */
+    @StyleRes
+    private int getPresetStyleRes(@NonNull Context context, int index, @AttrRes int attrRes, @ArrayRes int arrayRes, @StyleRes int defaultStyleRes) {
+        long key = getCacheKey(attrRes, arrayRes);
+        int[] styleResIds;
+        synchronized (mResolvedStyles) {
+            validateCacheLocked(context);
+            styleResIds = mPresetStyleRes.get(key);
+            if (styleResIds == null) {
+                TypedArray typedArray = context.obtainStyledAttributes(new int[]{attrRes});
+                int presetArrayRes = typedArray.getResourceId(0, arrayRes);
+                typedArray.recycle();
+
+                TypedArray presetsArray = context.getResources().obtainTypedArray(presetArrayRes);
+                styleResIds = new int[presetsArray.length()];
+                for (int i = 0; i < styleResIds.length; ++i) {
+                    styleResIds[i] = presetsArray.getResourceId(i, 0);
+                }
+                presetsArray.recycle();
+                mPresetStyleRes.put(key, styleResIds);
+            }
+        }
+        if (index >= 0 && index < styleResIds.length && styleResIds[index] != 0) {
+            return styleResIds[index];
+        }
+        return defaultStyleRes;
+    }
+
+    /**
+     * Copies a cached annotation style, so that the caller can modify the copy.
+     */
+    private static AnnotStyle copyOf(@NonNull AnnotStyle annotStyle) {
+        AnnotStyle copy = new AnnotStyle(annotStyle);
+        FontResource font = annotStyle.getFont();
+        if (font != null) {
+            copy.setFont(new FontResource(font.getDisplayName(), font.getFilePath(), font.getFontName(), font.getPDFTronName()));
+        }
+        copy.setRulerItem(new RulerItem(annotStyle.getRulerItem()));
+        return copy;
+    }
+
+    /**
+     * The tool style attributes of a default style
+     */
+    private static class ResolvedStyle {
+        final int mColor;
+        final int mTextColor;
+        final int mFillColor;
+        final float mThickness;
+        final float mThicknessMin;
+        final float mThicknessMax;
+        final float mTextSize;
+        final float mTextSizeMin;
+        final float mTextSizeMax;
+        final float mOpacity;
+        final float mRulerBaseValue;
+        final String mRulerBaseUnit;
+        final float mRulerTranslateValue;
+        final String mRulerTranslateUnit;
+        final String mFont;
+        final String mIcon;
+
+        ResolvedStyle(TypedArray a) {
+            mColor = a.getColor(R.styleable.ToolStyle_annot_color, Color.BLACK);
+            mTextColor = a.getColor(R.styleable.ToolStyle_annot_text_color, Color.BLACK);
+            mFillColor = a.getColor(R.styleable.ToolStyle_annot_fill_color, Color.TRANSPARENT);
+            mThickness = a.getFloat(R.styleable.ToolStyle_annot_thickness, 1.0f);
+            mThicknessMin = a.getFloat(R.styleable.ToolStyle_annot_thickness_min, 0);
+            mThicknessMax = a.getFloat(R.styleable.ToolStyle_annot_thickness_max, 1.0f);
+            mTextSize = a.getFloat(R.styleable.ToolStyle_annot_font_size, 16);
+            mTextSizeMin = a.getFloat(R.styleable.ToolStyle_annot_text_size_min, 1.0f);
+            mTextSizeMax = a.getFloat(R.styleable.ToolStyle_annot_text_size_max, 72.0f);
+            mOpacity = a.getFloat(R.styleable.ToolStyle_annot_opacity, 1.0f);
+            mRulerBaseValue = a.getFloat(R.styleable.ToolStyle_ruler_base_value, 1.0f);
+            mRulerBaseUnit = getString(a, R.styleable.ToolStyle_ruler_base_unit, UnitConverter.INCH);
+            mRulerTranslateValue = a.getFloat(R.styleable.ToolStyle_ruler_translate_value, 1.0f);
+            mRulerTranslateUnit = getString(a, R.styleable.ToolStyle_ruler_translate_unit, UnitConverter.INCH);
+            mFont = getString(a, R.styleable.ToolStyle_annot_font, "");
+            mIcon = getString(a, R.styleable.ToolStyle_annot_icon, "");
+        }
+
+        private static String getString(TypedArray a, int index, String defValue) {
+            String value = a.getString(index);
+            return value == null ? defValue : value;
+        }
+    }
+
+    /**
+     * A preset style parsed from the JSON string saved in settings
+     */
+    private static class ParsedPreset {
+        final String mJSON;
+        final AnnotStyle mAnnotStyle;
+
+        ParsedPreset(String json, AnnotStyle annotStyle) {
+            mJSON = json;
+            mAnnotStyle = annotStyle;
+        }
+    }
 }
@@ -14,11 +14,15 @@ import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffColorFilter;
 import android.graphics.RectF;
+import android.os.SystemClock;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.UiThread;
+import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 
 import com.pdftron.common.PDFNetException;
 import com.pdftron.pdf.Annot;
@@ -37,13 +41,26 @@ import com.pdftron.pdf.utils.Utils;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * This class manages annotation indicators
+ * <p>
+ * Indicator positions are computed in the background, one page at a time, by a single worker
+ * thread that always picks the pending page closest to the visible pages. Positions are cached
+ * in page space, so they survive zooming, scrolling and layout changes and are only converted
+ * to canvas coordinates again; a page is only computed again when its annotations change.
  */
 public class AnnotIndicatorManger {
 
+    private static final String TAG = AnnotIndicatorManger.class.getName();
+    private static boolean sDebug;
+
     /**
      * Page is in a normal state that is "good" for drawing annotation indicators.
      */
@@ -58,12 +75,21 @@ public class AnnotIndicatorManger {
     public static final int STATE_IS_FLUNG = 2;
 
     private static final int INDICATOR_ICON_SIZE = 8;
+    private static final int PREFETCH_PAGE_COUNT = 2;
+
+    // guards mPageIndicators, mPendingPages, mPageVersions and mGeneration
+    final private Object mLock = new Object();
+    final private SparseArray<PageIndicators> mPageIndicators = new SparseArray<>();
+    final private TreeSet<Integer> mPendingPages = new TreeSet<>();
+    final private SparseIntArray mPageVersions = new SparseIntArray();
+    private int mGeneration;
+    private boolean mWorkerScheduled;
+    private volatile int[] mVisiblePages = new int[0];
+    final private ExecutorService mExecutor = Executors.newSingleThreadExecutor();
 
-    final private Object mPrepareAnnotIndicatorLock = new Object();
-    final private List<Integer> mAnnotIndicatorTaskList = new ArrayList<>();
-    final private SparseArray<List<AnnotIndicator>> mAnnotIndicators = new SparseArray<>();
     final private Paint mAnnotInsideIndicatorPaint = new Paint();
     final private Paint mAnnotOutsideIndicatorPaint = new Paint();
+    final private RectF mLocRect = new RectF();
 
     private int mState = STATE_IS_NORMAL;
     private Bitmap mInsideIndicatorBitmap;
@@ -71,11 +97,25 @@ public class AnnotIndicatorManger {
     private Bitmap mCustomBitmap;
     private int mIndicatorIconSize;
     private PDFViewCtrl.PagePresentationMode mLastPagePresentationMode;
+    private int mLayoutGeneration; // incremented when canvas positions have to be recomputed
+    private double mLastZoom;
     private WeakReference<Context> mContextRef;
     private WeakReference<PDFViewCtrl> mPdfViewCtrlRef;
     private WeakReference<ToolManager> mToolManagerRef;
-    private boolean shouldRunAgain = true;
-    private boolean mCanceled;
+    private volatile boolean mCanceled;
+
+    // statistics
+    private volatile int mMaxQueueDepth;
+    private volatile int mComputedPageCount;
+    private volatile long mLastComputeTime;
+    private volatile long mTotalComputeTime;
+
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            processPendingPages();
+        }
+    };
 
     public AnnotIndicatorManger(ToolManager toolManager) {
         mToolManagerRef = new WeakReference<>(toolManager);
@@ -92,15 +132,6 @@ public class AnnotIndicatorManger {
         mOutsideIndicatorBitmap = BitmapFactory.decodeResource(context.getResources(), R.drawable.indicator_outside);
         mAnnotOutsideIndicatorPaint.setAlpha((int) (.7 * 255));
         mAnnotOutsideIndicatorPaint.setColor(context.getResources().getColor(R.color.dark_gray));
-
-        (new Thread(new Runnable() {
-            public void run() {
-                while (shouldRunAgain && mContextRef.get() != null) {
-                    execute();
-                    mCanceled = false;
-                }
-            }
-        })).start();
     }
 
     /**
@@ -117,58 +148,78 @@ public class AnnotIndicatorManger {
 
         if (mLastPagePresentationMode != pdfViewCtrl.getPagePresentationMode()) {
             mLastPagePresentationMode = pdfViewCtrl.getPagePresentationMode();
-            reset(true);
+            invalidateLayout();
+        }
+        double zoom = pdfViewCtrl.getZoom();
+        if (zoom != mLastZoom) {
+            mLastZoom = zoom;
+            invalidateLayout();
         }
 
-        for (int pageNum : pdfViewCtrl.getVisiblePagesInTransition()) {
-            List<AnnotIndicator> annotIndicators;
-            synchronized (mAnnotIndicators) {
-                annotIndicators = mAnnotIndicators.get(pageNum);
+        if (mState == STATE_IS_ZOOMING) {
+            // canvas positions are not known until zooming ends
+            return;
+        }
+
+        int[] visiblePages = pdfViewCtrl.getVisiblePagesInTransition();
+        mVisiblePages = visiblePages;
+        boolean continuous = pdfViewCtrl.isContinuousPagePresentationMode(mLastPagePresentationMode);
+        for (int pageNum : visiblePages) {
+            PageIndicators indicators;
+            synchronized (mLock) {
+                indicators = mPageIndicators.get(pageNum);
+            }
+            if (indicators == null) {
+                if (mState != STATE_IS_FLUNG) {
+                    makeAnnotIndicators(pageNum);
+                }
+                continue;
+            }
+            if (indicators.mCount == 0) {
+                continue;
             }
-            if (annotIndicators == null
-                && mState != STATE_IS_FLUNG
-                && mState != STATE_IS_ZOOMING) {
-                makeAnnotIndicators(pageNum);
+            if (indicators.mLayoutGeneration != mLayoutGeneration) {
+                indicators.updateCanvasPositions(pdfViewCtrl, continuous);
+                indicators.mLayoutGeneration = mLayoutGeneration;
             }
 
-            if (annotIndicators != null) {
-                for (AnnotIndicator annotIndicator : annotIndicators) {
-                    ColorFilter filter = new PorterDuffColorFilter(annotIndicator.color, PorterDuff.Mode.SRC_IN);
-                    mAnnotInsideIndicatorPaint.setColorFilter(filter);
-                    RectF locRect = new RectF(
-                        annotIndicator.x,
-                        annotIndicator.y - mIndicatorIconSize,
-                        annotIndicator.x + mIndicatorIconSize,
-                        annotIndicator.y);
-                    if (pdfViewCtrl.isMaintainZoomEnabled()) {
-                        canvas.save();
-                        try {
-                            int dx = pdfViewCtrl.getScrollXOffsetInTools(pageNum);
-                            int dy = (pdfViewCtrl.isCurrentSlidingCanvas(pageNum) ? 0
-                                : pdfViewCtrl.getSlidingScrollY()) - pdfViewCtrl.getScrollYOffsetInTools(pageNum);
-                            canvas.translate(dx, dy);
-                            if (mCustomBitmap != null) {
-                                canvas.drawBitmap(mCustomBitmap, null, locRect, null);
-                            } else {
-                                canvas.drawBitmap(mOutsideIndicatorBitmap, null, locRect, mAnnotOutsideIndicatorPaint);
-                                canvas.drawBitmap(mInsideIndicatorBitmap, null, locRect, mAnnotInsideIndicatorPaint);
-                                canvas.drawBitmap(mOutsideIndicatorBitmap, null, locRect, mAnnotInsideIndicatorPaint);
-                            }
-                        } finally {
-                            canvas.restore();
-                        }
-                    } else {
-                        if (mCustomBitmap != null) {
-                            canvas.drawBitmap(mCustomBitmap, null, locRect, null);
-                        } else {
-                            canvas.drawBitmap(mOutsideIndicatorBitmap, null, locRect, mAnnotOutsideIndicatorPaint);
-                            canvas.drawBitmap(mInsideIndicatorBitmap, null, locRect, mAnnotInsideIndicatorPaint);
-                            canvas.drawBitmap(mOutsideIndicatorBitmap, null, locRect, mAnnotInsideIndicatorPaint);
-                        }
+            for (int i = 0; i < indicators.mCount; ++i) {
+                ColorFilter filter = new PorterDuffColorFilter(indicators.mColors[i], PorterDuff.Mode.SRC_IN);
+                mAnnotInsideIndicatorPaint.setColorFilter(filter);
+                float x = indicators.mCanvasPts[i * 2];
+                float y = indicators.mCanvasPts[i * 2 + 1];
+                RectF locRect = mLocRect;
+                locRect.set(x, y - mIndicatorIconSize, x + mIndicatorIconSize, y);
+                if (pdfViewCtrl.isMaintainZoomEnabled()) {
+                    canvas.save();
+                    try {
+                        int dx = pdfViewCtrl.getScrollXOffsetInTools(pageNum);
+                        int dy = (pdfViewCtrl.isCurrentSlidingCanvas(pageNum) ? 0
+                            : pdfViewCtrl.getSlidingScrollY()) - pdfViewCtrl.getScrollYOffsetInTools(pageNum);
+                        canvas.translate(dx, dy);
+                        drawIndicator(canvas, locRect);
+                    } finally {
+                        canvas.restore();
                     }
+                } else {
+                    drawIndicator(canvas, locRect);
                 }
             }
         }
+
+        if (mState == STATE_IS_NORMAL && visiblePages.length > 0) {
+            prefetchNeighbors(pdfViewCtrl, visiblePages);
+        }
+    }
+
+    private void drawIndicator(Canvas canvas, RectF locRect) {
+        if (mCustomBitmap != null) {
+            canvas.drawBitmap(mCustomBitmap, null, locRect, null);
+        } else {
+            canvas.drawBitmap(mOutsideIndicatorBitmap, null, locRect, mAnnotOutsideIndicatorPaint);
+            canvas.drawBitmap(mInsideIndicatorBitmap, null, locRect, mAnnotInsideIndicatorPaint);
+            canvas.drawBitmap(mOutsideIndicatorBitmap, null, locRect, mAnnotInsideIndicatorPaint);
+        }
     }
 
     /**
@@ -231,118 +282,215 @@ public class AnnotIndicatorManger {
         }
 
         if (all) {
-            synchronized (mAnnotIndicators) {
-                mAnnotIndicators.clear();
-            }
-            synchronized (mAnnotIndicatorTaskList) {
-                mAnnotIndicatorTaskList.clear();
-            }
-
-            mCanceled = true;
-            synchronized (mPrepareAnnotIndicatorLock) {
-                mPrepareAnnotIndicatorLock.notifyAll();
+            synchronized (mLock) {
+                ++mGeneration;
+                mPageIndicators.clear();
+                mPendingPages.clear();
+                mPageVersions.clear();
             }
         } else {
-            for (int pageNum : pdfViewCtrl.getVisiblePagesInTransition()) {
-                synchronized (mAnnotIndicators) {
-                    mAnnotIndicators.remove(pageNum);
-                }
-                synchronized (mAnnotIndicatorTaskList) {
-                    mAnnotIndicatorTaskList.remove((Integer) pageNum);
+            invalidatePages(pdfViewCtrl.getVisiblePagesInTransition());
+        }
+    }
+
+    /**
+     * Notifies that the position of pages on the canvas has changed, e.g. after zooming or
+     * scrolling. Cached indicators are kept and only moved to their new canvas positions.
+     */
+    @UiThread
+    public void invalidateLayout() {
+        ++mLayoutGeneration;
+    }
+
+    /**
+     * Notifies that the annotations on the specified pages have changed, so that their
+     * indicators are computed again.
+     *
+     * @param pageNums The page numbers
+     */
+    public void invalidatePages(@NonNull Collection<Integer> pageNums) {
+        synchronized (mLock) {
+            for (Integer pageNum : pageNums) {
+                if (pageNum != null) {
+                    invalidatePageLocked(pageNum);
                 }
             }
         }
     }
 
+    private void invalidatePages(int[] pageNums) {
+        synchronized (mLock) {
+            for (int pageNum : pageNums) {
+                invalidatePageLocked(pageNum);
+            }
+        }
+    }
+
+    private void invalidatePageLocked(int pageNum) {
+        mPageIndicators.remove(pageNum);
+        mPendingPages.remove(pageNum);
+        // a page being computed is discarded when its version changes
+        mPageVersions.put(pageNum, mPageVersions.get(pageNum) + 1);
+    }
+
     /**
      * Cleans up resources.
      */
     public void cleanup() {
-        shouldRunAgain = false;
         mCanceled = true;
-        synchronized (mPrepareAnnotIndicatorLock) {
-            mPrepareAnnotIndicatorLock.notifyAll();
+        synchronized (mLock) {
+            mPendingPages.clear();
         }
+        mExecutor.shutdownNow();
     }
 
-    @UiThread
-    private void makeAnnotIndicators(int pageNum) {
-        PDFViewCtrl pdfViewCtrl = mPdfViewCtrlRef.get();
-        if (pdfViewCtrl == null) {
-            return;
+    /**
+     * @return The number of pages waiting for their indicators to be computed
+     */
+    public int getQueueDepth() {
+        synchronized (mLock) {
+            return mPendingPages.size();
         }
+    }
 
-        boolean visible = false;
-        for (int i : pdfViewCtrl.getVisiblePages()) {
-            if (i == pageNum) {
-                visible = true;
-                break;
-            }
-        }
+    /**
+     * @return The largest number of pages that were waiting at the same time
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
 
-        synchronized (mAnnotIndicatorTaskList) {
-            if (mAnnotIndicatorTaskList.contains(pageNum)) {
-                if (mAnnotIndicatorTaskList.get(0) == pageNum) {
-                    // already in process
-                    return;
-                }
+    /**
+     * @return The number of pages whose indicators have been computed
+     */
+    public int getComputedPageCount() {
+        return mComputedPageCount;
+    }
 
-                if (!visible) {
-                    // no need to change the order
-                    return;
-                }
+    /**
+     * @return The time it took to compute the indicators of the last page, in milliseconds
+     */
+    public long getLastComputeTime() {
+        return mLastComputeTime;
+    }
+
+    /**
+     * @return The average time it took to compute the indicators of a page, in milliseconds
+     */
+    public long getAverageComputeTime() {
+        int count = mComputedPageCount;
+        return count == 0 ? 0 : mTotalComputeTime / count;
+    }
 
-                // if it is visible then put it in a high priority
-                mAnnotIndicatorTaskList.remove((Integer) pageNum);
+    private void prefetchNeighbors(PDFViewCtrl pdfViewCtrl, int[] visiblePages) {
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        for (int pageNum : visiblePages) {
+            first = Math.min(first, pageNum);
+            last = Math.max(last, pageNum);
+        }
+        int pageCount = pdfViewCtrl.getPageCount();
+        for (int i = 1; i <= PREFETCH_PAGE_COUNT; ++i) {
+            if (last + i <= pageCount) {
+                makeAnnotIndicators(last + i);
+            }
+            if (first - i >= 1) {
+                makeAnnotIndicators(first - i);
             }
+        }
+    }
 
-            if (visible) {
-                // high priority
-                mAnnotIndicatorTaskList.add(0, pageNum);
-            } else {
-                // low priority
-                mAnnotIndicatorTaskList.add(pageNum);
+    private void makeAnnotIndicators(int pageNum) {
+        if (mCanceled) {
+            return;
+        }
+        synchronized (mLock) {
+            if (mPageIndicators.get(pageNum) != null || !mPendingPages.add(pageNum)) {
+                // already computed or pending, the order is decided when the page is picked
+                return;
+            }
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, mPendingPages.size());
+            if (mWorkerScheduled) {
+                return;
             }
+            mWorkerScheduled = true;
         }
-        synchronized (mPrepareAnnotIndicatorLock) {
-            mPrepareAnnotIndicatorLock.notifyAll();
+        try {
+            mExecutor.execute(mWorker);
+        } catch (Exception e) {
+            // rejected after cleanup
+            synchronized (mLock) {
+                mWorkerScheduled = false;
+            }
         }
     }
 
-    private void execute() {
-        Integer pageNum = null;
-
+    private void processPendingPages() {
         while (!isCanceled()) {
-            try {
-                while (!isCanceled()) {
-                    synchronized (mAnnotIndicatorTaskList) {
-                        if (!mAnnotIndicatorTaskList.isEmpty()) {
-                            pageNum = mAnnotIndicatorTaskList.get(0);
-                            break;
-                        }
-                    }
-                    synchronized (mPrepareAnnotIndicatorLock) {
-                        mPrepareAnnotIndicatorLock.wait();
-                    }
-                }
-
-                if (isCanceled()) {
+            int pageNum;
+            int generation;
+            int version;
+            synchronized (mLock) {
+                pageNum = pollClosestPageLocked();
+                if (pageNum < 1) {
+                    mWorkerScheduled = false;
                     return;
                 }
+                generation = mGeneration;
+                version = mPageVersions.get(pageNum);
+            }
+            prepareAnnotIndicators(pageNum, generation, version);
+        }
+        synchronized (mLock) {
+            mWorkerScheduled = false;
+        }
+    }
 
-                prepareAnnotIndicators(pageNum);
-            } catch (InterruptedException ignored) {
+    /**
+     * Removes and returns the pending page closest to the visible pages.
+     *
+     * @return The page number, or 0 if no page is pending
+     */
+    private int pollClosestPageLocked() {
+        if (mPendingPages.isEmpty()) {
+            return 0;
+        }
+        int[] visiblePages = mVisiblePages;
+        int bestPage = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        Iterator<Integer> it = mPendingPages.iterator();
+        while (it.hasNext() && bestDistance > 0) {
+            int pageNum = it.next();
+            int distance = visiblePages.length == 0 ? 0 : Integer.MAX_VALUE;
+            for (int visiblePage : visiblePages) {
+                distance = Math.min(distance, Math.abs(pageNum - visiblePage));
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                bestPage = pageNum;
             }
         }
+        mPendingPages.remove(bestPage);
+        return bestPage;
+    }
+
+    private boolean isStale(int pageNum, int generation, int version) {
+        if (isCanceled()) {
+            return true;
+        }
+        synchronized (mLock) {
+            return generation != mGeneration || version != mPageVersions.get(pageNum);
+        }
     }
 
-    private void prepareAnnotIndicators(final Integer pageNumI) {
+    private void prepareAnnotIndicators(final int pageNum, int generation, int version) {
         PDFViewCtrl pdfViewCtrl = mPdfViewCtrlRef.get();
         if (pdfViewCtrl == null) {
             return;
         }
 
-        final int pageNum = pageNumI;
+        long startTime = SystemClock.uptimeMillis();
+        PageIndicators indicators = new PageIndicators(pageNum);
         boolean shouldUnlockRead = false;
         try {
             pdfViewCtrl.docLockRead();
@@ -351,22 +499,15 @@ public class AnnotIndicatorManger {
             if (doc == null) {
                 return;
             }
-            final List<AnnotIndicator> annotIndicatorList = new ArrayList<>();
             ArrayList<Annot> annots = pdfViewCtrl.getAnnotationsOnPage(pageNum);
             Page page = doc.getPage(pageNum);
             if (page != null && page.isValid()) {
                 for (Annot annot : annots) {
-                    if (isCanceled()) {
+                    if (isStale(pageNum, generation, version)) {
+                        // no need more processing since it's been removed
                         return;
                     }
 
-                    synchronized (mAnnotIndicatorTaskList) {
-                        if (!mAnnotIndicatorTaskList.contains(pageNumI)) {
-                            // no need more processing since it's been removed
-                            return;
-                        }
-                    }
-
                     try {
                         if (annot == null || !annot.isValid()) {
                             continue;
@@ -375,58 +516,65 @@ public class AnnotIndicatorManger {
                             continue;
                         }
 
-                        if (isCanceled()) {
+                        if (!addAnnot(pdfViewCtrl, indicators, annot, page, pageNum, generation, version)) {
                             return;
                         }
-
-                        addAnnot(pdfViewCtrl, annotIndicatorList, annot, page, pageNum);
                     } catch (PDFNetException ignored) {
                         // this annotation has some problem, let's skip it and continue with others
                     }
                 }
             }
-
-            boolean invalidate = false;
-            synchronized (mAnnotIndicatorTaskList) {
-                if (mAnnotIndicatorTaskList.contains(pageNum)) {
-                    mAnnotIndicatorTaskList.remove(pageNumI);
-                    invalidate = true;
-                }
-            }
-            if (invalidate) {
-                pdfViewCtrl.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (isCanceled()) {
-                            return;
-                        }
-                        PDFViewCtrl pdfViewCtrl = mPdfViewCtrlRef.get();
-                        if (pdfViewCtrl == null) {
-                            return;
-                        }
-                        synchronized (mAnnotIndicators) {
-                            mAnnotIndicators.put(pageNum, annotIndicatorList);
-                        }
-                        pdfViewCtrl.invalidate();
-                    }
-                });
-            }
         } catch (PDFNetException e) {
             AnalyticsHandlerAdapter.getInstance().sendException(e);
+            return;
         } finally {
             if (shouldUnlockRead) {
                 pdfViewCtrl.docUnlockRead();
             }
         }
+
+        synchronized (mLock) {
+            if (generation != mGeneration || version != mPageVersions.get(pageNum)) {
+                return;
+            }
+            mPageIndicators.put(pageNum, indicators);
+        }
+
+        long computeTime = SystemClock.uptimeMillis() - startTime;
+        mLastComputeTime = computeTime;
+        mTotalComputeTime += computeTime;
+        ++mComputedPageCount;
+        if (sDebug) Log.d(TAG, "page " + pageNum + ": " + indicators.mCount + " indicators in " + computeTime + "ms");
+
+        if (indicators.mCount > 0) {
+            pdfViewCtrl.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isCanceled()) {
+                        return;
+                    }
+                    PDFViewCtrl pdfViewCtrl = mPdfViewCtrlRef.get();
+                    if (pdfViewCtrl != null) {
+                        pdfViewCtrl.invalidate();
+                    }
+                }
+            });
+        }
     }
 
-    private void addAnnot(PDFViewCtrl pdfViewCtrl,
-                          List<AnnotIndicator> annotList,
-                          Annot annot,
-                          Page page,
-                          int pageNum) throws PDFNetException {
+    /**
+     * Adds the position of the indicator of an annotation, in page space.
+     *
+     * @return False if the task is no longer needed
+     */
+    private boolean addAnnot(PDFViewCtrl pdfViewCtrl,
+                             PageIndicators indicators,
+                             Annot annot,
+                             Page page,
+                             int pageNum,
+                             int generation,
+                             int version) throws PDFNetException {
         com.pdftron.pdf.Rect rect = pdfViewCtrl.getPageRectForAnnot(annot, pageNum);
-        double[] point;
         double x1, y1, x2, y2;
         x1 = rect.getX1();
         x2 = rect.getX2();
@@ -539,15 +687,12 @@ public class AnnotIndicatorManger {
                 }
 
                 for (int pathIndex = 0, cnt = ink.getPathCount(); pathIndex < cnt; ++pathIndex) {
-                    if (isCanceled()) {
-                        return;
+                    if (isStale(pageNum, generation, version)) {
+                        return false;
                     }
 
                     int pointCount = ink.getPointCount(pathIndex);
                     for (int pointIndex = 0; pointIndex < pointCount; ++pointIndex) {
-                        if (isCanceled()) {
-                            return;
-                        }
 
                         Point p = ink.GetPoint(pathIndex, pointIndex);
 
@@ -590,21 +735,8 @@ public class AnnotIndicatorManger {
                 break;
         }
 
-        if (pdfViewCtrl.isContinuousPagePresentationMode(pdfViewCtrl.getPagePresentationMode())) {
-            point = pdfViewCtrl.convPagePtToScreenPt(x, y, pageNum);
-            x = point[0] + pdfViewCtrl.getScrollX();
-            y = point[1] + pdfViewCtrl.getScrollY();
-        } else {
-            point = pdfViewCtrl.convPagePtToHorizontalScrollingPt(x, y, pageNum);
-            x = point[0];
-            y = point[1];
-        }
-
-        if (isCanceled()) {
-            return;
-        }
-
-        annotList.add(new AnnotIndicator(pageNum, Utils.colorPt2color(annot.getColorAsRGB()), (float) x, (float) y));
+        indicators.add(Utils.colorPt2color(annot.getColorAsRGB()), x, y);
+        return true;
     }
 
     private boolean shouldShowIndicator(Annot annot) {
@@ -654,16 +786,58 @@ public class AnnotIndicatorManger {
         return mCanceled || mContextRef.get() == null;
     }
 
-    private class AnnotIndicator {
-        int pageNum;
-        int color;
-        float x, y;
+    /**
+     * The indicators of a page. Positions are computed in page space in the background, and
+     * converted to canvas coordinates on the UI thread when the layout changes.
+     */
+    private static class PageIndicators {
+        final int mPageNum;
+        int mCount;
+        int[] mColors = new int[4];
+        double[] mPagePts = new double[8];
+        float[] mCanvasPts;
+        int mLayoutGeneration = -1;
+
+        PageIndicators(int pageNum) {
+            mPageNum = pageNum;
+        }
+
+        void add(int color, double x, double y) {
+            if (mCount == mColors.length) {
+                mColors = Arrays.copyOf(mColors, mCount * 2);
+                mPagePts = Arrays.copyOf(mPagePts, mCount * 4);
+            }
+            mColors[mCount] = color;
+            mPagePts[mCount * 2] = x;
+            mPagePts[mCount * 2 + 1] = y;
+            ++mCount;
+        }
 
-        AnnotIndicator(int pageNum, int color, float x, float y) {
-            this.pageNum = pageNum;
-            this.color = color;
-            this.x = x;
-            this.y = y;
+        @UiThread
+        void updateCanvasPositions(PDFViewCtrl pdfViewCtrl, boolean continuous) {
+            if (mCanvasPts == null) {
+                mCanvasPts = new float[mCount * 2];
+            }
+            for (int i = 0; i < mCount; ++i) {
+                double x = mPagePts[i * 2];
+                double y = mPagePts[i * 2 + 1];
+                double[] point;
+                if (continuous) {
+                    point = pdfViewCtrl.convPagePtToScreenPt(x, y, mPageNum);
+                    x = point[0] + pdfViewCtrl.getScrollX();
+                    y = point[1] + pdfViewCtrl.getScrollY();
+                } else {
+                    point = pdfViewCtrl.convPagePtToHorizontalScrollingPt(x, y, mPageNum);
+                    x = point[0];
+                    y = point[1];
+                }
+                mCanvasPts[i * 2] = (float) x;
+                mCanvasPts[i * 2 + 1] = (float) y;
+            }
         }
     }
+
+    public static void setDebug(boolean debug) {
+        sDebug = debug;
+    }
 }
@@ -41,6 +41,7 @@ import com.pdftron.pdf.utils.ViewerUtils;
 import com.pdftron.pdf.widget.recyclerview.ItemClickHelper;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -64,6 +65,8 @@ public class AnnotationDialogFragment extends NavigationListDialogFragment {
     protected boolean mIsReadOnly;
     protected boolean mIsRtl;
     private ArrayList<AnnotationInfo> mAnnotation;
+    // number of annotations received from mPopulateAnnotationListTask
+    private int mLoadedAnnotationCount;
     private AnnotationsAdapter mAnnotationsAdapter;
     private RecyclerView mRecyclerView;
     private PopulateAnnotationInfoListTask mPopulateAnnotationListTask;
@@ -232,6 +235,7 @@ public class AnnotationDialogFragment extends NavigationListDialogFragment {
         super.onViewCreated(view, savedInstanceState);
 
         mAnnotation = new ArrayList<>();
+        mLoadedAnnotationCount = 0;
         mAnnotationsAdapter = new AnnotationsAdapter(mAnnotation);
         mRecyclerView.setLayoutManager(new LinearLayoutManager(view.getContext()));
         mRecyclerView.setAdapter(mAnnotationsAdapter);
@@ -246,18 +250,22 @@ public class AnnotationDialogFragment extends NavigationListDialogFragment {
                         result = new ArrayList<>();
                     }
 
-                    mAnnotation.clear();
-                    mAnnotation.addAll(result);
-                    mAnnotationsAdapter.notifyDataSetChanged();
+                    // the task only appends to the result, so only add the new annotations
+                    if (result.size() > mLoadedAnnotationCount) {
+                        int positionStart = mAnnotation.size();
+                        mAnnotation.addAll(result.subList(mLoadedAnnotationCount, result.size()));
+                        mAnnotationsAdapter.notifyItemRangeInserted(positionStart, result.size() - mLoadedAnnotationCount);
+                        mLoadedAnnotationCount = result.size();
+                    }
                     if (mFab != null) {
-                        mFab.setVisibility(result.size() > 0 ? View.VISIBLE : View.GONE);
+                        mFab.setVisibility(mAnnotation.size() > 0 ? View.VISIBLE : View.GONE);
                         if (mIsReadOnly) {
                             mFab.setVisibility(View.GONE);
                         }
                     }
 
                     mEmptyTextView.setText(R.string.controls_annotation_dialog_empty);
-                    if (result.isEmpty()) {
+                    if (mAnnotation.isEmpty()) {
                         mEmptyTextView.setVisibility(View.VISIBLE);
                         mRecyclerView.setVisibility(View.GONE);
                     } else {
@@ -525,6 +533,17 @@ public class AnnotationDialogFragment extends NavigationListDialogFragment {
             public void onChanged() {
                 mCellStates = mAnnotation == null ? null : new int[mAnnotation.size()];
             }
+
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                if (mAnnotation == null) {
+                    mCellStates = null;
+                } else if (mCellStates != null && positionStart == mCellStates.length) {
+                    // appended, the states of the existing cells are still valid
+                    mCellStates = Arrays.copyOf(mCellStates, mAnnotation.size());
+                } else {
+                    mCellStates = new int[mAnnotation.size()];
+                }
+            }
         };
 
         AnnotationsAdapter(ArrayList<AnnotationInfo> objects) {
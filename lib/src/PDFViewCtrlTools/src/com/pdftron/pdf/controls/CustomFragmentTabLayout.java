@@ -351,6 +351,42 @@ public class CustomFragmentTabLayout extends TabLayout
         super.removeTab(tab);
     }
 
+    /**
+     * Removes the fragment attached to a tab that is not selected, while keeping the tab.
+     * A new fragment is created from the arguments of the tab when the tab is selected again.
+     *
+     * @param tag The tag name of the tab
+     * @return True if the fragment was removed
+     */
+    public boolean removeFragment(String tag) {
+        if (tag == null) {
+            return false;
+        }
+
+        TabInfo curTabInfo = null;
+        for (int i = 0, sz = mTabs.size(); i < sz; i++) {
+            TabInfo tabInfo = mTabs.get(i);
+            if (tabInfo.mTag.equals(tag)) {
+                curTabInfo = tabInfo;
+                break;
+            }
+        }
+
+        if (curTabInfo == null || curTabInfo.mFragment == null || curTabInfo == mLastTabInfo) {
+            return false;
+        }
+
+        if (sDebug)
+            Log.d(TAG, "remove fragment " + tag);
+
+        // remove the fragment right away so that startFragment does not find it in the manager
+        FragmentTransaction ft = mFragmentManager.beginTransaction();
+        ft.remove(curTabInfo.mFragment);
+        ft.commitNowAllowingStateLoss();
+        curTabInfo.mFragment = null;
+        return true;
+    }
+
     /**
      * Remove all fragments.
      */
@@ -12,12 +12,16 @@ import android.widget.ImageButton;
 import android.widget.Toast;
 
 import com.pdftron.pdf.PDFViewCtrl;
+import com.pdftron.pdf.TextSearch;
 import com.pdftron.pdf.tools.R;
 import com.pdftron.pdf.tools.TextHighlighter;
 import com.pdftron.pdf.tools.ToolManager;
 import com.pdftron.pdf.utils.CommonToast;
+import com.pdftron.pdf.utils.TextSearchIndex;
 import com.pdftron.pdf.utils.Utils;
 
+import java.util.Arrays;
+
 public class FindTextOverlay extends ConstraintLayout implements
     PDFViewCtrl.TextSearchListener {
 
@@ -221,10 +225,46 @@ public class FindTextOverlay extends ConstraintLayout implements
     public void findText(int pageNum) {
         if (mPdfViewCtrl != null && mSearchQuery != null && mSearchQuery.trim().length() > 0) {
             mUseFullTextResults = false;
+            int searchMode = 0;
+            if (mSearchMatchCase) {
+                searchMode |= TextSearch.e_case_sensitive;
+            }
+            if (mSearchWholeWord) {
+                searchMode |= TextSearch.e_whole_word;
+            }
+            int[] candidatePages = TextSearchIndex.getCandidatePages(mPdfViewCtrl, mSearchQuery, searchMode);
+            if (candidatePages != null) {
+                if (candidatePages.length == 0) {
+                    // the index rules out every page, no need to search
+                    CommonToast.showText(getContext(), getContext().getString(R.string.search_results_none), Toast.LENGTH_SHORT, Gravity.CENTER, 0, 0);
+                    return;
+                }
+                if (pageNum == -1) {
+                    pageNum = getNextCandidatePage(candidatePages, mPdfViewCtrl.getCurrentPage(), mSearchUp);
+                }
+            }
             mPdfViewCtrl.findText(mSearchQuery, mSearchMatchCase, mSearchWholeWord, mSearchUp, false, pageNum);
         }
     }
 
+    /**
+     * Returns the page the search should start from: -1 (continue from the current
+     * position) if the current page may contain the pattern, otherwise the nearest
+     * candidate page in the search direction, wrapping around the document.
+     */
+    private static int getNextCandidatePage(@NonNull int[] candidatePages, int currentPage, boolean searchUp) {
+        int index = Arrays.binarySearch(candidatePages, currentPage);
+        if (index >= 0) {
+            return -1;
+        }
+        int insertionPoint = -index - 1;
+        if (searchUp) {
+            return insertionPoint > 0 ? candidatePages[insertionPoint - 1] : candidatePages[candidatePages.length - 1];
+        } else {
+            return insertionPoint < candidatePages.length ? candidatePages[insertionPoint] : candidatePages[0];
+        }
+    }
+
     /**
      * Starts the TextHighlighter tool.
      */
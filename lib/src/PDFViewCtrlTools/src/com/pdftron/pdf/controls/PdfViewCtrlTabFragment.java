@@ -13,6 +13,8 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.PointF;
 import android.net.Uri;
@@ -45,6 +47,7 @@ import android.view.MotionEvent;
 import android.view.PointerIcon;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewParent;
 import android.view.ViewPropertyAnimator;
 import android.view.ViewStub;
 import android.view.inputmethod.EditorInfo;
@@ -54,6 +57,7 @@ import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -85,6 +89,7 @@ import com.pdftron.pdf.model.FreeTextCacheStruct;
 import com.pdftron.pdf.model.PdfViewCtrlTabInfo;
 import com.pdftron.pdf.tools.AnnotEdit;
 import com.pdftron.pdf.tools.AnnotEditLine;
+import com.pdftron.pdf.tools.AnnotationEventBus;
 import com.pdftron.pdf.tools.Pan;
 import com.pdftron.pdf.tools.QuickMenuItem;
 import com.pdftron.pdf.tools.R;
@@ -100,6 +105,7 @@ import com.pdftron.pdf.utils.BasicHTTPDownloadTask;
 import com.pdftron.pdf.utils.BookmarkManager;
 import com.pdftron.pdf.utils.CommonToast;
 import com.pdftron.pdf.utils.DialogGoToPage;
+import com.pdftron.pdf.utils.DocumentSaveScheduler;
 import com.pdftron.pdf.utils.FileInfoManager;
 import com.pdftron.pdf.utils.ImageMemoryCache;
 import com.pdftron.pdf.utils.PageBackButtonInfo;
@@ -110,6 +116,7 @@ import com.pdftron.pdf.utils.PdfViewCtrlTabsManager;
 import com.pdftron.pdf.utils.RecentFilesManager;
 import com.pdftron.pdf.utils.RequestCode;
 import com.pdftron.pdf.utils.ShortcutHelper;
+import com.pdftron.pdf.utils.TextSearchIndex;
 import com.pdftron.pdf.utils.Utils;
 import com.pdftron.pdf.utils.ViewerUtils;
 import com.pdftron.pdf.widget.ContentLoadingRelativeLayout;
@@ -187,6 +194,7 @@ public class PdfViewCtrlTabFragment extends Fragment implements
     protected static final float TAP_REGION_THRESHOLD = (1f / 7f);
     protected static final int HIDE_PAGE_NUMBER_INDICATOR = 5000; // 5 sec
     protected static final int MAX_CONVERSION_TIME_WITHOUT_NOTIFICATION = 20000; // 20 sec
+    private static final int VIEWER_BUFFER_COUNT = 3; // screens of rendered content kept by the viewer
 
     // UI elements
     protected ThumbnailSlider mBottomNavBar;
@@ -234,6 +242,9 @@ public class PdfViewCtrlTabFragment extends Fragment implements
 
     protected View mRootView;
     protected View mStubPDFViewCtrl;
+    // shown instead of the viewer until the document of a hibernated tab is loaded again
+    private Bitmap mPlaceholderSnapshot;
+    private ImageView mPlaceholderView;
     protected PDFViewCtrl mPdfViewCtrl;
     protected ToolManager mToolManager;
     protected PDFDoc mPdfDoc;
@@ -241,7 +252,8 @@ public class PdfViewCtrlTabFragment extends Fragment implements
     protected boolean mNonPdfDoc;
     protected boolean mIsOfficeDoc;
     protected boolean mIsOfficeDocReady;
-    protected long mLastSuccessfulSave;
+    protected volatile long mLastSuccessfulSave;
+    protected DocumentSaveScheduler mSaveScheduler;
 
     protected boolean mDocumentLoading;
     protected boolean mDocumentLoaded;
@@ -254,8 +266,10 @@ public class PdfViewCtrlTabFragment extends Fragment implements
     protected boolean mWasSavedAndClosedShown;
     protected ProgressDialog mDownloadDocumentDialog;
     protected boolean mDownloading;
+    private BasicHTTPDownloadTask mHttpDownloadTask;
     protected File mCurrentFile; // System files
     protected Uri mCurrentUriFile; // Uri files
+    protected TextSearchIndex mTextSearchIndex;
 
     protected long mOriginalFileLength = -1;
 
@@ -707,6 +721,10 @@ public class PdfViewCtrlTabFragment extends Fragment implements
             android.graphics.PorterDuff.Mode.SRC_IN);
 
         mToolManager.setAdvancedAnnotationListener(this);
+
+        if (mPlaceholderSnapshot != null) {
+            showPlaceholderView();
+        }
     }
 
     /**
@@ -757,6 +775,7 @@ public class PdfViewCtrlTabFragment extends Fragment implements
                 mDownloading = false;
                 // if file opened from openUrl and download is not done yet
                 // cancel openUrl
+                cancelHttpDownload();
                 if (mPdfViewCtrl != null) {
                     mPdfViewCtrl.closeDoc();
                 }
@@ -779,6 +798,7 @@ public class PdfViewCtrlTabFragment extends Fragment implements
         if (sDebug)
             Log.v("LifeCycle", "TabFragment.onDestroyView");
 
+        mPlaceholderView = null;
         super.onDestroyView();
     }
 
@@ -799,8 +819,20 @@ public class PdfViewCtrlTabFragment extends Fragment implements
         // remove listeners
         if (mToolManager != null) {
             mToolManager.removeAnnotationModificationListener(this);
+            mToolManager.removeAnnotationEventBatchListener(mAnnotationBatchListener);
             mToolManager.removePdfDocModificationListener(this);
             mToolManager.removeToolChangedListener(this);
+            mToolManager.setTextSearchIndex(null);
+        }
+
+        if (mSaveScheduler != null) {
+            mSaveScheduler.shutdown();
+            mSaveScheduler = null;
+        }
+
+        if (mTextSearchIndex != null) {
+            mTextSearchIndex.close();
+            mTextSearchIndex = null;
         }
 
         if (mPdfViewCtrl != null) {
@@ -1826,12 +1858,19 @@ public class PdfViewCtrlTabFragment extends Fragment implements
         }
     }
 
+    private final AnnotationEventBus.BatchListener mAnnotationBatchListener = new AnnotationEventBus.BatchListener() {
+        @Override
+        public void onAnnotationEventBatch(@NonNull AnnotationEventBus.Batch batch) {
+            onDocumentModified();
+        }
+    };
+
     /**
      * The overloaded implementation of {@link ToolManager.AnnotationModificationListener#onAnnotationsAdded(Map)}.
      **/
     @Override
     public void onAnnotationsAdded(Map<Annot, Integer> annots) {
-        handleSpecialFile();
+        // handled once per frame by mAnnotationBatchListener
     }
 
     /**
@@ -1847,7 +1886,7 @@ public class PdfViewCtrlTabFragment extends Fragment implements
      **/
     @Override
     public void onAnnotationsModified(Map<Annot, Integer> annots, Bundle extra) {
-        handleSpecialFile();
+        // handled once per frame by mAnnotationBatchListener
     }
 
     /**
@@ -1863,7 +1902,7 @@ public class PdfViewCtrlTabFragment extends Fragment implements
      **/
     @Override
     public void onAnnotationsRemoved(Map<Annot, Integer> annots) {
-        handleSpecialFile();
+        // handled once per frame by mAnnotationBatchListener
     }
 
     /**
@@ -1871,7 +1910,7 @@ public class PdfViewCtrlTabFragment extends Fragment implements
      **/
     @Override
     public void onAnnotationsRemovedOnPage(int pageNum) {
-        handleSpecialFile();
+        // handled once per frame by mAnnotationBatchListener
     }
 
     /**
@@ -1879,7 +1918,7 @@ public class PdfViewCtrlTabFragment extends Fragment implements
      **/
     @Override
     public void onAllAnnotationsRemoved() {
-        handleSpecialFile();
+        onDocumentModified();
     }
 
     /**
@@ -1887,7 +1926,7 @@ public class PdfViewCtrlTabFragment extends Fragment implements
      **/
     @Override
     public void onAnnotationAction() {
-        handleSpecialFile();
+        onDocumentModified();
     }
 
     /**
@@ -1895,7 +1934,7 @@ public class PdfViewCtrlTabFragment extends Fragment implements
      **/
     @Override
     public void onBookmarkModified() {
-        handleSpecialFile();
+        onDocumentModified();
     }
 
     /**
@@ -1903,7 +1942,7 @@ public class PdfViewCtrlTabFragment extends Fragment implements
      **/
     @Override
     public void onPagesCropped() {
-        handleSpecialFile();
+        onDocumentModified();
     }
 
     /**
@@ -1911,7 +1950,7 @@ public class PdfViewCtrlTabFragment extends Fragment implements
      **/
     @Override
     public void onPagesAdded(List<Integer> pageList) {
-        handleSpecialFile();
+        onDocumentModified();
     }
 
     /**
@@ -1919,7 +1958,7 @@ public class PdfViewCtrlTabFragment extends Fragment implements
      **/
     @Override
     public void onPagesDeleted(List<Integer> pageList) {
-        handleSpecialFile();
+        onDocumentModified();
     }
 
     /**
@@ -1927,7 +1966,7 @@ public class PdfViewCtrlTabFragment extends Fragment implements
      **/
     @Override
     public void onPagesRotated(List<Integer> pageList) {
-        handleSpecialFile();
+        onDocumentModified();
     }
 
     /**
@@ -1935,7 +1974,7 @@ public class PdfViewCtrlTabFragment extends Fragment implements
      **/
     @Override
     public void onPageMoved(int from, int to) {
-        handleSpecialFile();
+        onDocumentModified();
     }
 
     /**
@@ -2196,6 +2235,152 @@ public class PdfViewCtrlTabFragment extends Fragment implements
         return mDocumentLoaded;
     }
 
+    /**
+     * Returns a rough estimate of the memory used by the document and the viewer of this tab.
+     * Used by {@link PdfViewCtrlTabHostFragment} to decide when background tabs are hibernated.
+     *
+     * @return The estimated memory usage in bytes
+     */
+    public long getEstimatedMemoryUsage() {
+        long usage = 0;
+        if (mPdfViewCtrl != null) {
+            // rendered content of the visible area and of the pages around it
+            usage += (long) mPdfViewCtrl.getWidth() * mPdfViewCtrl.getHeight() * 4 * VIEWER_BUFFER_COUNT;
+        }
+        if (mCurrentFile != null) {
+            // the document structure grows with the file size
+            usage += mCurrentFile.length();
+        }
+        return usage;
+    }
+
+    /**
+     * Checks if this tab can be hibernated, that is, its fragment can be removed and created
+     * again later without losing any changes.
+     *
+     * @return True if this tab can be hibernated
+     */
+    public boolean canHibernate() {
+        if (mPdfViewCtrl == null || !isDocumentReady() || mDownloading || mDocumentConversion != null) {
+            return false;
+        }
+        // the tab is restored from its arguments, which still refer to the document
+        // opened first if the document was saved to another file since
+        Bundle args = getArguments();
+        if (args == null || !mTabTag.equals(args.getString(BUNDLE_TAB_TAG))
+            || mTabSource != args.getInt(BUNDLE_TAB_ITEM_SOURCE)) {
+            return false;
+        }
+        return !Utils.isDocModified(mPdfDoc);
+    }
+
+    /**
+     * Checks if the document has changes that can be undone. The undo history is lost
+     * when the tab is hibernated.
+     *
+     * @return True if the document has changes that can be undone
+     */
+    public boolean hasUndoHistory() {
+        return mToolManager != null && mToolManager.getUndoRedoManger() != null
+            && mToolManager.getUndoRedoManger().canUndo();
+    }
+
+    /**
+     * Draws the visible area of the viewer to a bitmap, which can be shown as a placeholder
+     * after the tab is hibernated. Should be called while the viewer is still visible.
+     *
+     * @param scale The scale of the bitmap relative to the viewer
+     * @return The snapshot, or null if the viewer is not ready
+     */
+    @Nullable
+    public Bitmap createSnapshot(float scale) {
+        if (mPdfViewCtrl == null || !isDocumentReady() || mIsReflowMode
+            || mPdfViewCtrl.getWidth() == 0 || mPdfViewCtrl.getHeight() == 0) {
+            return null;
+        }
+        try {
+            int width = Math.max(1, (int) (mPdfViewCtrl.getWidth() * scale));
+            int height = Math.max(1, (int) (mPdfViewCtrl.getHeight() * scale));
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+            Canvas canvas = new Canvas(bitmap);
+            canvas.scale(scale, scale);
+            mPdfViewCtrl.draw(canvas);
+            return bitmap;
+        } catch (OutOfMemoryError oom) {
+            Utils.manageOOM(mPdfViewCtrl);
+            return null;
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+            return null;
+        }
+    }
+
+    /**
+     * Sets a snapshot to show until the document is loaded, typically the snapshot taken
+     * before the tab was hibernated.
+     *
+     * @param snapshot The snapshot
+     */
+    public void setPlaceholderSnapshot(@Nullable Bitmap snapshot) {
+        mPlaceholderSnapshot = snapshot;
+        if (mRootView != null) {
+            if (snapshot != null) {
+                showPlaceholderView();
+            } else {
+                removePlaceholderView();
+            }
+        }
+    }
+
+    private void showPlaceholderView() {
+        if (!(mRootView instanceof ViewGroup) || mPlaceholderSnapshot == null) {
+            return;
+        }
+        if (mPlaceholderView == null) {
+            mPlaceholderView = new ImageView(mRootView.getContext());
+            mPlaceholderView.setScaleType(ImageView.ScaleType.FIT_XY);
+            // below the viewer and the progress view, so that the progress stays visible
+            ViewGroup rootView = (ViewGroup) mRootView;
+            int index = rootView.getChildCount();
+            View progressView = mProgressBarLayout != null ? mProgressBarLayout : rootView.findViewById(R.id.stub_progress);
+            for (View view : new View[]{mViewerHost, progressView}) {
+                int childIndex = indexOfContainingChild(rootView, view);
+                if (childIndex >= 0) {
+                    index = Math.min(index, childIndex);
+                }
+            }
+            rootView.addView(mPlaceholderView, index,
+                new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        }
+        mPlaceholderView.setImageBitmap(mPlaceholderSnapshot);
+    }
+
+    /**
+     * @return The index of the child of the parent that is or contains the view, or -1 if the view
+     * is not in the parent
+     */
+    private static int indexOfContainingChild(@NonNull ViewGroup parent, @Nullable View view) {
+        while (view != null) {
+            ViewParent viewParent = view.getParent();
+            if (viewParent == parent) {
+                return parent.indexOfChild(view);
+            }
+            view = viewParent instanceof View ? (View) viewParent : null;
+        }
+        return -1;
+    }
+
+    private void removePlaceholderView() {
+        mPlaceholderSnapshot = null;
+        if (mPlaceholderView != null) {
+            ViewGroup parent = (ViewGroup) mPlaceholderView.getParent();
+            if (parent != null) {
+                parent.removeView(mPlaceholderView);
+            }
+            mPlaceholderView = null;
+        }
+    }
+
     /**
      * Updates the view mode.
      *
@@ -2488,6 +2673,7 @@ public class PdfViewCtrlTabFragment extends Fragment implements
                 if (mDownloadDocumentDialog != null && mDownloadDocumentDialog.isShowing()) {
                     mDownloadDocumentDialog.dismiss();
                 }
+                cancelHttpDownload();
                 handleOpeningDocumentFailed(PdfDocManager.DOCUMENT_SETDOC_ERROR_OPENURL_CANCELLED);
             }
         });
@@ -2630,6 +2816,8 @@ public class PdfViewCtrlTabFragment extends Fragment implements
         }
         mToolManager = toolManagerBuilder.build(this);
         mToolManager.addToolChangedListener(this);
+        // a save is scheduled once per frame rather than for every annotation event
+        mToolManager.addAnnotationEventBatchListener(mAnnotationBatchListener, false);
         mToolManager.setNightMode(isNightModeForToolManager());
         mToolManager.setCacheFileName(mTabTag);
         mToolManager.setAnnotationToolbarListener(new ToolManager.AnnotationToolbarListener() {
@@ -3757,6 +3945,21 @@ public class PdfViewCtrlTabFragment extends Fragment implements
         return mIsRtlMode;
     }
 
+    /**
+     * Starts building the full-text index of a local document in the background
+     * so that repeated searches only need to search the pages that may match.
+     */
+    protected void startTextSearchIndex() {
+        if (mTextSearchIndex != null || mToolManager == null || mPdfViewCtrl == null
+            || mTabSource != BaseFileInfo.FILE_TYPE_FILE
+            || mCurrentFile == null || !mCurrentFile.isFile()) {
+            return;
+        }
+        mTextSearchIndex = new TextSearchIndex(mPdfViewCtrl, mCurrentFile);
+        mToolManager.setTextSearchIndex(mTextSearchIndex);
+        mTextSearchIndex.startIndexing();
+    }
+
     protected void doDocumentLoaded() {
         Activity activity = getActivity();
         if (activity == null || mPdfViewCtrl == null) {
@@ -3914,6 +4117,8 @@ public class PdfViewCtrlTabFragment extends Fragment implements
             }
         }
 
+        startTextSearchIndex();
+
         if (mImageStampDelayCreation) {
             mImageStampDelayCreation = false;
             ViewerUtils.createImageStamp(activity, mAnnotIntentData, mPdfViewCtrl, mOutputFileUri, mAnnotTargetPoint);
@@ -4030,6 +4235,11 @@ public class PdfViewCtrlTabFragment extends Fragment implements
         if (isNotPdf()) {
             return;
         }
+        if (mSaveScheduler != null) {
+            // any pending changes are saved right away below, after a running
+            // background save releases the save lock
+            mSaveScheduler.flush();
+        }
         synchronized (saveDocumentLock) {
             if (mDocumentConversion == null && Utils.isDocModified(mPdfDoc)) {
                 switch (mDocumentState) {
@@ -4073,6 +4283,106 @@ public class PdfViewCtrlTabFragment extends Fragment implements
         }
     }
 
+    /**
+     * Handles when the document has been modified: warns the user if the document
+     * cannot be saved, otherwise schedules a save in the background.
+     */
+    protected void onDocumentModified() {
+        if (handleSpecialFile() || mPdfViewCtrl == null) {
+            return;
+        }
+        if (mSaveScheduler == null) {
+            mSaveScheduler = new DocumentSaveScheduler(mPdfViewCtrl, saveDocumentLock, mSaveCallback);
+        }
+        mSaveScheduler.notifyModified();
+    }
+
+    private final DocumentSaveScheduler.SaveCallback mSaveCallback = new DocumentSaveScheduler.SaveCallback() {
+        @Override
+        public boolean canSave() {
+            if (mPdfViewCtrl == null || mPdfDoc == null || isNotPdf() || mDocumentConversion != null) {
+                return false;
+            }
+            switch (mDocumentState) {
+                case PdfDocManager.DOCUMENT_STATE_CLEAN:
+                case PdfDocManager.DOCUMENT_STATE_NORMAL:
+                case PdfDocManager.DOCUMENT_STATE_MODIFIED:
+                    break;
+                default:
+                    return false;
+            }
+            boolean canSave;
+            switch (mTabSource) {
+                case BaseFileInfo.FILE_TYPE_FILE:
+                case BaseFileInfo.FILE_TYPE_EDIT_URI:
+                    canSave = mCurrentFile != null && !Utils.isNotPdf(mCurrentFile.getAbsolutePath());
+                    break;
+                case BaseFileInfo.FILE_TYPE_EXTERNAL:
+                    canSave = mCurrentUriFile != null;
+                    break;
+                default:
+                    canSave = false;
+                    break;
+            }
+            if (canSave && mToolManager.getUndoRedoManger() != null) {
+                mToolManager.getUndoRedoManger().takeUndoSnapshotForSafety();
+            }
+            return canSave;
+        }
+
+        @Override
+        public long onSave() throws Exception {
+            return saveIncremental();
+        }
+
+        @Override
+        public void onSaveFinished() {
+            // the document state is updated by saveIncremental while holding the save lock
+        }
+
+        @Override
+        public void onSaveFailed(@NonNull Exception e) {
+            handleFailedSave(false, e);
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        }
+    };
+
+    /**
+     * Saves the changes to the document incrementally. Called by the save scheduler
+     * on its own thread while the save lock and the document are locked.
+     *
+     * @return The number of bytes written, or -1 if unknown
+     * @throws Exception if the document could not be saved
+     */
+    protected long saveIncremental() throws Exception {
+        synchronized (saveDocumentLock) {
+            PDFDoc doc = mPdfDoc;
+            if (doc == null || !doc.isModified()) {
+                return 0;
+            }
+            long bytesWritten = -1;
+            if (mTabSource == BaseFileInfo.FILE_TYPE_EXTERNAL) {
+                if (sDebug) Log.d(TAG, "save external file in background");
+                doc.save();
+            } else {
+                if (sDebug) Log.d(TAG, "save local file in background");
+                File file = mCurrentFile;
+                long lengthBefore = file.length();
+                doc.save(file.getAbsolutePath(), SDFDoc.SaveMode.INCREMENTAL, null);
+                bytesWritten = file.length() - lengthBefore;
+            }
+            mLastSuccessfulSave = System.currentTimeMillis();
+            // update the state before the save lock is released, so that a synchronous
+            // save that follows sees the document as saved
+            checkDocIntegrity();
+            if (mDocumentState == PdfDocManager.DOCUMENT_STATE_CLEAN
+                || mDocumentState == PdfDocManager.DOCUMENT_STATE_MODIFIED) {
+                mDocumentState = PdfDocManager.DOCUMENT_STATE_NORMAL;
+            }
+            return bytesWritten;
+        }
+    }
+
     protected void handleFailedSave(boolean close, Exception e) {
         Activity activity = getActivity();
         if (activity == null) {
@@ -4845,6 +5155,8 @@ public class PdfViewCtrlTabFragment extends Fragment implements
                 BasicHTTPDownloadTask.BasicHTTPDownloadTaskListener downListener = new BasicHTTPDownloadTask.BasicHTTPDownloadTaskListener() {
                     @Override
                     public void onDownloadTask(Boolean pass, File saveFile) {
+                        mHttpDownloadTask = null;
+                        mDownloading = false;
                         if (mDownloadDocumentDialog != null && mDownloadDocumentDialog.isShowing()) {
                             mDownloadDocumentDialog.dismiss();
                         }
@@ -4865,7 +5177,21 @@ public class PdfViewCtrlTabFragment extends Fragment implements
                 File saveFile = new File(backupDir, FilenameUtils.getName(tag));
                 saveFile = new File(Utils.getFileNameNotInUse(saveFile.getAbsolutePath()));
                 mCurrentFile = saveFile;
-                new BasicHTTPDownloadTask(activity, downListener, tag, saveFile).execute();
+                cancelHttpDownload();
+                mHttpDownloadTask = new BasicHTTPDownloadTask(activity, downListener, tag, saveFile);
+                mHttpDownloadTask.setProgressListener(new BasicHTTPDownloadTask.BasicHTTPDownloadProgressListener() {
+                    @Override
+                    public void onDownloadProgress(long downloaded, long total) {
+                        if (mDownloadDocumentDialog != null && mDownloadDocumentDialog.isShowing() && total > 0 && isAdded()) {
+                            int percent = (int) (Math.min(downloaded, total) * 100 / total);
+                            mDownloadDocumentDialog.setMessage(getString(R.string.download_progress_message, percent));
+                        }
+                    }
+                });
+                mHttpDownloadTask.execute();
+                mDownloading = true;
+                mDownloadDocumentDialog.setMessage(getString(R.string.download_in_progress_message));
+                mDownloadDocumentDialog.show();
             } else {
                 String cacheFile = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS)
                     + File.separator + getUrlEncodedTabFilename();
@@ -4888,6 +5214,14 @@ public class PdfViewCtrlTabFragment extends Fragment implements
         }
     }
 
+    private void cancelHttpDownload() {
+        if (mHttpDownloadTask != null) {
+            mHttpDownloadTask.cancel(true);
+            mHttpDownloadTask.cancelDownload();
+            mHttpDownloadTask = null;
+        }
+    }
+
     protected void openOfficeDoc(String tag, boolean isUri) {
         openOfficeDoc(tag, isUri, null);
     }
@@ -5296,6 +5630,7 @@ public class PdfViewCtrlTabFragment extends Fragment implements
     }
 
     protected void handleOpeningDocumentFailed(int errorCode, String info) {
+        removePlaceholderView();
         mDocumentLoading = false;
         mCanAddToTabInfo = false;
         mErrorOnOpeningDocument = true;
@@ -6527,6 +6862,9 @@ public class PdfViewCtrlTabFragment extends Fragment implements
     }
 
     protected void toggleViewerVisibility(boolean visible) {
+        if (visible) {
+            removePlaceholderView();
+        }
         if (mIsReflowMode) {
             return;
         }
@@ -8,11 +8,13 @@ package com.pdftron.pdf.controls;
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.res.ColorStateList;
 import android.content.res.Configuration;
+import android.graphics.Bitmap;
 import android.graphics.PointF;
 import android.graphics.PorterDuff;
 import android.net.Uri;
@@ -21,6 +23,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.CallSuper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -40,6 +43,7 @@ import android.support.v7.content.res.AppCompatResources;
 import android.support.v7.widget.Toolbar;
 import android.text.Html;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.SparseBooleanArray;
 import android.view.Gravity;
 import android.view.KeyEvent;
@@ -103,6 +107,10 @@ import org.apache.commons.io.FilenameUtils;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -142,6 +150,8 @@ public class PdfViewCtrlTabHostFragment extends Fragment implements
 
     private static final String KEY_IS_SEARCH_MODE = "is_search_mode";
 
+    private static final float TAB_SNAPSHOT_SCALE = 0.5f;
+
     public static final int ANIMATE_DURATION_SHOW = 250;
     public static final int ANIMATE_DURATION_HIDE = 250;
 
@@ -183,6 +193,21 @@ public class PdfViewCtrlTabHostFragment extends Fragment implements
     private boolean mAutoCropTaskPaused;
     private String mAutoCropTaskTabTag;
 
+    // tab hibernation: the fragments of background tabs are removed once the estimated
+    // memory usage of open documents exceeds the budget, and created again when selected
+    private long mTabMemoryBudget;
+    private final HashMap<String, Long> mTabLastSelectedTime = new HashMap<>();
+    private final HashSet<String> mHibernatedTabs = new HashSet<>();
+    private final HashMap<String, Long> mRestoringTabs = new HashMap<>();
+    private LruCache<String, Bitmap> mTabSnapshots;
+    private Handler mHibernateTabsHandler = new Handler(Looper.getMainLooper());
+    private Runnable mHibernateTabsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            hibernateBackgroundTabs(false);
+        }
+    };
+
     // UI elements
     protected SearchResultsView mSearchResultsView;
     protected boolean mIsSearchMode;
@@ -514,9 +539,27 @@ public class PdfViewCtrlTabHostFragment extends Fragment implements
 
         PdfViewCtrlTabsManager.getInstance().cleanup();
 
+        mHibernateTabsHandler.removeCallbacks(mHibernateTabsRunnable);
+        if (mTabSnapshots != null) {
+            mTabSnapshots.evictAll();
+        }
+
         super.onDestroy();
     }
 
+    /**
+     * The overload implementation of {@link Fragment#onLowMemory()}.
+     */
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+
+        hibernateBackgroundTabs(true);
+        if (mTabSnapshots != null) {
+            mTabSnapshots.evictAll();
+        }
+    }
+
     /**
      * The overload implementation of {@link Fragment#onSaveInstanceState(Bundle)}.
      */
@@ -1195,6 +1238,16 @@ public class PdfViewCtrlTabHostFragment extends Fragment implements
      */
     @Override
     public void onTabDocumentLoaded(String tag) {
+        Long restoreStartTime = mRestoringTabs.remove(tag);
+        if (restoreStartTime != null) {
+            long time = SystemClock.uptimeMillis() - restoreStartTime;
+            // a new snapshot is taken when the tab is unselected
+            boolean hasPlaceholder = mTabSnapshots != null && mTabSnapshots.remove(tag) != null;
+            if (sDebug) Log.d(TAG, "restored tab " + tag + " in " + time + "ms");
+            AnalyticsHandlerAdapter.getInstance().sendEvent(AnalyticsHandlerAdapter.EVENT_TAB_RESTORE,
+                AnalyticsParam.tabRestoreParam(time, hasPlaceholder));
+        }
+
         setToolbarsVisible(true, false);
 
         // update print summary annotations modes
@@ -1816,6 +1869,7 @@ public class PdfViewCtrlTabHostFragment extends Fragment implements
         if (closedTab != null) {
             mTabLayout.removeTab(closedTab);
         }
+        forgetTab(filepath);
 
         // selecting and removing tabs in one UI thread run may result in undesired behavior;
         // for example, if closedTab has lower index compared to nextTabTagToSelect then the tab
@@ -1921,6 +1975,191 @@ public class PdfViewCtrlTabHostFragment extends Fragment implements
             if (removedTab != null) {
                 mTabLayout.removeTab(removedTab);
             }
+            forgetTab(removedTabTag);
+        }
+
+        scheduleTabHibernation();
+    }
+
+    /**
+     * Sets the memory budget of open documents. Once the estimated memory usage of open tabs
+     * exceeds the budget, background tabs are hibernated, least recently selected first:
+     * their document is saved and closed, and opened again when the tab is selected.
+     * By default, half of the memory class of the device.
+     *
+     * @param budget The budget in bytes, or 0 to use the default budget
+     */
+    public void setTabMemoryBudget(long budget) {
+        mTabMemoryBudget = budget;
+        scheduleTabHibernation();
+    }
+
+    /**
+     * Returns the memory budget of open documents.
+     *
+     * @return The budget in bytes
+     * @see #setTabMemoryBudget(long)
+     */
+    public long getTabMemoryBudget() {
+        if (mTabMemoryBudget > 0) {
+            return mTabMemoryBudget;
+        }
+        int memoryClass = 64;
+        Activity activity = getActivity();
+        if (activity != null) {
+            ActivityManager activityManager = (ActivityManager) activity.getSystemService(Context.ACTIVITY_SERVICE);
+            if (activityManager != null) {
+                memoryClass = activityManager.getMemoryClass();
+            }
+        }
+        return memoryClass * 1024L * 1024L / 2;
+    }
+
+    /**
+     * Checks if a tab is hibernated, that is, its document is closed until it is selected.
+     *
+     * @param tag The tab tag
+     * @return True if the tab is hibernated
+     */
+    public boolean isTabHibernated(String tag) {
+        return mHibernatedTabs.contains(tag);
+    }
+
+    private void scheduleTabHibernation() {
+        // after the pending fragment transactions of the tab layout are executed
+        mHibernateTabsHandler.removeCallbacks(mHibernateTabsRunnable);
+        mHibernateTabsHandler.post(mHibernateTabsRunnable);
+    }
+
+    /**
+     * Hibernates background tabs until the estimated memory usage of open tabs fits the budget.
+     * Tabs without undo history are hibernated first, as the undo history is lost.
+     *
+     * @param all True if all background tabs should be hibernated regardless of the budget
+     */
+    protected void hibernateBackgroundTabs(boolean all) {
+        if (mTabLayout == null || getActivity() == null || mTabLayout.getTabCount() < 2) {
+            return;
+        }
+
+        String currentTabTag = getCurrentTabTag();
+        long usage = 0;
+        ArrayList<PdfViewCtrlTabFragment> candidates = new ArrayList<>();
+        final HashMap<PdfViewCtrlTabFragment, Long> fragmentUsages = new HashMap<>();
+        final HashMap<PdfViewCtrlTabFragment, Boolean> fragmentUndoHistories = new HashMap<>();
+        for (Fragment fragment : mTabLayout.getLiveFragments()) {
+            if (!(fragment instanceof PdfViewCtrlTabFragment)) {
+                continue;
+            }
+            PdfViewCtrlTabFragment tabFragment = (PdfViewCtrlTabFragment) fragment;
+            long fragmentUsage = tabFragment.getEstimatedMemoryUsage();
+            usage += fragmentUsage;
+            String tag = tabFragment.getTabTag();
+            if (tag != null && !tag.equals(currentTabTag) && tabFragment.canHibernate()) {
+                candidates.add(tabFragment);
+                fragmentUsages.put(tabFragment, fragmentUsage);
+                fragmentUndoHistories.put(tabFragment, tabFragment.hasUndoHistory());
+            }
+        }
+
+        long budget = getTabMemoryBudget();
+        if (candidates.isEmpty() || (!all && usage <= budget)) {
+            return;
+        }
+
+        Collections.sort(candidates, new Comparator<PdfViewCtrlTabFragment>() {
+            @Override
+            public int compare(PdfViewCtrlTabFragment lhs, PdfViewCtrlTabFragment rhs) {
+                boolean lhsUndo = fragmentUndoHistories.get(lhs);
+                boolean rhsUndo = fragmentUndoHistories.get(rhs);
+                if (lhsUndo != rhsUndo) {
+                    return lhsUndo ? 1 : -1;
+                }
+                long lhsTime = getTabLastSelectedTime(lhs.getTabTag());
+                long rhsTime = getTabLastSelectedTime(rhs.getTabTag());
+                return lhsTime < rhsTime ? -1 : (lhsTime == rhsTime ? 0 : 1);
+            }
+        });
+
+        int liveTabCount = fragmentUsages.size() + 1;
+        for (PdfViewCtrlTabFragment candidate : candidates) {
+            if (!all && usage <= budget) {
+                break;
+            }
+            String tag = candidate.getTabTag();
+            long startTime = SystemClock.uptimeMillis();
+            if (!mTabLayout.removeFragment(tag)) {
+                continue;
+            }
+            long time = SystemClock.uptimeMillis() - startTime;
+            long fragmentUsage = fragmentUsages.get(candidate);
+            usage -= fragmentUsage;
+            --liveTabCount;
+            mHibernatedTabs.add(tag);
+            if (sDebug) Log.d(TAG, "hibernated tab " + tag + " in " + time + "ms, estimated usage "
+                + (usage / 1024) + "KB of " + (budget / 1024) + "KB");
+            AnalyticsHandlerAdapter.getInstance().sendEvent(AnalyticsHandlerAdapter.EVENT_TAB_HIBERNATE,
+                AnalyticsParam.tabHibernateParam(time, fragmentUsage, liveTabCount));
+        }
+    }
+
+    private long getTabLastSelectedTime(String tag) {
+        Long time = mTabLastSelectedTime.get(tag);
+        return time == null ? 0 : time;
+    }
+
+    private void saveTabSnapshot(String tag, Fragment fragment) {
+        if (!(fragment instanceof PdfViewCtrlTabFragment) || mTabLayout.getTabCount() < 2) {
+            return;
+        }
+        PdfViewCtrlTabFragment tabFragment = (PdfViewCtrlTabFragment) fragment;
+        if (!tabFragment.canHibernate() || !isNearTabMemoryBudget(tabFragment.getEstimatedMemoryUsage())) {
+            // the tab is not expected to be hibernated, and an older snapshot may be out of date
+            if (mTabSnapshots != null) {
+                mTabSnapshots.remove(tag);
+            }
+            return;
+        }
+        if (mTabSnapshots == null) {
+            mTabSnapshots = new LruCache<String, Bitmap>((int) (Runtime.getRuntime().maxMemory() / 32)) {
+                @Override
+                protected int sizeOf(String key, Bitmap value) {
+                    return value.getRowBytes() * value.getHeight();
+                }
+            };
+        }
+        Bitmap snapshot = tabFragment.createSnapshot(TAB_SNAPSHOT_SCALE);
+        if (snapshot != null) {
+            mTabSnapshots.put(tag, snapshot);
+        } else {
+            mTabSnapshots.remove(tag);
+        }
+    }
+
+    /**
+     * @param tabUsage The estimated memory usage of a tab
+     * @return True if another tab of this usage would not fit the memory budget of open tabs,
+     * in which case background tabs are about to be hibernated
+     */
+    private boolean isNearTabMemoryBudget(long tabUsage) {
+        long usage = 0;
+        for (Fragment fragment : mTabLayout.getLiveFragments()) {
+            if (fragment instanceof PdfViewCtrlTabFragment) {
+                usage += ((PdfViewCtrlTabFragment) fragment).getEstimatedMemoryUsage();
+            }
+        }
+        return usage + tabUsage > getTabMemoryBudget();
+    }
+
+    private void forgetTab(String tag) {
+        if (tag == null) {
+            return;
+        }
+        mTabLastSelectedTime.remove(tag);
+        mHibernatedTabs.remove(tag);
+        mRestoringTabs.remove(tag);
+        if (mTabSnapshots != null) {
+            mTabSnapshots.remove(tag);
         }
     }
 
@@ -2226,6 +2465,16 @@ public class PdfViewCtrlTabHostFragment extends Fragment implements
         String tabTag = (String) tab.getTag();
         if (tabTag != null) {
             setFragmentListeners(mTabLayout.getFragmentByTag(tabTag));
+
+            mTabLastSelectedTime.put(tabTag, SystemClock.uptimeMillis());
+            if (mHibernatedTabs.remove(tabTag)) {
+                // the fragment was just created again, show the last snapshot until the document is loaded
+                Bitmap snapshot = mTabSnapshots != null ? mTabSnapshots.get(tabTag) : null;
+                currentFragment.setPlaceholderSnapshot(snapshot);
+                mRestoringTabs.put(tabTag, SystemClock.uptimeMillis());
+                if (sDebug) Log.d(TAG, "restoring tab " + tabTag + (snapshot != null ? " with" : " without") + " placeholder");
+            }
+            scheduleTabHibernation();
         }
 
         if (mTabHostListeners != null && mCurTabIndex != -1 && mCurTabIndex != tab.getPosition()) {
@@ -2272,7 +2521,10 @@ public class PdfViewCtrlTabHostFragment extends Fragment implements
         }
         String tabTag = (String) tab.getTag();
         if (tabTag != null) {
-            removeFragmentListeners(mTabLayout.getFragmentByTag(tabTag));
+            Fragment fragment = mTabLayout.getFragmentByTag(tabTag);
+            // the viewer is still visible, keep a snapshot in case the tab is hibernated
+            saveTabSnapshot(tabTag, fragment);
+            removeFragmentListeners(fragment);
         }
     }
 
@@ -376,6 +376,26 @@ public class ReflowControl extends ViewPager implements ReflowPagerAdapter.Reflo
         }
     }
 
+    /**
+     * Sets the number of pages before and after the current page whose reflow output
+     * is prepared in advance.
+     *
+     * @param count The number of pages to prefetch in each direction
+     *
+     * @throws PDFNetException if ReflowControl has not been set up.
+     * See {@link #setup(PDFDoc)} and {@link #setup(PDFDoc, OnPostProcessColorListener)}.
+     */
+    public void setPrefetchPageCount(int count) throws PDFNetException {
+        if (mReflowPagerAdapter == null) {
+            String name = new Object() {
+            }.getClass().getEnclosingMethod().getName();
+            Log.e(TAG, name + ": " + THROW_MESSAGE);
+            throw new PDFNetException("", 0, TAG, name, THROW_MESSAGE);
+        } else {
+            mReflowPagerAdapter.setPrefetchPageCount(count);
+        }
+    }
+
     /**
      * Zooms in.
      *
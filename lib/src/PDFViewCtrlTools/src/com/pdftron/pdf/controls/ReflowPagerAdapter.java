@@ -15,6 +15,7 @@ import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Message;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.view.PagerAdapter;
 import android.support.v4.view.ViewPager;
 import android.util.Log;
@@ -43,6 +44,11 @@ import com.pdftron.pdf.utils.Utils;
 
 import java.io.File;
 import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Vector;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -64,6 +70,13 @@ public class ReflowPagerAdapter extends PagerAdapter
 
     private static final float TAP_REGION_THRESHOLD = (1f / 7f);
 
+    private static final int DEFAULT_PREFETCH_PAGE_COUNT = 2;
+    private static final long DEFAULT_HTML_CACHE_SIZE = 16 * 1024 * 1024; // 16 MB
+
+    private static final String DAY_MODE_KEY = "day";
+    private static final String NIGHT_MODE_KEY = "night";
+    private static final String CUSTOM_MODE_KEY = "custom";
+
     private enum ColorMode {
         DayMode,
         NightMode,
@@ -76,8 +89,14 @@ public class ReflowPagerAdapter extends PagerAdapter
     private PDFDoc mDoc;
     private int mPageCount;
     private ViewPager mViewPager; // need it to get current page
-    private SparseArray<String> mReflowFiles;
     private SparseArray<ReflowWebView> mViewHolders;
+    private final ReflowHtmlCache mHtmlCache = new ReflowHtmlCache(DEFAULT_HTML_CACHE_SIZE);
+    // requests for reflow output that have not been received yet, keyed by cache key
+    private final HashMap<String, ReflowRequest> mPendingRequests = new HashMap<>();
+    // object numbers of pages by page position, 0 if not known yet
+    private long[] mPageObjNums = new long[0];
+    private int mPrefetchPageCount = DEFAULT_PREFETCH_PAGE_COUNT;
+    private int mLastPrefetchPosition = -1;
     private boolean mIsRtlMode;
     private boolean mDoTurnPageOnTap;
     private boolean mIsInternalLinkClicked = false;
@@ -153,24 +172,26 @@ public class ReflowPagerAdapter extends PagerAdapter
             if (ctrl != null) {
                 Vector<?> params = (Vector<?>) msg.obj;
                 final RequestHandler.JobRequestResult result = (RequestHandler.JobRequestResult) params.elementAt(0);
-                String outFilename = (String) params.elementAt(1);
-                final Object customData = params.elementAt(2);
+                final String outFilename = (String) params.elementAt(1);
+                final ReflowRequest request = (ReflowRequest) params.elementAt(2);
 
-                if (ctrl.mColorMode == ColorMode.CustomMode || ctrl.mColorMode == ColorMode.NightMode) {
+                if (result == RequestHandler.JobRequestResult.FINISHED && !DAY_MODE_KEY.equals(request.mColorKey)) {
+                    // each color mode has its own output so that switching modes can reuse it
                     HtmlPostProcessColorTask task = new HtmlPostProcessColorTask(ctrl.mContext, outFilename);
+                    task.setOutputFileSuffix("-" + request.mColorKey);
                     task.setOnPostProcessColorListener(ctrl.mOnPostProcessColorListener);
                     task.setCallback(new HtmlPostProcessColorTask.Callback() {
                         @Override
                         public void onPostProcessColorFinished(@NonNull HtmlPostProcessColorTask htmlPostProcessColorTask, String outputFilename) {
-                            Log.d(TAG, "update reflow of page #" + (1 + (int) customData));
-                            ctrl.updateReflow(result, outputFilename, customData);
+                            if (sDebug) Log.d(TAG, "update reflow of page #" + (1 + request.mPagePosition));
+                            ctrl.updateReflow(result, request, outputFilename, outFilename);
                             ctrl.mHtmlPostProcessColorTasks.remove(htmlPostProcessColorTask);
                         }
                     });
                     ctrl.mHtmlPostProcessColorTasks.add(task);
                     task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
                 } else {
-                    ctrl.updateReflow(result, outFilename, customData);
+                    ctrl.updateReflow(result, request, outFilename, null);
                 }
             }
         }
@@ -221,8 +242,8 @@ public class ReflowPagerAdapter extends PagerAdapter
             mDoc.lockRead();
             shouldUnlockRead = true;
             mPageCount = mDoc.getPageCount();
-            mReflowFiles = new SparseArray<>(mPageCount);
             mViewHolders = new SparseArray<>(mPageCount);
+            mPageObjNums = new long[mPageCount];
         } catch (PDFNetException e) {
             AnalyticsHandlerAdapter.getInstance().sendException(e);
         } finally {
@@ -239,43 +260,88 @@ public class ReflowPagerAdapter extends PagerAdapter
      * reset adapter to reload all data
      */
     private void resetAdapter() {
+        mLastPrefetchPosition = -1;
         int curPosition = mViewPager.getCurrentItem();
         mViewPager.setAdapter(this);
         mViewPager.setCurrentItem(curPosition, false);
     }
 
     /**
-     * Should be called when pages of the document have been edited
+     * Should be called when pages of the document have been edited.
+     * <p>
+     * Since reflow output is cached by page object, only the output of pages
+     * that no longer exist in the document is discarded; pages that were only
+     * moved keep their output.
      */
     public void onPagesModified() {
         if (sDebug) Log.d(TAG, "pages were modified.");
         ReflowProcessor.cancelAllRequests();
+        mPendingRequests.clear();
         mPageCount = 0;
+        mObjNumMap.clear();
+        mLastProcessedObjNum = 0;
+        HashSet<Long> objNums = new HashSet<>();
         boolean shouldUnlockRead = false;
         try {
             mDoc.lockRead();
             shouldUnlockRead = true;
             mPageCount = mDoc.getPageCount();
-            mReflowFiles = new SparseArray<>(mPageCount);
             mViewHolders = new SparseArray<>(mPageCount);
+            mPageObjNums = new long[mPageCount];
+            for (int i = 1; i <= mPageCount; ++i) {
+                long objNum = mDoc.getPage(i).getSDFObj().getObjNum();
+                mPageObjNums[i - 1] = objNum;
+                mObjNumMap.put(objNum, i);
+                objNums.add(objNum);
+            }
+            mLastProcessedObjNum = mPageCount;
+            mHtmlCache.retainPages(objNums);
         } catch (PDFNetException e) {
             AnalyticsHandlerAdapter.getInstance().sendException(e);
+            mHtmlCache.clear();
         } finally {
             if (shouldUnlockRead) {
                 Utils.unlockReadQuietly(mDoc);
             }
         }
-        mObjNumMap.clear();
-        mLastProcessedObjNum = 0;
         resetAdapter();
     }
 
+    /**
+     * Sets the number of pages before and after the current page whose reflow output
+     * is requested in advance. The default is {@value #DEFAULT_PREFETCH_PAGE_COUNT}.
+     *
+     * @param count The number of pages to prefetch in each direction
+     */
+    public void setPrefetchPageCount(int count) {
+        mPrefetchPageCount = Math.max(0, count);
+        mLastPrefetchPosition = -1;
+    }
+
+    /**
+     * @return The number of pages before and after the current page whose reflow output
+     * is requested in advance
+     */
+    public int getPrefetchPageCount() {
+        return mPrefetchPageCount;
+    }
+
+    /**
+     * Sets the maximum total size of the cached reflow output files.
+     *
+     * @param maxBytes The maximum size in bytes
+     */
+    public void setHtmlCacheSize(long maxBytes) {
+        mHtmlCache.setMaxSize(maxBytes);
+    }
+
     /**
      * Cleans up resources.
      */
     public void cleanup() {
         if (sDebug) Log.d(TAG, "Cleanup");
         ReflowProcessor.cancelAllRequests();
+        mPendingRequests.clear();
         for (HtmlPostProcessColorTask task : mHtmlPostProcessColorTasks) {
             task.cancel(true);
             task.setOnPostProcessColorListener(null);
@@ -457,17 +523,27 @@ public class ReflowPagerAdapter extends PagerAdapter
     }
 
     private void updateColorMode() {
-        // note that reflowable files can be in custom color mode, night mode or in day mode.
-        // An easy way to handle such situation is to clear everything in our cache (mReflowFiles)
-        // and request again for reflowable files from the core.
-        // It is not worst idea since core already cached the computed reflowable files so it
-        // doesn't affect much on the performance, though it is possible to handle it here with some
-        // effort. Right now we choose the easy solution.
-        mReflowFiles.clear();
-
+        // reflowable files are cached per color mode, so pages already seen in the new color mode
+        // are shown right away and the rest are requested again from the core, which has cached
+        // the computed reflowable files, and post-processed if necessary
         resetAdapter();
     }
 
+    private String getColorModeKey() {
+        switch (mColorMode) {
+            case NightMode:
+                return NIGHT_MODE_KEY;
+            case CustomMode:
+                return CUSTOM_MODE_KEY + Integer.toHexString(mBackgroundColorMode & 0xFFFFFF);
+            default:
+                return DAY_MODE_KEY;
+        }
+    }
+
+    private static String getCacheKey(long objNum, String colorKey) {
+        return objNum + "_" + colorKey;
+    }
+
     /**
      * Enables turn page on tap.
      *
@@ -580,19 +656,25 @@ public class ReflowPagerAdapter extends PagerAdapter
         ReflowWebView webView = getReflowWebView();
 
         int pagePosition = mIsRtlMode ? mPageCount - 1 - position : position;
-        String filename = mReflowFiles.get(pagePosition);
-        boolean need_load_flag = true;
-        if (filename != null) {
-            File file = new File(filename);
-            if (file.exists()) {
-                need_load_flag = false;
-                if (sDebug) Log.d(TAG, "the file at page #" + (position + 1) + " already received");
-                webView.loadUrl("file:///" + filename);
-                setTextZoom(webView);
+        String filename = null;
+        boolean shouldUnlockRead = false;
+        try {
+            mDoc.lockRead();
+            shouldUnlockRead = true;
+            filename = getReflowFileLocked(pagePosition);
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        } finally {
+            if (shouldUnlockRead) {
+                Utils.unlockReadQuietly(mDoc);
             }
         }
 
-        if (need_load_flag) {
+        if (filename != null) {
+            if (sDebug) Log.d(TAG, "the file at page #" + (position + 1) + " already received");
+            webView.loadUrl("file:///" + filename);
+            setTextZoom(webView);
+        } else {
             String loadingFile = LIGHT_MODE_LOADING_FILE;
             if (mColorMode == ColorMode.NightMode) {
                 loadingFile = NIGHT_MODE_LOADING_FILE;
@@ -606,21 +688,6 @@ public class ReflowPagerAdapter extends PagerAdapter
                 }
             }
             webView.loadUrl(loadingFile);
-            boolean shouldUnlockRead = false;
-            try {
-                // request for reflow output
-                if (sDebug) Log.d(TAG, "request for page #" + (pagePosition + 1));
-                mDoc.lockRead();
-                shouldUnlockRead = true;
-                Page page = mDoc.getPage(pagePosition + 1);
-                ReflowProcessor.getReflow(page, mRequestHandler, position);
-            } catch (Exception e) {
-                AnalyticsHandlerAdapter.getInstance().sendException(e);
-            } finally {
-                if (shouldUnlockRead) {
-                    Utils.unlockReadQuietly(mDoc);
-                }
-            }
         }
 
         FrameLayout parent = (FrameLayout) webView.getParent();
@@ -635,6 +702,86 @@ public class ReflowPagerAdapter extends PagerAdapter
         return layout;
     }
 
+    @Override
+    public void setPrimaryItem(@NonNull ViewGroup container, int position, @NonNull Object object) {
+        super.setPrimaryItem(container, position, object);
+        if (position != mLastPrefetchPosition) {
+            mLastPrefetchPosition = position;
+            prefetch(position);
+        }
+    }
+
+    /**
+     * Requests the reflow output of the pages around the current page so that
+     * they are ready by the time the user turns to them.
+     */
+    private void prefetch(int position) {
+        if (mPrefetchPageCount <= 0) {
+            return;
+        }
+        int pagePosition = mIsRtlMode ? mPageCount - 1 - position : position;
+        if (pagePosition < 0 || pagePosition >= mPageCount) {
+            return;
+        }
+        boolean shouldUnlockRead = false;
+        try {
+            mDoc.lockRead();
+            shouldUnlockRead = true;
+            for (int i = 1; i <= mPrefetchPageCount; ++i) {
+                if (pagePosition + i < mPageCount) {
+                    getReflowFileLocked(pagePosition + i);
+                }
+                if (pagePosition - i >= 0) {
+                    getReflowFileLocked(pagePosition - i);
+                }
+            }
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        } finally {
+            if (shouldUnlockRead) {
+                Utils.unlockReadQuietly(mDoc);
+            }
+        }
+    }
+
+    /**
+     * Returns the cached reflow output of a page in the current color mode, or requests
+     * it from the reflow processor if it is neither cached nor already requested.
+     * The document must be locked for reading.
+     *
+     * @param pagePosition The zero-based page position
+     * @return The cached reflow file, or null if the output has been requested
+     * or the position is out of range
+     */
+    @Nullable
+    private String getReflowFileLocked(int pagePosition) throws PDFNetException {
+        if (pagePosition < 0 || pagePosition >= mPageObjNums.length) {
+            return null;
+        }
+        Page page = null;
+        long objNum = mPageObjNums[pagePosition];
+        if (objNum == 0) {
+            page = mDoc.getPage(pagePosition + 1);
+            objNum = page.getSDFObj().getObjNum();
+            mPageObjNums[pagePosition] = objNum;
+        }
+        String colorKey = getColorModeKey();
+        String key = getCacheKey(objNum, colorKey);
+        String filename = mHtmlCache.get(key);
+        if (filename != null || mPendingRequests.containsKey(key)) {
+            return filename;
+        }
+
+        if (page == null) {
+            page = mDoc.getPage(pagePosition + 1);
+        }
+        if (sDebug) Log.d(TAG, "request for page #" + (pagePosition + 1));
+        ReflowRequest request = new ReflowRequest(pagePosition, objNum, colorKey);
+        mPendingRequests.put(key, request);
+        ReflowProcessor.getReflow(page, mRequestHandler, request);
+        return null;
+    }
+
     @Override
     public void RequestHandlerProc(RequestHandler.JobRequestResult result, String outFilename, Object customData) {
         // this function is called in a background thread, but update reflow should be done in the UI thread
@@ -649,18 +796,30 @@ public class ReflowPagerAdapter extends PagerAdapter
         msg.sendToTarget();
     }
 
-    private void updateReflow(RequestHandler.JobRequestResult result, final String outFilename, Object customData) {
-        final int position = (int) customData;
-        int pagePosition = mIsRtlMode ? mPageCount - 1 - position : position;
+    private void updateReflow(RequestHandler.JobRequestResult result, ReflowRequest request,
+                              final String outFilename, @Nullable String sourceFilename) {
+        String key = getCacheKey(request.mObjNum, request.mColorKey);
+        if (mPendingRequests.get(key) != request) {
+            // the request was cancelled after the pages were modified
+            return;
+        }
+        mPendingRequests.remove(key);
+        if (result == RequestHandler.JobRequestResult.FINISHED) {
+            mHtmlCache.put(key, request.mObjNum, outFilename, sourceFilename);
+        }
+
+        int pagePosition = request.mPagePosition;
+        if (!request.mColorKey.equals(getColorModeKey())
+            || pagePosition >= mPageCount || mPageObjNums[pagePosition] != request.mObjNum) {
+            // kept for later use
+            return;
+        }
+        int position = mIsRtlMode ? mPageCount - 1 - pagePosition : pagePosition;
 
         ReflowWebView webView = mViewHolders.get(position);
         if (webView == null) {
-            if (result == RequestHandler.JobRequestResult.FINISHED) {
-                // save data for later use
-                if (sDebug) Log.d(TAG, "initially received page #" + (position + 1));
-                mReflowFiles.put(pagePosition, outFilename);
-            }
-            // had destroyed before the result was received
+            // prefetched, or had destroyed before the result was received
+            if (sDebug) Log.d(TAG, "initially received page #" + (position + 1));
             return;
         }
 
@@ -680,7 +839,6 @@ public class ReflowPagerAdapter extends PagerAdapter
         }
 
         if (sDebug) Log.d(TAG, "received page #" + (position + 1));
-        mReflowFiles.put(pagePosition, outFilename);
 
         webView.loadUrl("file:///" + outFilename);
         setTextZoom(webView);
@@ -784,4 +942,139 @@ public class ReflowPagerAdapter extends PagerAdapter
     public static void setDebug(boolean debug) {
         sDebug = debug;
     }
+
+    /**
+     * A request for the reflow output of a page in a color mode.
+     */
+    private static class ReflowRequest {
+        final int mPagePosition;
+        final long mObjNum;
+        final String mColorKey;
+
+        ReflowRequest(int pagePosition, long objNum, String colorKey) {
+            mPagePosition = pagePosition;
+            mObjNum = objNum;
+            mColorKey = colorKey;
+        }
+    }
+
+    /**
+     * A least recently used index of reflow output files keyed by page object and color mode,
+     * bounded by the total size of the files.
+     * <p>
+     * The index lives as long as the adapter and is not persisted: page object numbers only
+     * identify pages of the open document, and files generated by the reflow processor are
+     * temporary files of the core that are not guaranteed to outlive the session.
+     * <p>
+     * Post-processed files are owned by the cache and deleted when they are evicted, whereas
+     * files generated by the reflow processor are managed by the core and only dropped from
+     * the index. A post-processed file is valid as long as its source file is unchanged.
+     */
+    private static class ReflowHtmlCache {
+        private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+        private long mMaxBytes;
+        private long mBytes;
+
+        private static class Entry {
+            final long mObjNum;
+            final String mFilename;
+            final String mSourceFilename;
+            final long mSourceLastModified;
+            final long mBytes;
+
+            Entry(long objNum, String filename, @Nullable String sourceFilename) {
+                mObjNum = objNum;
+                mFilename = filename;
+                mSourceFilename = sourceFilename;
+                mSourceLastModified = sourceFilename == null ? 0 : new File(sourceFilename).lastModified();
+                mBytes = new File(filename).length();
+            }
+
+            boolean isValid() {
+                return new File(mFilename).exists()
+                    && (mSourceFilename == null || new File(mSourceFilename).lastModified() == mSourceLastModified);
+            }
+
+            void deleteFile() {
+                if (mSourceFilename != null) {
+                    //noinspection ResultOfMethodCallIgnored
+                    new File(mFilename).delete();
+                }
+            }
+        }
+
+        ReflowHtmlCache(long maxBytes) {
+            mMaxBytes = maxBytes;
+        }
+
+        @Nullable
+        String get(String key) {
+            Entry entry = mEntries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (!entry.isValid()) {
+                mEntries.remove(key);
+                mBytes -= entry.mBytes;
+                entry.deleteFile();
+                return null;
+            }
+            return entry.mFilename;
+        }
+
+        void put(String key, long objNum, String filename, @Nullable String sourceFilename) {
+            Entry entry = new Entry(objNum, filename, sourceFilename);
+            Entry oldEntry = mEntries.put(key, entry);
+            if (oldEntry != null) {
+                mBytes -= oldEntry.mBytes;
+                if (!oldEntry.mFilename.equals(filename)) {
+                    oldEntry.deleteFile();
+                }
+            }
+            mBytes += entry.mBytes;
+            trim();
+        }
+
+        /**
+         * Removes the output of the pages that are not in the specified set.
+         *
+         * @param objNums The object numbers of the pages to keep
+         */
+        void retainPages(HashSet<Long> objNums) {
+            Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next().getValue();
+                if (!objNums.contains(entry.mObjNum)) {
+                    it.remove();
+                    mBytes -= entry.mBytes;
+                    entry.deleteFile();
+                }
+            }
+        }
+
+        void clear() {
+            for (Entry entry : mEntries.values()) {
+                entry.deleteFile();
+            }
+            mEntries.clear();
+            mBytes = 0;
+        }
+
+        void setMaxSize(long maxBytes) {
+            mMaxBytes = Math.max(0, maxBytes);
+            trim();
+        }
+
+        private void trim() {
+            Iterator<Entry> it = mEntries.values().iterator();
+            // always keep the most recently used entry
+            while (mBytes > mMaxBytes && mEntries.size() > 1 && it.hasNext()) {
+                Entry entry = it.next();
+                it.remove();
+                mBytes -= entry.mBytes;
+                entry.deleteFile();
+                if (sDebug) Log.d(TAG, "evicted " + entry.mFilename);
+            }
+        }
+    }
 }
@@ -72,6 +72,7 @@ public class SearchResultsView extends RelativeLayout implements FindTextTask.Ca
     private String mLastSearchPattern;
     private int mTextSearchMode = TextSearch.e_page_stop | TextSearch.e_ambient_string | TextSearch.e_highlight;
     private boolean mListenerWaitingForResult = false;
+    private int mSearchWorkerCount; // 0 to use the default of FindTextTask
 
     private PDFViewCtrl mPdfViewCtrl;
     private FindTextTask mTask;
@@ -489,6 +490,9 @@ public class SearchResultsView extends RelativeLayout implements FindTextTask.Ca
         clearSearchResults();
 
         mTask = new FindTextTask(mPdfViewCtrl, mLastSearchPattern, mTextSearchMode, mSectionList, mSectionTitleList);
+        if (mSearchWorkerCount > 0) {
+            mTask.setWorkerCount(mSearchWorkerCount);
+        }
         mTask.setCallback(this);
         mTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
 
@@ -526,6 +530,19 @@ public class SearchResultsView extends RelativeLayout implements FindTextTask.Ca
         restartSearch();
     }
 
+    /**
+     * Sets the number of worker threads used for full text search.
+     * If greater than one, pages are searched concurrently in chunks
+     * and results are merged back in page order. By default, the worker count
+     * of {@link FindTextTask#setWorkerCount(int)} is used, which searches in parallel
+     * on devices with several processors.
+     *
+     * @param workerCount The number of worker threads; 1 searches sequentially
+     */
+    public void setSearchWorkerCount(int workerCount) {
+        mSearchWorkerCount = Math.max(1, workerCount);
+    }
+
     private void startPopulateSectionListTask() {
 
         if (mPdfViewCtrl == null || isSectionListPopulated()) {
@@ -15,6 +15,7 @@ import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.CountDownTimer;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.app.FragmentManager;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
@@ -51,6 +52,7 @@ import com.pdftron.pdf.utils.BookmarkManager;
 import com.pdftron.pdf.utils.CommonToast;
 import com.pdftron.pdf.utils.CustomAsyncTask;
 import com.pdftron.pdf.utils.ImageMemoryCache;
+import com.pdftron.pdf.utils.PageThumbnailCache;
 import com.pdftron.pdf.utils.Utils;
 import com.pdftron.pdf.utils.ViewerUtils;
 import com.pdftron.pdf.widget.recyclerview.SimpleRecyclerViewAdapter;
@@ -121,6 +123,14 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
 
     private SparseArray<LoadThumbnailTask> mTaskList;
 
+    // persistent thumbnails of this document, null if the document cannot be identified
+    private PageThumbnailCache mThumbnailCache;
+    private String mThumbnailDocKey;
+    // set once the document has unsaved changes; thumbnails are no longer written to the cache
+    private volatile boolean mDocModified;
+    // page-indexed object numbers of the pages, used as thumbnail cache keys
+    private SparseArray<Long> mPageObjNums = new SparseArray<>();
+
     // For the page back and forward buttons:
     // When a page is moved, deleted or added the document has been modified.
     // If the document has been changed, the page back and forward stacks should be cleared.
@@ -179,6 +189,37 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
         mSpanCount = spanCount;
         mCurrentPage = mPdfViewCtrl.getCurrentPage();
         mPdfViewCtrl.addThumbAsyncListener(this);
+        initThumbnailCache();
+    }
+
+    private void initThumbnailCache() {
+        String fileName = null;
+        boolean isModified = true;
+        boolean shouldUnlockRead = false;
+        try {
+            mPdfViewCtrl.docLockRead();
+            shouldUnlockRead = true;
+            final PDFDoc doc = mPdfViewCtrl.getDoc();
+            if (doc != null) {
+                fileName = doc.getFileName();
+                isModified = doc.isModified();
+            }
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        } finally {
+            if (shouldUnlockRead) {
+                mPdfViewCtrl.docUnlockRead();
+            }
+        }
+
+        // thumbnails on disk reflect the saved file, so they cannot be used
+        // for a document with unsaved changes
+        if (!isModified) {
+            mThumbnailDocKey = PageThumbnailCache.getDocumentKey(fileName);
+            if (mThumbnailDocKey != null) {
+                mThumbnailCache = PageThumbnailCache.getInstance(mContext);
+            }
+        }
     }
 
     /**
@@ -271,21 +312,156 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
             holder.thumbImage.setImageBitmap(bitmapFromCache);
             holder.thumbImage.setBackgroundColor(mContext.getResources().getColor(R.color.controls_thumbnails_view_bg));
         } else {
+            Bitmap bitmap = getThumbnailFromMemory(pageNumSrc);
+            if (bitmap != null) {
+                if (sDebug)
+                    Log.d(TAG, "using memory cached thumb bitmap for page: " + Integer.toString(pageNumSrc));
+                setCachedThumbnail(position, pageNumSrc, bitmap);
+                holder.thumbImage.setImageBitmap(bitmap);
+                holder.thumbImage.setBackgroundColor(mContext.getResources().getColor(R.color.controls_thumbnails_view_bg));
+                return;
+            }
             if (sDebug) Log.d(TAG, "use null; no cache for page: " + Integer.toString(pageNumSrc));
             holder.thumbImage.setImageBitmap(null);
             holder.thumbImage.setBackgroundColor(mContext.getResources().getColor(R.color.controls_thumbnails_view_bg));
-            if (mTaskList.get(pageNumSrc) != null) {
-                if (sDebug)
-                    Log.d(TAG, "A task is already running for page: " + Integer.toString(pageNumSrc));
+            requestThumbnail(holder, pageNumSrc);
+        }
+    }
+
+    private void requestThumbnail(@Nullable PageViewHolder holder, int pageNum) {
+        if (mTaskList.get(pageNum) != null) {
+            if (sDebug)
+                Log.d(TAG, "A task is already running for page: " + Integer.toString(pageNum));
+        } else if (mThumbnailCache != null && getThumbnailWidth() > 0) {
+            if (sDebug) Log.d(TAG, "load cached thumb for page: " + Integer.toString(pageNum));
+            final LoadThumbnailTask task = new LoadThumbnailTask(holder, pageNum, null, 0, 0);
+            mTaskList.put(pageNum, task);
+            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        } else {
+            getThumbAsync(pageNum);
+        }
+    }
+
+    private void getThumbAsync(int pageNum) {
+        if (sDebug) Log.d(TAG, "getThumbAsync for page: " + Integer.toString(pageNum));
+        try {
+            mPdfViewCtrl.getThumbAsync(pageNum);
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        }
+    }
+
+    @Nullable
+    private Bitmap getThumbnailFromMemory(int pageNum) {
+        int width = getThumbnailWidth();
+        Long objNum = mPageObjNums.get(pageNum);
+        if (mThumbnailCache == null || width <= 0 || objNum == null) {
+            return null;
+        }
+        return mThumbnailCache.getFromMemory(mThumbnailDocKey, objNum, width);
+    }
+
+    private void setCachedThumbnail(int position, int pageNum, Bitmap bitmap) {
+        Map<String, Object> itemMap = getItem(position);
+        if (itemMap != null) {
+            mDataLock.lock();
+            itemMap.put(THUMB_IMAGE, bitmap);
+            mDataLock.unlock();
+            if (!mCachedPageList.contains(pageNum)) {
+                mCachedPageList.add(pageNum);
+            }
+        }
+    }
+
+    private int getThumbnailWidth() {
+        return mSpanCount > 0 ? mRecyclerViewWidth / mSpanCount : 0;
+    }
+
+    private long getPageObjNum(PDFDoc doc, int pageNum) throws PDFNetException {
+        Page page = doc.getPage(pageNum);
+        return page != null ? page.getSDFObj().getObjNum() : 0;
+    }
+
+    /**
+     * Removes the cached thumbnails of the specified pages.
+     *
+     * @param pageList The page numbers of the pages
+     * @param lookup   True if object numbers not known yet should be looked up in the document;
+     *                 this should be false if the pages are no longer in the document
+     */
+    private void invalidateThumbnails(List<Integer> pageList, boolean lookup) {
+        if (mThumbnailCache == null || pageList == null) {
+            return;
+        }
+        mDocModified = true;
+
+        List<Long> objNums = new ArrayList<>(pageList.size());
+        List<Integer> unknownPages = new ArrayList<>();
+        for (int pageNum : pageList) {
+            Long objNum = mPageObjNums.get(pageNum);
+            if (objNum != null) {
+                objNums.add(objNum);
             } else {
-                if (sDebug) Log.d(TAG, "getThumbAsync for page: " + Integer.toString(pageNumSrc));
-                try {
-                    mPdfViewCtrl.getThumbAsync(pageNumSrc);
-                } catch (Exception e) {
-                    AnalyticsHandlerAdapter.getInstance().sendException(e);
+                unknownPages.add(pageNum);
+            }
+        }
+
+        if (lookup && !unknownPages.isEmpty()) {
+            boolean shouldUnlockRead = false;
+            try {
+                mPdfViewCtrl.docLockRead();
+                shouldUnlockRead = true;
+                final PDFDoc doc = mPdfViewCtrl.getDoc();
+                if (doc != null) {
+                    for (int pageNum : unknownPages) {
+                        objNums.add(getPageObjNum(doc, pageNum));
+                    }
+                }
+            } catch (Exception e) {
+                AnalyticsHandlerAdapter.getInstance().sendException(e);
+            } finally {
+                if (shouldUnlockRead) {
+                    mPdfViewCtrl.docUnlockRead();
                 }
             }
         }
+
+        for (long objNum : objNums) {
+            if (objNum > 0) {
+                mThumbnailCache.remove(mThumbnailDocKey, objNum);
+            }
+        }
+    }
+
+    /**
+     * @return True if the document has unsaved changes. Thumbnails on disk reflect the saved file,
+     * so thumbnails rendered after a change are not written to the thumbnail cache.
+     */
+    private boolean isDocModified() {
+        if (mDocModified) {
+            return true;
+        }
+        boolean isModified = true;
+        boolean shouldUnlockRead = false;
+        try {
+            mPdfViewCtrl.docLockRead();
+            shouldUnlockRead = true;
+            final PDFDoc doc = mPdfViewCtrl.getDoc();
+            if (doc != null) {
+                isModified = doc.isModified();
+            }
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        } finally {
+            if (shouldUnlockRead) {
+                mPdfViewCtrl.docUnlockRead();
+            }
+        }
+        if (isModified) {
+            // still different from the file on disk after it is saved, as the key is not updated
+            mDocModified = true;
+        }
+        return isModified;
     }
 
     @NonNull
@@ -535,6 +711,40 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
                 }
             } // else in range: do nothing
         }
+
+        prefetchThumbnails(firstPosition, lastPosition, offScreenKeepInCacheCount);
+    }
+
+    /**
+     * Requests the thumbnails of the pages just outside the visible range,
+     * within the range of pages that are kept in memory.
+     */
+    private void prefetchThumbnails(int firstPosition, int lastPosition, int count) {
+        int start = Math.max(0, firstPosition - count);
+        int end = Math.min(getItemCount() - 1, lastPosition + count);
+        for (int position = start; position <= end; ++position) {
+            if (position >= firstPosition && position <= lastPosition) {
+                continue;
+            }
+            Map<String, Object> itemMap = getItem(position);
+            if (itemMap == null) {
+                continue;
+            }
+            mDataLock.lock();
+            Bitmap bitmap = (Bitmap) itemMap.get(THUMB_IMAGE);
+            mDataLock.unlock();
+            if (bitmap != null && !bitmap.isRecycled()) {
+                continue;
+            }
+            int pageNum = (int) itemMap.get(PAGE_NUMBER_SRC);
+            bitmap = getThumbnailFromMemory(pageNum);
+            if (bitmap != null) {
+                setCachedThumbnail(position, pageNum, bitmap);
+            } else {
+                if (sDebug) Log.d(TAG, "prefetch thumb for page: " + pageNum);
+                requestThumbnail(null, pageNum);
+            }
+        }
     }
 
     /**
@@ -547,7 +757,10 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
                 if (sDebug)
                     Log.d(TAG, "clearResources recycle page: " + itemMap.get(PAGE_NUMBER_SRC));
                 mDataLock.lock();
-                ImageMemoryCache.getInstance().addBitmapToReusableSet((Bitmap) itemMap.get(THUMB_IMAGE));
+                if (mThumbnailCache == null) {
+                    // bitmaps are shared with the thumbnail cache otherwise
+                    ImageMemoryCache.getInstance().addBitmapToReusableSet((Bitmap) itemMap.get(THUMB_IMAGE));
+                }
                 itemMap.put(THUMB_IMAGE, null);
                 mDataLock.unlock();
             }
@@ -634,6 +847,7 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
                     itemMap.put(PAGE_NUMBER_SRC, i + 1);
                 }
             }
+            mPageObjNums.clear();
 
             Utils.safeNotifyDataSetChanged(this);
         }
@@ -980,7 +1194,8 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
                 }
                 int pageAddedCnt = pageCount - mDataList.size();
 
-                // TODO use the cached bitmaps for existing pages
+                // thumbnails of existing pages are found again in the thumbnail cache by object number
+                mPageObjNums.clear();
                 mDataList.clear();
                 for (int pageNum = 1; pageNum <= pageCount; pageNum++) {
                     Map<String, Object> itemMap = new HashMap<>();
@@ -1128,6 +1343,7 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
                 }
                 int pageAddedCnt = pageCount - mDataList.size();
 
+                mPageObjNums.clear();
                 mDataList.clear();
                 for (int pageNum = 1; pageNum <= pageCount; pageNum++) {
                     Map<String, Object> itemMap = new HashMap<>();
@@ -1178,6 +1394,7 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
             }
         }
 
+        mPageObjNums.clear();
         try {
             mDataList.clear();
             for (int p = 1; p <= pageCount; p++) {
@@ -1208,6 +1425,9 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
 
         Collections.sort(pageList); // since we will use binary search
 
+        invalidateThumbnails(pageList, false);
+        mPageObjNums.clear();
+
         // Update page numbers
         ListIterator<Map<String, Object>> it = mDataList.listIterator();
         int deleteCnt = 0;
@@ -1258,6 +1478,8 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
 
         Collections.sort(pageList); // since we will use binary search
 
+        invalidateThumbnails(pageList, true);
+
         // Update page numbers
         ListIterator<Map<String, Object>> it = mDataList.listIterator();
         Integer pageNum = 1;
@@ -1287,6 +1509,9 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
      * @param toPageNum   The page number to which the page was moved
      */
     public void updateAfterMove(int fromPageNum, int toPageNum) {
+        // cached thumbnails are keyed by object number and stay valid,
+        // only the page numbers of the pages in between changed
+        mPageObjNums.clear();
         try {
             int start = Math.min(fromPageNum - 1, toPageNum - 1);
             int end = Math.max(fromPageNum - 1, toPageNum - 1);
@@ -1482,6 +1707,7 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
             mDataLock.unlock();
         }
         removeCachedPage(pageNum); // page-indexed
+        invalidateThumbnails(Collections.singletonList(pageNum), true);
 
 //        notifyItemChanged(position); // notifyItemChanged() does not update image correctly
         Utils.safeNotifyDataSetChanged(this);
@@ -1553,6 +1779,14 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
         private int mHeight;
         private int[] mBuffer;
 
+        // a null buffer means the thumbnail is read from the thumbnail cache
+        private final boolean mFromCache;
+        private final PageThumbnailCache mCache;
+        private final String mDocKey;
+        private final int mThumbWidth;
+        private final int mThumbHeight;
+        private long mObjNum;
+
         LoadThumbnailTask(PageViewHolder holder, int page, int[] buffer, int width, int height) {
             this.mHolder = holder;
             this.mPage = page;
@@ -1560,6 +1794,38 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
             this.mBuffer = buffer;
             this.mWidth = width;
             this.mHeight = height;
+            this.mFromCache = buffer == null;
+            this.mCache = mThumbnailCache;
+            this.mDocKey = mThumbnailDocKey;
+            this.mThumbWidth = getThumbnailWidth();
+            this.mThumbHeight = (int) (mThumbWidth * 1.29); // US-letter size
+            Long objNum = mPageObjNums.get(page);
+            this.mObjNum = objNum != null ? objNum : 0;
+        }
+
+        private boolean isCacheEnabled() {
+            return mCache != null && mThumbWidth > 0;
+        }
+
+        private void loadObjNum() {
+            if (mObjNum != 0) {
+                return;
+            }
+            boolean shouldUnlockRead = false;
+            try {
+                mPdfViewCtrl.docLockRead();
+                shouldUnlockRead = true;
+                final PDFDoc doc = mPdfViewCtrl.getDoc();
+                if (doc != null && mPage <= doc.getPageCount()) {
+                    mObjNum = getPageObjNum(doc, mPage);
+                }
+            } catch (Exception e) {
+                AnalyticsHandlerAdapter.getInstance().sendException(e);
+            } finally {
+                if (shouldUnlockRead) {
+                    mPdfViewCtrl.docUnlockRead();
+                }
+            }
         }
 
         @Override
@@ -1579,6 +1845,19 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
                 }
             }
 
+            if (isCacheEnabled() && !isCancelled()) {
+                loadObjNum();
+            }
+
+            if (mFromCache) {
+                if (isCacheEnabled() && mObjNum > 0 && !isCancelled()) {
+                    bitmap = mCache.get(mDocKey, mObjNum, mThumbWidth);
+                }
+                if (sDebug)
+                    Log.d(TAG, "doInBackground - cached thumb " + (bitmap != null ? "found" : "not found") + " for page: " + Integer.toString(mPage));
+                return bitmap;
+            }
+
             try {
                 if (mBuffer != null && mBuffer.length > 0) {
                     ImageMemoryCache imageMemoryCache = ImageMemoryCache.getInstance();
@@ -1589,6 +1868,11 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
                     bitmap.setPixels(mBuffer, 0, mWidth, 0, 0, mWidth, mHeight);
                     if (mHolder != null) {
                         bitmap = scaleBitmap(mHolder, bitmap);
+                    } else if (isCacheEnabled()) {
+                        bitmap = scaleBitmap(mThumbWidth, mThumbHeight, bitmap);
+                    }
+                    if (bitmap != null && isCacheEnabled() && mObjNum > 0 && !isDocModified()) {
+                        mCache.put(mDocKey, mObjNum, mThumbWidth, bitmap);
                     }
                     if (sDebug)
                         Log.d(TAG, "doInBackground - finished work for page: " + Integer.toString(mPage));
@@ -1614,13 +1898,26 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
                 return;
             }
 
+            if (mObjNum > 0 && mCache == mThumbnailCache) {
+                mPageObjNums.put(mPage, mObjNum);
+            }
+
+            if (result == null && mFromCache) {
+                // not cached yet, render it
+                mTaskList.remove(mPage);
+                getThumbAsync(mPage);
+                return;
+            }
+
             if (result != null) {
                 Map<String, Object> itemMap = getItem(mPosition);
                 if (itemMap != null) {
                     mDataLock.lock();
                     itemMap.put(THUMB_IMAGE, result);
                     mDataLock.unlock();
-                    mCachedPageList.add(mPage);
+                    if (!mCachedPageList.contains(mPage)) {
+                        mCachedPageList.add(mPage);
+                    }
 
                     boolean handled = false;
                     if (mHolder != null) {
@@ -1656,6 +1953,11 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
      * See: https://argillander.wordpress.com/2011/11/24/scale-image-into-imageview-then-resize-imageview-to-match-the-image/
      */
     private Bitmap scaleBitmap(PageViewHolder holder, Bitmap bitmap) {
+        ViewGroup.LayoutParams parentParams = holder.imageLayout.getLayoutParams();
+        return scaleBitmap(parentParams.width, parentParams.height, bitmap);
+    }
+
+    private Bitmap scaleBitmap(int parentWidth, int parentHeight, Bitmap bitmap) {
         if (bitmap == null) {
             return null;
         }
@@ -1664,12 +1966,11 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
         int bitmapWidth = bitmap.getWidth();
         int bitmapHeight = bitmap.getHeight();
 
-        ViewGroup.LayoutParams parentParams = holder.imageLayout.getLayoutParams();
         // Determine how much to scale: the dimension requiring less scaling is
         // closer to the its side. This way the image always stays inside the
         // bounding box AND either x/y axis touches it.
-        float xScale = ((float) parentParams.width) / bitmapWidth;
-        float yScale = ((float) parentParams.height) / bitmapHeight;
+        float xScale = ((float) parentWidth) / bitmapWidth;
+        float yScale = ((float) parentHeight) / bitmapHeight;
         float scale = (xScale <= yScale) ? xScale : yScale;
 
         // Create a matrix for the scaling (same scale amount in both directions)
@@ -1684,8 +1985,10 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
             Utils.manageOOM(mPdfViewCtrl);
         }
 
-        if (sDebug) Log.d(TAG, "scaleBitmap recycle");
-        ImageMemoryCache.getInstance().addBitmapToReusableSet(bitmap);
+        if (scaledBitmap != bitmap) {
+            if (sDebug) Log.d(TAG, "scaleBitmap recycle");
+            ImageMemoryCache.getInstance().addBitmapToReusableSet(bitmap);
+        }
         return scaledBitmap;
     }
 
@@ -1763,6 +2066,8 @@ public class ThumbnailsViewAdapter extends SimpleRecyclerViewAdapter<Map<String,
         }
         // Update cached page list
         removeCachedPage(deletedPage);
+        invalidateThumbnails(Collections.singletonList(deletedPage), false);
+        mPageObjNums.clear();
 
         return deletedPosition;
     }
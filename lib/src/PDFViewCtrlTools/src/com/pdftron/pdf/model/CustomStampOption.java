@@ -7,34 +7,25 @@ package com.pdftron.pdf.model;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.support.annotation.ColorInt;
 import android.support.annotation.FloatRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import com.pdftron.common.PDFNetException;
 import com.pdftron.pdf.utils.AnalyticsHandlerAdapter;
 import com.pdftron.pdf.utils.Utils;
 import com.pdftron.sdf.Obj;
 import com.pdftron.sdf.ObjSet;
 
-import org.apache.commons.io.IOUtils;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.lang.reflect.Type;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -42,13 +33,10 @@ import java.util.Locale;
 /**
  * The option for creating a custom rubber stamp.
  */
-@SuppressWarnings("ResultOfMethodCallIgnored")
 public class CustomStampOption {
 
     private static final String TAG = CustomStampOption.class.getName();
 
-    private final static String FILE_CUSTOM_STAMPS_INFO = "com_pdftron_pdf_model_file_custom_stamps";
-
     private static final String STAMP_OPTION_TEXT = "TEXT";
     private static final String STAMP_OPTION_TEXT_BELOW = "TEXT_BELOW";
     private static final String STAMP_OPTION_FILL_COLOR_START = "FILL_COLOR_START";
@@ -260,9 +248,9 @@ public class CustomStampOption {
      */
     @SuppressWarnings("unused")
     @NonNull
-    synchronized public static List<Obj> loadCustomStamps(@NonNull Context context) {
+    public static List<Obj> loadCustomStamps(@NonNull Context context) {
         List<Obj> customStamps = new ArrayList<>();
-        List<CustomStampOption> customStampOptions = loadCustomStampOptions(context);
+        List<CustomStampOption> customStampOptions = CustomStampStore.getInstance(context).getOptions();
         for (int i = 0, count = customStampOptions.size(); i < count; ++i) {
             try {
                 Obj obj = convertToObj(customStampOptions.get(i));
@@ -281,20 +269,8 @@ public class CustomStampOption {
      * @param context The context
      * @return The number of saved custom rubber stamps
      */
-    synchronized public static int getCustomStampsCount(@NonNull Context context) {
-        String customStampsInfo = getCustomStampsInfo(context);
-        if (Utils.isNullOrEmpty(customStampsInfo)) {
-            return 0;
-        }
-
-        try {
-            JSONArray jsonArray = new JSONArray(customStampsInfo);
-            return jsonArray.length();
-        } catch (Exception e) {
-            AnalyticsHandlerAdapter.getInstance().sendException(e);
-        }
-
-        return 0;
+    public static int getCustomStampsCount(@NonNull Context context) {
+        return CustomStampStore.getInstance(context).size();
     }
 
     /**
@@ -305,16 +281,13 @@ public class CustomStampOption {
      * @return The saved custom rubber stamp as SDF Obj
      */
     @Nullable
-    synchronized public static Obj getCustomStampObj(@NonNull Context context, int index) {
-        String customStampsInfo = getCustomStampsInfo(context);
-        if (Utils.isNullOrEmpty(customStampsInfo)) {
+    public static Obj getCustomStampObj(@NonNull Context context, int index) {
+        CustomStampOption customStampOption = CustomStampStore.getInstance(context).getOption(index);
+        if (customStampOption == null) {
             return null;
         }
 
         try {
-            JSONArray jsonArray = new JSONArray(customStampsInfo);
-            JSONObject jsonObject = jsonArray.getJSONObject(index);
-            CustomStampOption customStampOption = new CustomStampOption(jsonObject);
             return convertToObj(customStampOption);
         } catch (Exception e) {
             AnalyticsHandlerAdapter.getInstance().sendException(e);
@@ -325,14 +298,14 @@ public class CustomStampOption {
 
     /**
      * Gets the custom rubber stamp bitmap for a specific index.
+     * The bitmap is cached and shared, and should not be recycled.
      *
      * @param context The context
      * @param index   The zero-indexed position of the saved custom rubber stamp
      * @return The bitmap of custom rubber stamp, or null if it could not be obtained
      */
-    synchronized public static Bitmap getCustomStampBitmap(@NonNull Context context, int index) {
-        String path = getCustomStampBitmapPath(context, index);
-        return BitmapFactory.decodeFile(path);
+    public static Bitmap getCustomStampBitmap(@NonNull Context context, int index) {
+        return CustomStampStore.getInstance(context).getBitmap(index);
     }
 
     /**
@@ -342,27 +315,12 @@ public class CustomStampOption {
      * @param customStampOption The new custom rubber stamp
      * @param bitmap            The generated bitmap which can be reloaded later to avoid recreating the bitmap
      */
-    synchronized public static void addCustomStamp(@Nullable Context context, @NonNull CustomStampOption customStampOption, @NonNull Bitmap bitmap) {
+    public static void addCustomStamp(@Nullable Context context, @NonNull CustomStampOption customStampOption, @NonNull Bitmap bitmap) {
         if (context == null) {
             return;
         }
 
-        List<CustomStampOption> customStampOptions = loadCustomStampOptions(context);
-
-        // save bitmap for fast read access
-        FileOutputStream fos = null;
-        try {
-            String path = getCustomStampBitmapPath(context, customStampOptions.size());
-            fos = new FileOutputStream(path);
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, fos);
-        } catch (Exception e) {
-            AnalyticsHandlerAdapter.getInstance().sendException(e);
-        } finally {
-            Utils.closeQuietly(fos);
-        }
-
-        customStampOptions.add(customStampOption);
-        saveCustomStamps(context, customStampOptions);
+        CustomStampStore.getInstance(context).add(customStampOption, bitmap);
     }
 
     /**
@@ -371,38 +329,12 @@ public class CustomStampOption {
      * @param context The context
      * @param index   The zero-indexed position
      */
-    synchronized public static void duplicateCustomStamp(@Nullable Context context, int index) {
+    public static void duplicateCustomStamp(@Nullable Context context, int index) {
         if (context == null) {
             return;
         }
 
-        List<CustomStampOption> customStampOptions = loadCustomStampOptions(context);
-        int size = customStampOptions.size();
-        if (index < 0 || index >= size) {
-            return;
-        }
-
-        for (int i = size - 1; i >= index; --i) {
-            String oldPath = getCustomStampBitmapPath(context, i);
-            String newPath = getCustomStampBitmapPath(context, i + 1);
-            File oldFile = new File(oldPath);
-            File newFile = new File(newPath);
-            if (oldFile.exists()) {
-                if (i == index) {
-                    try {
-                        Utils.copy(oldFile, newFile);
-                    } catch (IOException e) {
-                        AnalyticsHandlerAdapter.getInstance().sendException(e);
-                    }
-                } else {
-                    oldFile.renameTo(newFile);
-                }
-            }
-        }
-
-        CustomStampOption customStampOption = customStampOptions.get(index);
-        customStampOptions.add(index, customStampOption);
-        saveCustomStamps(context, customStampOptions);
+        CustomStampStore.getInstance(context).duplicate(index);
     }
 
     /**
@@ -413,27 +345,12 @@ public class CustomStampOption {
      * @param customStampOption The updated custom rubber stamp
      * @param bitmap            The generated bitmap which can be reloaded later to avoid recreating the bitmap
      */
-    synchronized public static void updateCustomStamp(@Nullable Context context, int index, @NonNull CustomStampOption customStampOption, @NonNull Bitmap bitmap) {
+    public static void updateCustomStamp(@Nullable Context context, int index, @NonNull CustomStampOption customStampOption, @NonNull Bitmap bitmap) {
         if (context == null) {
             return;
         }
 
-        List<CustomStampOption> customStampOptions = loadCustomStampOptions(context);
-
-        // save bitmap for fast read access
-        FileOutputStream fos = null;
-        try {
-            String path = getCustomStampBitmapPath(context, index);
-            fos = new FileOutputStream(path);
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, fos);
-        } catch (Exception e) {
-            AnalyticsHandlerAdapter.getInstance().sendException(e);
-        } finally {
-            Utils.closeQuietly(fos);
-        }
-
-        customStampOptions.set(index, customStampOption);
-        saveCustomStamps(context, customStampOptions);
+        CustomStampStore.getInstance(context).update(index, customStampOption, bitmap);
     }
 
     /**
@@ -443,29 +360,12 @@ public class CustomStampOption {
      * @param index   The index of custom rubber stamp to be removed
      */
     @SuppressWarnings("unused")
-    synchronized public static void removeCustomStamp(@Nullable Context context, int index) {
+    public static void removeCustomStamp(@Nullable Context context, int index) {
         if (context == null) {
             return;
         }
 
-        List<CustomStampOption> customStampOptions = loadCustomStampOptions(context);
-        int size = customStampOptions.size();
-        if (index < 0 || index >= size) {
-            return;
-        }
-
-        for (int i = index + 1; i < size; ++i) {
-            String oldPath = getCustomStampBitmapPath(context, i);
-            String newPath = getCustomStampBitmapPath(context, i - 1);
-            File oldFile = new File(oldPath);
-            File newFile = new File(newPath);
-            if (oldFile.exists()) {
-                oldFile.renameTo(newFile);
-            }
-        }
-
-        customStampOptions.remove(index);
-        saveCustomStamps(context, customStampOptions);
+        CustomStampStore.getInstance(context).remove(Collections.singletonList(index));
     }
 
     /**
@@ -476,34 +376,12 @@ public class CustomStampOption {
      *                The indexes shouldn't contain repeated items and are
      *                supposed to be in ascending order.
      */
-    synchronized public static void removeCustomStamps(@Nullable Context context, @NonNull List<Integer> indexes) {
+    public static void removeCustomStamps(@Nullable Context context, @NonNull List<Integer> indexes) {
         if (context == null || indexes.size() == 0) {
             return;
         }
 
-        List<CustomStampOption> customStampOptions = loadCustomStampOptions(context);
-        int size = customStampOptions.size();
-
-        for (int j = indexes.size() - 1; j >= 0; --j) {
-            int index = indexes.get(j);
-            if (index < 0 || index >= size) {
-                continue;
-            }
-
-            for (int i = index + 1; i < size; ++i) {
-                String oldPath = getCustomStampBitmapPath(context, i);
-                String newPath = getCustomStampBitmapPath(context, i - 1);
-                File oldFile = new File(oldPath);
-                File newFile = new File(newPath);
-                if (oldFile.exists()) {
-                    oldFile.renameTo(newFile);
-                }
-            }
-
-            customStampOptions.remove(index);
-        }
-
-        saveCustomStamps(context, customStampOptions);
+        CustomStampStore.getInstance(context).remove(indexes);
     }
 
     /**
@@ -512,23 +390,12 @@ public class CustomStampOption {
      * @param context The context
      */
     @SuppressWarnings("unused")
-    synchronized public static void removeAllCustomStamps(@Nullable Context context) {
+    public static void removeAllCustomStamps(@Nullable Context context) {
         if (context == null) {
             return;
         }
 
-        List<CustomStampOption> customStampOptions = loadCustomStampOptions(context);
-        int size = customStampOptions.size();
-
-        for (int i = 0; i < size; ++i) {
-            String path = getCustomStampBitmapPath(context, i);
-            File file = new File(path);
-            if (file.exists()) {
-                file.delete();
-            }
-        }
-
-        saveCustomStampsInfo(context, "");
+        CustomStampStore.getInstance(context).removeAll();
     }
 
     /**
@@ -538,64 +405,12 @@ public class CustomStampOption {
      * @param fromPosition The index of custom rubber stamp to be moved
      * @param toPosition   The new index of custom rubber stamp
      */
-    synchronized public static void moveCustomStamp(@Nullable Context context, int fromPosition, int toPosition) {
+    public static void moveCustomStamp(@Nullable Context context, int fromPosition, int toPosition) {
         if (context == null) {
             return;
         }
 
-        List<CustomStampOption> customStampOptions = loadCustomStampOptions(context);
-        int size = customStampOptions.size();
-        if (fromPosition < 0 || fromPosition == toPosition
-            || fromPosition >= size || toPosition < 0 || toPosition >= size) {
-            return;
-        }
-
-        String path = getCustomStampBitmapPath(context, fromPosition);
-        File file = new File(path);
-        File tempFile = null;
-        if (file.exists()) {
-            tempFile = new File(getCustomStampBitmapPath(context, "temp"));
-            file.renameTo(tempFile);
-        }
-
-        if (fromPosition < toPosition) {
-            for (int i = fromPosition; i < toPosition; ++i) {
-                String oldPath = getCustomStampBitmapPath(context, i + 1);
-                String newPath = getCustomStampBitmapPath(context, i);
-                File oldFile = new File(oldPath);
-                File newFile = new File(newPath);
-                if (oldFile.exists()) {
-                    oldFile.renameTo(newFile);
-                } else if (newFile.exists()) {
-                    newFile.delete();
-                }
-            }
-        } else {
-            for (int i = fromPosition; i > toPosition; --i) {
-                String oldPath = getCustomStampBitmapPath(context, i - 1);
-                String newPath = getCustomStampBitmapPath(context, i);
-                File oldFile = new File(oldPath);
-                File newFile = new File(newPath);
-                if (oldFile.exists()) {
-                    oldFile.renameTo(newFile);
-                } else if (newFile.exists()) {
-                    newFile.delete();
-                }
-            }
-        }
-        path = getCustomStampBitmapPath(context, toPosition);
-        file = new File(path);
-        if (tempFile != null && tempFile.exists()) {
-            tempFile.renameTo(file);
-        } else if (file.exists()) {
-            file.delete();
-        }
-
-        CustomStampOption item = customStampOptions.get(fromPosition);
-        customStampOptions.remove(fromPosition);
-        customStampOptions.add(toPosition, item);
-
-        saveCustomStamps(context, customStampOptions);
+        CustomStampStore.getInstance(context).move(fromPosition, toPosition);
     }
 
     /**
@@ -623,36 +438,6 @@ public class CustomStampOption {
         return stampObj;
     }
 
-    @NonNull
-    private static List<CustomStampOption> loadCustomStampOptions(@NonNull Context context) {
-        List<CustomStampOption> customStampOptions = new ArrayList<>();
-        String customStampsInfo = getCustomStampsInfo(context);
-        if (Utils.isNullOrEmpty(customStampsInfo)) {
-            return customStampOptions;
-        }
-
-        try {
-            JSONArray jsonArray = new JSONArray(customStampsInfo);
-            for (int i = 0, count = jsonArray.length(); i < count; ++i) {
-                JSONObject jsonObject = jsonArray.getJSONObject(i);
-                CustomStampOption customStampOption = new CustomStampOption(jsonObject);
-                customStampOptions.add(customStampOption);
-            }
-        } catch (Exception e) {
-            AnalyticsHandlerAdapter.getInstance().sendException(e);
-        }
-
-        return customStampOptions;
-    }
-
-    private static void saveCustomStamps(@NonNull Context context, @NonNull List<CustomStampOption> customStampOptions) {
-        Gson gson = new Gson();
-        Type collectionType = new TypeToken<ArrayList<CustomStampOption>>() {
-        }.getType();
-        String serializedData = gson.toJson(customStampOptions, collectionType);
-        saveCustomStampsInfo(context, serializedData);
-    }
-
     private static void addColorToOption(@NonNull Obj stampObj, @NonNull String arrName, int color) throws PDFNetException {
         Obj objColor = stampObj.putArray(arrName);
         double red = (double) Color.red(color) / 255.;
@@ -670,41 +455,4 @@ public class CustomStampOption {
         return Color.rgb(red, green, blue);
     }
 
-    private static String getCustomStampBitmapPath(@NonNull Context context, int index) {
-        return getCustomStampBitmapPath(context, String.valueOf(index));
-    }
-
-    private static String getCustomStampBitmapPath(@NonNull Context context, String index) {
-        return context.getFilesDir().getAbsolutePath() + File.separator + "custom_stamp_bitmap_" + index + ".png";
-    }
-
-    private static String getCustomStampsInfoPath(@NonNull Context context) {
-        return context.getFilesDir().getAbsolutePath() + File.separator + FILE_CUSTOM_STAMPS_INFO;
-    }
-
-    @Nullable
-    private static String getCustomStampsInfo(@NonNull Context context) {
-        FileInputStream fis = null;
-        try {
-            fis = new FileInputStream(getCustomStampsInfoPath(context));
-            return IOUtils.toString(fis);
-        } catch (IOException ignored) {
-            return null;
-        } finally {
-            Utils.closeQuietly(fis);
-        }
-    }
-
-    private static void saveCustomStampsInfo(@NonNull Context context, String fileContent) {
-        FileOutputStream fos = null;
-        try {
-            fos = new FileOutputStream(getCustomStampsInfoPath(context));
-            IOUtils.write(fileContent, fos);
-        } catch (IOException e) {
-            AnalyticsHandlerAdapter.getInstance().sendException(e);
-        } finally {
-            Utils.closeQuietly(fos);
-        }
-    }
-
 }
@@ -0,0 +1,535 @@
+//---------------------------------------------------------------------------------------
+// Copyright (c) 2001-2018 by PDFTron Systems Inc. All Rights Reserved.
+// Consult legal.txt regarding legal and license information.
+//---------------------------------------------------------------------------------------
+
+package com.pdftron.pdf.model;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.gson.Gson;
+import com.pdftron.pdf.utils.AnalyticsHandlerAdapter;
+import com.pdftron.pdf.utils.Utils;
+
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The saved custom rubber stamps of {@link CustomStampOption}.
+ * <p>
+ * Every stamp is saved as its own record, a JSON file and a PNG file named after a unique id,
+ * and a small index file keeps the ids in order; so reordering or removing stamps only rewrites
+ * the index. The index is loaded once, options are parsed when first requested, and decoded
+ * bitmaps are kept in a memory cache. Reads share a read lock and files are written outside
+ * the lock where possible, so the stamp picker does not wait for stamps being saved.
+ */
+class CustomStampStore {
+
+    private static final String TAG = CustomStampStore.class.getName();
+    private static boolean sDebug;
+
+    private static final String FOLDER_CUSTOM_STAMPS = "custom_stamps";
+    private static final String FILE_INDEX = "index";
+    private static final String EXTENSION_OPTION = ".json";
+    private static final String EXTENSION_BITMAP = ".png";
+
+    // saved by older versions
+    private static final String FILE_LEGACY_CUSTOM_STAMPS_INFO = "com_pdftron_pdf_model_file_custom_stamps";
+    private static final String FILE_LEGACY_BITMAP_PREFIX = "custom_stamp_bitmap_";
+
+    private static CustomStampStore sInstance;
+
+    private static class Record {
+        final long mId;
+        CustomStampOption mOption; // null until parsed
+
+        Record(long id) {
+            mId = id;
+        }
+    }
+
+    private final File mFolder;
+    private final File mLegacyFolder;
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+    private final List<Record> mRecords = new ArrayList<>();
+    private long mNextId = 1;
+    private final LruCache<Long, Bitmap> mBitmapCache;
+    private final Gson mGson = new Gson();
+
+    static synchronized CustomStampStore getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new CustomStampStore(context.getApplicationContext().getFilesDir());
+            sInstance.load();
+        }
+        return sInstance;
+    }
+
+    private CustomStampStore(@NonNull File filesDir) {
+        mFolder = new File(filesDir, FOLDER_CUSTOM_STAMPS);
+        mLegacyFolder = filesDir;
+        int cacheSize = (int) Math.min(Runtime.getRuntime().maxMemory() / 1024 / 16, Integer.MAX_VALUE); // in KB
+        mBitmapCache = new LruCache<Long, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(Long key, Bitmap bitmap) {
+                return Math.max(1, bitmap.getRowBytes() * bitmap.getHeight() / 1024);
+            }
+        };
+    }
+
+    int size() {
+        mLock.readLock().lock();
+        try {
+            return mRecords.size();
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a copy of the option of a stamp, since the caller may modify it.
+     */
+    @Nullable
+    CustomStampOption getOption(int index) {
+        Record record = getRecord(index);
+        if (record == null) {
+            return null;
+        }
+        CustomStampOption option = loadOption(record);
+        return option == null ? null : new CustomStampOption(option);
+    }
+
+    @NonNull
+    List<CustomStampOption> getOptions() {
+        List<Record> records;
+        mLock.readLock().lock();
+        try {
+            records = new ArrayList<>(mRecords);
+        } finally {
+            mLock.readLock().unlock();
+        }
+        List<CustomStampOption> options = new ArrayList<>(records.size());
+        for (Record record : records) {
+            CustomStampOption option = loadOption(record);
+            if (option != null) {
+                options.add(new CustomStampOption(option));
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Returns the bitmap of a stamp. The bitmap is shared and should not be recycled.
+     */
+    @Nullable
+    Bitmap getBitmap(int index) {
+        Record record = getRecord(index);
+        if (record == null) {
+            return null;
+        }
+        Bitmap bitmap = mBitmapCache.get(record.mId);
+        if (bitmap == null) {
+            bitmap = BitmapFactory.decodeFile(getBitmapFile(record.mId).getAbsolutePath());
+            if (bitmap != null) {
+                mBitmapCache.put(record.mId, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return True if the stamp is saved
+     */
+    boolean add(@NonNull CustomStampOption option, @NonNull Bitmap bitmap) {
+        Record record = createRecord(option, bitmap);
+        if (record == null) {
+            return false;
+        }
+        boolean saved;
+        mLock.writeLock().lock();
+        try {
+            mRecords.add(record);
+            saved = saveIndex();
+            if (!saved) {
+                mRecords.remove(record);
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        if (!saved) {
+            deleteRecord(record);
+        }
+        return saved;
+    }
+
+    /**
+     * @return True if the stamp is saved
+     */
+    boolean update(int index, @NonNull CustomStampOption option, @NonNull Bitmap bitmap) {
+        // the stamp is replaced by a new record, and the old record is only deleted
+        // once the index refers to the new one, so a failed write keeps the old stamp
+        Record record = createRecord(option, bitmap);
+        if (record == null) {
+            return false;
+        }
+        Record oldRecord = null;
+        boolean saved = false;
+        mLock.writeLock().lock();
+        try {
+            if (index >= 0 && index < mRecords.size()) {
+                oldRecord = mRecords.set(index, record);
+                saved = saveIndex();
+                if (!saved) {
+                    mRecords.set(index, oldRecord);
+                }
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        deleteRecord(saved ? oldRecord : record);
+        return saved;
+    }
+
+    void duplicate(int index) {
+        Record record = getRecord(index);
+        if (record == null) {
+            return;
+        }
+        Record newRecord = new Record(allocateId());
+        try {
+            Utils.copy(getOptionFile(record.mId), getOptionFile(newRecord.mId));
+            File bitmapFile = getBitmapFile(record.mId);
+            if (bitmapFile.exists()) {
+                Utils.copy(bitmapFile, getBitmapFile(newRecord.mId));
+            }
+        } catch (IOException e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+            deleteRecord(newRecord);
+            return;
+        }
+
+        mLock.writeLock().lock();
+        try {
+            int currentIndex = mRecords.indexOf(record);
+            if (currentIndex != -1) {
+                mRecords.add(currentIndex + 1, newRecord);
+                if (saveIndex()) {
+                    newRecord = null;
+                } else {
+                    mRecords.remove(newRecord);
+                }
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        if (newRecord != null) {
+            // the stamp was removed meanwhile, or the index could not be saved
+            deleteRecord(newRecord);
+        }
+    }
+
+    /**
+     * Removes stamps; the indexes are expected to be in ascending order.
+     */
+    void remove(@NonNull List<Integer> indexes) {
+        List<Record> removed = new ArrayList<>();
+        mLock.writeLock().lock();
+        try {
+            List<Record> records = new ArrayList<>(mRecords);
+            for (int j = indexes.size() - 1; j >= 0; --j) {
+                int index = indexes.get(j);
+                if (index >= 0 && index < mRecords.size()) {
+                    removed.add(mRecords.remove(index));
+                }
+            }
+            if (!removed.isEmpty() && !saveIndex()) {
+                // the index on disk still refers to the stamps
+                mRecords.clear();
+                mRecords.addAll(records);
+                removed.clear();
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        for (Record record : removed) {
+            deleteRecord(record);
+        }
+    }
+
+    void removeAll() {
+        List<Record> removed;
+        mLock.writeLock().lock();
+        try {
+            removed = new ArrayList<>(mRecords);
+            mRecords.clear();
+            if (!saveIndex()) {
+                // the index on disk still refers to the stamps
+                mRecords.addAll(removed);
+                removed.clear();
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        for (Record record : removed) {
+            deleteRecord(record);
+        }
+    }
+
+    void move(int fromPosition, int toPosition) {
+        mLock.writeLock().lock();
+        try {
+            int size = mRecords.size();
+            if (fromPosition < 0 || fromPosition == toPosition
+                || fromPosition >= size || toPosition < 0 || toPosition >= size) {
+                return;
+            }
+            mRecords.add(toPosition, mRecords.remove(fromPosition));
+            if (!saveIndex()) {
+                mRecords.add(fromPosition, mRecords.remove(toPosition));
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    @Nullable
+    private Record getRecord(int index) {
+        mLock.readLock().lock();
+        try {
+            return index >= 0 && index < mRecords.size() ? mRecords.get(index) : null;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    private long allocateId() {
+        mLock.writeLock().lock();
+        try {
+            return mNextId++;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the files of a new record.
+     *
+     * @return The record, or null if its files could not be written
+     */
+    @Nullable
+    private Record createRecord(@NonNull CustomStampOption option, @NonNull Bitmap bitmap) {
+        Record record = new Record(allocateId());
+        boolean success = writeString(getOptionFile(record.mId), mGson.toJson(option));
+
+        // save bitmap for fast read access
+        FileOutputStream fos = null;
+        try {
+            if (success) {
+                fos = new FileOutputStream(getBitmapFile(record.mId));
+                success = bitmap.compress(Bitmap.CompressFormat.PNG, 100, fos);
+                fos.flush();
+            }
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+            success = false;
+        } finally {
+            Utils.closeQuietly(fos);
+        }
+        if (!success) {
+            AnalyticsHandlerAdapter.getInstance().sendException(new Exception("could not save custom stamp"));
+            deleteRecord(record);
+            return null;
+        }
+        record.mOption = new CustomStampOption(option);
+        mBitmapCache.put(record.mId, bitmap);
+        return record;
+    }
+
+    private void deleteRecord(@NonNull Record record) {
+        mBitmapCache.remove(record.mId);
+        //noinspection ResultOfMethodCallIgnored
+        getOptionFile(record.mId).delete();
+        //noinspection ResultOfMethodCallIgnored
+        getBitmapFile(record.mId).delete();
+    }
+
+    @Nullable
+    private CustomStampOption loadOption(@NonNull Record record) {
+        synchronized (record) {
+            if (record.mOption == null) {
+                String json = readString(getOptionFile(record.mId));
+                if (!Utils.isNullOrEmpty(json)) {
+                    try {
+                        record.mOption = new CustomStampOption(new JSONObject(json));
+                    } catch (Exception e) {
+                        AnalyticsHandlerAdapter.getInstance().sendException(e);
+                    }
+                }
+            }
+            return record.mOption;
+        }
+    }
+
+    private void load() {
+        mLock.writeLock().lock();
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            mFolder.mkdirs();
+            File legacyFile = new File(mLegacyFolder, FILE_LEGACY_CUSTOM_STAMPS_INFO);
+            File indexFile = new File(mFolder, FILE_INDEX);
+            if (indexFile.exists()) {
+                String index = readString(indexFile);
+                if (index != null) {
+                    for (String line : index.split("\n")) {
+                        if (line.isEmpty()) {
+                            continue;
+                        }
+                        try {
+                            long id = Long.parseLong(line);
+                            mRecords.add(new Record(id));
+                            mNextId = Math.max(mNextId, id + 1);
+                        } catch (NumberFormatException e) {
+                            AnalyticsHandlerAdapter.getInstance().sendException(e);
+                        }
+                    }
+                }
+            }
+            // the legacy file is only deleted once all stamps are migrated,
+            // so a failed migration is tried again the next time
+            if (legacyFile.exists() && !migrateLegacyStamps(legacyFile)) {
+                if (sDebug) Log.d(TAG, "could not migrate legacy custom stamps");
+            }
+            if (sDebug) Log.d(TAG, "loaded " + mRecords.size() + " custom stamps");
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Converts the stamps saved by older versions, which kept all options in a single file
+     * and named bitmaps after the position of stamps. The converted stamps are added after
+     * the current ones, and the legacy files are deleted once every stamp and the index are
+     * written; otherwise the converted records are dropped and the legacy files kept.
+     *
+     * @return True if the stamps are migrated
+     */
+    private boolean migrateLegacyStamps(@NonNull File legacyFile) {
+        String info = readString(legacyFile);
+        if (info == null) {
+            return false;
+        }
+        List<Record> records = new ArrayList<>();
+        List<File> legacyBitmapFiles = new ArrayList<>();
+        boolean success = false;
+        try {
+            JSONArray jsonArray = Utils.isNullOrEmpty(info) ? new JSONArray() : new JSONArray(info);
+            boolean written = true;
+            for (int i = 0, count = jsonArray.length(); i < count && written; ++i) {
+                Record record = new Record(mNextId++);
+                records.add(record);
+                written = writeString(getOptionFile(record.mId), jsonArray.getJSONObject(i).toString());
+                File legacyBitmapFile = new File(mLegacyFolder, FILE_LEGACY_BITMAP_PREFIX + i + EXTENSION_BITMAP);
+                if (written && legacyBitmapFile.exists()) {
+                    // copied rather than moved, in case the migration has to be tried again
+                    Utils.copy(legacyBitmapFile, getBitmapFile(record.mId));
+                    legacyBitmapFiles.add(legacyBitmapFile);
+                }
+            }
+            if (written) {
+                mRecords.addAll(records);
+                success = saveIndex();
+                if (!success) {
+                    mRecords.removeAll(records);
+                }
+            }
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        }
+
+        if (!success) {
+            for (Record record : records) {
+                deleteRecord(record);
+            }
+            return false;
+        }
+        for (File legacyBitmapFile : legacyBitmapFiles) {
+            //noinspection ResultOfMethodCallIgnored
+            legacyBitmapFile.delete();
+        }
+        //noinspection ResultOfMethodCallIgnored
+        legacyFile.delete();
+        return true;
+    }
+
+    /**
+     * Should be called while holding the write lock.
+     *
+     * @return True if the index is saved
+     */
+    private boolean saveIndex() {
+        StringBuilder builder = new StringBuilder();
+        for (Record record : mRecords) {
+            builder.append(record.mId).append('\n');
+        }
+        File indexFile = new File(mFolder, FILE_INDEX);
+        File tempFile = new File(mFolder, FILE_INDEX + ".tmp");
+        if (!writeString(tempFile, builder.toString()) || !tempFile.renameTo(indexFile)) {
+            AnalyticsHandlerAdapter.getInstance().sendException(new Exception("could not save custom stamps index"));
+            return false;
+        }
+        return true;
+    }
+
+    private File getOptionFile(long id) {
+        return new File(mFolder, id + EXTENSION_OPTION);
+    }
+
+    private File getBitmapFile(long id) {
+        return new File(mFolder, id + EXTENSION_BITMAP);
+    }
+
+    @Nullable
+    private static String readString(@NonNull File file) {
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(file);
+            return IOUtils.toString(fis);
+        } catch (IOException ignored) {
+            return null;
+        } finally {
+            Utils.closeQuietly(fis);
+        }
+    }
+
+    private static boolean writeString(@NonNull File file, String content) {
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(file);
+            IOUtils.write(content, fos);
+            return true;
+        } catch (IOException e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+            return false;
+        } finally {
+            Utils.closeQuietly(fos);
+        }
+    }
+
+    public static void setDebug(boolean debug) {
+        sDebug = debug;
+    }
+}
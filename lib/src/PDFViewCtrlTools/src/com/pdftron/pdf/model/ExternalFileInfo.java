@@ -43,6 +43,7 @@ public class ExternalFileInfo implements Cloneable, BaseFileInfo {
     private boolean mIsSecured;
     private boolean mIsPackage;
     private boolean mIsHidden = false;
+    private String mNameSortKey;
 
     /**
      * Class constructor
@@ -90,6 +91,7 @@ public class ExternalFileInfo implements Cloneable, BaseFileInfo {
                 int columnType = cursor.getColumnIndexOrThrow(DocumentsContract.Document.COLUMN_MIME_TYPE);
 
                 mName = cursor.getString(columnName);
+                mNameSortKey = null;
                 mDateLastModified = cursor.getLong(columnDate);
                 mSize = cursor.getLong(columnSize);
                 mType = cursor.getString(columnType);
@@ -562,6 +564,7 @@ public class ExternalFileInfo implements Cloneable, BaseFileInfo {
             if (newUri != null) {
                 mUri = newUri;
                 mName = displayName;
+                mNameSortKey = null;
                 return true;
             } else {
                 return false;
@@ -686,6 +689,24 @@ public class ExternalFileInfo implements Cloneable, BaseFileInfo {
         return getName();
     }
 
+    /**
+     * @return the file name, to be compared case-sensitively instead of
+     * comparing file names case-insensitively
+     */
+    public String getNameSortKey() {
+        if (mNameSortKey == null) {
+            mNameSortKey = Utils.getCaseInsensitiveSortKey(getName());
+        }
+        return mNameSortKey;
+    }
+
+    /**
+     * @return the last modified date
+     */
+    public long getModifiedDateSortKey() {
+        return mDateLastModified;
+    }
+
     /**
      * @return the file extension
      */
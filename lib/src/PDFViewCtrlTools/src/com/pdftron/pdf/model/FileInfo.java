@@ -195,6 +195,13 @@ public class FileInfo implements BaseFileInfo {
      */
     protected int mSectionFirstPos = -1;
 
+    // attributes captured for sorting, see captureSortKeys()
+    private transient boolean mHasSortKeys;
+    private transient String mNameSortKey;
+    private transient String mPathSortKey;
+    private transient String mParentPathSortKey;
+    private transient long mModifiedDateSortKey;
+
     /**
      * Class constructor
      */
@@ -500,6 +507,69 @@ public class FileInfo implements BaseFileInfo {
             mFile.lastModified() : 0;
     }
 
+    /**
+     * Captures the attributes used for sorting: the name, the absolute path, the parent directory
+     * path and the last modified date. Comparators can then use the sort keys without allocating
+     * paths or querying the file system on each comparison.
+     * <p>
+     * Sort keys are captured on first use if this method is not called; call it again to
+     * refresh them, for example before sorting a list of files that may have been modified.
+     */
+    public void captureSortKeys() {
+        mNameSortKey = Utils.getCaseInsensitiveSortKey(getName());
+        mPathSortKey = Utils.getCaseInsensitiveSortKey(getAbsolutePath());
+        mParentPathSortKey = Utils.getCaseInsensitiveSortKey(getParentDirectoryPath());
+        mModifiedDateSortKey = mFile != null ? mFile.lastModified() : 0;
+        mHasSortKeys = true;
+    }
+
+    /**
+     * @return the name of file, to be compared case-sensitively
+     * @see #captureSortKeys()
+     */
+    @NonNull
+    public String getNameSortKey() {
+        if (!mHasSortKeys) {
+            captureSortKeys();
+        }
+        return mNameSortKey;
+    }
+
+    /**
+     * @return the absolute path, to be compared case-sensitively
+     * @see #captureSortKeys()
+     */
+    @NonNull
+    public String getPathSortKey() {
+        if (!mHasSortKeys) {
+            captureSortKeys();
+        }
+        return mPathSortKey;
+    }
+
+    /**
+     * @return the parent directory path, to be compared case-sensitively
+     * @see #captureSortKeys()
+     */
+    @NonNull
+    public String getParentPathSortKey() {
+        if (!mHasSortKeys) {
+            captureSortKeys();
+        }
+        return mParentPathSortKey;
+    }
+
+    /**
+     * @return the last modified date when sort keys were captured
+     * @see #captureSortKeys()
+     */
+    public long getModifiedDateSortKey() {
+        if (!mHasSortKeys) {
+            captureSortKeys();
+        }
+        return mModifiedDateSortKey;
+    }
+
     /**
      * Sets if the file is secured.
      *
@@ -18,6 +18,9 @@ public class InkItem {
 
     public ArrayList<ArrayList<PointF>> mDrawingStrokes;
 
+    // page space Bezier control points by stroke, see StrokeCtrlPts
+    public ArrayList<StrokeCtrlPts> mPageStrokeCtrlPts;
+
     public ArrayList<Path> mPaths;
 
     public int mPageForFreehandAnnot;
@@ -37,6 +40,7 @@ public class InkItem {
         mPageStrokePoints = new ArrayList<>();
         mPageStrokes = new ArrayList<>();
         mDrawingStrokes = new ArrayList<>();
+        mPageStrokeCtrlPts = new ArrayList<>();
         mPaths = new ArrayList<>();
 
         mIsFirstPath = true;
@@ -82,6 +86,7 @@ public class InkItem {
             }
             mDrawingStrokes.add(temp);
         }
+        mPageStrokeCtrlPts = new ArrayList<>();
 
         mPageForFreehandAnnot = inkItem.mPageForFreehandAnnot;
 
@@ -95,4 +100,35 @@ public class InkItem {
 
         mCommittedAnnot = false;
     }
+
+    /**
+     * The Bezier control points of a page stroke in page space. Since they do not depend on
+     * the zoom or the scroll position, they are only computed again when the stroke changes.
+     */
+    public static class StrokeCtrlPts {
+        private final ArrayList<PointF> mPageStroke;
+        private final int mPointCount;
+        public final float[] mCtrlPts;
+
+        /**
+         * Class constructor
+         *
+         * @param pageStroke The page stroke
+         * @param ctrlPts    The control points of the stroke as x, y pairs
+         */
+        public StrokeCtrlPts(ArrayList<PointF> pageStroke, float[] ctrlPts) {
+            mPageStroke = pageStroke;
+            mPointCount = pageStroke.size();
+            mCtrlPts = ctrlPts;
+        }
+
+        /**
+         * @param pageStroke The page stroke
+         * @return True if the control points were computed from the specified stroke
+         * in its current state
+         */
+        public boolean isValidFor(ArrayList<PointF> pageStroke) {
+            return mPageStroke == pageStroke && mPointCount == pageStroke.size();
+        }
+    }
 }
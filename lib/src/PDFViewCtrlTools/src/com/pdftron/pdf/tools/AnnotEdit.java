@@ -80,6 +80,7 @@ import com.pdftron.sdf.Obj;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.Collections;
 import java.util.Set;
 
 /**
@@ -3788,6 +3789,7 @@ public class AnnotEdit extends Tool implements DialogAnnotNoteListener,
             mPdfViewCtrl.update(rect);
 
             raiseAnnotationModifiedEvent(mAnnot, mAnnotPageNum, bundle);
+            invalidateTextSearchIndex(Collections.singletonList(mAnnotPageNum));
         } catch (Exception e) {
             AnalyticsHandlerAdapter.getInstance().sendException(e);
         } finally {
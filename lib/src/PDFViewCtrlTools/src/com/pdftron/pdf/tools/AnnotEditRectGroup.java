@@ -353,6 +353,7 @@ public class AnnotEditRectGroup extends AnnotEdit {
             PDFDoc pdfDoc = mPdfViewCtrl.getDoc();
             raiseAnnotationPreModifyEvent(mSelectedAnnotsMap);
 
+            ArrayList<Integer> flattenedPages = new ArrayList<>();
             for (Map.Entry<Annot, Integer> entry : mSelectedAnnotsMap.entrySet()) {
                 Annot annot = entry.getKey();
                 if (annot == null) {
@@ -362,9 +363,13 @@ public class AnnotEditRectGroup extends AnnotEdit {
                 Page page = pdfDoc.getPage(annotPageNum);
                 annot.flatten(page);
                 mPdfViewCtrl.update(annot, annotPageNum);
+                if (!flattenedPages.contains(annotPageNum)) {
+                    flattenedPages.add(annotPageNum);
+                }
             }
 
             raiseAnnotationModifiedEvent(mSelectedAnnotsMap);
+            invalidateTextSearchIndex(flattenedPages);
         } catch (Exception e) {
             AnalyticsHandlerAdapter.getInstance().sendException(e);
         } finally {
@@ -0,0 +1,539 @@
+//---------------------------------------------------------------------------------------
+// Copyright (c) 2001-2018 by PDFTron Systems Inc. All Rights Reserved.
+// Consult legal.txt regarding legal and license information.
+//---------------------------------------------------------------------------------------
+
+package com.pdftron.pdf.tools;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.UiThread;
+import android.util.Log;
+import android.view.Choreographer;
+
+import com.pdftron.pdf.Annot;
+import com.pdftron.pdf.utils.AnalyticsHandlerAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Dispatches annotation modification events raised by {@link ToolManager}.
+ * <p>
+ * {@link ToolManager.AnnotationModificationListener}s are called synchronously for every event,
+ * since some of them, such as the undo manager, need to observe the document right before or after
+ * each change. Listeners that only need to know what changed, such as the annotation list, the
+ * thumbnails and the document saving in {@link com.pdftron.pdf.controls.PdfViewCtrlTabFragment},
+ * should register a {@link BatchListener} instead: events are then coalesced until the next frame
+ * and delivered as a single {@link Batch}, either on the UI thread or on a background thread.
+ * <p>
+ * When debugging is enabled, the time spent in every listener is recorded, see {@link #getDispatchStats()}.
+ */
+public class AnnotationEventBus {
+
+    private static final String TAG = AnnotationEventBus.class.getName();
+    private static boolean sDebug;
+
+    private static final long SLOW_DISPATCH_TIME = 16000; // us
+
+    /**
+     * Callback interface to be invoked with the annotation events of a frame.
+     */
+    public interface BatchListener {
+        /**
+         * Called with the annotation events raised since the previous batch. When the listener
+         * is registered for background delivery, this is called on a background thread, and the
+         * document has to be locked before the annotations are accessed.
+         *
+         * @param batch The events
+         */
+        void onAnnotationEventBatch(@NonNull Batch batch);
+    }
+
+    /**
+     * The annotation events raised during a frame. Events on the same annotation are merged:
+     * an annotation added and then modified is only reported as added, and an annotation added
+     * and then removed is not reported, although its page is.
+     */
+    public static class Batch {
+        private final LinkedHashMap<Annot, Integer> mAdded = new LinkedHashMap<>();
+        private final LinkedHashMap<Annot, Integer> mModified = new LinkedHashMap<>();
+        private final LinkedHashMap<Annot, Integer> mRemoved = new LinkedHashMap<>();
+        private final HashSet<Integer> mPagesCleared = new HashSet<>();
+        private final HashSet<Integer> mPages = new HashSet<>();
+        private int mEventCount;
+
+        void addAdded(Map<Annot, Integer> annots) {
+            for (Map.Entry<Annot, Integer> entry : annots.entrySet()) {
+                mRemoved.remove(entry.getKey());
+                mAdded.put(entry.getKey(), entry.getValue());
+                addPage(entry.getValue());
+            }
+            ++mEventCount;
+        }
+
+        void addModified(Map<Annot, Integer> annots) {
+            for (Map.Entry<Annot, Integer> entry : annots.entrySet()) {
+                if (!mAdded.containsKey(entry.getKey())) {
+                    mModified.put(entry.getKey(), entry.getValue());
+                }
+                addPage(entry.getValue());
+            }
+            ++mEventCount;
+        }
+
+        void addRemoved(Map<Annot, Integer> annots) {
+            for (Map.Entry<Annot, Integer> entry : annots.entrySet()) {
+                mModified.remove(entry.getKey());
+                if (mAdded.remove(entry.getKey()) == null) {
+                    mRemoved.put(entry.getKey(), entry.getValue());
+                }
+                addPage(entry.getValue());
+            }
+            ++mEventCount;
+        }
+
+        void addRemovedOnPage(int pageNum) {
+            mPagesCleared.add(pageNum);
+            mPages.add(pageNum);
+            ++mEventCount;
+        }
+
+        private void addPage(Integer pageNum) {
+            if (pageNum != null) {
+                mPages.add(pageNum);
+            }
+        }
+
+        /**
+         * @return The annotations added, with their page numbers
+         */
+        @NonNull
+        public Map<Annot, Integer> getAddedAnnots() {
+            return Collections.unmodifiableMap(mAdded);
+        }
+
+        /**
+         * @return The annotations modified, with their page numbers
+         */
+        @NonNull
+        public Map<Annot, Integer> getModifiedAnnots() {
+            return Collections.unmodifiableMap(mModified);
+        }
+
+        /**
+         * @return The annotations removed, with their page numbers
+         */
+        @NonNull
+        public Map<Annot, Integer> getRemovedAnnots() {
+            return Collections.unmodifiableMap(mRemoved);
+        }
+
+        /**
+         * @return The pages all annotations were removed from
+         */
+        @NonNull
+        public Set<Integer> getPagesWithAllAnnotsRemoved() {
+            return Collections.unmodifiableSet(mPagesCleared);
+        }
+
+        /**
+         * @return The pages on which annotations were added, modified or removed
+         */
+        @NonNull
+        public Set<Integer> getPages() {
+            return Collections.unmodifiableSet(mPages);
+        }
+
+        /**
+         * @return The number of events merged into this batch
+         */
+        public int getEventCount() {
+            return mEventCount;
+        }
+
+        boolean isEmpty() {
+            return mEventCount == 0;
+        }
+    }
+
+    /**
+     * The time spent dispatching events to a listener.
+     */
+    public static class DispatchStats {
+        private final String mListenerName;
+        private int mDispatchCount;
+        private long mTotalTime;
+        private long mMaxTime;
+
+        DispatchStats(String listenerName) {
+            mListenerName = listenerName;
+        }
+
+        DispatchStats(DispatchStats other) {
+            mListenerName = other.mListenerName;
+            mDispatchCount = other.mDispatchCount;
+            mTotalTime = other.mTotalTime;
+            mMaxTime = other.mMaxTime;
+        }
+
+        void add(long time) {
+            ++mDispatchCount;
+            mTotalTime += time;
+            mMaxTime = Math.max(mMaxTime, time);
+        }
+
+        /**
+         * @return The class name of the listener
+         */
+        @NonNull
+        public String getListenerName() {
+            return mListenerName;
+        }
+
+        /**
+         * @return The number of events or batches dispatched to the listener
+         */
+        public int getDispatchCount() {
+            return mDispatchCount;
+        }
+
+        /**
+         * @return The total time spent in the listener, in microseconds
+         */
+        public long getTotalTime() {
+            return mTotalTime;
+        }
+
+        /**
+         * @return The longest time spent in the listener for one dispatch, in microseconds
+         */
+        public long getMaxTime() {
+            return mMaxTime;
+        }
+    }
+
+    private static class BatchListenerEntry {
+        final BatchListener mListener;
+        final boolean mBackground;
+
+        BatchListenerEntry(BatchListener listener, boolean background) {
+            mListener = listener;
+            mBackground = background;
+        }
+    }
+
+    private final ArrayList<ToolManager.AnnotationModificationListener> mListeners = new ArrayList<>();
+    // snapshot of mListeners so that listeners can unregister themselves during dispatch
+    private ToolManager.AnnotationModificationListener[] mListenerArray = new ToolManager.AnnotationModificationListener[0];
+    private final ArrayList<BatchListenerEntry> mBatchListeners = new ArrayList<>();
+
+    // weak keys so that statistics do not keep removed listeners alive
+    private final WeakHashMap<Object, DispatchStats> mDispatchStats = new WeakHashMap<>();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private ExecutorService mBackgroundExecutor;
+    private Batch mPendingBatch; // guarded by this
+    private boolean mFrameScheduled; // guarded by this
+    private volatile boolean mShutdown;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            dispatchBatch();
+        }
+    };
+
+    private final Runnable mScheduleFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    };
+
+    /**
+     * Adds a listener that is called synchronously for every event.
+     *
+     * @param listener The listener
+     */
+    public void addListener(@NonNull ToolManager.AnnotationModificationListener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+            mListenerArray = mListeners.toArray(new ToolManager.AnnotationModificationListener[mListeners.size()]);
+        }
+    }
+
+    /**
+     * Removes a listener added by {@link #addListener(ToolManager.AnnotationModificationListener)}.
+     *
+     * @param listener The listener
+     */
+    public void removeListener(@NonNull ToolManager.AnnotationModificationListener listener) {
+        if (mListeners.remove(listener)) {
+            mListenerArray = mListeners.toArray(new ToolManager.AnnotationModificationListener[mListeners.size()]);
+        }
+    }
+
+    /**
+     * Adds a listener that is called once per frame with the events raised during the frame.
+     *
+     * @param listener   The listener
+     * @param background True if the listener should be called on a background thread,
+     *                   false to call it on the UI thread
+     */
+    public void addBatchListener(@NonNull BatchListener listener, boolean background) {
+        synchronized (this) {
+            for (BatchListenerEntry entry : mBatchListeners) {
+                if (entry.mListener == listener) {
+                    return;
+                }
+            }
+            mBatchListeners.add(new BatchListenerEntry(listener, background));
+        }
+    }
+
+    /**
+     * Removes a listener added by {@link #addBatchListener(BatchListener, boolean)}.
+     *
+     * @param listener The listener
+     */
+    public void removeBatchListener(@NonNull BatchListener listener) {
+        synchronized (this) {
+            for (int i = mBatchListeners.size() - 1; i >= 0; --i) {
+                if (mBatchListeners.get(i).mListener == listener) {
+                    mBatchListeners.remove(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The time spent in each listener since the statistics were last reset. Statistics
+     * are only recorded when debugging is enabled, see {@link #setDebug(boolean)}.
+     */
+    @NonNull
+    public List<DispatchStats> getDispatchStats() {
+        synchronized (mDispatchStats) {
+            ArrayList<DispatchStats> stats = new ArrayList<>(mDispatchStats.size());
+            for (DispatchStats listenerStats : mDispatchStats.values()) {
+                stats.add(new DispatchStats(listenerStats));
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Resets the statistics returned by {@link #getDispatchStats()}.
+     */
+    public void resetDispatchStats() {
+        synchronized (mDispatchStats) {
+            mDispatchStats.clear();
+        }
+    }
+
+    /**
+     * Stops dispatching batches. Synchronous listeners are still called.
+     */
+    public void shutdown() {
+        mShutdown = true;
+        mHandler.removeCallbacks(mScheduleFrameRunnable);
+        synchronized (this) {
+            mPendingBatch = null;
+            if (mBackgroundExecutor != null) {
+                mBackgroundExecutor.shutdown();
+                mBackgroundExecutor = null;
+            }
+        }
+    }
+
+    void onAnnotationsAdded(Map<Annot, Integer> annots) {
+        for (ToolManager.AnnotationModificationListener listener : mListenerArray) {
+            long startTime = System.nanoTime();
+            listener.onAnnotationsAdded(annots);
+            recordDispatch(listener, startTime);
+        }
+        synchronized (this) {
+            Batch batch = getPendingBatchLocked();
+            if (batch != null) {
+                batch.addAdded(annots);
+            }
+        }
+    }
+
+    void onAnnotationsPreModify(Map<Annot, Integer> annots) {
+        for (ToolManager.AnnotationModificationListener listener : mListenerArray) {
+            long startTime = System.nanoTime();
+            listener.onAnnotationsPreModify(annots);
+            recordDispatch(listener, startTime);
+        }
+    }
+
+    void onAnnotationsModified(Map<Annot, Integer> annots, Bundle extra) {
+        for (ToolManager.AnnotationModificationListener listener : mListenerArray) {
+            long startTime = System.nanoTime();
+            listener.onAnnotationsModified(annots, extra);
+            recordDispatch(listener, startTime);
+        }
+        synchronized (this) {
+            Batch batch = getPendingBatchLocked();
+            if (batch != null) {
+                batch.addModified(annots);
+            }
+        }
+    }
+
+    void onAnnotationsPreRemove(Map<Annot, Integer> annots) {
+        for (ToolManager.AnnotationModificationListener listener : mListenerArray) {
+            long startTime = System.nanoTime();
+            listener.onAnnotationsPreRemove(annots);
+            recordDispatch(listener, startTime);
+        }
+    }
+
+    void onAnnotationsRemoved(Map<Annot, Integer> annots) {
+        for (ToolManager.AnnotationModificationListener listener : mListenerArray) {
+            long startTime = System.nanoTime();
+            listener.onAnnotationsRemoved(annots);
+            recordDispatch(listener, startTime);
+        }
+        synchronized (this) {
+            Batch batch = getPendingBatchLocked();
+            if (batch != null) {
+                batch.addRemoved(annots);
+            }
+        }
+    }
+
+    void onAnnotationsRemovedOnPage(int pageNum) {
+        for (ToolManager.AnnotationModificationListener listener : mListenerArray) {
+            long startTime = System.nanoTime();
+            listener.onAnnotationsRemovedOnPage(pageNum);
+            recordDispatch(listener, startTime);
+        }
+        synchronized (this) {
+            Batch batch = getPendingBatchLocked();
+            if (batch != null) {
+                batch.addRemovedOnPage(pageNum);
+            }
+        }
+    }
+
+    void annotationsCouldNotBeAdded(String errorMessage) {
+        for (ToolManager.AnnotationModificationListener listener : mListenerArray) {
+            long startTime = System.nanoTime();
+            listener.annotationsCouldNotBeAdded(errorMessage);
+            recordDispatch(listener, startTime);
+        }
+    }
+
+    /**
+     * Returns the batch collecting the events of the current frame, and schedules its dispatch.
+     *
+     * @return The batch, or null if there is no batch listener
+     */
+    private Batch getPendingBatchLocked() {
+        if (mShutdown || mBatchListeners.isEmpty()) {
+            return null;
+        }
+        if (mPendingBatch == null) {
+            mPendingBatch = new Batch();
+        }
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                Choreographer.getInstance().postFrameCallback(mFrameCallback);
+            } else {
+                mHandler.post(mScheduleFrameRunnable);
+            }
+        }
+        return mPendingBatch;
+    }
+
+    @UiThread
+    private void dispatchBatch() {
+        final Batch batch;
+        BatchListenerEntry[] entries;
+        synchronized (this) {
+            mFrameScheduled = false;
+            batch = mPendingBatch;
+            mPendingBatch = null;
+            if (batch == null || batch.isEmpty() || mShutdown) {
+                return;
+            }
+            entries = mBatchListeners.toArray(new BatchListenerEntry[mBatchListeners.size()]);
+        }
+
+        final ArrayList<BatchListener> backgroundListeners = new ArrayList<>();
+        for (BatchListenerEntry entry : entries) {
+            if (entry.mBackground) {
+                backgroundListeners.add(entry.mListener);
+            } else {
+                dispatchBatch(entry.mListener, batch);
+            }
+        }
+        if (backgroundListeners.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (mShutdown) {
+                return;
+            }
+            if (mBackgroundExecutor == null) {
+                mBackgroundExecutor = Executors.newSingleThreadExecutor();
+            }
+            mBackgroundExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (BatchListener listener : backgroundListeners) {
+                        if (mShutdown) {
+                            return;
+                        }
+                        dispatchBatch(listener, batch);
+                    }
+                }
+            });
+        }
+    }
+
+    private void dispatchBatch(BatchListener listener, Batch batch) {
+        long startTime = System.nanoTime();
+        try {
+            listener.onAnnotationEventBatch(batch);
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        }
+        recordDispatch(listener, startTime);
+    }
+
+    private void recordDispatch(Object listener, long startTime) {
+        if (!sDebug) {
+            return;
+        }
+        long time = (System.nanoTime() - startTime) / 1000;
+        synchronized (mDispatchStats) {
+            DispatchStats stats = mDispatchStats.get(listener);
+            if (stats == null) {
+                stats = new DispatchStats(listener.getClass().getName());
+                mDispatchStats.put(listener, stats);
+            }
+            stats.add(time);
+        }
+        if (time > SLOW_DISPATCH_TIME) {
+            Log.d(TAG, listener.getClass().getName() + " took " + (time / 1000) + "ms");
+        }
+    }
+
+    public static void setDebug(boolean debug) {
+        sDebug = debug;
+    }
+}
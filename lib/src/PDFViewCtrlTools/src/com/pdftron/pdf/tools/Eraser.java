@@ -31,6 +31,7 @@ import com.pdftron.pdf.utils.AnalyticsHandlerAdapter;
 import com.pdftron.pdf.utils.Utils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 
@@ -84,6 +85,9 @@ public class Eraser extends SimpleShapeCreate {
     private boolean mDoUpdate = false;
     private boolean mInitializedOnMove;
 
+    // ink annotations on the page being erased, built on the first erase of each stroke
+    private InkIndex mInkIndex;
+
     /**
      * Class constructor
      */
@@ -209,6 +213,8 @@ public class Eraser extends SimpleShapeCreate {
         }
 
         mInitializedOnMove = true;
+        // annotations may have been changed since the last stroke, e.g. by undo
+        mInkIndex = null;
 
         mPt1BBox.set(mPt1);
         mPt2BBox.set(mPt2);
@@ -309,21 +315,7 @@ public class Eraser extends SimpleShapeCreate {
                 Page page = mPdfViewCtrl.getDoc().getPage(mDownPageNum);
                 switch (mEraserType) {
                     case INK_ERASER:
-                        int annot_num = page.getNumAnnots();
-                        for (int i = annot_num - 1; i >= 0; --i) {
-                            Annot annot = page.getAnnot(i);
-                            if (!annot.isValid())
-                                continue;
-                            if (annot.getType() == Annot.e_Ink) {
-                                Ink ink = new Ink(annot);
-                                if (ink.erase(pdfPt1, pdfPt2, mEraserHalfThickness)) {
-                                    if (!mInkList.contains(ink)) {
-                                        mInkList.add(ink);
-                                        mDoUpdate = true;
-                                    }
-                                }
-                            }
-                        }
+                        eraseInks(page, pdfPt1, pdfPt2);
                         break;
                     case ANNOTATION_ERASER:
                         ArrayList<Annot> annots = mPdfViewCtrl.getAnnotationListAt(
@@ -388,21 +380,7 @@ public class Eraser extends SimpleShapeCreate {
                     switch (mEraserType) {
                         case INK_ERASER:
                             Page page = mPdfViewCtrl.getDoc().getPage(mDownPageNum);
-                            int annot_num = page.getNumAnnots();
-                            for (int i = annot_num - 1; i >= 0; --i) {
-                                Annot annot = page.getAnnot(i);
-                                if (!annot.isValid())
-                                    continue;
-                                if (annot.getType() == Annot.e_Ink) {
-                                    Ink ink = new Ink(annot);
-                                    if (ink.erase(pdfPt1, pdfPt1, mEraserHalfThickness)) {
-                                        if (!mInkList.contains(ink)) {
-                                            mInkList.add(ink);
-                                            mDoUpdate = true;
-                                        }
-                                    }
-                                }
-                            }
+                            eraseInks(page, pdfPt1, pdfPt1);
                             break;
                         case ANNOTATION_ERASER:
                             ArrayList<Annot> annots = mPdfViewCtrl.getAnnotationListAt(
@@ -441,6 +419,7 @@ public class Eraser extends SimpleShapeCreate {
             mStrokes.clear();
             mInkList.clear();
             mAnnotList.clear();
+            mInkIndex = null;
         }
 
         if (mDoUpdate) {
@@ -458,6 +437,29 @@ public class Eraser extends SimpleShapeCreate {
         return skipOnUpPriorEvent(priorEventMode);
     }
 
+    /**
+     * Erases the segment from the ink annotations near it. The document must be locked.
+     */
+    private void eraseInks(Page page, Point pdfPt1, Point pdfPt2) throws PDFNetException {
+        if (mInkIndex == null || mInkIndex.getPageNum() != mDownPageNum) {
+            mInkIndex = new InkIndex(page, mDownPageNum);
+        }
+        double x1 = Math.min(pdfPt1.x, pdfPt2.x) - mEraserHalfThickness;
+        double y1 = Math.min(pdfPt1.y, pdfPt2.y) - mEraserHalfThickness;
+        double x2 = Math.max(pdfPt1.x, pdfPt2.x) + mEraserHalfThickness;
+        double y2 = Math.max(pdfPt1.y, pdfPt2.y) + mEraserHalfThickness;
+        int count = mInkIndex.query(x1, y1, x2, y2);
+        for (int i = 0; i < count; ++i) {
+            int index = mInkIndex.getResult(i);
+            Ink ink = mInkIndex.getInk(index);
+            if (ink.erase(pdfPt1, pdfPt2, mEraserHalfThickness) && !mInkIndex.isErased(index)) {
+                mInkIndex.setErased(index);
+                mInkList.add(ink);
+                mDoUpdate = true;
+            }
+        }
+    }
+
     /**
      * The overload implementation of {@link SimpleShapeCreate#createMarkup(PDFDoc, Rect)}.
      */
@@ -587,4 +589,174 @@ public class Eraser extends SimpleShapeCreate {
         }
         canvas.drawPath(mPath, mPaint);
     }
+
+    /**
+     * A uniform grid of the bounding boxes of the ink annotations on a page, in page space.
+     * Erasing only removes points, so the bounding boxes read when the index is built still
+     * contain the inks until the end of the stroke.
+     */
+    private static class InkIndex {
+        private static final int MAX_GRID_SIZE = 64;
+
+        private final int mPageNum;
+        // inks in the order they are tested, from the top-most annotation down
+        private final ArrayList<Ink> mInks = new ArrayList<>();
+        private double[] mRects = new double[64]; // x1, y1, x2, y2 of each ink
+        private boolean[] mErased;
+
+        private double mMinX, mMinY;
+        private double mCellWidth, mCellHeight;
+        private int mColumns, mRows;
+        private int[][] mCells; // indices of the inks overlapping each cell
+        private int[] mCellSizes;
+
+        // avoids returning an ink twice when it overlaps several queried cells
+        private int[] mQueryStamps;
+        private int mQueryStamp;
+        private int[] mResults = new int[16];
+
+        InkIndex(Page page, int pageNum) throws PDFNetException {
+            mPageNum = pageNum;
+
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            int annotNum = page.getNumAnnots();
+            for (int i = annotNum - 1; i >= 0; --i) {
+                Annot annot = page.getAnnot(i);
+                if (!annot.isValid() || annot.getType() != Annot.e_Ink) {
+                    continue;
+                }
+                Rect rect = annot.getRect();
+                rect.normalize();
+                // the stroke may extend beyond the rectangle by half of its width
+                double margin = annot.getBorderStyle().getWidth() / 2;
+                int offset = mInks.size() * 4;
+                if (offset == mRects.length) {
+                    mRects = Arrays.copyOf(mRects, offset * 2);
+                }
+                mRects[offset] = rect.getX1() - margin;
+                mRects[offset + 1] = rect.getY1() - margin;
+                mRects[offset + 2] = rect.getX2() + margin;
+                mRects[offset + 3] = rect.getY2() + margin;
+                minX = Math.min(minX, mRects[offset]);
+                minY = Math.min(minY, mRects[offset + 1]);
+                maxX = Math.max(maxX, mRects[offset + 2]);
+                maxY = Math.max(maxY, mRects[offset + 3]);
+                mInks.add(new Ink(annot));
+            }
+
+            int count = mInks.size();
+            mErased = new boolean[count];
+            mQueryStamps = new int[count];
+            int gridSize = Math.max(1, Math.min(MAX_GRID_SIZE, (int) Math.ceil(Math.sqrt(count))));
+            mColumns = gridSize;
+            mRows = gridSize;
+            mCells = new int[gridSize * gridSize][];
+            mCellSizes = new int[gridSize * gridSize];
+            if (count == 0) {
+                return;
+            }
+            mMinX = minX;
+            mMinY = minY;
+            mCellWidth = Math.max((maxX - minX) / mColumns, 1);
+            mCellHeight = Math.max((maxY - minY) / mRows, 1);
+
+            for (int i = 0; i < count; ++i) {
+                int offset = i * 4;
+                int col1 = getColumn(mRects[offset]);
+                int row1 = getRow(mRects[offset + 1]);
+                int col2 = getColumn(mRects[offset + 2]);
+                int row2 = getRow(mRects[offset + 3]);
+                for (int row = row1; row <= row2; ++row) {
+                    for (int col = col1; col <= col2; ++col) {
+                        addToCell(row * mColumns + col, i);
+                    }
+                }
+            }
+        }
+
+        int getPageNum() {
+            return mPageNum;
+        }
+
+        Ink getInk(int index) {
+            return mInks.get(index);
+        }
+
+        boolean isErased(int index) {
+            return mErased[index];
+        }
+
+        void setErased(int index) {
+            mErased[index] = true;
+        }
+
+        /**
+         * Finds the inks whose bounding boxes intersect the specified rectangle. The indices of
+         * the inks are returned by {@link #getResult(int)} in the order they should be tested.
+         *
+         * @return The number of inks found
+         */
+        int query(double x1, double y1, double x2, double y2) {
+            if (mInks.isEmpty()) {
+                return 0;
+            }
+            ++mQueryStamp;
+            int count = 0;
+            int col1 = getColumn(x1);
+            int row1 = getRow(y1);
+            int col2 = getColumn(x2);
+            int row2 = getRow(y2);
+            for (int row = row1; row <= row2; ++row) {
+                for (int col = col1; col <= col2; ++col) {
+                    int cell = row * mColumns + col;
+                    int[] indices = mCells[cell];
+                    for (int j = 0, size = mCellSizes[cell]; j < size; ++j) {
+                        int index = indices[j];
+                        if (mQueryStamps[index] == mQueryStamp) {
+                            continue;
+                        }
+                        mQueryStamps[index] = mQueryStamp;
+                        int offset = index * 4;
+                        if (mRects[offset] > x2 || mRects[offset + 2] < x1
+                                || mRects[offset + 1] > y2 || mRects[offset + 3] < y1) {
+                            continue;
+                        }
+                        if (count == mResults.length) {
+                            mResults = Arrays.copyOf(mResults, count * 2);
+                        }
+                        mResults[count++] = index;
+                    }
+                }
+            }
+            Arrays.sort(mResults, 0, count);
+            return count;
+        }
+
+        int getResult(int i) {
+            return mResults[i];
+        }
+
+        private int getColumn(double x) {
+            return Math.max(0, Math.min(mColumns - 1, (int) Math.floor((x - mMinX) / mCellWidth)));
+        }
+
+        private int getRow(double y) {
+            return Math.max(0, Math.min(mRows - 1, (int) Math.floor((y - mMinY) / mCellHeight)));
+        }
+
+        private void addToCell(int cell, int index) {
+            int[] indices = mCells[cell];
+            int size = mCellSizes[cell];
+            if (indices == null) {
+                indices = new int[4];
+                mCells[cell] = indices;
+            } else if (size == indices.length) {
+                indices = Arrays.copyOf(indices, size * 2);
+                mCells[cell] = indices;
+            }
+            indices[size] = index;
+            mCellSizes[cell] = size + 1;
+        }
+    }
 }
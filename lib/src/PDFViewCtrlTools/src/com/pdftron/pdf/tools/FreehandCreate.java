@@ -37,6 +37,7 @@ import com.pdftron.pdf.model.InkItem;
 import com.pdftron.pdf.tools.ToolManager.ToolMode;
 import com.pdftron.pdf.utils.AnalyticsHandlerAdapter;
 import com.pdftron.pdf.utils.DrawingUtils;
+import com.pdftron.pdf.utils.IncrementalInkPath;
 import com.pdftron.pdf.utils.PathPool;
 import com.pdftron.pdf.utils.PointFPool;
 import com.pdftron.pdf.utils.Utils;
@@ -90,6 +91,7 @@ public class FreehandCreate extends SimpleShapeCreate {
 
     private ArrayList<PointF> mCurrentScreenStroke = new ArrayList<>();
     private ArrayList<PointF> mCurrentCanvasStroke = new ArrayList<>();
+    private final IncrementalInkPath mCurrentStrokePath = new IncrementalInkPath();
 
     private boolean mIsFirstPointNotOnPage;
     private boolean mFlinging;
@@ -437,7 +439,7 @@ public class FreehandCreate extends SimpleShapeCreate {
 
         resetCurrentPaths();
         mCurrentScreenStroke.add(PointFPool.getInstance().obtain(e.getX(), e.getY()));
-        mCurrentCanvasStroke.add(PointFPool.getInstance().obtain(mPt1.x, mPt1.y));
+        addCanvasPoint(mPt1.x, mPt1.y);
 
         return false;
     }
@@ -541,7 +543,7 @@ public class FreehandCreate extends SimpleShapeCreate {
             mPrevY = canvasY;
 
             mCurrentScreenStroke.add(PointFPool.getInstance().obtain(x, y));
-            mCurrentCanvasStroke.add(PointFPool.getInstance().obtain(canvasX, canvasY));
+            addCanvasPoint(canvasX, canvasY);
             mPt1.x = Math.min(canvasX, mPt1.x);
             mPt1.y = Math.min(canvasY, mPt1.y);
             mPt2.x = Math.max(canvasX, mPt2.x);
@@ -660,14 +662,15 @@ public class FreehandCreate extends SimpleShapeCreate {
             if (mCurrentScreenStroke.size() == 1) {
                 PointF tempPt = PointFPool.getInstance().obtain(mCurrentScreenStroke.get(0).x + START_DRAWING_THRESHOLD / 2, mCurrentScreenStroke.get(0).y + START_DRAWING_THRESHOLD / 2);
                 mCurrentScreenStroke.add(tempPt);
-                mCurrentCanvasStroke.add(PointFPool.getInstance().obtain(tempPt.x + mPdfViewCtrl.getScrollX(), tempPt.y + mPdfViewCtrl.getScrollY()));
+                addCanvasPoint(tempPt.x + mPdfViewCtrl.getScrollX(), tempPt.y + mPdfViewCtrl.getScrollY());
             }
 
             // save information from the current stroke: page points, drawing points and the path
             // save path
-            Path path = createPathFromCanvasPts(mCurrentCanvasStroke);
+            Path path = createPathFromCurrentStroke();
             curInkItem.mPaths.add(path);
             mCurrentCanvasStroke.clear();
+            mCurrentStrokePath.reset(!mIsStylus);
 
             // save page points
             for (PointF point : mCurrentScreenStroke) {
@@ -678,8 +681,7 @@ public class FreehandCreate extends SimpleShapeCreate {
             curInkItem.mPageStrokes.add(curInkItem.mPageStrokePoints);
 
             // save drawing strokes
-            curInkItem.mDrawingStrokes = createDrawingStrokesFromPageStrokes(mPdfViewCtrl, curInkItem.mPageStrokes,
-                curInkItem.mStylusUsed, curInkItem.mPageForFreehandAnnot);
+            curInkItem.mDrawingStrokes = createDrawingStrokesFromPageStrokes(mPdfViewCtrl, curInkItem, null, 1, 1);
             curInkItem.mDirtyDrawingPts = true;
 
             if (!mMultiStrokeMode) {
@@ -756,6 +758,7 @@ public class FreehandCreate extends SimpleShapeCreate {
     protected void doneTwoFingerScrolling() {
         mCurrentScreenStroke.clear();
         mCurrentCanvasStroke.clear();
+        mCurrentStrokePath.reset(!mIsStylus);
         super.doneTwoFingerScrolling();
     }
 
@@ -766,6 +769,7 @@ public class FreehandCreate extends SimpleShapeCreate {
     protected void doneOneFingerScrollingWithStylus() {
         mCurrentScreenStroke.clear();
         mCurrentCanvasStroke.clear();
+        mCurrentStrokePath.reset(!mIsStylus);
         super.doneOneFingerScrollingWithStylus();
     }
 
@@ -837,7 +841,9 @@ public class FreehandCreate extends SimpleShapeCreate {
         InkItem curInkItem = getCurrentInkItem();
         if (curInkItem != null) {
             Paint currentStrokePaint = mEraserSelected ? mEraserPaint : curInkItem.mPaint;
-            Path path = createPathFromCanvasPts(mCurrentCanvasStroke);
+            // the path of the current stroke is extended as points are added, rather than
+            // computed again from all points of the stroke on each frame
+            Path path = mCurrentStrokePath.getPath();
             if (mPdfViewCtrl.isMaintainZoomEnabled()) {
                 canvas.save();
                 try {
@@ -860,38 +866,13 @@ public class FreehandCreate extends SimpleShapeCreate {
         return true;
     }
 
-    private Path createPathFromCanvasPts(ArrayList<PointF> points) {
+    /**
+     * @return A copy of the path of the current stroke, so that the finished stroke is drawn
+     * exactly like it was while it was being drawn
+     */
+    private Path createPathFromCurrentStroke() {
         Path path = PathPool.getInstance().obtain();
-        if (points.size() <= 1) {
-            return path;
-        }
-
-        if (mIsStylus) {
-            path.moveTo(points.get(0).x, points.get(0).y);
-            for (PointF point : points) {
-                path.lineTo(point.x, point.y);
-            }
-        } else {
-            // calculate points
-            double[] inputLine = new double[(points.size() * 2)];
-            for (int i = 0, cnt = points.size(); i < cnt; i++) {
-                inputLine[i * 2] = points.get(i).x;
-                inputLine[i * 2 + 1] = points.get(i).y;
-            }
-
-            double[] currentBeizerPts;
-            try {
-                currentBeizerPts = Ink.getBezierControlPoints(inputLine);
-            } catch (Exception e) {
-                return path;
-            }
-
-            path.moveTo((float) currentBeizerPts[0], (float) currentBeizerPts[1]);
-            for (int i = 2, cnt = currentBeizerPts.length; i < cnt; i += 6) {
-                path.cubicTo((float) currentBeizerPts[i], (float) currentBeizerPts[i + 1], (float) currentBeizerPts[i + 2],
-                    (float) currentBeizerPts[i + 3], (float) currentBeizerPts[i + 4], (float) currentBeizerPts[i + 5]);
-            }
-        }
+        path.set(mCurrentStrokePath.getPath());
         return path;
     }
 
@@ -1398,6 +1379,112 @@ public class FreehandCreate extends SimpleShapeCreate {
         return drawingStrokes;
     }
 
+    /**
+     * Creates the drawing strokes of an ink item. Unlike
+     * {@link #createDrawingStrokesFromPageStrokes(PDFViewCtrl, ArrayList, boolean, int, PointF, float, float)},
+     * the Bezier control points of each stroke are computed in page space and kept in the ink item,
+     * so that they are only computed again for strokes that have changed; and page points are
+     * converted to drawing points with a single page transformation instead of one conversion per point.
+     *
+     * @param pdfViewCtrl The PDFViewCtrl
+     * @param inkItem     The ink item
+     * @param offset      The offset of the drawing, or null
+     * @param scaleX      The horizontal scale of the drawing
+     * @param scaleY      The vertical scale of the drawing
+     * @return The drawing strokes
+     */
+    public static ArrayList<ArrayList<PointF>> createDrawingStrokesFromPageStrokes(PDFViewCtrl pdfViewCtrl, InkItem inkItem,
+                                                                                   @Nullable PointF offset, float scaleX, float scaleY) {
+        ArrayList<ArrayList<PointF>> pageStrokes = inkItem.mPageStrokes;
+        ArrayList<ArrayList<PointF>> drawingStrokes = new ArrayList<>(pageStrokes.size());
+        if (pageStrokes.isEmpty()) {
+            inkItem.mPageStrokeCtrlPts.clear();
+            return drawingStrokes;
+        }
+
+        double[] tfm = getPageToDrawingTransform(pdfViewCtrl, inkItem.mPageForFreehandAnnot);
+        float left = 0;
+        float top = 0;
+        if (null != offset) {
+            left = offset.x;
+            top = offset.y;
+        }
+
+        ArrayList<InkItem.StrokeCtrlPts> ctrlPtsList = inkItem.mPageStrokeCtrlPts;
+        for (int s = 0, count = pageStrokes.size(); s < count; ++s) {
+            ArrayList<PointF> pageStroke = pageStrokes.get(s);
+            float[] pts;
+            if (inkItem.mStylusUsed) {
+                pts = new float[pageStroke.size() * 2];
+                for (int i = 0, cnt = pageStroke.size(); i < cnt; i++) {
+                    pts[i * 2] = pageStroke.get(i).x;
+                    pts[i * 2 + 1] = pageStroke.get(i).y;
+                }
+            } else {
+                InkItem.StrokeCtrlPts ctrlPts = s < ctrlPtsList.size() ? ctrlPtsList.get(s) : null;
+                if (ctrlPts == null || !ctrlPts.isValidFor(pageStroke)) {
+                    float[] bezierCtrlPts = createBezierCtrlPts(pageStroke);
+                    ctrlPts = new InkItem.StrokeCtrlPts(pageStroke, bezierCtrlPts);
+                    if (s < ctrlPtsList.size()) {
+                        ctrlPtsList.set(s, ctrlPts);
+                    } else {
+                        ctrlPtsList.add(ctrlPts);
+                    }
+                }
+                pts = ctrlPts.mCtrlPts;
+            }
+
+            ArrayList<PointF> drawingPts = new ArrayList<>(pts.length / 2);
+            for (int i = 0, cnt = pts.length; i < cnt; i += 2) {
+                double x = tfm[0] * pts[i] + tfm[2] * pts[i + 1] + tfm[4];
+                double y = tfm[1] * pts[i] + tfm[3] * pts[i + 1] + tfm[5];
+                drawingPts.add(new PointF(Math.max((float) (x - left) * scaleX, 0), Math.max((float) (y - top) * scaleY, 0)));
+            }
+            drawingStrokes.add(drawingPts);
+        }
+        while (ctrlPtsList.size() > pageStrokes.size()) {
+            ctrlPtsList.remove(ctrlPtsList.size() - 1);
+        }
+        return drawingStrokes;
+    }
+
+    /**
+     * Smooths a stroke with the same curve as {@link IncrementalInkPath}, which draws the stroke
+     * while it is being drawn.
+     */
+    private static float[] createBezierCtrlPts(ArrayList<PointF> pagePoints) {
+        float[] points = new float[pagePoints.size() * 2];
+        for (int i = 0, cnt = pagePoints.size(); i < cnt; i++) {
+            points[i * 2] = pagePoints.get(i).x;
+            points[i * 2 + 1] = pagePoints.get(i).y;
+        }
+        return IncrementalInkPath.getBezierCtrlPts(points, pagePoints.size());
+    }
+
+    /**
+     * Returns the affine transformation {a, b, c, d, e, f} from page space to canvas space of
+     * a page, so that a page point (x, y) is at (a * x + c * y + e, b * x + d * y + f) on the canvas.
+     * This is what {@link #convPagePtToDrawingPt(PDFViewCtrl, float, float, int, PointF, float, float)}
+     * does per point, before the offset and scale are applied.
+     */
+    private static double[] getPageToDrawingTransform(PDFViewCtrl pdfViewCtrl, int pageNum) {
+        double[] origin = convPagePtToCanvasPt(pdfViewCtrl, 0, 0, pageNum);
+        double[] unitX = convPagePtToCanvasPt(pdfViewCtrl, 1, 0, pageNum);
+        double[] unitY = convPagePtToCanvasPt(pdfViewCtrl, 0, 1, pageNum);
+        return new double[]{
+            unitX[0] - origin[0], unitX[1] - origin[1],
+            unitY[0] - origin[0], unitY[1] - origin[1],
+            origin[0], origin[1]};
+    }
+
+    private static double[] convPagePtToCanvasPt(PDFViewCtrl pdfViewCtrl, double pageX, double pageY, int pageNum) {
+        if (pdfViewCtrl.isContinuousPagePresentationMode(pdfViewCtrl.getPagePresentationMode())) {
+            double[] pts = pdfViewCtrl.convPagePtToScreenPt(pageX, pageY, pageNum);
+            return new double[]{pts[0] + pdfViewCtrl.getScrollX(), pts[1] + pdfViewCtrl.getScrollY()};
+        }
+        return pdfViewCtrl.convPagePtToHorizontalScrollingPt(pageX, pageY, pageNum);
+    }
+
     private static ArrayList<ArrayList<PointF>> createPageStrokesFromArrayObj(Obj strokesArray) throws PDFNetException {
         ArrayList<ArrayList<PointF>> pageStrokes = new ArrayList<>();
         if (!strokesArray.isArray()) {
@@ -1493,6 +1580,12 @@ public class FreehandCreate extends SimpleShapeCreate {
         mCurrentScreenStroke.clear();
         PointFPool.getInstance().recycle(mCurrentCanvasStroke);
         mCurrentCanvasStroke.clear();
+        mCurrentStrokePath.reset(!mIsStylus);
+    }
+
+    private void addCanvasPoint(float canvasX, float canvasY) {
+        mCurrentCanvasStroke.add(PointFPool.getInstance().obtain(canvasX, canvasY));
+        mCurrentStrokePath.addPoint(canvasX, canvasY);
     }
 
     // Timer Utilities
@@ -65,13 +65,16 @@ import com.pdftron.pdf.utils.AnnotUtils;
 import com.pdftron.pdf.utils.AnnotationClipboardHelper;
 import com.pdftron.pdf.utils.PdfViewCtrlSettingsManager;
 import com.pdftron.pdf.utils.ShortcutHelper;
+import com.pdftron.pdf.utils.TextSearchIndex;
 import com.pdftron.pdf.utils.Utils;
 import com.pdftron.pdf.utils.ViewerUtils;
 import com.pdftron.pdf.widget.AnnotView;
 import com.pdftron.sdf.Obj;
 
 import java.lang.ref.WeakReference;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 
@@ -2281,6 +2284,20 @@ public abstract class Tool implements ToolManager.Tool {
         toolManager.raiseAnnotationActionEvent();
     }
 
+    /**
+     * Called when the text of pages has changed, such as by flattening annotations,
+     * so that the text search index re-indexes them.
+     *
+     * @param pageList The page numbers
+     */
+    protected void invalidateTextSearchIndex(List<Integer> pageList) {
+        ToolManager toolManager = (ToolManager) mPdfViewCtrl.getToolManager();
+        TextSearchIndex textSearchIndex = toolManager.getTextSearchIndex();
+        if (textSearchIndex != null) {
+            textSearchIndex.invalidatePages(pageList);
+        }
+    }
+
     /**
      * Handle annotation
      *
@@ -2517,6 +2534,7 @@ public abstract class Tool implements ToolManager.Tool {
             mPdfViewCtrl.update(mAnnot, mAnnotPageNum);
 
             raiseAnnotationModifiedEvent(mAnnot, mAnnotPageNum);
+            invalidateTextSearchIndex(Collections.singletonList(mAnnotPageNum));
 
             unsetAnnot();
         } catch (Exception e) {
@@ -40,6 +40,7 @@ import com.pdftron.pdf.utils.AnalyticsHandlerAdapter;
 import com.pdftron.pdf.utils.AnnotUtils;
 import com.pdftron.pdf.utils.CommonToast;
 import com.pdftron.pdf.utils.ShortcutHelper;
+import com.pdftron.pdf.utils.TextSearchIndex;
 import com.pdftron.pdf.utils.Utils;
 import com.pdftron.pdf.utils.ViewerUtils;
 
@@ -939,7 +940,7 @@ public class ToolManager implements
     private CopyOnWriteArray<OnLayoutListener> mOnLayoutListeners;
     private PreToolManagerListener mPreToolManagerListener;
     private QuickMenuListener mQuickMenuListener;
-    private ArrayList<AnnotationModificationListener> mAnnotationModificationListeners;
+    private final AnnotationEventBus mAnnotationEventBus = new AnnotationEventBus();
     private ArrayList<PdfDocModificationListener> mPdfDocModificationListeners;
     private AdvancedAnnotationListener mAdvancedAnnotationListener;
     private SpecialAnnotationListener mSpecialAnnotationListener;
@@ -957,6 +958,7 @@ public class ToolManager implements
     private PDFViewCtrl mPdfViewCtrl;
     private UndoRedoManager mUndoRedoManger;
     private AnnotManager mAnnotManager = null;
+    private TextSearchIndex mTextSearchIndex;
 
     private boolean mReadOnly = false;
     private boolean mTextMarkupAdobeHack = true;
@@ -1042,9 +1044,20 @@ public class ToolManager implements
 
         if (mAnnotIndicatorsEnabled) {
             mAnnotIndicatorManger = new AnnotIndicatorManger(this);
+            // indicators only need the pages that changed, once per frame
+            mAnnotationEventBus.addBatchListener(mIndicatorBatchListener, false);
         }
     }
 
+    private final AnnotationEventBus.BatchListener mIndicatorBatchListener = new AnnotationEventBus.BatchListener() {
+        @Override
+        public void onAnnotationEventBatch(@NonNull AnnotationEventBus.Batch batch) {
+            if (mAnnotIndicatorManger != null) {
+                mAnnotIndicatorManger.invalidatePages(batch.getPages());
+            }
+        }
+    };
+
     /**
      * Resets annotation indicators
      */
@@ -1653,7 +1666,7 @@ public class ToolManager implements
     @Override
     public void onLayout(boolean changed, int l, int t, int r, int b) {
         if (mAnnotIndicatorManger != null) {
-            mAnnotIndicatorManger.reset(true);
+            mAnnotIndicatorManger.invalidateLayout();
         }
 
         if (mTool != null) {
@@ -1788,7 +1801,7 @@ public class ToolManager implements
     public void onPageTurning(int old_page, int cur_page) {
         if (mAnnotIndicatorManger != null) {
             mAnnotIndicatorManger.updateState(AnnotIndicatorManger.STATE_IS_NORMAL);
-            mAnnotIndicatorManger.reset(false);
+            mAnnotIndicatorManger.invalidateLayout();
         }
 
         if (mTool != null) {
@@ -1885,7 +1898,7 @@ public class ToolManager implements
     public boolean onScaleEnd(float x, float y) {
         if (mAnnotIndicatorManger != null) {
             mAnnotIndicatorManger.updateState(AnnotIndicatorManger.STATE_IS_NORMAL);
-            mAnnotIndicatorManger.reset(true);
+            mAnnotIndicatorManger.invalidateLayout();
         }
 
         if (mPreToolManagerListener != null) {
@@ -1917,6 +1930,10 @@ public class ToolManager implements
      */
     @Override
     public void onSetDoc() {
+        if (mAnnotIndicatorManger != null) {
+            mAnnotIndicatorManger.reset(true);
+        }
+
         if (mTool != null) {
             ToolModeBase prev_tm = mTool.getToolMode(), next_tm;
             do {
@@ -2160,7 +2177,7 @@ public class ToolManager implements
     public void onDoubleTapZoomAnimationBegin() {
         if (mAnnotIndicatorManger != null) {
             mAnnotIndicatorManger.updateState(AnnotIndicatorManger.STATE_IS_ZOOMING);
-            mAnnotIndicatorManger.reset(true);
+            mAnnotIndicatorManger.invalidateLayout();
         }
 
         if (mTool != null) {
@@ -2300,6 +2317,38 @@ public class ToolManager implements
         return mUndoRedoManger;
     }
 
+    /**
+     * Sets the full-text index of the current document. The index is kept in sync
+     * with page edits raised through this tool manager and with undo/redo of page edits.
+     *
+     * @param textSearchIndex The text search index, or null to remove the current one
+     */
+    public void setTextSearchIndex(@Nullable TextSearchIndex textSearchIndex) {
+        if (mTextSearchIndex != null) {
+            removePdfDocModificationListener(mTextSearchIndex);
+            if (mUndoRedoManger != null) {
+                mUndoRedoManger.removePageEditUndoRedoListener(mTextSearchIndex);
+            }
+        }
+        mTextSearchIndex = textSearchIndex;
+        if (mTextSearchIndex != null) {
+            addPdfDocModificationListener(mTextSearchIndex);
+            if (mUndoRedoManger != null) {
+                mUndoRedoManger.addPageEditUndoRedoListener(mTextSearchIndex);
+            }
+        }
+    }
+
+    /**
+     * Gets the full-text index of the current document
+     *
+     * @return The text search index, or null if not set
+     */
+    @Nullable
+    public TextSearchIndex getTextSearchIndex() {
+        return mTextSearchIndex;
+    }
+
     /**
      * Enables annotation manager for annotation syncing
      *
@@ -2429,11 +2478,8 @@ public class ToolManager implements
      * @param listener the listener
      */
     public void addAnnotationModificationListener(AnnotationModificationListener listener) {
-        if (mAnnotationModificationListeners == null) {
-            mAnnotationModificationListeners = new ArrayList<>();
-        }
-        if (!mAnnotationModificationListeners.contains(listener)) {
-            mAnnotationModificationListeners.add(listener);
+        if (listener != null) {
+            mAnnotationEventBus.addListener(listener);
         }
     }
 
@@ -2443,11 +2489,41 @@ public class ToolManager implements
      * @param listener the listener
      */
     public void removeAnnotationModificationListener(AnnotationModificationListener listener) {
-        if (mAnnotationModificationListeners != null) {
-            mAnnotationModificationListeners.remove(listener);
+        if (listener != null) {
+            mAnnotationEventBus.removeListener(listener);
         }
     }
 
+    /**
+     * Adds a listener that receives the annotation events of each frame as a single batch.
+     * Prefer this over {@link AnnotationModificationListener} when the listener does not need
+     * to observe the document at the time of each event.
+     *
+     * @param listener   The listener
+     * @param background True if the listener should be called on a background thread,
+     *                   false to call it on the UI thread
+     */
+    public void addAnnotationEventBatchListener(@NonNull AnnotationEventBus.BatchListener listener, boolean background) {
+        mAnnotationEventBus.addBatchListener(listener, background);
+    }
+
+    /**
+     * Removes a listener added by {@link #addAnnotationEventBatchListener(AnnotationEventBus.BatchListener, boolean)}.
+     *
+     * @param listener The listener
+     */
+    public void removeAnnotationEventBatchListener(@NonNull AnnotationEventBus.BatchListener listener) {
+        mAnnotationEventBus.removeBatchListener(listener);
+    }
+
+    /**
+     * @return The bus that dispatches annotation events, e.g. to read dispatch statistics
+     */
+    @NonNull
+    public AnnotationEventBus getAnnotationEventBus() {
+        return mAnnotationEventBus;
+    }
+
     /**
      * Adds the {@link com.pdftron.pdf.tools.ToolManager.PdfDocModificationListener}.
      *
@@ -2572,15 +2648,7 @@ public class ToolManager implements
      * @param annots map of annotations added
      */
     public void raiseAnnotationsAddedEvent(Map<Annot, Integer> annots) {
-        if (mAnnotIndicatorManger != null) {
-            mAnnotIndicatorManger.reset(true);
-        }
-
-        if (mAnnotationModificationListeners != null) {
-            for (AnnotationModificationListener listener : mAnnotationModificationListeners) {
-                listener.onAnnotationsAdded(annots);
-            }
-        }
+        mAnnotationEventBus.onAnnotationsAdded(annots);
     }
 
     /**
@@ -2589,11 +2657,7 @@ public class ToolManager implements
      * @param annots map of annotations about to be modified
      */
     public void raiseAnnotationsPreModifyEvent(Map<Annot, Integer> annots) {
-        if (mAnnotationModificationListeners != null) {
-            for (AnnotationModificationListener listener : mAnnotationModificationListeners) {
-                listener.onAnnotationsPreModify(annots);
-            }
-        }
+        mAnnotationEventBus.onAnnotationsPreModify(annots);
     }
 
     /**
@@ -2602,15 +2666,7 @@ public class ToolManager implements
      * @param annots map of annotations modified
      */
     public void raiseAnnotationsModifiedEvent(Map<Annot, Integer> annots, Bundle bundle) {
-        if (mAnnotIndicatorManger != null) {
-            mAnnotIndicatorManger.reset(true);
-        }
-
-        if (mAnnotationModificationListeners != null) {
-            for (AnnotationModificationListener listener : mAnnotationModificationListeners) {
-                listener.onAnnotationsModified(annots, bundle);
-            }
-        }
+        mAnnotationEventBus.onAnnotationsModified(annots, bundle);
     }
 
     /**
@@ -2619,11 +2675,7 @@ public class ToolManager implements
      * @param annots map of annotations about to be removed
      */
     public void raiseAnnotationsPreRemoveEvent(Map<Annot, Integer> annots) {
-        if (mAnnotationModificationListeners != null) {
-            for (AnnotationModificationListener listener : mAnnotationModificationListeners) {
-                listener.onAnnotationsPreRemove(annots);
-            }
-        }
+        mAnnotationEventBus.onAnnotationsPreRemove(annots);
     }
 
     /**
@@ -2632,15 +2684,7 @@ public class ToolManager implements
      * @param annots map of annotations removed
      */
     public void raiseAnnotationsRemovedEvent(Map<Annot, Integer> annots) {
-        if (mAnnotIndicatorManger != null) {
-            mAnnotIndicatorManger.reset(true);
-        }
-
-        if (mAnnotationModificationListeners != null) {
-            for (AnnotationModificationListener listener : mAnnotationModificationListeners) {
-                listener.onAnnotationsRemoved(annots);
-            }
-        }
+        mAnnotationEventBus.onAnnotationsRemoved(annots);
     }
 
     /**
@@ -2649,15 +2693,7 @@ public class ToolManager implements
      * @param pageNum The page number where the annotations are on
      */
     public void raiseAnnotationsRemovedEvent(int pageNum) {
-        if (mAnnotIndicatorManger != null) {
-            mAnnotIndicatorManger.reset(true);
-        }
-
-        if (mAnnotationModificationListeners != null) {
-            for (AnnotationModificationListener listener : mAnnotationModificationListeners) {
-                listener.onAnnotationsRemovedOnPage(pageNum);
-            }
-        }
+        mAnnotationEventBus.onAnnotationsRemovedOnPage(pageNum);
     }
 
     /**
@@ -2665,11 +2701,7 @@ public class ToolManager implements
      * add event from a unified location.
      */
     public void annotationCouldNotBeAdded(String errorMessage) {
-        if (mAnnotationModificationListeners != null) {
-            for (AnnotationModificationListener listener : mAnnotationModificationListeners) {
-                listener.annotationsCouldNotBeAdded(errorMessage);
-            }
-        }
+        mAnnotationEventBus.annotationsCouldNotBeAdded(errorMessage);
     }
 
     /**
@@ -2687,6 +2719,10 @@ public class ToolManager implements
      * Call this function when pages of the document have been cropped.
      */
     public void raisePagesCropped() {
+        if (mAnnotIndicatorManger != null) {
+            mAnnotIndicatorManger.reset(true);
+        }
+
         if (mPdfDocModificationListeners != null) {
             for (PdfDocModificationListener listener : mPdfDocModificationListeners) {
                 listener.onPagesCropped();
@@ -2698,6 +2734,10 @@ public class ToolManager implements
      * Call this function when new pages have been added to the document.
      */
     public void raisePagesAdded(List<Integer> pageList) {
+        if (mAnnotIndicatorManger != null) {
+            mAnnotIndicatorManger.reset(true);
+        }
+
         if (mPdfDocModificationListeners != null) {
             for (PdfDocModificationListener listener : mPdfDocModificationListeners) {
                 listener.onPagesAdded(pageList);
@@ -2709,6 +2749,10 @@ public class ToolManager implements
      * Call this function when pages have been deleted from the document.
      */
     public void raisePagesDeleted(List<Integer> pageList) {
+        if (mAnnotIndicatorManger != null) {
+            mAnnotIndicatorManger.reset(true);
+        }
+
         if (mPdfDocModificationListeners != null) {
             for (PdfDocModificationListener listener : mPdfDocModificationListeners) {
                 listener.onPagesDeleted(pageList);
@@ -2720,6 +2764,10 @@ public class ToolManager implements
      * Call this function when pages in the document have been rotated.
      */
     public void raisePagesRotated(List<Integer> pageList) {
+        if (mAnnotIndicatorManger != null) {
+            mAnnotIndicatorManger.reset(true);
+        }
+
         if (mPdfDocModificationListeners != null) {
             for (PdfDocModificationListener listener : mPdfDocModificationListeners) {
                 listener.onPagesRotated(pageList);
@@ -2731,6 +2779,10 @@ public class ToolManager implements
      * Call this function when a page in the document have been moved to a new position.
      */
     public void raisePageMoved(int from, int to) {
+        if (mAnnotIndicatorManger != null) {
+            mAnnotIndicatorManger.reset(true);
+        }
+
         if (mPdfDocModificationListeners != null) {
             for (PdfDocModificationListener listener : mPdfDocModificationListeners) {
                 listener.onPageMoved(from, to);
@@ -3633,6 +3685,7 @@ public class ToolManager implements
         if (mAnnotIndicatorManger != null) {
             mAnnotIndicatorManger.cleanup();
         }
+        mAnnotationEventBus.shutdown();
         mCurrentActivity = null;
     }
 
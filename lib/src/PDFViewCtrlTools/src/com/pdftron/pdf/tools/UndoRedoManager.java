@@ -20,6 +20,7 @@ import com.pdftron.pdf.annots.Widget;
 import com.pdftron.pdf.utils.AnalyticsHandlerAdapter;
 import com.pdftron.pdf.utils.AnalyticsParam;
 import com.pdftron.pdf.utils.AnnotUtils;
+import com.pdftron.pdf.utils.TextSearchIndex;
 import com.pdftron.pdf.utils.Utils;
 import com.pdftron.pdf.utils.ViewerUtils;
 
@@ -27,7 +28,10 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -90,12 +94,30 @@ public class UndoRedoManager implements
     private final static String ACTION_EVENT_ROTATE_PAGES = "rotate_pages";
     private final static String ACTION_EVENT_MOVE_PAGE = "move_page";
 
+    private final static int DEFAULT_ACTION_JOURNAL_BYTES = 512 * 1024;
+    private final static int[] EMPTY_INT_ARRAY = new int[0];
+    private final static ActionJournal sJournal = new ActionJournal(DEFAULT_ACTION_JOURNAL_BYTES);
+
     private enum AnnotAction {
         ADD,
         MODIFY,
         REMOVE
     }
 
+    /**
+     * This interface can be used to monitor page edits (adding, deleting, rotating, moving pages)
+     * that are undone or redone, since those do not go through {@link ToolManager.PdfDocModificationListener}.
+     */
+    public interface PageEditUndoRedoListener {
+        /**
+         * Called after a page edit has been undone or redone.
+         *
+         * @param info   The information attached to the undone/redone action
+         * @param isUndo True if the action was undone; False if it was redone
+         */
+        void onPageEditUndoRedo(String info, boolean isUndo);
+    }
+
     private Context mContext;
     private ToolManager mToolManager;
     private PDFViewCtrl mPdfViewCtrl;
@@ -106,6 +128,7 @@ public class UndoRedoManager implements
     private int mLocationId;
     private String mLastAction;
     private boolean mLastActionIsUndo;
+    private ArrayList<PageEditUndoRedoListener> mPageEditUndoRedoListeners;
 
     /**
      * Class constructor
@@ -133,6 +156,31 @@ public class UndoRedoManager implements
         return mPdfViewCtrl;
     }
 
+    /**
+     * Adds the {@link PageEditUndoRedoListener}.
+     *
+     * @param listener the listener
+     */
+    public void addPageEditUndoRedoListener(PageEditUndoRedoListener listener) {
+        if (mPageEditUndoRedoListeners == null) {
+            mPageEditUndoRedoListeners = new ArrayList<>();
+        }
+        if (!mPageEditUndoRedoListeners.contains(listener)) {
+            mPageEditUndoRedoListeners.add(listener);
+        }
+    }
+
+    /**
+     * Removes the {@link PageEditUndoRedoListener}.
+     *
+     * @param listener the listener
+     */
+    public void removePageEditUndoRedoListener(PageEditUndoRedoListener listener) {
+        if (mPageEditUndoRedoListeners != null) {
+            mPageEditUndoRedoListeners.remove(listener);
+        }
+    }
+
     /**
      * Undo the last modification.
      *
@@ -212,9 +260,16 @@ public class UndoRedoManager implements
             if (sDebug)
                 Log.d(TAG, (isUndo ? "undo: " : "redo: ") + info);
             updatePageLayout(info);
-
-            JSONObject jsonObject = new JSONObject(info);
-            if (jsonObject.has(JSON_ANNOT_XFDF)) {
+            raisePageEditUndoRedo(info, isUndo);
+            invalidateTextSearchIndex(info);
+            // annotations may have changed on any page
+            mToolManager.resetIndicator();
+
+            ActionRecord record = getActionRecord(info);
+            if (!record.mValid) {
+                return info;
+            }
+            if (record.mHasXfdf) {
                 if (mToolManager.getAnnotManager() != null) {
                     mToolManager.getAnnotManager().onLocalChange(isUndo ?
                         AnnotManager.AnnotationAction.UNDO :
@@ -222,8 +277,8 @@ public class UndoRedoManager implements
                 }
             }
             String action = "";
-            if (jsonObject.has(JSON_ACTION_EVENT)) {
-                action = jsonObject.getString(JSON_ACTION_EVENT);
+            if (record.mActionEvent != null) {
+                action = record.mActionEvent;
             }
             if (sendEvent) {
                 AnalyticsHandlerAdapter.getInstance().sendEvent(
@@ -419,7 +474,7 @@ public class UndoRedoManager implements
                 AnalyticsHandlerAdapter.getInstance().sendException(
                     new Exception("takeUndoSnapshot with an empty string"));
             }
-            takeUndoSnapshot(jsonObj.toString());
+            takeUndoSnapshot(jsonObj);
             if (mToolManager.getAnnotManager() != null) {
                 mToolManager.getAnnotManager().onLocalChange(AnnotManager.AnnotationAction.DELETE);
             }
@@ -452,7 +507,7 @@ public class UndoRedoManager implements
                 AnalyticsHandlerAdapter.getInstance().sendException(
                     new Exception("takeUndoSnapshot with an empty string"));
             }
-            takeUndoSnapshot(jsonObj.toString());
+            takeUndoSnapshot(jsonObj);
             if (mToolManager.getAnnotManager() != null) {
                 mToolManager.getAnnotManager().onLocalChange(AnnotManager.AnnotationAction.DELETE);
             }
@@ -485,7 +540,7 @@ public class UndoRedoManager implements
                 AnalyticsHandlerAdapter.getInstance().sendException(
                     new Exception("takeUndoSnapshot with an empty string"));
             }
-            takeUndoSnapshot(jsonObj.toString());
+            takeUndoSnapshot(jsonObj);
             if (sDebug)
                 Log.d(TAG, "snapshot: " + jsonObj.toString());
         } catch (Exception e) {
@@ -515,7 +570,7 @@ public class UndoRedoManager implements
                 AnalyticsHandlerAdapter.getInstance().sendException(
                     new Exception("takeUndoSnapshot with an empty string"));
             }
-            takeUndoSnapshot(jsonObj.toString());
+            takeUndoSnapshot(jsonObj);
             if (sDebug)
                 Log.d(TAG, "snapshot: " + jsonObj.toString());
         } catch (Exception e) {
@@ -545,7 +600,7 @@ public class UndoRedoManager implements
                 AnalyticsHandlerAdapter.getInstance().sendException(
                     new Exception("takeUndoSnapshot with an empty string"));
             }
-            takeUndoSnapshot(jsonObj.toString());
+            takeUndoSnapshot(jsonObj);
             if (sDebug)
                 Log.d(TAG, "snapshot: " + jsonObj.toString());
         } catch (Exception e) {
@@ -578,7 +633,7 @@ public class UndoRedoManager implements
                 AnalyticsHandlerAdapter.getInstance().sendException(
                     new Exception("takeUndoSnapshot with an empty string"));
             }
-            takeUndoSnapshot(jsonObj.toString());
+            takeUndoSnapshot(jsonObj);
             if (sDebug)
                 Log.d(TAG, "snapshot: " + jsonObj.toString());
         } catch (Exception e) {
@@ -611,7 +666,7 @@ public class UndoRedoManager implements
                 AnalyticsHandlerAdapter.getInstance().sendException(
                     new Exception("takeUndoSnapshot with an empty string"));
             }
-            takeUndoSnapshot(jsonObj.toString());
+            takeUndoSnapshot(jsonObj);
             if (sDebug)
                 Log.d(TAG, "snapshot: " + jsonObj.toString());
         } catch (Exception e) {
@@ -644,7 +699,7 @@ public class UndoRedoManager implements
                 AnalyticsHandlerAdapter.getInstance().sendException(
                     new Exception("takeUndoSnapshot with an empty string"));
             }
-            takeUndoSnapshot(jsonObj.toString());
+            takeUndoSnapshot(jsonObj);
             if (sDebug)
                 Log.d(TAG, "snapshot: " + jsonObj.toString());
         } catch (Exception e) {
@@ -678,7 +733,7 @@ public class UndoRedoManager implements
                 AnalyticsHandlerAdapter.getInstance().sendException(
                     new Exception("takeUndoSnapshot with an empty string"));
             }
-            takeUndoSnapshot(jsonObj.toString());
+            takeUndoSnapshot(jsonObj);
             if (sDebug)
                 Log.d(TAG, "snapshot: " + jsonObj.toString());
         } catch (Exception e) {
@@ -707,19 +762,8 @@ public class UndoRedoManager implements
         List<Integer> pageList = new ArrayList<>();
 
         if (!Utils.isNullOrEmpty(info)) {
-            try {
-                JSONObject jsonObj = new JSONObject(info);
-                if (jsonObj.has(JSON_PAGE_LIST)) {
-                    String allPages = jsonObj.getString(JSON_PAGE_LIST);
-                    if (!Utils.isNullOrEmpty(allPages)) {
-                        String[] pages = allPages.split(JSON_DELIMITER);
-                        for (String page : pages) {
-                            pageList.add(Integer.valueOf(page));
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                AnalyticsHandlerAdapter.getInstance().sendException(e);
+            for (int page : getActionRecord(info).mPageList) {
+                pageList.add(page);
             }
         }
 
@@ -735,18 +779,10 @@ public class UndoRedoManager implements
      * @return The page number
      */
     public static int getPageFrom(final String info) {
-        int pageNum = 0;
-
-        if (!Utils.isNullOrEmpty(info)) {
-            try {
-                JSONObject jsonObj = new JSONObject(info);
-                pageNum = jsonObj.getInt(JSON_PAGE_FROM);
-            } catch (Exception e) {
-                AnalyticsHandlerAdapter.getInstance().sendException(e);
-            }
+        if (Utils.isNullOrEmpty(info)) {
+            return 0;
         }
-
-        return pageNum;
+        return getActionRecord(info).mPageFrom;
     }
 
     /**
@@ -758,18 +794,10 @@ public class UndoRedoManager implements
      * @return The page number
      */
     public static int getPageTo(final String info) {
-        int pageNum = 0;
-
-        if (!Utils.isNullOrEmpty(info)) {
-            try {
-                JSONObject jsonObj = new JSONObject(info);
-                pageNum = jsonObj.getInt(JSON_PAGE_TO);
-            } catch (Exception e) {
-                AnalyticsHandlerAdapter.getInstance().sendException(e);
-            }
+        if (Utils.isNullOrEmpty(info)) {
+            return 0;
         }
-
-        return pageNum;
+        return getActionRecord(info).mPageTo;
     }
 
     /**
@@ -799,18 +827,16 @@ public class UndoRedoManager implements
 
         removeUnsafeUndoRedoInfo(true);
         String info = null;
-        JSONObject jsonObj = null;
+        ActionRecord record = null;
         try {
             info = mPdfViewCtrl.getNextUndoInfo();
             if (sDebug)
                 Log.d(TAG, "next undo: " + info);
-            jsonObj = new JSONObject(info);
-            if (jsonObj.has(JSON_ACTION)) {
-                String action = jsonObj.getString(JSON_ACTION);
-                if (mContext != null && !Utils.isNullOrEmpty(action) && isValidAction(mContext, action)) {
-                    String strUndo = mContext.getResources().getString(R.string.undo);
-                    result = strUndo + ": " + action;
-                }
+            record = getActionRecord(info);
+            String action = record.mAction;
+            if (mContext != null && !Utils.isNullOrEmpty(action) && record.isValidAction(mContext)) {
+                String strUndo = mContext.getResources().getString(R.string.undo);
+                result = strUndo + ": " + action;
             }
         } catch (Exception e) {
             if (info == null || !info.equals(JSON_STATE_NOT_FOUND)) {
@@ -819,16 +845,9 @@ public class UndoRedoManager implements
             }
         }
 
-        if (Utils.isNullOrEmpty(result) && jsonObj != null) {
-            try {
-                if (jsonObj.has(JSON_INITIAL_LABEL)) {
-                    String label = jsonObj.getString(JSON_INITIAL_LABEL);
-                    if (!label.equals("initial")) {
-                        result = mContext.getResources().getString(R.string.undo) + "...";
-                    }
-                }
-            } catch (Exception e) {
-                AnalyticsHandlerAdapter.getInstance().sendException(e);
+        if (Utils.isNullOrEmpty(result) && record != null && record.mInitialLabel != null) {
+            if (!record.mInitialLabel.equals("initial")) {
+                result = mContext.getResources().getString(R.string.undo) + "...";
             }
         }
 
@@ -852,13 +871,10 @@ public class UndoRedoManager implements
             info = mPdfViewCtrl.getNextRedoInfo();
             if (sDebug)
                 Log.d(TAG, "next redo: " + info);
-            JSONObject jsonObj = new JSONObject(info);
-            if (jsonObj.has(JSON_ACTION)) {
-                String action = jsonObj.getString(JSON_ACTION);
-                if (mContext != null && isValidAction(mContext, action)) {
-                    String strRedo = mContext.getResources().getString(R.string.redo);
-                    result = strRedo + ": " + action;
-                }
+            ActionRecord record = getActionRecord(info);
+            if (record.mAction != null && mContext != null && record.isValidAction(mContext)) {
+                String strRedo = mContext.getResources().getString(R.string.redo);
+                result = strRedo + ": " + record.mAction;
             }
         } catch (Exception e) {
             if (info == null || !info.equals(JSON_STATE_NOT_FOUND)) {
@@ -929,23 +945,8 @@ public class UndoRedoManager implements
      * @return True if the information attached to an undo is related to adding pages; False otherwise
      */
     public static boolean isAddPagesAction(final Context context, final String info) {
-        if (context != null && !Utils.isNullOrEmpty(info)) {
-            try {
-                JSONObject jsonObj = new JSONObject(info);
-                if (jsonObj.has(JSON_ACTION_EVENT)) {
-                    String action = jsonObj.getString(JSON_ACTION_EVENT);
-                    if (ACTION_EVENT_ADD_PAGES.equals(action)) {
-                        return true;
-                    }
-                }
-            } catch (Exception e) {
-                if (!info.equals(JSON_STATE_NOT_FOUND)) {
-                    AnalyticsHandlerAdapter.getInstance().sendException(e, "info: " + info);
-                }
-            }
-        }
-
-        return false;
+        return context != null && !Utils.isNullOrEmpty(info)
+            && ACTION_EVENT_ADD_PAGES.equals(getActionRecord(info).mActionEvent);
     }
 
     /**
@@ -954,23 +955,8 @@ public class UndoRedoManager implements
      * @return True if the information attached to an undo is related to deleting pages; False otherwise
      */
     public static boolean isDeletePagesAction(final Context context, final String info) {
-        if (context != null && !Utils.isNullOrEmpty(info)) {
-            try {
-                JSONObject jsonObj = new JSONObject(info);
-                if (jsonObj.has(JSON_ACTION_EVENT)) {
-                    String action = jsonObj.getString(JSON_ACTION_EVENT);
-                    if (ACTION_EVENT_DELETE_PAGES.equals(action)) {
-                        return true;
-                    }
-                }
-            } catch (Exception e) {
-                if (!info.equals(JSON_STATE_NOT_FOUND)) {
-                    AnalyticsHandlerAdapter.getInstance().sendException(e, "info: " + info);
-                }
-            }
-        }
-
-        return false;
+        return context != null && !Utils.isNullOrEmpty(info)
+            && ACTION_EVENT_DELETE_PAGES.equals(getActionRecord(info).mActionEvent);
     }
 
     /**
@@ -979,23 +965,8 @@ public class UndoRedoManager implements
      * @return True if the information attached to an undo is related to rotating pages; False otherwise
      */
     public static boolean isRotatePagesAction(final Context context, final String info) {
-        if (context != null && !Utils.isNullOrEmpty(info)) {
-            try {
-                JSONObject jsonObj = new JSONObject(info);
-                if (jsonObj.has(JSON_ACTION_EVENT)) {
-                    String action = jsonObj.getString(JSON_ACTION_EVENT);
-                    if (ACTION_EVENT_ROTATE_PAGES.equals(action)) {
-                        return true;
-                    }
-                }
-            } catch (Exception e) {
-                if (!info.equals(JSON_STATE_NOT_FOUND)) {
-                    AnalyticsHandlerAdapter.getInstance().sendException(e, "info: " + info);
-                }
-            }
-        }
-
-        return false;
+        return context != null && !Utils.isNullOrEmpty(info)
+            && ACTION_EVENT_ROTATE_PAGES.equals(getActionRecord(info).mActionEvent);
     }
 
     /**
@@ -1004,23 +975,8 @@ public class UndoRedoManager implements
      * @return True if the information attached to an undo is related to moving a page; False otherwise
      */
     public static boolean isMovePageAction(final Context context, final String info) {
-        if (context != null && !Utils.isNullOrEmpty(info)) {
-            try {
-                JSONObject jsonObj = new JSONObject(info);
-                if (jsonObj.has(JSON_ACTION_EVENT)) {
-                    String action = jsonObj.getString(JSON_ACTION_EVENT);
-                    if (ACTION_EVENT_MOVE_PAGE.equals(action)) {
-                        return true;
-                    }
-                }
-            } catch (Exception e) {
-                if (!info.equals(JSON_STATE_NOT_FOUND)) {
-                    AnalyticsHandlerAdapter.getInstance().sendException(e, "info: " + info);
-                }
-            }
-        }
-
-        return false;
+        return context != null && !Utils.isNullOrEmpty(info)
+            && ACTION_EVENT_MOVE_PAGE.equals(getActionRecord(info).mActionEvent);
     }
 
     /**
@@ -1030,28 +986,8 @@ public class UndoRedoManager implements
      */
     @SuppressWarnings("WeakerAccess")
     public static boolean isEditPageAction(final Context context, final String info) {
-        if (context != null && !Utils.isNullOrEmpty(info)) {
-            try {
-                JSONObject jsonObj = new JSONObject(info);
-                if (jsonObj.has(JSON_ACTION_EVENT)) {
-                    String action = jsonObj.getString(JSON_ACTION_EVENT);
-                    if (ACTION_EVENT_ADD_PAGES.equals(action) ||
-                        ACTION_EVENT_DELETE_PAGES.equals(action) ||
-                        ACTION_EVENT_ROTATE_PAGES.equals(action) ||
-                        ACTION_EVENT_MOVE_PAGE.equals(action) ||
-                        ACTION_EVENT_CROP_PAGES.equals(action) || // // cropping should be considered as page edition
-                        ACTION_EVENT_ACTION.equals(action)) { // executing action can be considered as page edition
-                        return true;
-                    }
-                }
-            } catch (Exception e) {
-                if (!info.equals(JSON_STATE_NOT_FOUND)) {
-                    AnalyticsHandlerAdapter.getInstance().sendException(e, "info: " + info);
-                }
-            }
-        }
-
-        return false;
+        return context != null && !Utils.isNullOrEmpty(info)
+            && getActionRecord(info).mIsEditPageAction;
     }
 
     /**
@@ -1062,20 +998,9 @@ public class UndoRedoManager implements
     @SuppressWarnings("unused")
     public static boolean isAddAnnotationAction(final Context context, final String info) {
         if (context != null && !Utils.isNullOrEmpty(info)) {
-            try {
-                JSONObject jsonObj = new JSONObject(info);
-                if (jsonObj.has(JSON_ACTION_EVENT)) {
-                    String action = jsonObj.getString(JSON_ACTION_EVENT);
-                    String strAnnotAdd = context.getResources().getString(R.string.add);
-                    if (!Utils.isNullOrEmpty(action) && action.startsWith(strAnnotAdd)) {
-                        return true;
-                    }
-                }
-            } catch (Exception e) {
-                if (!info.equals(JSON_STATE_NOT_FOUND)) {
-                    AnalyticsHandlerAdapter.getInstance().sendException(e, "info: " + info);
-                }
-            }
+            String action = getActionRecord(info).mActionEvent;
+            String str = context.getResources().getString(R.string.add);
+            return !Utils.isNullOrEmpty(action) && action.startsWith(str);
         }
 
         return false;
@@ -1089,20 +1014,9 @@ public class UndoRedoManager implements
     @SuppressWarnings("WeakerAccess")
     public static boolean isModifyAnnotationAction(final Context context, final String info) {
         if (context != null && !Utils.isNullOrEmpty(info)) {
-            try {
-                JSONObject jsonObj = new JSONObject(info);
-                if (jsonObj.has(JSON_ACTION_EVENT)) {
-                    String action = jsonObj.getString(JSON_ACTION_EVENT);
-                    String strAnnotModify = context.getResources().getString(R.string.undo_redo_annot_modify);
-                    if (!Utils.isNullOrEmpty(action) && action.startsWith(strAnnotModify)) {
-                        return true;
-                    }
-                }
-            } catch (Exception e) {
-                if (!info.equals(JSON_STATE_NOT_FOUND)) {
-                    AnalyticsHandlerAdapter.getInstance().sendException(e, "info: " + info);
-                }
-            }
+            String action = getActionRecord(info).mActionEvent;
+            String str = context.getResources().getString(R.string.undo_redo_annot_modify);
+            return !Utils.isNullOrEmpty(action) && action.startsWith(str);
         }
 
         return false;
@@ -1116,20 +1030,9 @@ public class UndoRedoManager implements
     @SuppressWarnings("unused")
     public static boolean isRemoveAnnotationAction(final Context context, final String info) {
         if (context != null && !Utils.isNullOrEmpty(info)) {
-            try {
-                JSONObject jsonObj = new JSONObject(info);
-                if (jsonObj.has(JSON_ACTION_EVENT)) {
-                    String action = jsonObj.getString(JSON_ACTION_EVENT);
-                    String strAnnotRemove = context.getResources().getString(R.string.undo_redo_annot_remove);
-                    if (!Utils.isNullOrEmpty(action) && action.startsWith(strAnnotRemove)) {
-                        return true;
-                    }
-                }
-            } catch (Exception e) {
-                if (!info.equals(JSON_STATE_NOT_FOUND)) {
-                    AnalyticsHandlerAdapter.getInstance().sendException(e, "info: " + info);
-                }
-            }
+            String action = getActionRecord(info).mActionEvent;
+            String str = context.getResources().getString(R.string.undo_redo_annot_remove);
+            return !Utils.isNullOrEmpty(action) && action.startsWith(str);
         }
 
         return false;
@@ -1262,11 +1165,7 @@ public class UndoRedoManager implements
                 }
                 if (sDebug)
                     Log.e(TAG, "remove unsafe " + (isUndo ? "undo" : "redo") + " info: " + info);
-                JSONObject jsonObject = new JSONObject(info);
-                if (!jsonObject.has(JSON_ACTION)) {
-                    break;
-                }
-                String action = jsonObject.getString(JSON_ACTION);
+                String action = getActionRecord(info).mAction;
                 if (Utils.isNullOrEmpty(action) || !action.equals(JSON_SAFETY)) {
                     break;
                 }
@@ -1364,7 +1263,7 @@ public class UndoRedoManager implements
                 AnalyticsHandlerAdapter.getInstance().sendException(
                     new Exception("takeUndoSnapshot with an empty string"));
             }
-            result = takeUndoSnapshot(jsonObj.toString());
+            result = takeUndoSnapshot(jsonObj);
             if (sDebug)
                 Log.d(TAG, "snapshot: " + jsonObj.toString());
         } catch (Exception e) {
@@ -1474,19 +1373,8 @@ public class UndoRedoManager implements
         List<Integer> pageNums = new ArrayList<>();
 
         if (!Utils.isNullOrEmpty(info)) {
-            try {
-                JSONObject jsonObj = new JSONObject(info);
-                String annotInfo = jsonObj.optString(JSON_ANNOT_INFO);
-                JSONObject annotObj = new JSONObject(annotInfo);
-                String str = annotObj.optString(JSON_ANNOT_PAGE_NUMS);
-                if (!Utils.isNullOrEmpty(str)) {
-                    String[] pages = str.split(JSON_DELIMITER);
-                    for (String page : pages) {
-                        pageNums.add(Integer.valueOf(page));
-                    }
-                }
-            } catch (Exception e) {
-                AnalyticsHandlerAdapter.getInstance().sendException(e, "info: " + info);
+            for (int page : getActionRecord(info).getAnnotInfo().mPageNums) {
+                pageNums.add(page);
             }
         }
 
@@ -1494,23 +1382,10 @@ public class UndoRedoManager implements
     }
 
     private static int getPreModifiedAnnotPageNumber(final String info) {
-        int pageNum = 0;
-
-        if (!Utils.isNullOrEmpty(info)) {
-            try {
-                JSONObject jsonObj = new JSONObject(info);
-                String annotInfo = jsonObj.optString(JSON_ANNOT_INFO);
-                JSONObject annotObj = new JSONObject(annotInfo);
-                String str = annotObj.optString(JSON_ANNOT_PRE_PAGE_NUM);
-                if (!Utils.isNullOrEmpty(str)) {
-                    pageNum = Integer.valueOf(str);
-                }
-            } catch (Exception e) {
-                AnalyticsHandlerAdapter.getInstance().sendException(e, "info: " + info);
-            }
+        if (Utils.isNullOrEmpty(info)) {
+            return 0;
         }
-
-        return pageNum;
+        return getActionRecord(info).getAnnotInfo().mPrePageNum;
     }
 
     @NonNull
@@ -1518,21 +1393,10 @@ public class UndoRedoManager implements
         List<Rect> annotRects = new ArrayList<>();
 
         if (!Utils.isNullOrEmpty(info)) {
+            int[] coords = getActionRecord(info).getAnnotInfo().mRects;
             try {
-                JSONObject jsonObj = new JSONObject(info);
-                String annotInfo = jsonObj.optString(JSON_ANNOT_INFO);
-                JSONObject annotObj = new JSONObject(annotInfo);
-                String str = annotObj.optString(JSON_ANNOT_RECTS);
-                if (!Utils.isNullOrEmpty(str)) {
-                    String[] coords = str.split(JSON_DELIMITER);
-                    int count = coords.length / 4;
-                    for (int i = 0; i < count; ++i) {
-                        int x1 = Integer.valueOf(coords[i * 4]);
-                        int y1 = Integer.valueOf(coords[i * 4 + 1]);
-                        int x2 = Integer.valueOf(coords[i * 4 + 2]);
-                        int y2 = Integer.valueOf(coords[i * 4 + 3]);
-                        annotRects.add(new Rect(x1, y1, x2, y2));
-                    }
+                for (int i = 0, count = coords.length / 4; i < count; ++i) {
+                    annotRects.add(new Rect(coords[i * 4], coords[i * 4 + 1], coords[i * 4 + 2], coords[i * 4 + 3]));
                 }
             } catch (Exception e) {
                 AnalyticsHandlerAdapter.getInstance().sendException(e, "info: " + info);
@@ -1546,23 +1410,13 @@ public class UndoRedoManager implements
         Rect annotRect = null;
 
         if (!Utils.isNullOrEmpty(info)) {
-            try {
-                JSONObject jsonObj = new JSONObject(info);
-                String annotInfo = jsonObj.optString(JSON_ANNOT_INFO);
-                JSONObject annotObj = new JSONObject(annotInfo);
-                String str = annotObj.optString(JSON_ANNOT_PRE_RECT);
-                if (!Utils.isNullOrEmpty(str)) {
-                    String[] coords = str.split(JSON_DELIMITER);
-                    if (coords.length == 4) {
-                        int x1 = Integer.valueOf(coords[0]);
-                        int y1 = Integer.valueOf(coords[1]);
-                        int x2 = Integer.valueOf(coords[2]);
-                        int y2 = Integer.valueOf(coords[3]);
-                        annotRect = new Rect(x1, y1, x2, y2);
-                    }
+            int[] coords = getActionRecord(info).getAnnotInfo().mPreRect;
+            if (coords != null) {
+                try {
+                    annotRect = new Rect(coords[0], coords[1], coords[2], coords[3]);
+                } catch (Exception e) {
+                    AnalyticsHandlerAdapter.getInstance().sendException(e, "info: " + info);
                 }
-            } catch (Exception e) {
-                AnalyticsHandlerAdapter.getInstance().sendException(e, "info: " + info);
             }
         }
 
@@ -1626,6 +1480,33 @@ public class UndoRedoManager implements
         }
     }
 
+    private void invalidateTextSearchIndex(final String info) {
+        TextSearchIndex textSearchIndex = mToolManager.getTextSearchIndex();
+        if (textSearchIndex == null || isEditPageAction(mContext, info)) {
+            return;
+        }
+        // undoing or redoing flattened or redacted annotations changes the text of their pages
+        textSearchIndex.invalidatePages(getAnnotPageNumbers(info));
+    }
+
+    private void raisePageEditUndoRedo(final String info, boolean isUndo) {
+        if (mPageEditUndoRedoListeners == null || !isEditPageAction(mContext, info)) {
+            return;
+        }
+
+        for (PageEditUndoRedoListener listener : mPageEditUndoRedoListeners) {
+            listener.onPageEditUndoRedo(info, isUndo);
+        }
+    }
+
+    private String takeUndoSnapshot(JSONObject jsonObj) throws PDFNetException {
+        String info = jsonObj.toString();
+        // the parsed form is known already, so register it before the info string
+        // comes back from the undo chain and would otherwise need to be parsed again
+        sJournal.put(info, new ActionRecord(jsonObj, info.length()));
+        return takeUndoSnapshot(info);
+    }
+
     private String takeUndoSnapshot(String info) throws PDFNetException {
         boolean shouldUnlock = false;
         try {
@@ -1641,6 +1522,229 @@ public class UndoRedoManager implements
         }
     }
 
+    /**
+     * Sets the approximate memory budget of the parsed undo/redo action journal.
+     * Oldest entries are evicted once the budget is exceeded; evicted entries are
+     * parsed again from the undo info string if they are ever needed.
+     *
+     * @param maxBytes The maximum number of bytes; 0 disables the journal
+     */
+    public static void setActionJournalBudget(int maxBytes) {
+        sJournal.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Clears the parsed undo/redo action journal.
+     */
+    public static void clearActionJournal() {
+        sJournal.clear();
+    }
+
+    @NonNull
+    private static ActionRecord getActionRecord(final String info) {
+        if (Utils.isNullOrEmpty(info)) {
+            return ActionRecord.INVALID;
+        }
+
+        ActionRecord record = sJournal.get(info);
+        if (record == null) {
+            try {
+                record = new ActionRecord(new JSONObject(info), info.length());
+            } catch (Exception e) {
+                if (!info.equals(JSON_STATE_NOT_FOUND)) {
+                    AnalyticsHandlerAdapter.getInstance().sendException(e, "info: " + info);
+                }
+                record = ActionRecord.INVALID;
+            }
+            // invalid info is remembered too, so that it is reported only once
+            sJournal.put(info, record);
+        }
+        return record;
+    }
+
+    private static int[] parseIntList(final String str) {
+        if (Utils.isNullOrEmpty(str)) {
+            return EMPTY_INT_ARRAY;
+        }
+
+        String[] items = str.trim().split(JSON_DELIMITER);
+        int[] result = new int[items.length];
+        int count = 0;
+        for (String item : items) {
+            if (!Utils.isNullOrEmpty(item)) {
+                result[count++] = Integer.parseInt(item);
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Typed form of the JSON information attached to an undo/redo state.
+     * The page and action fields are extracted once; the annotation information
+     * is only parsed the first time it is requested.
+     */
+    private static class ActionRecord {
+        static final ActionRecord INVALID = new ActionRecord();
+
+        // approximate per entry overhead of the record, its arrays and the journal entry
+        private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+        final boolean mValid;
+        final String mAction;
+        final String mActionEvent;
+        final String mInitialLabel;
+        final boolean mHasXfdf;
+        final boolean mIsEditPageAction;
+        final int[] mPageList;
+        final int mPageFrom;
+        final int mPageTo;
+        final int mByteCount;
+
+        private String mAnnotInfoStr;
+        private AnnotInfo mAnnotInfo;
+        private Boolean mValidAction;
+
+        private ActionRecord() {
+            mValid = false;
+            mAction = null;
+            mActionEvent = null;
+            mInitialLabel = null;
+            mHasXfdf = false;
+            mIsEditPageAction = false;
+            mPageList = EMPTY_INT_ARRAY;
+            mPageFrom = 0;
+            mPageTo = 0;
+            mByteCount = ENTRY_OVERHEAD_BYTES;
+        }
+
+        ActionRecord(@NonNull JSONObject jsonObj, int infoLength) {
+            mValid = true;
+            mAction = jsonObj.has(JSON_ACTION) ? jsonObj.optString(JSON_ACTION) : null;
+            mActionEvent = jsonObj.has(JSON_ACTION_EVENT) ? jsonObj.optString(JSON_ACTION_EVENT) : null;
+            mInitialLabel = jsonObj.has(JSON_INITIAL_LABEL) ? jsonObj.optString(JSON_INITIAL_LABEL) : null;
+            mHasXfdf = jsonObj.has(JSON_ANNOT_XFDF);
+            mIsEditPageAction = ACTION_EVENT_ADD_PAGES.equals(mActionEvent) ||
+                ACTION_EVENT_DELETE_PAGES.equals(mActionEvent) ||
+                ACTION_EVENT_ROTATE_PAGES.equals(mActionEvent) ||
+                ACTION_EVENT_MOVE_PAGE.equals(mActionEvent) ||
+                ACTION_EVENT_CROP_PAGES.equals(mActionEvent) || // cropping should be considered as page edition
+                ACTION_EVENT_ACTION.equals(mActionEvent); // executing action can be considered as page edition
+
+            int[] pageList = EMPTY_INT_ARRAY;
+            try {
+                pageList = parseIntList(jsonObj.optString(JSON_PAGE_LIST));
+            } catch (Exception e) {
+                AnalyticsHandlerAdapter.getInstance().sendException(e);
+            }
+            mPageList = pageList;
+            mPageFrom = jsonObj.optInt(JSON_PAGE_FROM);
+            mPageTo = jsonObj.optInt(JSON_PAGE_TO);
+            mAnnotInfoStr = jsonObj.optString(JSON_ANNOT_INFO);
+
+            // strings are stored as UTF-16; the annotation information is kept until parsed
+            mByteCount = ENTRY_OVERHEAD_BYTES + 2 * infoLength + 2 * mAnnotInfoStr.length()
+                + 4 * mPageList.length;
+        }
+
+        synchronized boolean isValidAction(@NonNull Context context) {
+            if (mValidAction == null) {
+                mValidAction = UndoRedoManager.isValidAction(context, mAction);
+            }
+            return mValidAction;
+        }
+
+        @NonNull
+        synchronized AnnotInfo getAnnotInfo() {
+            if (mAnnotInfo == null) {
+                mAnnotInfo = Utils.isNullOrEmpty(mAnnotInfoStr) ? AnnotInfo.EMPTY : AnnotInfo.parse(mAnnotInfoStr);
+                mAnnotInfoStr = null;
+            }
+            return mAnnotInfo;
+        }
+    }
+
+    private static class AnnotInfo {
+        static final AnnotInfo EMPTY = new AnnotInfo(EMPTY_INT_ARRAY, EMPTY_INT_ARRAY, 0, null);
+
+        final int[] mPageNums;
+        final int[] mRects;
+        final int mPrePageNum;
+        final int[] mPreRect;
+
+        private AnnotInfo(int[] pageNums, int[] rects, int prePageNum, int[] preRect) {
+            mPageNums = pageNums;
+            mRects = rects;
+            mPrePageNum = prePageNum;
+            mPreRect = preRect;
+        }
+
+        @NonNull
+        static AnnotInfo parse(@NonNull String annotInfo) {
+            try {
+                JSONObject annotObj = new JSONObject(annotInfo);
+                int[] pageNums = parseIntList(annotObj.optString(JSON_ANNOT_PAGE_NUMS));
+                int[] rects = parseIntList(annotObj.optString(JSON_ANNOT_RECTS));
+                int prePageNum = 0;
+                String str = annotObj.optString(JSON_ANNOT_PRE_PAGE_NUM);
+                if (!Utils.isNullOrEmpty(str)) {
+                    prePageNum = Integer.parseInt(str);
+                }
+                int[] preRect = parseIntList(annotObj.optString(JSON_ANNOT_PRE_RECT));
+                return new AnnotInfo(pageNums, rects, prePageNum, preRect.length == 4 ? preRect : null);
+            } catch (Exception e) {
+                AnalyticsHandlerAdapter.getInstance().sendException(e, "annot info: " + annotInfo);
+            }
+            return EMPTY;
+        }
+    }
+
+    /**
+     * Bounded journal of parsed undo/redo actions keyed by their info string,
+     * evicting the least recently used entries once the memory budget is exceeded.
+     */
+    private static class ActionJournal {
+        private final LinkedHashMap<String, ActionRecord> mRecords = new LinkedHashMap<>(16, 0.75f, true);
+        private int mMaxBytes;
+        private int mBytes;
+
+        ActionJournal(int maxBytes) {
+            mMaxBytes = maxBytes;
+        }
+
+        synchronized ActionRecord get(String info) {
+            return mRecords.get(info);
+        }
+
+        synchronized void put(String info, ActionRecord record) {
+            ActionRecord old = mRecords.put(info, record);
+            if (old != null) {
+                mBytes -= old.mByteCount;
+            }
+            mBytes += record.mByteCount;
+            trimToSize();
+        }
+
+        synchronized void setMaxBytes(int maxBytes) {
+            mMaxBytes = Math.max(0, maxBytes);
+            trimToSize();
+        }
+
+        synchronized void clear() {
+            mRecords.clear();
+            mBytes = 0;
+        }
+
+        private void trimToSize() {
+            Iterator<ActionRecord> it = mRecords.values().iterator();
+            while (mBytes > mMaxBytes && it.hasNext()) {
+                mBytes -= it.next().mByteCount;
+                it.remove();
+            }
+            if (sDebug && mBytes > mMaxBytes)
+                Log.d(TAG, "undo journal over budget: " + mBytes);
+        }
+    }
+
     public static void setDebug(boolean debug) {
         sDebug = debug;
     }
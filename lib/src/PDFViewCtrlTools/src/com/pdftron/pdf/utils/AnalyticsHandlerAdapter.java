@@ -898,6 +898,8 @@ public class AnalyticsHandlerAdapter {
     public final static int EVENT_STYLE_PICKER_SELECT_RULER_BASE_VALUE = 60;
     public final static int EVENT_STYLE_PICKER_SELECT_RULER_TRANSLATE_VALUE = 61;
     public final static int EVENT_ADD_RUBBER_STAMP = 62;
+    public final static int EVENT_TAB_HIBERNATE = 63;
+    public final static int EVENT_TAB_RESTORE = 64;
 
     protected String getEvent(int eventId) {
         switch (eventId) {
@@ -1025,6 +1027,10 @@ public class AnalyticsHandlerAdapter {
                 return "undoredo_dismissed_noaction";
             case EVENT_ADD_RUBBER_STAMP:
                 return "add_rubber_stamp";
+            case EVENT_TAB_HIBERNATE:
+                return "tab_hibernate";
+            case EVENT_TAB_RESTORE:
+                return "tab_restore";
             default:
                 return "not_known";
         }
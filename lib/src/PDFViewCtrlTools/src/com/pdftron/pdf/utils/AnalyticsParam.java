@@ -332,6 +332,21 @@ public class AnalyticsParam {
         return result;
     }
 
+    public static HashMap<String, String> tabHibernateParam(long time, long estimatedMemoryUsage, int liveTabCount) {
+        HashMap<String, String> result = new HashMap<>();
+        result.put("time", String.valueOf(time));
+        result.put("memory_kb", String.valueOf(estimatedMemoryUsage / 1024));
+        result.put("live_tabs", String.valueOf(liveTabCount));
+        return result;
+    }
+
+    public static HashMap<String, String> tabRestoreParam(long time, boolean hasPlaceholder) {
+        HashMap<String, String> result = new HashMap<>();
+        result.put("time", String.valueOf(time));
+        result.put("placeholder", hasPlaceholder ? "true" : "false");
+        return result;
+    }
+
     public static HashMap<String, String> firstTimeParam(boolean rtl) {
         HashMap<String, String> result = new HashMap<>();
         result.put("rtl_mode", String.valueOf(rtl));
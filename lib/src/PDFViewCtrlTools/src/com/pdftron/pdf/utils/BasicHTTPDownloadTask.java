@@ -6,26 +6,22 @@
 package com.pdftron.pdf.utils;
 
 import android.content.Context;
+import android.support.annotation.Nullable;
 
-import org.apache.commons.io.IOUtils;
-
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
 
 /**
- * An async task for basic HTTP downloading
+ * An async task for basic HTTP downloading. See {@link HttpDownloader} for how
+ * interrupted downloads are resumed and repeated downloads are cached.
  */
-public class BasicHTTPDownloadTask extends CustomAsyncTask<String, Void, Boolean> {
+public class BasicHTTPDownloadTask extends CustomAsyncTask<String, Long, Boolean> {
 
     private String mURL;
     private File mSaveFile;
     private BasicHTTPDownloadTaskListener mListener;
+    private BasicHTTPDownloadProgressListener mProgressListener;
+    private HttpDownloader mDownloader;
 
     /**
      * @param context The context
@@ -38,6 +34,26 @@ public class BasicHTTPDownloadTask extends CustomAsyncTask<String, Void, Boolean
         mURL = url;
         mSaveFile = saveFile;
         mListener = listener;
+        Context applicationContext = context.getApplicationContext();
+        mDownloader = new HttpDownloader(applicationContext != null ? applicationContext : context, url);
+    }
+
+    /**
+     * Sets the listener to be notified about the progress of the download.
+     *
+     * @param listener The progress listener
+     */
+    public void setProgressListener(@Nullable BasicHTTPDownloadProgressListener listener) {
+        mProgressListener = listener;
+    }
+
+    /**
+     * Stops the download right away, closing its connections. The downloaded part is
+     * resumed next time. Should be called in addition to {@link #cancel(boolean)}, which
+     * alone only stops the download once more bytes are received.
+     */
+    public void cancelDownload() {
+        mDownloader.cancel();
     }
 
     /**
@@ -48,22 +64,34 @@ public class BasicHTTPDownloadTask extends CustomAsyncTask<String, Void, Boolean
      */
     @Override
     protected Boolean doInBackground(String... params) {
-        URL url;
-        OutputStream filestream = null;
+        mDownloader.setProgressListener(new HttpDownloader.ProgressListener() {
+            @Override
+            public void onProgress(long downloaded, long total) {
+                if (isCancelled()) {
+                    // the downloaded part is resumed next time
+                    mDownloader.cancel();
+                    return;
+                }
+                publishProgress(downloaded, total);
+            }
+        });
         try {
-            url = new URL(mURL);
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            filestream = new BufferedOutputStream(new FileOutputStream(mSaveFile));
-            IOUtils.copy(urlConnection.getInputStream(), filestream);
-        } catch (MalformedURLException e) {
-            return false;
+            return mDownloader.download(mSaveFile);
         } catch (IOException e) {
             return false;
-        } finally {
-            IOUtils.closeQuietly(filestream);
         }
+    }
 
-        return true;
+    /**
+     * Overload implementation of {@link CustomAsyncTask#onProgressUpdate(Object[])}.
+     * It invokes the progress listener.
+     * @param values The number of downloaded bytes and the size of the file, or -1 if unknown
+     */
+    @Override
+    protected void onProgressUpdate(Long... values) {
+        if (mProgressListener != null && values.length == 2) {
+            mProgressListener.onDownloadProgress(values[0], values[1]);
+        }
     }
 
     /**
@@ -88,4 +116,17 @@ public class BasicHTTPDownloadTask extends CustomAsyncTask<String, Void, Boolean
          */
         void onDownloadTask(Boolean pass, File saveFile);
     }
+
+    /**
+     * Callback interface to be invoked while basic HTTP download is in progress.
+     */
+    public interface BasicHTTPDownloadProgressListener {
+        /**
+         * Called when more bytes have been downloaded.
+         *
+         * @param downloaded The number of bytes downloaded so far
+         * @param total The size of the file, or -1 if unknown
+         */
+        void onDownloadProgress(long downloaded, long total);
+    }
 }
@@ -28,7 +28,9 @@ import org.json.JSONObject;
 
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A utility class for handling bookmarks in PDF
@@ -41,6 +43,8 @@ public class BookmarkManager {
     private static final String KEY_PREF_USER_BOOKMARK = "user_bookmarks_key";
     private static final String KEY_PREF_USER_BOOKMARK_OBJ_TITLE = "pdftronUserBookmarks";
 
+    private static boolean sUserBookmarksMigrated;
+
     // START Bookmark using Bookmark object
 
     /**
@@ -418,7 +422,50 @@ public class BookmarkManager {
     }
     // END Bookmark using Bookmark object
 
-    // START Bookmark using SharedPreferences
+    // START Bookmark using UserDataStore
+
+    /**
+     * Returns the store of user bookmarks. The first time, user bookmarks saved in
+     * SharedPreferences by older versions are moved to the store.
+     */
+    private static UserDataStore getUserBookmarkStore(@NonNull Context context) {
+        UserDataStore store = UserDataStore.getInstance(context);
+        synchronized (BookmarkManager.class) {
+            if (!sUserBookmarksMigrated) {
+                sUserBookmarksMigrated = true;
+                migratePreferenceBookmarks(context, store);
+            }
+        }
+        return store;
+    }
+
+    private static void migratePreferenceBookmarks(@NonNull Context context, @NonNull UserDataStore store) {
+        final SharedPreferences settings = context.getSharedPreferences(PREFS_CONTROLS_FILE_NAME, 0);
+        if (settings == null) {
+            return;
+        }
+        final HashMap<String, String> bookmarks = new HashMap<>();
+        for (Map.Entry<String, ?> entry : settings.getAll().entrySet()) {
+            String key = entry.getKey();
+            if (key.startsWith(KEY_PREF_USER_BOOKMARK) && entry.getValue() instanceof String) {
+                bookmarks.put(key.substring(KEY_PREF_USER_BOOKMARK.length()), (String) entry.getValue());
+            }
+        }
+        if (bookmarks.isEmpty()) {
+            return;
+        }
+        // the preferences are only removed once the bookmarks are committed
+        store.importUserBookmarks(bookmarks, new Runnable() {
+            @Override
+            public void run() {
+                SharedPreferences.Editor editor = settings.edit();
+                for (String filePath : bookmarks.keySet()) {
+                    editor.remove(KEY_PREF_USER_BOOKMARK + filePath);
+                }
+                editor.apply();
+            }
+        });
+    }
 
     /**
      * Returns user bookmarks.
@@ -433,9 +480,8 @@ public class BookmarkManager {
         if (context == null) {
             return userBookmarks;
         }
-        SharedPreferences settings = context.getSharedPreferences(PREFS_CONTROLS_FILE_NAME, 0);
-        if (settings != null) {
-            String serializedDocs = settings.getString(KEY_PREF_USER_BOOKMARK + filePath, "");
+        if (filePath != null) {
+            String serializedDocs = getUserBookmarkStore(context).getUserBookmarks(filePath);
             if (!Utils.isNullOrEmpty(serializedDocs)) {
                 try {
                     JSONArray jsonArray = new JSONArray(serializedDocs);
@@ -469,15 +515,15 @@ public class BookmarkManager {
      * @param data The user bookmarks
      */
     public static void saveUserBookmarks(Context context, String filePath, List<UserBookmarkItem> data) {
-        SharedPreferences settings = context.getSharedPreferences(PREFS_CONTROLS_FILE_NAME, 0);
-        SharedPreferences.Editor editor = settings.edit();
+        if (filePath == null) {
+            return;
+        }
         Gson gson = new Gson();
         Type collectionType = new TypeToken<ArrayList<UserBookmarkItem>>() {
         }.getType();
         String serializedDocs = gson.toJson(data, collectionType);
 
-        editor.putString(KEY_PREF_USER_BOOKMARK + filePath, serializedDocs);
-        editor.apply();
+        getUserBookmarkStore(context).putUserBookmarks(filePath, serializedDocs);
     }
 
     /**
@@ -487,13 +533,10 @@ public class BookmarkManager {
      * @param filePath The file path
      */
     public static void removeUserBookmarks(@Nullable Context context, String filePath) {
-        if (context == null) {
+        if (context == null || filePath == null) {
             return;
         }
-        SharedPreferences settings = context.getSharedPreferences(PREFS_CONTROLS_FILE_NAME, 0);
-        SharedPreferences.Editor editor = settings.edit();
-        editor.remove(KEY_PREF_USER_BOOKMARK + filePath);
-        editor.apply();
+        getUserBookmarkStore(context).putUserBookmarks(filePath, null);
     }
 
     /**
@@ -608,5 +651,5 @@ public class BookmarkManager {
         }
     }
 
-    // END Bookmark using SharedPreferences
+    // END Bookmark using UserDataStore
 }
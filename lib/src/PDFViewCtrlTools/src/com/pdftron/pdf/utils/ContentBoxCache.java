@@ -0,0 +1,265 @@
+//---------------------------------------------------------------------------------------
+// Copyright (c) 2001-2018 by PDFTron Systems Inc. All Rights Reserved.
+// Consult legal.txt regarding legal and license information.
+//---------------------------------------------------------------------------------------
+
+package com.pdftron.pdf.utils;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.pdftron.common.PDFNetException;
+import com.pdftron.filters.FilterReader;
+import com.pdftron.pdf.PDFDoc;
+import com.pdftron.pdf.Page;
+import com.pdftron.sdf.DictIterator;
+import com.pdftron.sdf.Obj;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent cache of the visible content boxes of pages, used by
+ * {@link UserCropUtilities.AutoCropInBackgroundTask}.
+ * <p>
+ * An entry is keyed by the document file and its permanent identifier, the object number of the
+ * page and a checksum of the raw content streams and the XObjects of the page, so that an entry is
+ * not used anymore once the document is replaced or the content of the page changes. Computing the
+ * checksum only reads the compressed streams, which is much faster than finding the visible
+ * content box.
+ */
+class ContentBoxCache {
+
+    private static final String TAG = ContentBoxCache.class.getName();
+    private static boolean sDebug;
+
+    private static final String CACHE_FILE_NAME = "content_box_cache.bin";
+    private static final int CACHE_MAGIC = 0x43424f58;
+    private static final int CACHE_VERSION = 2;
+    private static final int MAX_ENTRIES = 20000;
+
+    private static ContentBoxCache sInstance;
+
+    private final File mCacheFile;
+    // in access order, so that least recently used entries are dropped first
+    private final LinkedHashMap<String, double[]> mEntries = new LinkedHashMap<String, double[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, double[]> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private boolean mDirty;
+
+    /**
+     * Returns the shared cache, loading it from disk the first time.
+     * Should not be called from the UI thread.
+     *
+     * @param context The context
+     * @return The cache
+     */
+    static synchronized ContentBoxCache getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new ContentBoxCache(new File(context.getCacheDir(), CACHE_FILE_NAME));
+            sInstance.load();
+        }
+        return sInstance;
+    }
+
+    private ContentBoxCache(@NonNull File cacheFile) {
+        mCacheFile = cacheFile;
+    }
+
+    /**
+     * Returns the key of a document. The document should be read-locked.
+     *
+     * @param doc The document
+     * @return The key of the document, or null if the document was not opened from a file
+     * @throws PDFNetException PDFNet exception
+     */
+    @Nullable
+    static String getDocKey(@NonNull PDFDoc doc) throws PDFNetException {
+        String fileName = doc.getFileName();
+        if (Utils.isNullOrEmpty(fileName)) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder(fileName).append('|');
+        // the permanent identifier is kept by incremental saves, such as saving the crop boxes
+        Obj id = doc.getTrailer().findObj("ID");
+        if (id != null && id.isArray() && id.size() > 0 && id.getAt(0).isString()) {
+            for (byte b : id.getAt(0).getBuffer()) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+        } else {
+            File file = new File(fileName);
+            builder.append(file.length()).append('|').append(file.lastModified());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the key of a page. The document should be read-locked.
+     *
+     * @param docKey The key of the document, see {@link #getDocKey(PDFDoc)}
+     * @param page   The page
+     * @return The key of the page
+     * @throws PDFNetException PDFNet exception
+     */
+    @NonNull
+    static String getKey(@NonNull String docKey, @NonNull Page page) throws PDFNetException {
+        Obj pageObj = page.getSDFObj();
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[8192];
+        Obj contents = pageObj.findObj("Contents");
+        if (contents != null) {
+            if (contents.isArray()) {
+                for (long i = 0, count = contents.size(); i < count; ++i) {
+                    updateChecksum(crc, contents.getAt((int) i), buffer);
+                }
+            } else {
+                updateChecksum(crc, contents, buffer);
+            }
+        }
+
+        // the content streams may draw XObjects, which can change on their own
+        Obj resources = page.getResourceDict();
+        Obj xobjects = resources == null ? null : resources.findObj("XObject");
+        if (xobjects != null && xobjects.isDict()) {
+            for (DictIterator itr = xobjects.getDictIterator(); itr.hasNext(); itr.next()) {
+                crc.update(itr.key().getName().getBytes());
+                Obj xobject = itr.value();
+                updateChecksum(crc, xobject.getObjNum());
+                updateChecksum(crc, xobject.getGenNum());
+                if (!xobject.isStream()) {
+                    continue;
+                }
+                Obj subtype = xobject.findObj("Subtype");
+                if (subtype != null && subtype.isName() && "Form".equals(subtype.getName())) {
+                    updateChecksum(crc, xobject, buffer);
+                } else {
+                    // images are large, their size is enough to notice they were replaced
+                    updateChecksum(crc, xobject.getRawStreamLength());
+                }
+            }
+        }
+        return docKey + '|' + pageObj.getObjNum() + '|' + crc.getValue();
+    }
+
+    private static void updateChecksum(CRC32 crc, long value) {
+        for (int shift = 0; shift < 64; shift += 8) {
+            crc.update((int) (value >>> shift));
+        }
+    }
+
+    private static void updateChecksum(CRC32 crc, Obj stream, byte[] buffer) throws PDFNetException {
+        if (stream == null || !stream.isStream()) {
+            return;
+        }
+        FilterReader reader = new FilterReader(stream.getRawStream(false));
+        long read;
+        while ((read = reader.read(buffer)) > 0) {
+            crc.update(buffer, 0, (int) read);
+        }
+    }
+
+    /**
+     * @param key The key of the page
+     * @return The visible content box as {x1, y1, x2, y2}, or null if not cached
+     */
+    @Nullable
+    synchronized double[] get(@NonNull String key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * @param key The key of the page
+     * @param box The visible content box as {x1, y1, x2, y2}
+     */
+    synchronized void put(@NonNull String key, @NonNull double[] box) {
+        mEntries.put(key, box);
+        mDirty = true;
+    }
+
+    /**
+     * Saves the cache to disk if it has changed.
+     */
+    synchronized void save() {
+        if (!mDirty) {
+            return;
+        }
+
+        File tempFile = new File(mCacheFile.getAbsolutePath() + ".tmp");
+        DataOutputStream out = null;
+        boolean success = false;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(CACHE_MAGIC);
+            out.writeInt(CACHE_VERSION);
+            out.writeInt(mEntries.size());
+            for (Map.Entry<String, double[]> entry : mEntries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                double[] box = entry.getValue();
+                for (int i = 0; i < 4; ++i) {
+                    out.writeDouble(box[i]);
+                }
+            }
+            out.flush();
+            success = true;
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        } finally {
+            Utils.closeQuietly(out);
+        }
+
+        if (success && tempFile.renameTo(mCacheFile)) {
+            mDirty = false;
+            if (sDebug) Log.d(TAG, "saved " + mEntries.size() + " content boxes");
+        } else {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    private synchronized void load() {
+        if (!mCacheFile.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mCacheFile)));
+            if (in.readInt() != CACHE_MAGIC || in.readInt() != CACHE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                String key = in.readUTF();
+                double[] box = new double[4];
+                for (int j = 0; j < 4; ++j) {
+                    box[j] = in.readDouble();
+                }
+                mEntries.put(key, box);
+            }
+            if (sDebug) Log.d(TAG, "loaded " + count + " content boxes");
+        } catch (Exception e) {
+            // an incomplete cache is rebuilt from scratch
+            mEntries.clear();
+            if (sDebug) Log.d(TAG, "failed to load cache: " + e.getMessage());
+        } finally {
+            Utils.closeQuietly(in);
+        }
+    }
+
+    public static void setDebug(boolean debug) {
+        sDebug = debug;
+    }
+}
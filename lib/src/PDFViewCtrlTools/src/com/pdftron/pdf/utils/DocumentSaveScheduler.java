@@ -0,0 +1,319 @@
+//---------------------------------------------------------------------------------------
+// Copyright (c) 2001-2018 by PDFTron Systems Inc. All Rights Reserved.
+// Consult legal.txt regarding legal and license information.
+//---------------------------------------------------------------------------------------
+
+package com.pdftron.pdf.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.UiThread;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import com.pdftron.pdf.PDFViewCtrl;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Saves a document in the background after it has been modified.
+ * <p>
+ * Modifications are coalesced: a save is started once the document has not been modified for
+ * a short delay, but no later than {@link #MAX_SAVE_DELAY} milliseconds after the first unsaved
+ * modification. Saves run on a dedicated thread, which acquires the save lock and then the
+ * document lock, the same order as synchronous saves. The document lock is tried in short slices
+ * and the save lock is released between slices, so that the UI thread never waits for the saving
+ * thread to get the lock.
+ * <p>
+ * Background saves are best effort; before the document is closed, {@link #flush()} should be
+ * called and the document saved synchronously.
+ */
+public class DocumentSaveScheduler {
+
+    private static final String TAG = DocumentSaveScheduler.class.getName();
+    private static boolean sDebug;
+
+    private static final long DEFAULT_SAVE_DELAY = 2000; // ms
+    private static final long MAX_SAVE_DELAY = 10000; // ms
+    private static final int LOCK_SLICE = 50; // ms
+    private static final int MAX_LOCK_ATTEMPTS = 10;
+
+    /**
+     * Callback interface invoked to save the document.
+     */
+    public interface SaveCallback {
+        /**
+         * Called on the UI thread before a save is started. Work that needs the UI thread,
+         * such as taking an undo snapshot, should be done here.
+         *
+         * @return True if the document can be saved in the background
+         */
+        @UiThread
+        boolean canSave();
+
+        /**
+         * Called on the saving thread while the save lock and the document lock are held.
+         *
+         * @return The number of bytes written, or -1 if unknown
+         * @throws Exception if the document could not be saved
+         */
+        @WorkerThread
+        long onSave() throws Exception;
+
+        /**
+         * Called on the UI thread after the document has been saved.
+         */
+        @UiThread
+        void onSaveFinished();
+
+        /**
+         * Called on the UI thread if the document could not be saved.
+         *
+         * @param e The exception
+         */
+        @UiThread
+        void onSaveFailed(@NonNull Exception e);
+    }
+
+    private final PDFViewCtrl mPdfViewCtrl;
+    private final Object mSaveLock;
+    private final SaveCallback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private long mSaveDelay = DEFAULT_SAVE_DELAY;
+    private long mFirstModifiedTime; // uptime of the first unsaved modification, 0 if none
+    private volatile boolean mSaving;
+    private volatile boolean mShutdown;
+    // incremented by flush, a save of an older generation is skipped
+    private volatile int mGeneration;
+
+    // statistics, written by the saving thread
+    private volatile int mSaveCount;
+    private volatile int mLockTimeoutCount;
+    private volatile long mLastSaveLatency;
+    private volatile long mTotalSaveLatency;
+    private volatile long mLastBytesWritten = -1;
+    private volatile long mTotalBytesWritten;
+
+    private final Runnable mStartSaveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startSave();
+        }
+    };
+
+    /**
+     * Class constructor
+     *
+     * @param pdfViewCtrl The PDFViewCtrl that holds the document
+     * @param saveLock    The lock held by synchronous saves before they lock the document
+     * @param callback    The callback that saves the document
+     */
+    public DocumentSaveScheduler(@NonNull PDFViewCtrl pdfViewCtrl, @NonNull Object saveLock, @NonNull SaveCallback callback) {
+        mPdfViewCtrl = pdfViewCtrl;
+        mSaveLock = saveLock;
+        mCallback = callback;
+    }
+
+    /**
+     * Sets how long the document has to be left unmodified before it is saved.
+     *
+     * @param delay The delay in milliseconds
+     */
+    public void setSaveDelay(long delay) {
+        mSaveDelay = Math.max(0, Math.min(delay, MAX_SAVE_DELAY));
+    }
+
+    /**
+     * Notifies that the document has been modified and schedules a save.
+     */
+    @UiThread
+    public void notifyModified() {
+        if (mShutdown) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        if (mFirstModifiedTime == 0) {
+            mFirstModifiedTime = now;
+        }
+        long delay = Math.min(mSaveDelay, Math.max(0, mFirstModifiedTime + MAX_SAVE_DELAY - now));
+        mHandler.removeCallbacks(mStartSaveRunnable);
+        mHandler.postDelayed(mStartSaveRunnable, delay);
+    }
+
+    /**
+     * Cancels the scheduled save and any background save that has not locked the document yet,
+     * so that the document can be saved synchronously afterwards. Does not wait; a background
+     * save that is already writing finishes while the synchronous save waits for the save lock.
+     */
+    @UiThread
+    public void flush() {
+        mHandler.removeCallbacks(mStartSaveRunnable);
+        mFirstModifiedTime = 0;
+        ++mGeneration;
+    }
+
+    /**
+     * Flushes and stops the scheduler. No save is scheduled afterwards.
+     */
+    @UiThread
+    public void shutdown() {
+        flush();
+        mShutdown = true;
+        mHandler.removeCallbacksAndMessages(null);
+        mExecutor.shutdown();
+    }
+
+    /**
+     * @return The number of background saves
+     */
+    public int getSaveCount() {
+        return mSaveCount;
+    }
+
+    /**
+     * @return The number of times a save was postponed since the document lock could not be acquired
+     */
+    public int getLockTimeoutCount() {
+        return mLockTimeoutCount;
+    }
+
+    /**
+     * @return The time the last background save took, including waiting for the lock, in milliseconds
+     */
+    public long getLastSaveLatency() {
+        return mLastSaveLatency;
+    }
+
+    /**
+     * @return The average time a background save took in milliseconds
+     */
+    public long getAverageSaveLatency() {
+        int saveCount = mSaveCount;
+        return saveCount == 0 ? 0 : mTotalSaveLatency / saveCount;
+    }
+
+    /**
+     * @return The number of bytes written by the last background save, or -1 if unknown
+     */
+    public long getLastBytesWritten() {
+        return mLastBytesWritten;
+    }
+
+    /**
+     * @return The total number of bytes written by background saves, where known
+     */
+    public long getTotalBytesWritten() {
+        return mTotalBytesWritten;
+    }
+
+    private void startSave() {
+        if (mShutdown) {
+            return;
+        }
+        if (mSaving) {
+            // modified while saving, save again after the running save
+            mHandler.postDelayed(mStartSaveRunnable, mSaveDelay);
+            return;
+        }
+        mFirstModifiedTime = 0;
+        if (!mCallback.canSave()) {
+            return;
+        }
+        final int generation = mGeneration;
+        mSaving = true;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    save(generation);
+                } finally {
+                    mSaving = false;
+                }
+            }
+        });
+    }
+
+    private boolean isCancelled(int generation) {
+        return mShutdown || generation != mGeneration;
+    }
+
+    @WorkerThread
+    private void save(int generation) {
+        long startTime = SystemClock.uptimeMillis();
+        try {
+            long bytesWritten = -1;
+            boolean saved = false;
+            for (int i = 0; i < MAX_LOCK_ATTEMPTS && !saved; ++i) {
+                if (isCancelled(generation)) {
+                    return;
+                }
+                // same order as synchronous saves: save lock first, then the document lock
+                synchronized (mSaveLock) {
+                    if (isCancelled(generation)) {
+                        return;
+                    }
+                    boolean shouldUnlock = false;
+                    try {
+                        shouldUnlock = mPdfViewCtrl.docTryLock(LOCK_SLICE);
+                        if (shouldUnlock) {
+                            bytesWritten = mCallback.onSave();
+                            saved = true;
+                        }
+                    } finally {
+                        if (shouldUnlock) {
+                            mPdfViewCtrl.docUnlock();
+                        }
+                    }
+                }
+            }
+            if (!saved) {
+                ++mLockTimeoutCount;
+                if (sDebug) Log.d(TAG, "could not lock the document, save postponed");
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        notifyModified();
+                    }
+                });
+                return;
+            }
+
+            long latency = SystemClock.uptimeMillis() - startTime;
+            mLastSaveLatency = latency;
+            mTotalSaveLatency += latency;
+            mLastBytesWritten = bytesWritten;
+            if (bytesWritten > 0) {
+                mTotalBytesWritten += bytesWritten;
+            }
+            ++mSaveCount;
+            if (sDebug) Log.d(TAG, "saved in " + latency + "ms, " + bytesWritten + " bytes");
+
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mShutdown) {
+                        mCallback.onSaveFinished();
+                    }
+                }
+            });
+        } catch (final Exception e) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mShutdown) {
+                        mCallback.onSaveFailed(e);
+                    }
+                }
+            });
+        }
+    }
+
+    public static void setDebug(boolean debug) {
+        sDebug = debug;
+    }
+}
@@ -151,7 +151,9 @@ public class DrawingUtils {
             float newThickness = (float) (pdfViewCtrl.getZoom() * ink.mThickness);
             if ((!flinging && (oldThickness != newThickness || ink.mDirtyDrawingPts)) || forceRecalculate) {
                 ink.mPaint.setStrokeWidth(newThickness);
-                ink.mDrawingStrokes = FreehandCreate.createDrawingStrokesFromPageStrokes(pdfViewCtrl, ink.mPageStrokes, ink.mStylusUsed, ink.mPageForFreehandAnnot, offset, scaleX, scaleY);
+                // Bezier control points are kept in page space by the ink item,
+                // only strokes changed since the last time are smoothed again
+                ink.mDrawingStrokes = FreehandCreate.createDrawingStrokesFromPageStrokes(pdfViewCtrl, ink, offset, scaleX, scaleY);
                 ink.mDirtyPaths = true;
                 ink.mDirtyDrawingPts = false;
             }
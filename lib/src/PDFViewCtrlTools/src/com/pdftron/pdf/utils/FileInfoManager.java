@@ -21,6 +21,10 @@ import java.util.List;
 
 /**
  * Singleton class to manage files defined as {@link FileInfo}
+ * <p>
+ * Files are kept in memory once loaded and saved in {@link UserDataStore} on a
+ * background thread. Files saved in SharedPreferences by older versions are moved
+ * to the store the first time they are loaded.
  */
 public class FileInfoManager {
 
@@ -31,10 +35,7 @@ public class FileInfoManager {
     protected final String mKeyPreferenceFiles;
     private final int mMaxNumFiles;
 
-    private List<Integer> mUsedRefSet;
-    private List<Integer> mAvailableRefSet = new ArrayList<>();
-    private List<FileInfo> mInternalFiles; // NOTE: always keep its size fixed
-    private boolean mAllLoaded;
+    private List<FileInfo> mFiles; // null until loaded
     private Gson mGson = new Gson();
 
     protected FileInfoManager(String keyPreferenceFiles, int maxNumFiles) {
@@ -53,14 +54,9 @@ public class FileInfoManager {
      * @return The number of files
      */
     public int size(@NonNull Context context) {
-        SharedPreferences prefs = getDefaultSharedPreferences(context);
-        if (prefs == null) {
-            return 0;
+        synchronized (locker) {
+            return loadFiles(context).size();
         }
-
-        loadPreferenceRefs(prefs);
-
-        return mUsedRefSet.size();
     }
 
     /**
@@ -81,21 +77,12 @@ public class FileInfoManager {
      * @return True if the file exists in the repository
      */
     public boolean containsFile(@NonNull Context context, @Nullable FileInfo fileInfo) {
-        SharedPreferences prefs = getDefaultSharedPreferences(context);
-        if (prefs == null || fileInfo == null) {
+        if (fileInfo == null) {
             return false;
         }
 
-        createInternalFiles();
-
         synchronized (locker) {
-            if (mInternalFiles.contains(fileInfo)) {
-                return true;
-            }
-            if (!mAllLoaded) {
-                load(prefs, fileInfo);
-            }
-            return mInternalFiles.contains(fileInfo);
+            return loadFiles(context).contains(fileInfo);
         }
     }
 
@@ -106,17 +93,16 @@ public class FileInfoManager {
      * @param files   A list of files to be added into the repository
      */
     public void saveFiles(@NonNull Context context, @NonNull List<FileInfo> files) {
-        SharedPreferences prefs = getDefaultSharedPreferences(context);
-        if (prefs == null) {
-            return;
-        }
-
-        createInternalFiles();
-
         synchronized (locker) {
-            save(prefs, files);
+            List<FileInfo> internalFiles = loadFiles(context);
+            internalFiles.clear();
+            for (FileInfo fileInfo : files) {
+                if (fileInfo != null && internalFiles.size() < mMaxNumFiles) {
+                    internalFiles.add(fileInfo);
+                }
+            }
+            save(context);
         }
-        mAllLoaded = true;
     }
 
     /**
@@ -131,30 +117,12 @@ public class FileInfoManager {
         if (context == null) {
             return files;
         }
-        SharedPreferences prefs = getDefaultSharedPreferences(context);
-        if (prefs == null) {
-            return files;
-        }
-
-        createInternalFiles();
 
-        // size can be changed within loop by adding/removing item(s)
-        for (int i = 0; i < size(context) && i < mMaxNumFiles; ++i) {
-            synchronized (locker) {
-                if (mInternalFiles.get(i) == null) {
-                    load(prefs, i);
-                }
-            }
-
-            synchronized (locker) {
-                FileInfo fileInfo = mInternalFiles.get(i);
-                if (fileInfo != null) {
-                    files.add(cloneFileInfo(fileInfo));
-                }
+        synchronized (locker) {
+            for (FileInfo fileInfo : loadFiles(context)) {
+                files.add(cloneFileInfo(fileInfo));
             }
         }
-
-        mAllLoaded = true;
         return files;
     }
 
@@ -167,19 +135,16 @@ public class FileInfoManager {
      */
     @Nullable
     public FileInfo getFile(@NonNull Context context, int index) {
-        SharedPreferences prefs = getDefaultSharedPreferences(context);
-        if (prefs == null || index < 0 || index >= mMaxNumFiles) {
+        if (index < 0 || index >= mMaxNumFiles) {
             return null;
         }
 
-        createInternalFiles();
-
         synchronized (locker) {
-            if (mInternalFiles.get(index) == null) {
-                load(prefs, index);
+            List<FileInfo> internalFiles = loadFiles(context);
+            if (index >= internalFiles.size()) {
+                return null;
             }
-
-            return cloneFileInfo(mInternalFiles.get(index));
+            return cloneFileInfo(internalFiles.get(index));
         }
     }
 
@@ -193,25 +158,17 @@ public class FileInfoManager {
      */
     @Nullable
     public FileInfo getFile(@NonNull Context context, @Nullable FileInfo fileInfo) {
-        SharedPreferences prefs = getDefaultSharedPreferences(context);
-        if (prefs == null || fileInfo == null) {
+        if (fileInfo == null) {
             return null;
         }
 
-        createInternalFiles();
-
         synchronized (locker) {
-            if (!mInternalFiles.contains(fileInfo)) {
-                if (!mAllLoaded) {
-                    load(prefs, fileInfo);
-                }
-                if (!mInternalFiles.contains(fileInfo)) {
-                    return null;
-                }
+            List<FileInfo> internalFiles = loadFiles(context);
+            int index = internalFiles.indexOf(fileInfo);
+            if (index == -1) {
+                return null;
             }
-
-            int index = mInternalFiles.indexOf(fileInfo);
-            return cloneFileInfo(mInternalFiles.get(index));
+            return cloneFileInfo(internalFiles.get(index));
         }
     }
 
@@ -222,26 +179,19 @@ public class FileInfoManager {
      * @param fileInfo The file info
      */
     public void addFile(@NonNull Context context, @Nullable FileInfo fileInfo) {
-        SharedPreferences prefs = getDefaultSharedPreferences(context);
-        if (prefs == null || fileInfo == null) {
+        if (fileInfo == null) {
             return;
         }
 
-        createInternalFiles();
-
-        synchronized (locker) {
-            if (!mAllLoaded && !mInternalFiles.contains(fileInfo)) {
-                load(prefs, fileInfo);
-            }
-        }
-
         synchronized (locker) {
+            List<FileInfo> internalFiles = loadFiles(context);
             // if already exists in the list, remove it and add it in front
-            if (mInternalFiles.contains(fileInfo)) {
-                int index = mInternalFiles.indexOf(fileInfo);
-                remove(prefs, index);
+            internalFiles.remove(fileInfo);
+            internalFiles.add(0, fileInfo);
+            while (internalFiles.size() > mMaxNumFiles) {
+                internalFiles.remove(internalFiles.size() - 1);
             }
-            add(prefs, 0, fileInfo);
+            save(context);
         }
     }
 
@@ -251,20 +201,10 @@ public class FileInfoManager {
      * @param context The context
      */
     public void clearFiles(@NonNull Context context) {
-        SharedPreferences prefs = getDefaultSharedPreferences(context);
-        if (prefs == null) {
-            return;
-        }
-
-        createInternalFiles();
-
         synchronized (locker) {
-            for (int i = 0; i < mMaxNumFiles; ++i) {
-                mInternalFiles.set(i, null);
-            }
-            clearPreferenceRefs(prefs);
+            loadFiles(context).clear();
+            save(context);
         }
-        mAllLoaded = true;
     }
 
     /**
@@ -275,27 +215,13 @@ public class FileInfoManager {
      * @return True if the specified file was in the repository and removed successfully
      */
     public boolean removeFile(@Nullable Context context, @Nullable FileInfo fileToRemove) {
-        if (context == null) {
+        if (context == null || fileToRemove == null) {
             return false;
         }
 
-        SharedPreferences prefs = getDefaultSharedPreferences(context);
-        if (prefs == null || fileToRemove == null) {
-            return false;
-        }
-
-        createInternalFiles();
-
-        synchronized (locker) {
-            if (!mInternalFiles.contains(fileToRemove) && !mAllLoaded) {
-                load(prefs, fileToRemove);
-            }
-        }
-
         synchronized (locker) {
-            if (mInternalFiles.contains(fileToRemove)) {
-                int index = mInternalFiles.indexOf(fileToRemove);
-                remove(prefs, index);
+            if (loadFiles(context).remove(fileToRemove)) {
+                save(context);
                 return true;
             }
         }
@@ -313,30 +239,21 @@ public class FileInfoManager {
     @NonNull
     public List<FileInfo> removeFiles(@Nullable Context context, @Nullable List<FileInfo> filesToRemove) {
         List<FileInfo> filesRemoved = new ArrayList<>();
-        if (context == null) {
-            return filesRemoved;
-        }
-        SharedPreferences prefs = getDefaultSharedPreferences(context);
-        if (prefs == null || filesToRemove == null) {
+        if (context == null || filesToRemove == null) {
             return filesRemoved;
         }
 
-        createInternalFiles();
-
-        for (FileInfo fileToRemove : filesToRemove) {
-            synchronized (locker) {
-                if (!mInternalFiles.contains(fileToRemove) && !mAllLoaded) {
-                    load(prefs, fileToRemove);
-                }
-            }
-
-            synchronized (locker) {
-                if (mInternalFiles.contains(fileToRemove)) {
-                    int index = mInternalFiles.indexOf(fileToRemove);
-                    remove(prefs, index);
+        synchronized (locker) {
+            List<FileInfo> internalFiles = loadFiles(context);
+            for (FileInfo fileToRemove : filesToRemove) {
+                if (internalFiles.remove(fileToRemove)) {
                     filesRemoved.add(fileToRemove);
                 }
             }
+            if (!filesRemoved.isEmpty()) {
+                // saved once for all removed files
+                save(context);
+            }
         }
         return filesRemoved;
     }
@@ -350,23 +267,16 @@ public class FileInfoManager {
      * @return True if the file info was updated successfully
      */
     public boolean updateFile(@NonNull Context context, @Nullable FileInfo oldFile, @Nullable FileInfo newFile) {
-        SharedPreferences prefs = getDefaultSharedPreferences(context);
-        if (prefs == null || oldFile == null || newFile == null) {
+        if (oldFile == null || newFile == null) {
             return false;
         }
 
-        createInternalFiles();
-
-        synchronized (locker) {
-            if (!mInternalFiles.contains(oldFile) && !mAllLoaded) {
-                load(prefs, oldFile);
-            }
-        }
-
         synchronized (locker) {
-            if (mInternalFiles.contains(oldFile)) {
-                int index = mInternalFiles.indexOf(oldFile);
-                set(prefs, index, newFile);
+            List<FileInfo> internalFiles = loadFiles(context);
+            int index = internalFiles.indexOf(oldFile);
+            if (index != -1) {
+                internalFiles.set(index, newFile);
+                save(context);
                 return true;
             }
         }
@@ -380,226 +290,100 @@ public class FileInfoManager {
      * @param fileInfo The file info
      */
     public void updateFile(@NonNull Context context, @Nullable FileInfo fileInfo) {
-        SharedPreferences prefs = getDefaultSharedPreferences(context);
-        if (prefs == null || fileInfo == null) {
+        if (fileInfo == null) {
             return;
         }
 
-        createInternalFiles();
-
-        synchronized (locker) {
-            if (!mInternalFiles.contains(fileInfo) && !mAllLoaded) {
-                load(prefs, fileInfo);
-            }
-        }
-
         synchronized (locker) {
-            if (mInternalFiles.contains(fileInfo)) {
-                int index = mInternalFiles.indexOf(fileInfo);
+            List<FileInfo> internalFiles = loadFiles(context);
+            int index = internalFiles.indexOf(fileInfo);
+            if (index != -1) {
                 // update information
-                set(prefs, index, fileInfo);
+                internalFiles.set(index, fileInfo);
+                save(context);
             }
         }
     }
 
-    private void save(@NonNull SharedPreferences prefs, @NonNull List<FileInfo> files) {
-        mInternalFiles.clear();
-        mInternalFiles.addAll(files);
-        for (int i = mInternalFiles.size(); i < mMaxNumFiles; ++i) {
-            mInternalFiles.add(i, null);
+    // should be called while holding locker
+    @NonNull
+    private List<FileInfo> loadFiles(@NonNull Context context) {
+        if (mFiles != null) {
+            return mFiles;
         }
-        mAllLoaded = true;
 
-        clearPreferenceRefs(prefs);
-        int index = 0;
-        for (FileInfo fileInfo : files) {
-            String serializedDoc = mGson.toJson(fileInfo);
-            addPreferenceItem(prefs, serializedDoc, index++);
+        UserDataStore store = UserDataStore.getInstance(context);
+        List<String> data = store.getFileList(mKeyPreferenceFiles);
+        if (data.isEmpty()) {
+            data = migratePreferenceFiles(context, store);
         }
-    }
 
-    private void load(@NonNull SharedPreferences prefs, int index) {
-        String data = getPreferenceItem(prefs, index);
-        FileInfo fileInfo = null;
-        if (!Utils.isNullOrEmpty(data)) {
-            try {
-                JSONObject jsonObject = new JSONObject(data);
-                fileInfo = getFileInfo(jsonObject);
-            } catch (Exception e) {
-                AnalyticsHandlerAdapter.getInstance().sendException(e);
+        mFiles = new ArrayList<>(mMaxNumFiles);
+        for (String item : data) {
+            if (mFiles.size() == mMaxNumFiles) {
+                break;
             }
-        }
-        mInternalFiles.set(index, fileInfo);
-    }
-
-    // load all file info that has the same filename
-    private void load(@NonNull SharedPreferences prefs, FileInfo fileInfo) {
-        loadPreferenceRefs(prefs);
-
-        int index, cnt;
-        for (index = 0, cnt = mUsedRefSet.size(); index < cnt; ++index) {
-            if (mInternalFiles.get(index) != null) {
+            if (Utils.isNullOrEmpty(item)) {
                 continue;
             }
-            String data = getPreferenceItem(prefs, index);
-            if (!Utils.isNullOrEmpty(data)) {
-                try {
-                    JSONObject jsonObject = new JSONObject(data);
-                    FileInfo file = getFileInfo(jsonObject);
-                    mInternalFiles.set(index, file);
-                    if (fileInfo.equals(file)) {
-                        break;
-                    }
-                } catch (Exception e) {
-                    AnalyticsHandlerAdapter.getInstance().sendException(e);
+            try {
+                FileInfo fileInfo = getFileInfo(new JSONObject(item));
+                if (fileInfo != null) {
+                    mFiles.add(fileInfo);
                 }
+            } catch (Exception e) {
+                AnalyticsHandlerAdapter.getInstance().sendException(e);
             }
         }
-        if (index == cnt) {
-            mAllLoaded = true;
-        }
+        return mFiles;
     }
 
-    private void set(@NonNull SharedPreferences prefs, int index, @NonNull FileInfo fileInfo) {
-        mInternalFiles.set(index, fileInfo);
-        String serializedDoc = mGson.toJson(fileInfo);
-        setPreferenceItem(prefs, serializedDoc, index);
-    }
-
-    private void add(@NonNull SharedPreferences prefs, @SuppressWarnings("SameParameterValue") int index, @NonNull FileInfo fileInfo) {
-        mInternalFiles.add(index, fileInfo);
-        mInternalFiles.remove(mMaxNumFiles);
-        String serializedDoc = mGson.toJson(fileInfo);
-        addPreferenceItem(prefs, serializedDoc, index);
-    }
-
-    private void remove(@NonNull SharedPreferences prefs, int index) {
-        mInternalFiles.remove(index);
-        mInternalFiles.add(mMaxNumFiles - 1, null);
-        removePreferenceItem(prefs, index);
+    // should be called while holding locker
+    private void save(@NonNull Context context) {
+        List<String> data = new ArrayList<>(mFiles.size());
+        for (FileInfo fileInfo : mFiles) {
+            data.add(mGson.toJson(fileInfo));
+        }
+        UserDataStore.getInstance(context).putFileList(mKeyPreferenceFiles, data);
     }
 
-    private void createInternalFiles() {
-        synchronized (locker) {
-            if (mInternalFiles == null) {
-                mInternalFiles = new ArrayList<>(mMaxNumFiles);
-                for (int i = 0; i < mMaxNumFiles; ++i) {
-                    mInternalFiles.add(null);
+    /**
+     * Moves files saved in SharedPreferences by older versions to the store.
+     *
+     * @return The serialized files, empty if there was nothing to move
+     */
+    @NonNull
+    private List<String> migratePreferenceFiles(@NonNull Context context, @NonNull UserDataStore store) {
+        List<String> data = new ArrayList<>();
+        final SharedPreferences prefs = getDefaultSharedPreferences(context);
+        final String keyRefs = mKeyPreferenceFiles + "_refs";
+        if (prefs == null || !prefs.contains(keyRefs)) {
+            return data;
+        }
+
+        String refs = prefs.getString(keyRefs, "");
+        if (!Utils.isNullOrEmpty(refs)) {
+            for (String ref : refs.split(DELIMITER)) {
+                String item = prefs.getString(mKeyPreferenceFiles + "_" + ref, "");
+                if (!Utils.isNullOrEmpty(item)) {
+                    data.add(item);
                 }
             }
         }
-    }
-
-    protected void loadPreferenceRefs(@NonNull SharedPreferences prefs) {
-        if (mUsedRefSet != null) {
-            return;
-        }
-
-        mUsedRefSet = new ArrayList<>();
-        for (Integer ref = 0; ref < mMaxNumFiles; ++ref) {
-            mAvailableRefSet.add(ref);
-        }
 
-        String data = prefs.getString(mKeyPreferenceFiles + "_refs", "");
-        if (!Utils.isNullOrEmpty(data)) {
-            String[] refs = data.split(DELIMITER);
-            for (String r : refs) {
-                Integer ref = Integer.parseInt(r);
-                mAvailableRefSet.remove(ref);
-                mUsedRefSet.add(ref);
+        // the preferences are only removed once the list is committed
+        store.importFileList(mKeyPreferenceFiles, data, new Runnable() {
+            @Override
+            public void run() {
+                SharedPreferences.Editor editor = prefs.edit();
+                editor.remove(keyRefs);
+                for (int ref = 0; ref < mMaxNumFiles; ++ref) {
+                    editor.remove(mKeyPreferenceFiles + "_" + ref);
+                }
+                editor.apply();
             }
-        }
-    }
-
-    protected void addPreferenceItem(@NonNull SharedPreferences prefs, String data, int index) {
-        loadPreferenceRefs(prefs);
-
-        Integer ref;
-        if (mAvailableRefSet.isEmpty()) {
-            ref = mUsedRefSet.remove(mUsedRefSet.size() - 1);
-        } else {
-            ref = mAvailableRefSet.remove(0);
-        }
-
-        mUsedRefSet.add(index, ref);
-        StringBuilder refs = new StringBuilder();
-        String delimiter = "";
-        for (Integer r : mUsedRefSet) {
-            refs.append(delimiter).append(r);
-            delimiter = DELIMITER;
-        }
-
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putString(mKeyPreferenceFiles + "_" + ref, data);
-        editor.putString(mKeyPreferenceFiles + "_refs", refs.toString());
-        editor.apply();
-    }
-
-    private void setPreferenceItem(@NonNull SharedPreferences prefs, String data, int index) {
-        loadPreferenceRefs(prefs);
-
-        if (index < 0 || index > mUsedRefSet.size()) {
-            AnalyticsHandlerAdapter.getInstance().sendException(
-                new Exception("out of bound index! (index: " + index + ") size: " + mUsedRefSet.size() + ")"));
-            return;
-        }
-
-        if (index == mUsedRefSet.size()) {
-            addPreferenceItem(prefs, data, index);
-            return;
-        }
-
-        SharedPreferences.Editor editor = prefs.edit();
-        Integer ref = mUsedRefSet.get(index);
-        editor.putString(mKeyPreferenceFiles + "_" + ref, data);
-        editor.apply();
-    }
-
-    private void removePreferenceItem(@NonNull SharedPreferences prefs, int index) {
-        loadPreferenceRefs(prefs);
-
-        if (index < 0 || index >= mUsedRefSet.size()) {
-            AnalyticsHandlerAdapter.getInstance().sendException(
-                new Exception("out of bound index! (index: " + index + ") size: " + mUsedRefSet.size() + ")"));
-            return;
-        }
-
-        Integer ref = mUsedRefSet.remove(index);
-        mAvailableRefSet.add(ref);
-        StringBuilder refs = new StringBuilder();
-        String delimiter = "";
-        for (Integer r : mUsedRefSet) {
-            refs.append(delimiter).append(r);
-            delimiter = DELIMITER;
-        }
-
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putString(mKeyPreferenceFiles + "_refs", refs.toString());
-        editor.apply();
-    }
-
-    private String getPreferenceItem(@NonNull SharedPreferences prefs, int index) {
-        loadPreferenceRefs(prefs);
-
-        if (index >= mUsedRefSet.size()) {
-            return "";
-        }
-        Integer ref = mUsedRefSet.get(index);
-        if (ref == null) {
-            return "";
-        }
-        return prefs.getString(mKeyPreferenceFiles + "_" + ref, "");
-    }
-
-    private void clearPreferenceRefs(@NonNull SharedPreferences prefs) {
-        mUsedRefSet = new ArrayList<>();
-        for (Integer ref = 0; ref < mMaxNumFiles; ++ref) {
-            mAvailableRefSet.add(ref);
-        }
-
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.remove(mKeyPreferenceFiles + "_refs");
-        editor.apply();
+        });
+        return data;
     }
 
     @Nullable
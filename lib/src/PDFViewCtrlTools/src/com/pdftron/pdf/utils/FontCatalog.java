@@ -0,0 +1,363 @@
+//---------------------------------------------------------------------------------------
+// Copyright (c) 2001-2018 by PDFTron Systems Inc. All Rights Reserved.
+// Consult legal.txt regarding legal and license information.
+//---------------------------------------------------------------------------------------
+
+package com.pdftron.pdf.utils;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import com.pdftron.common.PDFNetException;
+import com.pdftron.pdf.PDFNet;
+import com.pdftron.pdf.model.FontResource;
+import com.pdftron.pdf.tools.Tool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A catalog of the system fonts returned by {@link PDFNet#getSystemFontList()}.
+ * <p>
+ * Parsing the font list takes a while on devices with many fonts, so the catalog is kept in memory
+ * and saved to disk together with a hash of the font list and the app version, which also decides
+ * which fonts are shown by default. The font list is only parsed again, with a streaming reader,
+ * when the hash changes. Getting the font list from PDFNet takes a while too, so the catalog also
+ * keeps a cheap fingerprint of the font directories, the system build and the app version; the
+ * font list is only retrieved when the fingerprint changes.
+ */
+public class FontCatalog {
+
+    private static final String TAG = FontCatalog.class.getName();
+    private static boolean sDebug;
+
+    private static final String CACHE_FILE_NAME = "font_catalog.bin";
+    private static final int CACHE_MAGIC = 0x464f4e54;
+    private static final int CACHE_VERSION = 2;
+    private static final String[] FONT_DIRS = {"/system/fonts", "/system/font", "/data/fonts"};
+
+    /**
+     * A font in the catalog.
+     */
+    public static class Font {
+        private final String mFilePath;
+        private final String mDisplayName;
+        private final String mPDFTronName;
+        private final boolean mWhiteListed;
+
+        Font(@NonNull String filePath, @NonNull String displayName, @NonNull String pdftronName, boolean whiteListed) {
+            mFilePath = filePath;
+            mDisplayName = displayName;
+            mPDFTronName = pdftronName;
+            mWhiteListed = whiteListed;
+        }
+
+        /**
+         * @return The font file path
+         */
+        @NonNull
+        public String getFilePath() {
+            return mFilePath;
+        }
+
+        /**
+         * @return The display name, or the file name if the font has no display name
+         */
+        @NonNull
+        public String getDisplayName() {
+            return mDisplayName;
+        }
+
+        /**
+         * @return The PDFTron name
+         */
+        @NonNull
+        public String getPDFTronName() {
+            return mPDFTronName;
+        }
+
+        /**
+         * @return True if the font is shown by default, see {@link FontResource#whiteListFont(String, String)}
+         */
+        public boolean isWhiteListed() {
+            return mWhiteListed;
+        }
+    }
+
+    private static FontCatalog sInstance;
+
+    private final File mCacheFile;
+    private final int mAppVersion;
+    private String mFingerprint;
+    private String mFontListHash;
+    // sorted by display name
+    private List<Font> mFonts;
+
+    /**
+     * Returns the shared catalog. The catalog is loaded the first time it is used.
+     *
+     * @param context The context
+     * @return The catalog
+     */
+    public static synchronized FontCatalog getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new FontCatalog(new File(context.getCacheDir(), CACHE_FILE_NAME), getAppVersion(context));
+        }
+        return sInstance;
+    }
+
+    private FontCatalog(@NonNull File cacheFile, int appVersion) {
+        mCacheFile = cacheFile;
+        mAppVersion = appVersion;
+    }
+
+    private static int getAppVersion(@NonNull Context context) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return info.versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the system fonts sorted by display name. The font list is retrieved from PDFNet
+     * only if font directories, the system or the app have changed since the catalog was last saved.
+     *
+     * @return The unmodifiable list of fonts
+     * @throws PDFNetException PDFNet exception
+     */
+    @WorkerThread
+    @NonNull
+    public synchronized List<Font> getFonts() throws PDFNetException {
+        if (mFonts == null) {
+            load();
+        }
+        if (mFonts == null || !getFingerprint().equals(mFingerprint)) {
+            update(PDFNet.getSystemFontList());
+        }
+        return mFonts;
+    }
+
+    /**
+     * Updates the catalog from a font list returned by {@link PDFNet#getSystemFontList()},
+     * if the font list or the app have changed since the catalog was last saved.
+     *
+     * @param fontList The font list
+     */
+    @WorkerThread
+    public synchronized void updateIfChanged(@NonNull String fontList) {
+        if (mFonts == null) {
+            load();
+        }
+        update(fontList);
+    }
+
+    private void update(String fontList) {
+        String fingerprint = getFingerprint();
+        String fontListHash = getFontListHash(fontList);
+        if (mFonts != null && fontListHash.equals(mFontListHash)) {
+            if (!fingerprint.equals(mFingerprint)) {
+                // same fonts, no need to parse them again next time
+                mFingerprint = fingerprint;
+                save();
+            }
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        try {
+            mFonts = Collections.unmodifiableList(parse(fontList));
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+            mFonts = Collections.emptyList();
+            // try again next time
+            mFingerprint = null;
+            mFontListHash = null;
+            return;
+        }
+        mFingerprint = fingerprint;
+        mFontListHash = fontListHash;
+        if (sDebug) Log.d(TAG, "parsed " + mFonts.size() + " fonts in " + (System.currentTimeMillis() - startTime) + "ms");
+        save();
+    }
+
+    private static List<Font> parse(String fontList) throws IOException {
+        ArrayList<Font> fonts = new ArrayList<>();
+        JsonReader reader = new JsonReader(new StringReader(fontList));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (Tool.ANNOTATION_FREE_TEXT_JSON_FONT.equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        Font font = readFont(reader);
+                        if (font != null) {
+                            fonts.add(font);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            Utils.closeQuietly(reader);
+        }
+
+        // sort fonts alphabetically
+        Collections.sort(fonts, new Comparator<Font>() {
+            @Override
+            public int compare(Font lhs, Font rhs) {
+                return lhs.getDisplayName().compareTo(rhs.getDisplayName());
+            }
+        });
+        return fonts;
+    }
+
+    private static Font readFont(JsonReader reader) throws IOException {
+        String filePath = null;
+        String displayName = null;
+        String pdftronName = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() != JsonToken.STRING && reader.peek() != JsonToken.NUMBER) {
+                reader.skipValue();
+            } else if (Tool.ANNOTATION_FREE_TEXT_JSON_FONT_FILE_PATH.equals(name)) {
+                filePath = reader.nextString();
+            } else if (Tool.ANNOTATION_FREE_TEXT_JSON_FONT_DISPLAY_NAME.equals(name)) {
+                displayName = reader.nextString();
+            } else if (Tool.ANNOTATION_FREE_TEXT_JSON_FONT_PDFTRON_NAME.equals(name)) {
+                pdftronName = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (Utils.isNullOrEmpty(filePath)) {
+            return null;
+        }
+        // if display name is null or empty, replace it with the file name
+        if (Utils.isNullOrEmpty(displayName)) {
+            displayName = FontResource.getFileName(filePath);
+        }
+        return new Font(filePath, displayName, pdftronName != null ? pdftronName : "",
+            FontResource.whiteListFont(displayName, filePath));
+    }
+
+    /**
+     * Font directories are modified when fonts are added or removed, system fonts can
+     * also change with a system update, and an app update can come with other fonts.
+     */
+    private String getFingerprint() {
+        StringBuilder sb = new StringBuilder(Build.FINGERPRINT);
+        sb.append('|').append(mAppVersion);
+        for (String dir : FONT_DIRS) {
+            sb.append('|').append(new File(dir).lastModified());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The app version is part of the hash, since it decides which fonts are shown by default.
+     */
+    private String getFontListHash(String fontList) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (byte b : digest.digest(fontList.getBytes("UTF-8"))) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+        } catch (Exception e) {
+            sb.append(fontList.length()).append('-').append(Integer.toHexString(fontList.hashCode()));
+        }
+        return sb.append('|').append(mAppVersion).toString();
+    }
+
+    private void save() {
+        File tempFile = new File(mCacheFile.getAbsolutePath() + ".tmp");
+        DataOutputStream out = null;
+        boolean success = false;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(CACHE_MAGIC);
+            out.writeInt(CACHE_VERSION);
+            out.writeUTF(mFingerprint);
+            out.writeUTF(mFontListHash);
+            out.writeInt(mFonts.size());
+            for (Font font : mFonts) {
+                out.writeUTF(font.mFilePath);
+                out.writeUTF(font.mDisplayName);
+                out.writeUTF(font.mPDFTronName);
+                out.writeBoolean(font.mWhiteListed);
+            }
+            out.flush();
+            success = true;
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        } finally {
+            Utils.closeQuietly(out);
+        }
+
+        if (!success || !tempFile.renameTo(mCacheFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    private void load() {
+        if (!mCacheFile.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mCacheFile)));
+            if (in.readInt() != CACHE_MAGIC || in.readInt() != CACHE_VERSION) {
+                return;
+            }
+            String fingerprint = in.readUTF();
+            String fontListHash = in.readUTF();
+            int count = in.readInt();
+            ArrayList<Font> fonts = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                fonts.add(new Font(in.readUTF(), in.readUTF(), in.readUTF(), in.readBoolean()));
+            }
+            mFonts = Collections.unmodifiableList(fonts);
+            mFingerprint = fingerprint;
+            mFontListHash = fontListHash;
+            if (sDebug) Log.d(TAG, "loaded " + count + " fonts");
+        } catch (Exception e) {
+            // an incomplete catalog is rebuilt from the font list
+            if (sDebug) Log.d(TAG, "failed to load catalog: " + e.getMessage());
+        } finally {
+            Utils.closeQuietly(in);
+        }
+    }
+
+    public static void setDebug(boolean debug) {
+        sDebug = debug;
+    }
+}
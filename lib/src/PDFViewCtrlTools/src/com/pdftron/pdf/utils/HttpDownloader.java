@@ -0,0 +1,854 @@
+//---------------------------------------------------------------------------------------
+// Copyright (c) 2001-2018 by PDFTron Systems Inc. All Rights Reserved.
+// Consult legal.txt regarding legal and license information.
+//---------------------------------------------------------------------------------------
+
+package com.pdftron.pdf.utils;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Downloads a URL to a file over HTTP.
+ * <p>
+ * Downloads are staged in an on-disk cache keyed by the URL. An interrupted download is resumed
+ * with range requests, and large files are downloaded in several ranges at the same time if the
+ * server supports range requests. If the server answers a range request with the whole file,
+ * because it ignores ranges or because the file has changed, the download starts over in a single
+ * range from that response. A completed download is revalidated with a conditional request
+ * (ETag or Last-Modified), so that the file is not downloaded again unless it has changed.
+ */
+public class HttpDownloader {
+
+    private static final String TAG = HttpDownloader.class.getName();
+    private static boolean sDebug;
+
+    private static final String CACHE_DIR_NAME = "http_downloads";
+    private static final String DATA_EXTENSION = ".data";
+    private static final String META_EXTENSION = ".meta";
+    private static final int META_MAGIC = 0x48545450;
+    private static final int META_VERSION = 1;
+    private static final long MAX_CACHE_SIZE = 100 * 1024 * 1024;
+
+    private static final int CONNECT_TIMEOUT = 15000; // 15 sec
+    private static final int READ_TIMEOUT = 30000; // 30 sec
+    private static final int MAX_RETRIES = 3;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long SEGMENT_THRESHOLD = 4 * 1024 * 1024; // smaller files are downloaded in one range
+    private static final int DEFAULT_SEGMENT_COUNT = 3;
+    private static final long PROGRESS_INTERVAL = 100; // ms
+    private static final long SAVE_STATE_INTERVAL = 1000; // ms
+
+    // downloads of the same URL share the cache files, so they run one at a time
+    private static final HashMap<String, Object> sKeyLocks = new HashMap<>();
+
+    /**
+     * Callback interface invoked on download threads while a file is downloaded.
+     */
+    public interface ProgressListener {
+        /**
+         * Called when more bytes have been downloaded.
+         *
+         * @param downloaded The number of bytes downloaded so far
+         * @param total      The size of the file, or -1 if unknown
+         */
+        @WorkerThread
+        void onProgress(long downloaded, long total);
+    }
+
+    private final String mUrl;
+    private final File mCacheDir;
+    private final String mKey;
+
+    private int mSegmentCount = DEFAULT_SEGMENT_COUNT;
+    private ProgressListener mProgressListener;
+
+    private volatile boolean mCancelled;
+    private volatile boolean mAborted;
+    private volatile IOException mAbortFailure;
+    private final HashSet<HttpURLConnection> mConnections = new HashSet<>();
+    private final AtomicLong mLastProgressTime = new AtomicLong();
+    private final AtomicLong mLastSaveTime = new AtomicLong();
+
+    /**
+     * Class constructor
+     *
+     * @param context The context
+     * @param url     The URL to download
+     */
+    public HttpDownloader(@NonNull Context context, @NonNull String url) {
+        mUrl = url;
+        mCacheDir = new File(context.getCacheDir(), CACHE_DIR_NAME);
+        mKey = getKey(url);
+    }
+
+    /**
+     * Sets the maximum number of ranges downloaded at the same time for large files.
+     *
+     * @param segmentCount The number of ranges
+     */
+    public void setSegmentCount(int segmentCount) {
+        mSegmentCount = Math.max(1, segmentCount);
+    }
+
+    /**
+     * Sets the progress listener.
+     *
+     * @param listener The listener
+     */
+    public void setProgressListener(@Nullable ProgressListener listener) {
+        mProgressListener = listener;
+    }
+
+    /**
+     * Cancels the download. The downloaded part is kept in the cache, and
+     * the download is resumed from there next time.
+     */
+    public void cancel() {
+        mCancelled = true;
+        disconnectAll(null);
+    }
+
+    /**
+     * Downloads the URL to a file.
+     *
+     * @param destination The file to save to
+     * @return True if the file was downloaded, false if the download was cancelled
+     * @throws IOException if the file could not be downloaded
+     */
+    @WorkerThread
+    public boolean download(@NonNull File destination) throws IOException {
+        Object keyLock;
+        synchronized (sKeyLocks) {
+            keyLock = sKeyLocks.get(mKey);
+            if (keyLock == null) {
+                keyLock = new Object();
+                sKeyLocks.put(mKey, keyLock);
+            }
+        }
+
+        synchronized (keyLock) {
+            if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+                throw new IOException("cannot create " + mCacheDir);
+            }
+            File dataFile = new File(mCacheDir, mKey + DATA_EXTENSION);
+            File metaFile = new File(mCacheDir, mKey + META_EXTENSION);
+            long startTime = SystemClock.uptimeMillis();
+            try {
+                boolean restarted = false;
+                HttpURLConnection restartConnection = null;
+                while (true) {
+                    try {
+                        CacheEntry entry = downloadToCache(dataFile, metaFile, restartConnection);
+                        copyFile(dataFile, destination);
+                        if (!entry.hasValidator()) {
+                            // cannot be revalidated, so it cannot be used again
+                            deleteCacheFiles(dataFile, metaFile);
+                        }
+                        if (sDebug) Log.d(TAG, "downloaded " + mUrl + " (" + entry.mLength + " bytes) in "
+                            + (SystemClock.uptimeMillis() - startTime) + "ms");
+                        return true;
+                    } catch (RangeIgnoredException e) {
+                        // the server sent the whole file, which may have changed on the server:
+                        // start over once, reading the whole file from that response
+                        deleteCacheFiles(dataFile, metaFile);
+                        if (restarted) {
+                            release(e.mConnection);
+                            throw e;
+                        }
+                        restarted = true;
+                        restartConnection = e.mConnection;
+                        if (sDebug) Log.d(TAG, "range ignored, restarting download of " + mUrl + " in one range");
+                    }
+                }
+            } catch (IOException e) {
+                if (mCancelled) {
+                    if (sDebug) Log.d(TAG, "download of " + mUrl + " cancelled");
+                    return false;
+                }
+                throw e;
+            } finally {
+                trimCache();
+            }
+        }
+    }
+
+    /**
+     * @param restartConnection The response with the whole file to a range request, if the download
+     *                          starts over in a single range; null otherwise
+     */
+    private CacheEntry downloadToCache(File dataFile, File metaFile,
+                                       @Nullable HttpURLConnection restartConnection) throws IOException {
+        CacheEntry entry = restartConnection == null ? loadEntry(metaFile, dataFile) : null;
+        HttpURLConnection initialConnection = restartConnection;
+
+        if (entry != null && entry.mComplete) {
+            HttpURLConnection connection = openTrackedConnection();
+            if (entry.mETag != null) {
+                connection.setRequestProperty("If-None-Match", entry.mETag);
+            }
+            if (entry.mLastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", entry.mLastModified);
+            }
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                release(connection);
+                if (sDebug) Log.d(TAG, mUrl + " not modified, using cached file");
+                reportProgress(entry, true);
+                //noinspection ResultOfMethodCallIgnored
+                metaFile.setLastModified(System.currentTimeMillis());
+                return entry;
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                release(connection);
+                throw new IOException("HTTP " + responseCode + " for " + mUrl);
+            }
+            entry = null;
+            initialConnection = connection;
+        }
+
+        if (entry == null) {
+            if (initialConnection == null) {
+                initialConnection = openTrackedConnection();
+                int responseCode = initialConnection.getResponseCode();
+                if (responseCode != HttpURLConnection.HTTP_OK) {
+                    release(initialConnection);
+                    throw new IOException("HTTP " + responseCode + " for " + mUrl);
+                }
+            }
+            entry = createEntry(initialConnection, restartConnection != null);
+            RandomAccessFile file = new RandomAccessFile(dataFile, "rw");
+            try {
+                file.setLength(Math.max(0, entry.mLength));
+            } finally {
+                Utils.closeQuietly(file);
+            }
+        } else if (sDebug) {
+            Log.d(TAG, "resuming download of " + mUrl + " at " + entry.getDownloaded() + " bytes");
+        }
+
+        saveEntry(entry, metaFile);
+        try {
+            downloadSegments(entry, dataFile, initialConnection);
+        } finally {
+            saveEntry(entry, metaFile);
+        }
+
+        if (entry.mLength < 0) {
+            entry.mLength = entry.mOffsets.get(0);
+        }
+        entry.mComplete = true;
+        saveEntry(entry, metaFile);
+        reportProgress(entry, true);
+        return entry;
+    }
+
+    private void downloadSegments(final CacheEntry entry, final File dataFile,
+                                  HttpURLConnection initialConnection) throws IOException {
+        int count = entry.getSegmentCount();
+        mAborted = false;
+        mAbortFailure = null;
+        if (count == 1) {
+            downloadSegment(entry, 0, dataFile, initialConnection);
+            return;
+        }
+
+        // the first range is read from the initial response, if any
+        ExecutorService executor = Executors.newFixedThreadPool(count - 1);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 1; i < count; ++i) {
+            final int index = i;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        downloadSegment(entry, index, dataFile, null);
+                    } catch (IOException e) {
+                        abortSegments(e);
+                        throw e;
+                    }
+                    return null;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        IOException failure = null;
+        try {
+            downloadSegment(entry, 0, dataFile, initialConnection);
+        } catch (IOException e) {
+            failure = e;
+            abortSegments(e);
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                mAborted = true;
+                Throwable cause = e.getCause();
+                failure = getPrimaryFailure(failure, cause instanceof IOException ? (IOException) cause : new IOException(cause));
+            } catch (InterruptedException e) {
+                mAborted = true;
+                failure = getPrimaryFailure(failure, new InterruptedIOException());
+            }
+        }
+        if (failure != null) {
+            IOException abortFailure = mAbortFailure;
+            if (abortFailure != null && !(failure instanceof RangeIgnoredException)) {
+                // the other ranges failed because they were stopped
+                throw abortFailure;
+            }
+            throw failure;
+        }
+    }
+
+    /**
+     * Stops the other ranges as soon as one range fails, so that they do not keep downloading
+     * bytes that are thrown away. A response with the whole file is kept open to start over.
+     */
+    private void abortSegments(IOException failure) {
+        synchronized (mConnections) {
+            if (mAborted) {
+                // stopped by an earlier failure
+                return;
+            }
+            mAborted = true;
+            mAbortFailure = failure;
+        }
+        disconnectAll(failure instanceof RangeIgnoredException ? ((RangeIgnoredException) failure).mConnection : null);
+    }
+
+    /**
+     * Returns the failure to report when several ranges fail: a response with the whole file
+     * is kept to start over, otherwise the failure that caused other ranges to stop is reported.
+     */
+    private IOException getPrimaryFailure(@Nullable IOException failure, @NonNull IOException other) {
+        if (failure == null) {
+            return other;
+        }
+        if (failure instanceof RangeIgnoredException) {
+            if (other instanceof RangeIgnoredException) {
+                // only the response that stopped the other ranges is still open
+                if (other == mAbortFailure) {
+                    release(((RangeIgnoredException) failure).mConnection);
+                    return other;
+                }
+                release(((RangeIgnoredException) other).mConnection);
+            }
+            return failure;
+        }
+        if (other instanceof RangeIgnoredException || failure instanceof InterruptedIOException) {
+            return other;
+        }
+        return failure;
+    }
+
+    private void downloadSegment(CacheEntry entry, int index, File dataFile,
+                                 @Nullable HttpURLConnection connection) throws IOException {
+        int retries = 0;
+        while (true) {
+            long offset = entry.mOffsets.get(index);
+            long end = entry.mEnds[index];
+            if (end >= 0 && offset >= end) {
+                release(connection);
+                return;
+            }
+            try {
+                boolean isRangeRequest = offset > 0 || (end >= 0 && end < entry.mLength);
+                if (connection == null) {
+                    connection = openTrackedConnection();
+                    if (isRangeRequest) {
+                        connection.setRequestProperty("Range", "bytes=" + offset + "-" + (end >= 0 ? String.valueOf(end - 1) : ""));
+                        String rangeValidator = entry.getRangeValidator();
+                        if (rangeValidator != null) {
+                            connection.setRequestProperty("If-Range", rangeValidator);
+                        }
+                    }
+                    int responseCode = connection.getResponseCode();
+                    if (isRangeRequest && responseCode == HttpURLConnection.HTTP_OK) {
+                        // the server ignored the range, or the file has changed;
+                        // the response is handed over to start the download over
+                        HttpURLConnection wholeFileConnection = connection;
+                        connection = null;
+                        throw new RangeIgnoredException(wholeFileConnection);
+                    }
+                    int expectedCode = isRangeRequest ? HttpURLConnection.HTTP_PARTIAL : HttpURLConnection.HTTP_OK;
+                    if (responseCode != expectedCode) {
+                        throw new IOException("HTTP " + responseCode + " for " + mUrl);
+                    }
+                    if (isRangeRequest && getRangeStart(connection) != offset) {
+                        throw new IOException("unexpected range " + connection.getHeaderField("Content-Range")
+                            + " for offset " + offset + " of " + mUrl);
+                    }
+                }
+                readSegment(connection.getInputStream(), entry, index, dataFile);
+                return;
+            } catch (RangeIgnoredException e) {
+                throw e;
+            } catch (IOException e) {
+                if (isStopped() || ++retries > MAX_RETRIES || (entry.mEnds[index] < 0 && !entry.mAcceptRanges)) {
+                    throw e;
+                }
+                if (sDebug) Log.d(TAG, "range " + index + " failed at " + entry.mOffsets.get(index)
+                    + " bytes, retrying: " + e.getMessage());
+            } finally {
+                release(connection);
+                connection = null;
+            }
+        }
+    }
+
+    /**
+     * @return The first byte of a partial response, from its Content-Range header
+     * ("bytes first-last/length"), or -1 if the header is missing or invalid
+     */
+    private static long getRangeStart(HttpURLConnection connection) {
+        String contentRange = connection.getHeaderField("Content-Range");
+        if (contentRange == null) {
+            return -1;
+        }
+        contentRange = contentRange.trim();
+        if (!contentRange.regionMatches(true, 0, "bytes ", 0, 6)) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-', 6);
+        if (dash == -1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(6, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void readSegment(InputStream input, CacheEntry entry, int index, File dataFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(dataFile, "rw");
+        try {
+            long offset = entry.mOffsets.get(index);
+            long end = entry.mEnds[index];
+            file.seek(offset);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (end < 0 || offset < end) {
+                if (isStopped()) {
+                    throw new InterruptedIOException("download stopped");
+                }
+                int toRead = end < 0 ? buffer.length : (int) Math.min(buffer.length, end - offset);
+                int read = input.read(buffer, 0, toRead);
+                if (read == -1) {
+                    if (end >= 0) {
+                        throw new IOException("unexpected end of stream at " + offset + " of " + end);
+                    }
+                    break;
+                }
+                file.write(buffer, 0, read);
+                offset += read;
+                entry.mOffsets.set(index, offset);
+                reportProgress(entry, false);
+            }
+        } finally {
+            Utils.closeQuietly(file);
+            Utils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * @param rangeIgnored True if the server answered a range request with the whole file,
+     *                     in which case its Accept-Ranges header is not trusted
+     */
+    private CacheEntry createEntry(HttpURLConnection connection, boolean rangeIgnored) {
+        CacheEntry entry = new CacheEntry();
+        entry.mUrl = mUrl;
+        entry.mETag = connection.getHeaderField("ETag");
+        entry.mLastModified = connection.getHeaderField("Last-Modified");
+        entry.mAcceptRanges = !rangeIgnored && "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"));
+        entry.mLength = -1;
+        String contentLength = connection.getHeaderField("Content-Length");
+        if (contentLength != null) {
+            try {
+                entry.mLength = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+
+        int count = 1;
+        if (entry.mLength >= SEGMENT_THRESHOLD && entry.mAcceptRanges && entry.getRangeValidator() != null) {
+            count = (int) Math.max(1, Math.min(mSegmentCount, entry.mLength / (SEGMENT_THRESHOLD / 2)));
+        }
+        entry.initSegments(count);
+        if (sDebug) Log.d(TAG, "downloading " + mUrl + " (" + entry.mLength + " bytes) in " + count + " ranges");
+        return entry;
+    }
+
+    /**
+     * Opens a connection to the URL. Can be overridden to add request headers or to connect to
+     * another server, such as a local server in tests.
+     *
+     * @param url The URL
+     * @return The connection
+     * @throws IOException if the connection could not be opened
+     */
+    @NonNull
+    protected HttpURLConnection openConnection(@NonNull URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        // ranges refer to the bytes of the file, not to the bytes of a compressed response
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        return connection;
+    }
+
+    private HttpURLConnection openTrackedConnection() throws IOException {
+        if (isStopped()) {
+            throw new InterruptedIOException("download stopped");
+        }
+        HttpURLConnection connection = openConnection(new URL(mUrl));
+        synchronized (mConnections) {
+            mConnections.add(connection);
+        }
+        return connection;
+    }
+
+    private void release(@Nullable HttpURLConnection connection) {
+        if (connection == null) {
+            return;
+        }
+        synchronized (mConnections) {
+            mConnections.remove(connection);
+        }
+        connection.disconnect();
+    }
+
+    private void disconnectAll(@Nullable HttpURLConnection except) {
+        ArrayList<HttpURLConnection> connections;
+        synchronized (mConnections) {
+            connections = new ArrayList<>(mConnections);
+        }
+        for (HttpURLConnection connection : connections) {
+            if (connection != except) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private boolean isStopped() {
+        return mCancelled || mAborted;
+    }
+
+    private void reportProgress(CacheEntry entry, boolean force) {
+        long now = SystemClock.uptimeMillis();
+        long lastTime = mLastProgressTime.get();
+        if (!force && (now - lastTime < PROGRESS_INTERVAL || !mLastProgressTime.compareAndSet(lastTime, now))) {
+            return;
+        }
+        if (!force) {
+            // keep the state of the download in case the process is killed
+            long lastSaveTime = mLastSaveTime.get();
+            if (now - lastSaveTime >= SAVE_STATE_INTERVAL && mLastSaveTime.compareAndSet(lastSaveTime, now)) {
+                saveEntry(entry, new File(mCacheDir, mKey + META_EXTENSION));
+            }
+        }
+        ProgressListener listener = mProgressListener;
+        if (listener != null) {
+            long downloaded = entry.getDownloaded();
+            listener.onProgress(downloaded, entry.mLength >= 0 ? entry.mLength : (entry.mComplete ? downloaded : -1));
+        }
+    }
+
+    @Nullable
+    private CacheEntry loadEntry(File metaFile, File dataFile) {
+        if (!metaFile.exists() || !dataFile.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(metaFile)));
+            if (in.readInt() != META_MAGIC || in.readInt() != META_VERSION) {
+                return null;
+            }
+            CacheEntry entry = new CacheEntry();
+            entry.mUrl = in.readUTF();
+            entry.mETag = in.readBoolean() ? in.readUTF() : null;
+            entry.mLastModified = in.readBoolean() ? in.readUTF() : null;
+            entry.mAcceptRanges = in.readBoolean();
+            entry.mLength = in.readLong();
+            entry.mComplete = in.readBoolean();
+            int count = in.readInt();
+            entry.initSegments(count);
+            for (int i = 0; i < count; ++i) {
+                entry.mOffsets.set(i, in.readLong());
+            }
+            if (!mUrl.equals(entry.mUrl)) {
+                return null;
+            }
+            if (!entry.mComplete && entry.getRangeValidator() == null) {
+                // a partial download cannot be resumed safely without a validator for If-Range
+                return null;
+            }
+            if (entry.mComplete && entry.mLength >= 0 && dataFile.length() != entry.mLength) {
+                return null;
+            }
+            return entry;
+        } catch (Exception e) {
+            // an incomplete state is ignored, and the file is downloaded from scratch
+            if (sDebug) Log.d(TAG, "failed to load download state: " + e.getMessage());
+            return null;
+        } finally {
+            Utils.closeQuietly(in);
+        }
+    }
+
+    private synchronized void saveEntry(CacheEntry entry, File metaFile) {
+        File tempFile = new File(metaFile.getAbsolutePath() + ".tmp");
+        DataOutputStream out = null;
+        boolean success = false;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(META_MAGIC);
+            out.writeInt(META_VERSION);
+            out.writeUTF(entry.mUrl);
+            out.writeBoolean(entry.mETag != null);
+            if (entry.mETag != null) {
+                out.writeUTF(entry.mETag);
+            }
+            out.writeBoolean(entry.mLastModified != null);
+            if (entry.mLastModified != null) {
+                out.writeUTF(entry.mLastModified);
+            }
+            out.writeBoolean(entry.mAcceptRanges);
+            out.writeLong(entry.mLength);
+            out.writeBoolean(entry.mComplete);
+            int count = entry.getSegmentCount();
+            out.writeInt(count);
+            for (int i = 0; i < count; ++i) {
+                out.writeLong(entry.mOffsets.get(i));
+            }
+            out.flush();
+            success = true;
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        } finally {
+            Utils.closeQuietly(out);
+        }
+
+        if (!success || !tempFile.renameTo(metaFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    private void trimCache() {
+        File[] metaFiles = mCacheDir.listFiles();
+        if (metaFiles == null) {
+            return;
+        }
+        ArrayList<File> entries = new ArrayList<>();
+        long size = 0;
+        for (File file : metaFiles) {
+            if (file.getName().endsWith(META_EXTENSION)) {
+                entries.add(file);
+                size += getDataFile(file).length();
+            }
+        }
+        if (size <= MAX_CACHE_SIZE) {
+            return;
+        }
+
+        // least recently used first
+        final HashMap<File, Long> lastUsed = new HashMap<>();
+        for (File file : entries) {
+            lastUsed.put(file, file.lastModified());
+        }
+        File[] sorted = entries.toArray(new File[entries.size()]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsTime = lastUsed.get(lhs);
+                long rhsTime = lastUsed.get(rhs);
+                return lhsTime < rhsTime ? -1 : (lhsTime == rhsTime ? 0 : 1);
+            }
+        });
+        for (File metaFile : sorted) {
+            if (size <= MAX_CACHE_SIZE) {
+                break;
+            }
+            if (metaFile.getName().equals(mKey + META_EXTENSION)) {
+                continue;
+            }
+            File dataFile = getDataFile(metaFile);
+            size -= dataFile.length();
+            deleteCacheFiles(dataFile, metaFile);
+        }
+    }
+
+    /**
+     * Deletes all downloaded files from the cache.
+     *
+     * @param context The context
+     */
+    public static void clearCache(@NonNull Context context) {
+        File[] files = new File(context.getCacheDir(), CACHE_DIR_NAME).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+    }
+
+    private static File getDataFile(File metaFile) {
+        String name = metaFile.getName();
+        return new File(metaFile.getParentFile(), name.substring(0, name.length() - META_EXTENSION.length()) + DATA_EXTENSION);
+    }
+
+    private static void deleteCacheFiles(File dataFile, File metaFile) {
+        //noinspection ResultOfMethodCallIgnored
+        metaFile.delete();
+        //noinspection ResultOfMethodCallIgnored
+        dataFile.delete();
+    }
+
+    private static void copyFile(File src, File dst) throws IOException {
+        FileInputStream in = null;
+        FileOutputStream out = null;
+        try {
+            in = new FileInputStream(src);
+            out = new FileOutputStream(dst);
+            FileChannel inChannel = in.getChannel();
+            FileChannel outChannel = out.getChannel();
+            long size = inChannel.size();
+            long position = 0;
+            while (position < size) {
+                position += inChannel.transferTo(position, size - position, outChannel);
+            }
+        } finally {
+            Utils.closeQuietly(in);
+            Utils.closeQuietly(out);
+        }
+    }
+
+    private static String getKey(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    /**
+     * The state of a download: the validators of the file and the ranges downloaded so far.
+     */
+    private static class CacheEntry {
+        String mUrl;
+        String mETag;
+        String mLastModified;
+        boolean mAcceptRanges;
+        long mLength;
+        boolean mComplete;
+        // range i covers bytes [mStarts[i], mEnds[i]), with bytes up to mOffsets[i] downloaded;
+        // the end of a single range is -1 if the length is unknown
+        long[] mStarts;
+        long[] mEnds;
+        AtomicLongArray mOffsets;
+
+        void initSegments(int count) {
+            mStarts = new long[count];
+            mEnds = new long[count];
+            mOffsets = new AtomicLongArray(count);
+            long segmentSize = mLength < 0 ? -1 : (mLength + count - 1) / count;
+            for (int i = 0; i < count; ++i) {
+                mStarts[i] = segmentSize < 0 ? 0 : Math.min(mLength, i * segmentSize);
+                mEnds[i] = segmentSize < 0 ? -1 : Math.min(mLength, (i + 1) * segmentSize);
+                mOffsets.set(i, mStarts[i]);
+            }
+        }
+
+        int getSegmentCount() {
+            return mStarts.length;
+        }
+
+        long getDownloaded() {
+            long downloaded = 0;
+            for (int i = 0, count = getSegmentCount(); i < count; ++i) {
+                downloaded += mOffsets.get(i) - mStarts[i];
+            }
+            return downloaded;
+        }
+
+        boolean hasValidator() {
+            return mETag != null || mLastModified != null;
+        }
+
+        /**
+         * Returns the validator sent in If-Range: a strong ETag, or else the Last-Modified date.
+         * Weak ETags must not be used for ranges, since they do not guarantee identical bytes.
+         *
+         * @return The validator, or null if ranges cannot be validated
+         */
+        @Nullable
+        String getRangeValidator() {
+            if (mETag != null && !mETag.startsWith("W/")) {
+                return mETag;
+            }
+            return mLastModified;
+        }
+    }
+
+    /**
+     * Thrown when the server answers a range request with the whole file, because it does not
+     * support ranges or because the file has changed. Holds the response, so that the whole
+     * file can be read from it.
+     */
+    private static class RangeIgnoredException extends IOException {
+        final HttpURLConnection mConnection;
+
+        RangeIgnoredException(@NonNull HttpURLConnection connection) {
+            super("range ignored");
+            mConnection = connection;
+        }
+    }
+
+    public static void setDebug(boolean debug) {
+        sDebug = debug;
+    }
+}
@@ -16,14 +16,13 @@ import android.support.v4.util.LruCache;
 import android.util.Log;
 
 import java.io.FileDescriptor;
-import java.lang.ref.SoftReference;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.ArrayDeque;
 import java.util.Iterator;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This class handles image memory caching to avoid allocating/de-allocating bitmaps by reusing them
+ * This class handles image memory caching to avoid allocating/de-allocating bitmaps by reusing them.
+ * Reusable bitmaps are kept in a byte-limited pool bucketed by size class, with one lock per size class.
  */
 @SuppressWarnings({"WeakerAccess", "unused"})
 public class ImageMemoryCache {
@@ -32,8 +31,21 @@ public class ImageMemoryCache {
     private static boolean sDebug;
 
     private static final int DEFAULT_MEM_CACHE_SIZE = 4 * 1024; // 4 MB
+    private static final long MIN_REUSABLE_POOL_SIZE = 4 * 1024 * 1024; // 4 MB
 
-    private final HashMap<Key, List<SoftReference<Bitmap>>> mReusableBitmaps = new HashMap<>(16);
+    // reusable bitmaps are bucketed by the power of two size class of their byte count;
+    // each size class has its own lock so that decoders of different sizes never contend
+    private static final int SIZE_CLASS_COUNT = 32;
+    // on KitKat and up a decoder may borrow a bitmap up to this many size classes larger
+    private static final int MAX_SIZE_CLASS_STEP = 1;
+
+    private final SizeClass[] mSizeClasses = new SizeClass[SIZE_CLASS_COUNT];
+    private final AtomicLong mReusableBytes = new AtomicLong();
+    private long mMaxReusableBytes = Math.max(MIN_REUSABLE_POOL_SIZE, Runtime.getRuntime().maxMemory() / 16);
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
 
     private boolean mActive = true;
     private LruCache<String, BitmapDrawable> mMemCache;
@@ -47,6 +59,9 @@ public class ImageMemoryCache {
     }
 
     private ImageMemoryCache() {
+        for (int i = 0; i < SIZE_CLASS_COUNT; ++i) {
+            mSizeClasses[i] = new SizeClass();
+        }
         init(DEFAULT_MEM_CACHE_SIZE);
     }
 
@@ -120,86 +135,81 @@ public class ImageMemoryCache {
     public Bitmap getBitmapFromReusableSet(int width,
                                            int height,
                                            Bitmap.Config config) {
-        if (!mActive || width <= 0 || height <= 0 || mReusableBitmaps.isEmpty()) {
+        if (!mActive || width <= 0 || height <= 0 || mReusableBytes.get() == 0) {
             return null;
         }
 
-        Key key = new Key(width, height);
-        synchronized (mReusableBitmaps) {
-            List<SoftReference<Bitmap>> bitmaps = mReusableBitmaps.get(key);
-            if (bitmaps == null || bitmaps.isEmpty()) {
-                return null;
-            }
-
-            final Iterator<SoftReference<Bitmap>> iterator = bitmaps.iterator();
-            Bitmap item;
+        return onPoolLookup(pollBitmap(width, height, config));
+    }
 
+    private Bitmap pollBitmap(int width, int height, Bitmap.Config config) {
+        SizeClass sizeClass = mSizeClasses[getSizeClass((long) width * height * getBytesPerPixel(config))];
+        synchronized (sizeClass) {
+            Iterator<Bitmap> iterator = sizeClass.mBitmaps.iterator();
             while (iterator.hasNext()) {
-                item = iterator.next().get();
-                // check to see if the item can be reused
-                if (item != null && item.isMutable()) {
-                    if (config == item.getConfig()) {
-                        // remove from reusable set so it can't be used again
-                        iterator.remove();
-                        if (sDebug)
-                            Log.v(TAG, "a bitmap can be reused with width " + item.getWidth() + " and height " + item.getHeight());
-                        return item;
-                    }
-                } else {
-                    // remove from the set if the reference has been cleared.
+                Bitmap item = iterator.next();
+                if (item.getWidth() == width && item.getHeight() == height && config == item.getConfig()) {
+                    // remove from reusable set so it can't be used again
                     iterator.remove();
+                    sizeClass.mBytes -= getByteCount(item);
+                    return item;
                 }
             }
         }
-
         return null;
     }
 
     private Bitmap getInBitmapFromReusableSet(BitmapFactory.Options targetOptions) {
-        if (!mActive || mReusableBitmaps.isEmpty()) {
+        if (!mActive || mReusableBytes.get() == 0) {
             return null;
         }
 
         Bitmap bitmap = null;
-        Bitmap item;
-        synchronized (mReusableBitmaps) {
-            if (targetOptions.inSampleSize == 1) {
-                bitmap = getBitmapFromReusableSet(targetOptions.outWidth, targetOptions.outHeight, targetOptions.inPreferredConfig);
-                if (bitmap != null) {
-                    return bitmap;
-                }
-            }
-
-            for (Key key : mReusableBitmaps.keySet()) {
-                List<SoftReference<Bitmap>> bitmaps = mReusableBitmaps.get(key);
-                if (bitmaps == null || bitmaps.isEmpty()) {
-                    continue;
-                }
-
-                final Iterator<SoftReference<Bitmap>> iterator = bitmaps.iterator();
-                while (iterator.hasNext()) {
-                    item = iterator.next().get();
+        if (targetOptions.inSampleSize == 1) {
+            Bitmap.Config config = targetOptions.inPreferredConfig != null ?
+                targetOptions.inPreferredConfig : Bitmap.Config.ARGB_8888;
+            bitmap = pollBitmap(targetOptions.outWidth, targetOptions.outHeight, config);
+        }
 
-                    if (item != null && item.isMutable()) {
+        // before KitKat the dimensions must match exactly and the inSampleSize must be 1
+        if (bitmap == null && Utils.isKitKat() && targetOptions.inSampleSize > 0) {
+            int width = targetOptions.outWidth / targetOptions.inSampleSize;
+            int height = targetOptions.outHeight / targetOptions.inSampleSize;
+            // any configuration of a large enough byte count fits, so start with the smallest per pixel size
+            int first = getSizeClass((long) width * height);
+            int last = Math.min(SIZE_CLASS_COUNT - 1, getSizeClass((long) width * height * 4) + MAX_SIZE_CLASS_STEP);
+            for (int i = first; i <= last && bitmap == null; ++i) {
+                SizeClass sizeClass = mSizeClasses[i];
+                synchronized (sizeClass) {
+                    Iterator<Bitmap> iterator = sizeClass.mBitmaps.iterator();
+                    while (iterator.hasNext()) {
+                        Bitmap item = iterator.next();
                         // Check to see if the item can be used for inBitmap
                         if (canUseForInBitmap(item, targetOptions)) {
-                            bitmap = item;
-
                             // Remove from reusable set so it can't be used again
                             iterator.remove();
-                            break;
-                        } else {
-                            // assume the rest of bitmaps in this set has the same configuration
+                            sizeClass.mBytes -= getByteCount(item);
+                            bitmap = item;
                             break;
                         }
-                    } else {
-                        // Remove from the set if the reference has been cleared.
-                        iterator.remove();
                     }
                 }
             }
         }
 
+        return onPoolLookup(bitmap);
+    }
+
+    private Bitmap onPoolLookup(@Nullable Bitmap bitmap) {
+        if (bitmap == null) {
+            mMissCount.incrementAndGet();
+            return null;
+        }
+
+        mReusableBytes.addAndGet(-getByteCount(bitmap));
+        mHitCount.incrementAndGet();
+        if (sDebug)
+            Log.v(TAG, "a bitmap can be reused with width " + bitmap.getWidth() + " and height " + bitmap.getHeight());
         return bitmap;
     }
 
@@ -446,21 +456,106 @@ public class ImageMemoryCache {
      * @param bitmap The bitmap
      */
     public void addBitmapToReusableSet(@Nullable Bitmap bitmap) {
-        if (!mActive || bitmap == null) {
+        if (!mActive || bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+
+        int byteCount = getByteCount(bitmap);
+        if (byteCount <= 0 || byteCount > mMaxReusableBytes) {
+            return;
+        }
+
+        int index = getSizeClass(byteCount);
+        SizeClass sizeClass = mSizeClasses[index];
+        synchronized (sizeClass) {
+            for (Bitmap item : sizeClass.mBitmaps) {
+                if (item == bitmap) {
+                    return;
+                }
+            }
+            sizeClass.mBitmaps.addLast(bitmap);
+            sizeClass.mBytes += byteCount;
+        }
+
+        if (mReusableBytes.addAndGet(byteCount) > mMaxReusableBytes) {
+            trimReusableBitmaps(index);
+        }
+    }
+
+    /**
+     * Evicts bitmaps from the reusable set until it fits in its byte limit.
+     * The oldest bitmaps of the given size class go first, then the largest size classes.
+     */
+    private void trimReusableBitmaps(int preferredIndex) {
+        if (evictFromSizeClass(preferredIndex)) {
             return;
         }
+        for (int i = SIZE_CLASS_COUNT - 1; i >= 0; --i) {
+            if (i != preferredIndex && evictFromSizeClass(i)) {
+                return;
+            }
+        }
+    }
 
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-        Key key = new Key(width, height);
-        synchronized (mReusableBitmaps) {
-            List<SoftReference<Bitmap>> bitmaps = mReusableBitmaps.get(key);
-            if (bitmaps == null) {
-                bitmaps = new ArrayList<>();
-                mReusableBitmaps.put(key, bitmaps);
+    /**
+     * @return True if the reusable set fits in its byte limit
+     */
+    private boolean evictFromSizeClass(int index) {
+        SizeClass sizeClass = mSizeClasses[index];
+        synchronized (sizeClass) {
+            while (mReusableBytes.get() > mMaxReusableBytes) {
+                Bitmap item = sizeClass.mBitmaps.pollFirst();
+                if (item == null) {
+                    return false;
+                }
+                int byteCount = getByteCount(item);
+                sizeClass.mBytes -= byteCount;
+                mReusableBytes.addAndGet(-byteCount);
+                mEvictionCount.incrementAndGet();
             }
-            bitmaps.add(new SoftReference<>(bitmap));
         }
+        return true;
+    }
+
+    /**
+     * Sets the maximum number of bytes held by the reusable bitmap set.
+     * Bitmaps added beyond this limit evict older ones.
+     *
+     * @param maxBytes The maximum size in bytes
+     */
+    public void setReusableSetMaxSize(long maxBytes) {
+        mMaxReusableBytes = Math.max(0, maxBytes);
+        if (mReusableBytes.get() > mMaxReusableBytes) {
+            trimReusableBitmaps(SIZE_CLASS_COUNT - 1);
+        }
+    }
+
+    /**
+     * @return The number of bytes currently held by the reusable bitmap set
+     */
+    public long getReusableSetSize() {
+        return mReusableBytes.get();
+    }
+
+    /**
+     * @return The number of times a bitmap was found in the reusable set
+     */
+    public long getReusableHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * @return The number of times no bitmap could be found in the reusable set
+     */
+    public long getReusableMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * @return The number of bitmaps evicted from the reusable set to stay within its byte limit
+     */
+    public long getReusableEvictionCount() {
+        return mEvictionCount.get();
     }
 
     /**
@@ -518,8 +613,12 @@ public class ImageMemoryCache {
     }
 
     void clearReusableBitmaps() {
-        synchronized (mReusableBitmaps) {
-            mReusableBitmaps.clear();
+        for (SizeClass sizeClass : mSizeClasses) {
+            synchronized (sizeClass) {
+                mReusableBytes.addAndGet(-sizeClass.mBytes);
+                sizeClass.mBitmaps.clear();
+                sizeClass.mBytes = 0;
+            }
         }
     }
 
@@ -527,33 +626,27 @@ public class ImageMemoryCache {
         sDebug = debug;
     }
 
-    private class Key {
-
-        private final int x;
-        private final int y;
-
-        public Key(int x, int y) {
-            this.x = x;
-            this.y = y;
+    /**
+     * Returns the size class of the given byte count, that is the exponent
+     * of the smallest power of two not less than the byte count.
+     */
+    private static int getSizeClass(long byteCount) {
+        if (byteCount <= 1) {
+            return 0;
         }
+        return Math.min(SIZE_CLASS_COUNT - 1, 64 - Long.numberOfLeadingZeros(byteCount - 1));
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) {
-                return true;
-            }
-            if (o instanceof Key) {
-                Key key = (Key) o;
-                return x == key.x && y == key.y;
-            }
-            return false;
-        }
+    /**
+     * Returns the number of bytes needed to store the pixels of the bitmap; unlike
+     * {@link #getBitmapSize(BitmapDrawable)} this does not change while the bitmap is in the pool.
+     */
+    private static int getByteCount(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
 
-        @Override
-        public int hashCode() {
-            int hash = x;
-            hash = hash * 31 + y;
-            return hash;
-        }
+    private static class SizeClass {
+        private final ArrayDeque<Bitmap> mBitmaps = new ArrayDeque<>();
+        private long mBytes;
     }
 }
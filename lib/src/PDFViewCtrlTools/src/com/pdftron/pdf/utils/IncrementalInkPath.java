@@ -0,0 +1,166 @@
+//---------------------------------------------------------------------------------------
+// Copyright (c) 2001-2018 by PDFTron Systems Inc. All Rights Reserved.
+// Consult legal.txt regarding legal and license information.
+//---------------------------------------------------------------------------------------
+
+package com.pdftron.pdf.utils;
+
+import android.graphics.Path;
+import android.support.annotation.NonNull;
+
+/**
+ * The path of a freehand stroke while it is being drawn.
+ * <p>
+ * Points are kept in a primitive array and the path is retained between frames. When smoothing
+ * is on, each segment is drawn as a Catmull-Rom spline converted to a cubic Bezier curve, which
+ * only depends on the two points before and after the segment; so a new point completes exactly
+ * one segment, which is appended to the retained path. Only the last, incomplete segment is
+ * recomputed when the path is requested, which keeps the cost per frame independent of the
+ * length of the stroke. The same curve is used for finished strokes, see
+ * {@link #getBezierCtrlPts(float[], int)}.
+ */
+public class IncrementalInkPath {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private float[] mPoints = new float[INITIAL_CAPACITY * 2];
+    private int mPointCount;
+    private boolean mSmooth = true;
+
+    // contains the segments that no longer change
+    private final Path mRetainedPath = new Path();
+    private int mRetainedSegmentCount;
+    // the retained path followed by the incomplete segment
+    private final Path mPath = new Path();
+    private boolean mDirtyPath = true;
+    private final float[] mSegment = new float[6];
+
+    /**
+     * Removes all points.
+     *
+     * @param smooth True if segments should be smoothed, false to connect points with lines
+     */
+    public void reset(boolean smooth) {
+        mSmooth = smooth;
+        mPointCount = 0;
+        mRetainedSegmentCount = 0;
+        mRetainedPath.rewind();
+        mPath.rewind();
+        mDirtyPath = false;
+    }
+
+    /**
+     * @return The number of points
+     */
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    /**
+     * Adds a point to the end of the stroke.
+     *
+     * @param x The x coordinate
+     * @param y The y coordinate
+     */
+    public void addPoint(float x, float y) {
+        if (mPointCount * 2 == mPoints.length) {
+            float[] points = new float[mPoints.length * 2];
+            System.arraycopy(mPoints, 0, points, 0, mPoints.length);
+            mPoints = points;
+        }
+        mPoints[mPointCount * 2] = x;
+        mPoints[mPointCount * 2 + 1] = y;
+        ++mPointCount;
+        mDirtyPath = true;
+
+        if (mPointCount == 1) {
+            mRetainedPath.moveTo(x, y);
+        } else if (!mSmooth) {
+            mRetainedPath.lineTo(x, y);
+            ++mRetainedSegmentCount;
+        } else if (mPointCount >= 3) {
+            // the segment ending at the previous point has its following point now
+            appendSegment(mRetainedPath, mPointCount - 3);
+            ++mRetainedSegmentCount;
+        }
+    }
+
+    /**
+     * Returns the path of the stroke. The returned path is owned by this object
+     * and only valid until the next call to a method of this object.
+     *
+     * @return The path, empty if there are less than two points
+     */
+    @NonNull
+    public Path getPath() {
+        if (mPointCount <= 1) {
+            mPath.rewind();
+            return mPath;
+        }
+        if (!mSmooth) {
+            // lines never change once added
+            return mRetainedPath;
+        }
+        if (mDirtyPath) {
+            mPath.set(mRetainedPath);
+            for (int i = mRetainedSegmentCount; i < mPointCount - 1; ++i) {
+                appendSegment(mPath, i);
+            }
+            mDirtyPath = false;
+        }
+        return mPath;
+    }
+
+    /**
+     * Returns the cubic Bezier control points of a smoothed stroke, on the same curve as the path
+     * this class draws while the stroke is being drawn, so that the stroke does not move when it
+     * is finished. Since the curve is invariant under affine transformations, the control points
+     * can be computed in page space and transformed to the screen afterwards.
+     *
+     * @param points     The points of the stroke as {x0, y0, x1, y1, ...}
+     * @param pointCount The number of points
+     * @return The first point followed by two control points and the end point of each segment,
+     * as {x0, y0, c1x, c1y, c2x, c2y, x1, y1, ...}
+     */
+    @NonNull
+    public static float[] getBezierCtrlPts(@NonNull float[] points, int pointCount) {
+        if (pointCount <= 0) {
+            return new float[0];
+        }
+        float[] ctrlPts = new float[2 + (pointCount - 1) * 6];
+        ctrlPts[0] = points[0];
+        ctrlPts[1] = points[1];
+        for (int i = 0; i < pointCount - 1; ++i) {
+            getSegmentCtrlPts(points, pointCount, i, ctrlPts, 2 + i * 6);
+        }
+        return ctrlPts;
+    }
+
+    /**
+     * Appends the cubic Bezier curve from point {@code index} to point {@code index + 1}.
+     */
+    private void appendSegment(Path path, int index) {
+        float[] seg = mSegment;
+        getSegmentCtrlPts(mPoints, mPointCount, index, seg, 0);
+        path.cubicTo(seg[0], seg[1], seg[2], seg[3], seg[4], seg[5]);
+    }
+
+    /**
+     * Computes the control points and the end point of the segment from point {@code index} to
+     * point {@code index + 1}. Missing neighbours at the ends of the stroke are replaced by the
+     * end points.
+     */
+    private static void getSegmentCtrlPts(float[] pts, int pointCount, int index, float[] out, int offset) {
+        int i1 = index * 2;
+        int i2 = i1 + 2;
+        int i0 = index > 0 ? i1 - 2 : i1;
+        int i3 = index + 2 < pointCount ? i2 + 2 : i2;
+
+        out[offset] = pts[i1] + (pts[i2] - pts[i0]) / 6f;
+        out[offset + 1] = pts[i1 + 1] + (pts[i2 + 1] - pts[i0 + 1]) / 6f;
+        out[offset + 2] = pts[i2] - (pts[i3] - pts[i1]) / 6f;
+        out[offset + 3] = pts[i2 + 1] - (pts[i3 + 1] - pts[i1 + 1]) / 6f;
+        out[offset + 4] = pts[i2];
+        out[offset + 5] = pts[i2 + 1];
+    }
+}
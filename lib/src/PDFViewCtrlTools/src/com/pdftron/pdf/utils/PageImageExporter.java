@@ -0,0 +1,354 @@
+//---------------------------------------------------------------------------------------
+// Copyright (c) 2001-2018 by PDFTron Systems Inc. All Rights Reserved.
+// Consult legal.txt regarding legal and license information.
+//---------------------------------------------------------------------------------------
+
+package com.pdftron.pdf.utils;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.UiThread;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import com.pdftron.common.PDFNetException;
+import com.pdftron.pdf.PDFDoc;
+import com.pdftron.pdf.PDFDraw;
+import com.pdftron.pdf.Page;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports a range of pages of a document to JPEG or PNG files.
+ * <p>
+ * Pages are rendered by several worker threads, each with its own {@link PDFDraw}; workers take
+ * the next page to render from a shared counter so that slow pages do not hold back the others.
+ * The document is only read-locked while a page is rendered; images are encoded and written to
+ * disk outside the lock.
+ */
+public class PageImageExporter {
+
+    private static final String TAG = PageImageExporter.class.getName();
+    private static boolean sDebug;
+
+    private static final double DEFAULT_DPI = 96;
+    private static final int DEFAULT_JPEG_QUALITY = 90;
+    private static final int MAX_WORKER_COUNT = 4;
+
+    /**
+     * The image format of exported pages.
+     */
+    public enum Format {
+        JPEG("jpg", Bitmap.CompressFormat.JPEG),
+        PNG("png", Bitmap.CompressFormat.PNG);
+
+        final String mExtension;
+        final Bitmap.CompressFormat mCompressFormat;
+
+        Format(String extension, Bitmap.CompressFormat compressFormat) {
+            mExtension = extension;
+            mCompressFormat = compressFormat;
+        }
+    }
+
+    /**
+     * Callback interface invoked on the UI thread while pages are exported.
+     */
+    public interface ExportListener {
+        /**
+         * Called when a page has been exported.
+         *
+         * @param pageNum       The page number
+         * @param file          The exported file
+         * @param exportedCount The number of pages exported so far
+         * @param pageCount     The number of pages to export
+         */
+        @UiThread
+        void onPageExported(int pageNum, @NonNull File file, int exportedCount, int pageCount);
+
+        /**
+         * Called when all pages have been exported.
+         *
+         * @param pageCount The number of exported pages
+         * @param time      The time the export took in milliseconds
+         */
+        @UiThread
+        void onExportFinished(int pageCount, long time);
+
+        /**
+         * Called if the export was cancelled by {@link #cancel()}.
+         */
+        @UiThread
+        void onExportCancelled();
+
+        /**
+         * Called if a page could not be exported. No further page is exported.
+         *
+         * @param pageNum The page number
+         * @param e       The exception
+         */
+        @UiThread
+        void onExportFailed(int pageNum, @NonNull Exception e);
+    }
+
+    private final PDFDoc mDoc;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private Format mFormat = Format.JPEG;
+    private int mJpegQuality = DEFAULT_JPEG_QUALITY;
+    private double mDPI = DEFAULT_DPI;
+    private int mImageWidth;
+    private int mImageHeight;
+    private int mWorkerCount = Math.min(MAX_WORKER_COUNT, Runtime.getRuntime().availableProcessors());
+    private String mFileNamePrefix = "page";
+
+    private ExecutorService mExecutor;
+    private volatile boolean mCancelled;
+    private volatile boolean mFailed;
+
+    /**
+     * Class constructor
+     *
+     * @param doc The document to export
+     */
+    public PageImageExporter(@NonNull PDFDoc doc) {
+        mDoc = doc;
+    }
+
+    /**
+     * Sets the image format. JPEG by default.
+     *
+     * @param format The image format
+     */
+    public void setFormat(@NonNull Format format) {
+        mFormat = format;
+    }
+
+    /**
+     * Sets the quality of JPEG images.
+     *
+     * @param quality The quality, from 0 to 100
+     */
+    public void setJpegQuality(@IntRange(from = 0, to = 100) int quality) {
+        mJpegQuality = Math.max(0, Math.min(quality, 100));
+    }
+
+    /**
+     * Sets the resolution of exported images. Ignored if an image size is set.
+     *
+     * @param dpi The resolution in dots per inch
+     */
+    public void setDPI(double dpi) {
+        mDPI = dpi;
+    }
+
+    /**
+     * Sets the maximum size of exported images. Pages keep their aspect ratio.
+     *
+     * @param width  The maximum width in pixels, or 0 to use the resolution instead
+     * @param height The maximum height in pixels, or 0 to use the resolution instead
+     */
+    public void setImageSize(int width, int height) {
+        mImageWidth = width;
+        mImageHeight = height;
+    }
+
+    /**
+     * Sets the number of pages rendered at the same time.
+     * By default, the number of processors up to {@link #MAX_WORKER_COUNT}.
+     *
+     * @param workerCount The number of worker threads
+     */
+    public void setWorkerCount(int workerCount) {
+        mWorkerCount = Math.max(1, workerCount);
+    }
+
+    /**
+     * Sets the prefix of file names. Files are named {@code <prefix>_<page number>.<extension>}.
+     *
+     * @param prefix The prefix
+     */
+    public void setFileNamePrefix(@NonNull String prefix) {
+        mFileNamePrefix = prefix;
+    }
+
+    /**
+     * Starts exporting pages. Can only be called once.
+     *
+     * @param firstPage    The first page to export
+     * @param lastPage     The last page to export
+     * @param outputFolder The folder of exported files
+     * @param listener     The listener
+     */
+    @UiThread
+    public void export(int firstPage, int lastPage, @NonNull final File outputFolder, @NonNull final ExportListener listener) {
+        if (mExecutor != null) {
+            throw new IllegalStateException("export can only be called once");
+        }
+        final int pageCount = Math.max(0, lastPage - firstPage + 1);
+        int workerCount = Math.max(1, Math.min(mWorkerCount, pageCount));
+        mExecutor = Executors.newFixedThreadPool(workerCount);
+
+        final long startTime = SystemClock.uptimeMillis();
+        final AtomicInteger nextPage = new AtomicInteger(firstPage);
+        final AtomicInteger exportedCount = new AtomicInteger();
+        final AtomicInteger runningWorkers = new AtomicInteger(workerCount);
+        for (int i = 0; i < workerCount; ++i) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    exportPages(nextPage, lastPage, outputFolder, exportedCount, pageCount, listener);
+                    if (runningWorkers.decrementAndGet() == 0) {
+                        onWorkersFinished(exportedCount.get(), SystemClock.uptimeMillis() - startTime, listener);
+                    }
+                }
+            });
+        }
+        mExecutor.shutdown();
+        if (sDebug) Log.d(TAG, "exporting " + pageCount + " pages with " + workerCount + " workers");
+    }
+
+    /**
+     * Cancels the export. Pages being rendered are finished first.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    @WorkerThread
+    private void exportPages(AtomicInteger nextPage, int lastPage, File outputFolder,
+                             AtomicInteger exportedCount, final int pageCount, final ExportListener listener) {
+        PDFDraw pdfDraw = null;
+        ExposedByteArrayOutputStream buffer = new ExposedByteArrayOutputStream();
+        int pageNum = -1;
+        try {
+            pdfDraw = new PDFDraw();
+            if (mImageWidth > 0 && mImageHeight > 0) {
+                pdfDraw.setImageSize(mImageWidth, mImageHeight, true);
+            } else {
+                pdfDraw.setDPI(mDPI);
+            }
+
+            while (!mCancelled && !mFailed && (pageNum = nextPage.getAndIncrement()) <= lastPage) {
+                Bitmap bitmap = renderPage(pdfDraw, pageNum);
+                if (bitmap == null) {
+                    throw new PDFNetException("", 0, TAG, "exportPages", "could not render page " + pageNum);
+                }
+                buffer.reset();
+                try {
+                    bitmap.compress(mFormat.mCompressFormat, mJpegQuality, buffer);
+                } finally {
+                    bitmap.recycle();
+                }
+                final File file = new File(outputFolder, String.format(Locale.US, "%s_%d.%s", mFileNamePrefix, pageNum, mFormat.mExtension));
+                writeFile(file, buffer);
+
+                final int exportedPageNum = pageNum;
+                final int count = exportedCount.incrementAndGet();
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onPageExported(exportedPageNum, file, count, pageCount);
+                    }
+                });
+            }
+        } catch (final Exception e) {
+            mFailed = true;
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+            final int failedPageNum = pageNum;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onExportFailed(failedPageNum, e);
+                }
+            });
+        } finally {
+            if (pdfDraw != null) {
+                try {
+                    pdfDraw.destroy();
+                } catch (PDFNetException ignored) {
+                }
+            }
+        }
+    }
+
+    private Bitmap renderPage(PDFDraw pdfDraw, int pageNum) throws PDFNetException {
+        boolean shouldUnlockRead = false;
+        try {
+            mDoc.lockRead();
+            shouldUnlockRead = true;
+            Page page = mDoc.getPage(pageNum);
+            if (page == null || !page.isValid()) {
+                return null;
+            }
+            return pdfDraw.getBitmap(page);
+        } finally {
+            if (shouldUnlockRead) {
+                mDoc.unlockRead();
+            }
+        }
+    }
+
+    private static void writeFile(File file, ExposedByteArrayOutputStream buffer) throws IOException {
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(file);
+            FileChannel channel = fos.getChannel();
+            ByteBuffer byteBuffer = buffer.toByteBuffer();
+            while (byteBuffer.hasRemaining()) {
+                channel.write(byteBuffer);
+            }
+        } finally {
+            Utils.closeQuietly(fos);
+        }
+    }
+
+    private void onWorkersFinished(final int exportedCount, final long time, final ExportListener listener) {
+        if (mFailed) {
+            // already reported
+            return;
+        }
+        if (sDebug) Log.d(TAG, "exported " + exportedCount + " pages in " + time + "ms ("
+            + (exportedCount * 1000f / Math.max(1, time)) + " pages/s)");
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCancelled) {
+                    listener.onExportCancelled();
+                } else {
+                    listener.onExportFinished(exportedCount, time);
+                }
+            }
+        });
+    }
+
+    /**
+     * A byte array output stream whose content can be written without being copied.
+     */
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        ExposedByteArrayOutputStream() {
+            super(256 * 1024);
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    public static void setDebug(boolean debug) {
+        sDebug = debug;
+    }
+}
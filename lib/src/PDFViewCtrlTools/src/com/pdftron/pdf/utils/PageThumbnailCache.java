@@ -0,0 +1,338 @@
+//---------------------------------------------------------------------------------------
+// Copyright (c) 2001-2018 by PDFTron Systems Inc. All Rights Reserved.
+// Consult legal.txt regarding legal and license information.
+//---------------------------------------------------------------------------------------
+
+package com.pdftron.pdf.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A two-tier (memory and disk) cache of page thumbnails.
+ * <p>
+ * Thumbnails are keyed by the identity of the document file (its path, length and modification
+ * time), the object number of the page and the width the thumbnail was rendered for. Saving the
+ * document changes its identity, so thumbnails of an older version of a file are never returned;
+ * they are removed from disk once the least recently used thumbnails exceed the disk budget.
+ * Changes to a page that keep its object number, such as rotation, must be reported with
+ * {@link #remove(String, long)}.
+ */
+public class PageThumbnailCache {
+
+    private final static String TAG = PageThumbnailCache.class.getName();
+    private static boolean sDebug;
+
+    private final static String CACHE_FOLDER = "page_thumbnails";
+    private final static String FILE_EXTENSION = ".jpg";
+    private final static int JPEG_QUALITY = 90;
+    private final static long DEFAULT_DISK_CACHE_SIZE = 32 * 1024 * 1024; // 32 MB
+    private final static int TRIM_INTERVAL_WRITES = 32;
+
+    private final File mCacheDir;
+    private final LruCache<String, Bitmap> mMemCache;
+    private final ExecutorService mDiskExecutor = Executors.newSingleThreadExecutor();
+
+    private long mMaxDiskBytes = DEFAULT_DISK_CACHE_SIZE;
+    private int mWritesSinceTrim = TRIM_INTERVAL_WRITES; // trim once on first write
+
+    private static PageThumbnailCache sInstance;
+
+    /**
+     * Returns the shared instance of the thumbnail cache
+     *
+     * @param context The context
+     *
+     * @return The thumbnail cache
+     */
+    public static synchronized PageThumbnailCache getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new PageThumbnailCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private PageThumbnailCache(@NonNull Context context) {
+        mCacheDir = new File(context.getCacheDir(), CACHE_FOLDER);
+        // memory cache size is in kilobytes
+        int memCacheSize = (int) (Runtime.getRuntime().maxMemory() / 1024 / 32);
+        mMemCache = new LruCache<String, Bitmap>(memCacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                int bitmapSize = value.getRowBytes() * value.getHeight() / 1024;
+                return bitmapSize == 0 ? 1 : bitmapSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the key identifying the specified document file, or null if the document
+     * has no file that can be identified across sessions.
+     *
+     * @param fileName The file name of the document
+     *
+     * @return The document key
+     */
+    @Nullable
+    public static String getDocumentKey(@Nullable String fileName) {
+        if (Utils.isNullOrEmpty(fileName)) {
+            return null;
+        }
+        File file = new File(fileName);
+        if (!file.isFile()) {
+            return null;
+        }
+        String identity = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        return Integer.toHexString(file.getAbsolutePath().hashCode())
+            + "_" + Integer.toHexString(identity.hashCode());
+    }
+
+    /**
+     * Sets the maximum number of bytes used by thumbnails on disk.
+     *
+     * @param maxBytes The maximum size in bytes
+     */
+    public void setDiskCacheSize(long maxBytes) {
+        mMaxDiskBytes = Math.max(0, maxBytes);
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                trimDiskCache();
+            }
+        });
+    }
+
+    /**
+     * Returns the thumbnail from the memory cache.
+     *
+     * @param docKey The document key, see {@link #getDocumentKey(String)}
+     * @param objNum The object number of the page
+     * @param width  The width the thumbnail was rendered for
+     *
+     * @return The thumbnail, or null if it is not in memory
+     */
+    @Nullable
+    public Bitmap getFromMemory(@NonNull String docKey, long objNum, int width) {
+        Bitmap bitmap = mMemCache.get(getKey(docKey, objNum, width));
+        if (bitmap != null && bitmap.isRecycled()) {
+            mMemCache.remove(getKey(docKey, objNum, width));
+            return null;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the thumbnail from the memory cache, or decodes it from disk.
+     *
+     * @param docKey The document key, see {@link #getDocumentKey(String)}
+     * @param objNum The object number of the page
+     * @param width  The width the thumbnail was rendered for
+     *
+     * @return The thumbnail, or null if it is not cached
+     */
+    @WorkerThread
+    @Nullable
+    public Bitmap get(@NonNull String docKey, long objNum, int width) {
+        Bitmap bitmap = getFromMemory(docKey, objNum, width);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        File file = getFile(docKey, objNum, width);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inMutable = true;
+            bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        } catch (OutOfMemoryError oom) {
+            return null;
+        }
+        if (bitmap == null) {
+            // corrupted file
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            return null;
+        }
+        // mark as recently used for the disk LRU
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        mMemCache.put(getKey(docKey, objNum, width), bitmap);
+        if (sDebug)
+            Log.d(TAG, "thumbnail read from disk: " + file.getName());
+        return bitmap;
+    }
+
+    /**
+     * Adds a thumbnail to the memory cache and writes it to disk in the background.
+     * The bitmap must not be recycled or reused afterwards.
+     *
+     * @param docKey The document key, see {@link #getDocumentKey(String)}
+     * @param objNum The object number of the page
+     * @param width  The width the thumbnail was rendered for
+     * @param bitmap The thumbnail
+     */
+    public void put(@NonNull final String docKey, final long objNum, final int width, @NonNull final Bitmap bitmap) {
+        mMemCache.put(getKey(docKey, objNum, width), bitmap);
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeToDisk(docKey, objNum, width, bitmap);
+            }
+        });
+    }
+
+    /**
+     * Removes all thumbnails of a page, at any width.
+     *
+     * @param docKey The document key, see {@link #getDocumentKey(String)}
+     * @param objNum The object number of the page
+     */
+    public void remove(@NonNull final String docKey, final long objNum) {
+        final String prefix = docKey + File.separator + objNum + "_";
+        for (String key : mMemCache.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                mMemCache.remove(key);
+            }
+        }
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = new File(mCacheDir, docKey).listFiles();
+                if (files == null) {
+                    return;
+                }
+                String filePrefix = objNum + "_";
+                for (File file : files) {
+                    if (file.getName().startsWith(filePrefix)) {
+                        //noinspection ResultOfMethodCallIgnored
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Clears the memory cache. Thumbnails on disk are kept.
+     */
+    public void clearMemory() {
+        mMemCache.evictAll();
+    }
+
+    private void writeToDisk(String docKey, long objNum, int width, Bitmap bitmap) {
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        File file = getFile(docKey, objNum, width);
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            return;
+        }
+        File tempFile = new File(dir, file.getName() + ".tmp");
+        OutputStream out = null;
+        boolean success = false;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(tempFile));
+            success = bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        } finally {
+            Utils.closeQuietly(out);
+        }
+        if (!success || !tempFile.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            return;
+        }
+
+        if (++mWritesSinceTrim >= TRIM_INTERVAL_WRITES) {
+            trimDiskCache();
+        }
+    }
+
+    /**
+     * Removes the least recently used thumbnails until the disk cache fits in its budget.
+     * Only called from the disk executor.
+     */
+    private void trimDiskCache() {
+        mWritesSinceTrim = 0;
+        File[] docDirs = mCacheDir.listFiles();
+        if (docDirs == null) {
+            return;
+        }
+
+        List<File> files = new ArrayList<>();
+        long totalBytes = 0;
+        for (File docDir : docDirs) {
+            File[] thumbFiles = docDir.listFiles();
+            if (thumbFiles == null || thumbFiles.length == 0) {
+                //noinspection ResultOfMethodCallIgnored
+                docDir.delete();
+                continue;
+            }
+            for (File file : thumbFiles) {
+                files.add(file);
+                totalBytes += file.length();
+            }
+        }
+        if (totalBytes <= mMaxDiskBytes) {
+            return;
+        }
+
+        File[] sorted = files.toArray(new File[files.size()]);
+        final long[] lastModified = new long[sorted.length];
+        for (int i = 0; i < sorted.length; ++i) {
+            lastModified[i] = sorted[i].lastModified();
+        }
+        Integer[] order = new Integer[sorted.length];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return lastModified[lhs] < lastModified[rhs] ? -1 : (lastModified[lhs] == lastModified[rhs] ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < order.length && totalBytes > mMaxDiskBytes; ++i) {
+            File file = sorted[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                totalBytes -= length;
+            }
+        }
+        if (sDebug)
+            Log.d(TAG, "disk cache trimmed to " + totalBytes + " bytes");
+    }
+
+    private File getFile(String docKey, long objNum, int width) {
+        return new File(mCacheDir, getKey(docKey, objNum, width) + FILE_EXTENSION);
+    }
+
+    private static String getKey(String docKey, long objNum, int width) {
+        return docKey + File.separator + objNum + "_" + width;
+    }
+
+    public static void setDebug(boolean debug) {
+        sDebug = debug;
+    }
+}
@@ -0,0 +1,762 @@
+//---------------------------------------------------------------------------------------
+// Copyright (c) 2001-2018 by PDFTron Systems Inc. All Rights Reserved.
+// Consult legal.txt regarding legal and license information.
+//---------------------------------------------------------------------------------------
+
+package com.pdftron.pdf.utils;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.pdftron.pdf.PDFDoc;
+import com.pdftron.pdf.PDFViewCtrl;
+import com.pdftron.pdf.Page;
+import com.pdftron.pdf.TextExtractor;
+import com.pdftron.pdf.TextSearch;
+import com.pdftron.pdf.tools.ToolManager;
+import com.pdftron.pdf.tools.UndoRedoManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A persistent full-text index of a document, used to find the pages that may contain a
+ * search pattern without extracting the text of every page.
+ * <p>
+ * The index maps every trigram of a page's normalized text (lower case letters and digits,
+ * everything else removed) to the set of pages containing it. A page can only match a pattern
+ * if it contains every trigram of the normalized pattern, so the pages returned by
+ * {@link #getCandidatePages(String, int)} are a superset of the pages with matches;
+ * {@link TextSearch} is still needed to compute the quads on those pages.
+ * <p>
+ * The index is built incrementally in the background and saved in the cache folder, keyed by
+ * the path, length and modification time of the document file, so searching an unchanged
+ * document again after reopening it does not extract any text.
+ * <p>
+ * Register it with {@link ToolManager#setTextSearchIndex(TextSearchIndex)} so that it is
+ * kept in sync with page additions, deletions, rotations and moves, including the ones done
+ * by undo/redo. Pages whose text changes otherwise, such as by flattening annotations, should
+ * be passed to {@link #invalidatePages(List)}.
+ * <p>
+ * Saved indexes are trimmed to {@link #MAX_INDEX_FOLDER_SIZE} bytes, least recently used first.
+ */
+public class TextSearchIndex implements
+    ToolManager.PdfDocModificationListener,
+    UndoRedoManager.PageEditUndoRedoListener {
+
+    private final static String TAG = TextSearchIndex.class.getName();
+    private static boolean sDebug;
+
+    private final static String INDEX_FOLDER = "text_search_index";
+    private final static int INDEX_MAGIC = 0x54534958;
+    private final static int INDEX_VERSION = 1;
+
+    private final static int TRIGRAM_LENGTH = 3;
+    private final static long MAX_INDEX_FOLDER_SIZE = 32 * 1024 * 1024;
+
+    private final Context mContext;
+    private final PDFViewCtrl mPdfViewCtrl;
+    private final File mDocFile;
+    private final File mIndexFile;
+
+    // trigram -> pages containing the trigram, bit N is page N
+    private final HashMap<Long, BitSet> mTrigramPages = new HashMap<>();
+    private final BitSet mIndexedPages = new BitSet();
+    private int mPageCount;
+    // incremented on every structural change so in-flight page extractions can be discarded
+    private int mStructureVersion;
+    private boolean mLoaded;
+    // true if the index has changed since it was loaded or saved
+    private boolean mDirty;
+    private boolean mClosed;
+    // serializes reads and writes of the index file, which are done outside the index lock
+    private final Object mFileLock = new Object();
+
+    private IndexTask mIndexTask;
+
+    /**
+     * Class constructor
+     *
+     * @param pdfViewCtrl The PDFViewCtrl showing the document
+     * @param docFile     The local file of the document
+     */
+    public TextSearchIndex(@NonNull PDFViewCtrl pdfViewCtrl, @NonNull File docFile) {
+        mPdfViewCtrl = pdfViewCtrl;
+        mContext = pdfViewCtrl.getContext().getApplicationContext();
+        mDocFile = docFile;
+        String path = docFile.getAbsolutePath();
+        mIndexFile = new File(new File(mContext.getCacheDir(), INDEX_FOLDER),
+            Integer.toHexString(path.hashCode()) + ".idx");
+    }
+
+    /**
+     * Returns the candidate pages for the specified pattern from the index registered with the
+     * tool manager of the PDFViewCtrl, if any.
+     *
+     * @param pdfViewCtrl    The PDFViewCtrl
+     * @param pattern        The search pattern
+     * @param textSearchMode The {@link TextSearch} mode
+     * @return The sorted candidate pages, or null if all pages need to be searched
+     * @see #getCandidatePages(String, int)
+     */
+    @Nullable
+    public static int[] getCandidatePages(@Nullable PDFViewCtrl pdfViewCtrl, String pattern, int textSearchMode) {
+        if (pdfViewCtrl == null || !(pdfViewCtrl.getToolManager() instanceof ToolManager)) {
+            return null;
+        }
+        TextSearchIndex index = ((ToolManager) pdfViewCtrl.getToolManager()).getTextSearchIndex();
+        return index == null ? null : index.getCandidatePages(pattern, textSearchMode);
+    }
+
+    /**
+     * Starts building the index in the background. Pages that are already indexed,
+     * either in memory or in the saved index of an unchanged file, are not extracted again.
+     */
+    public void startIndexing() {
+        if (mClosed || (mIndexTask != null && mIndexTask.getStatus() != AsyncTask.Status.FINISHED)) {
+            return;
+        }
+        mIndexTask = new IndexTask();
+        mIndexTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Stops indexing and saves the index if it reflects the saved file.
+     * The index should not be used after this call.
+     */
+    public void close() {
+        mClosed = true;
+        boolean canSave = !isDocModified();
+        if (mIndexTask != null && mIndexTask.getStatus() != AsyncTask.Status.FINISHED) {
+            // the running task saves the index when it stops
+            mIndexTask.mSaveOnStop = canSave;
+            mIndexTask.cancel(false);
+        } else if (canSave) {
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    save();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return True if every page of the document has been indexed
+     */
+    public synchronized boolean isComplete() {
+        return mPageCount > 0 && mIndexedPages.nextClearBit(1) > mPageCount;
+    }
+
+    /**
+     * Returns the pages that may contain the specified pattern. Pages that are not returned
+     * are guaranteed not to contain the pattern.
+     *
+     * @param pattern        The search pattern
+     * @param textSearchMode The {@link TextSearch} mode
+     * @return The sorted candidate pages, or null if the index cannot answer the query
+     * (the index is incomplete, the pattern is a regular expression or is too short,
+     * etc.) and all pages need to be searched
+     */
+    @Nullable
+    public int[] getCandidatePages(String pattern, int textSearchMode) {
+        if (pattern == null || (textSearchMode & TextSearch.e_reg_expression) != 0
+            || isRightToLeft(pattern)) {
+            return null;
+        }
+        String normalized = normalize(pattern);
+        if (normalized.length() < TRIGRAM_LENGTH) {
+            return null;
+        }
+
+        synchronized (this) {
+            if (!isComplete()) {
+                return null;
+            }
+            BitSet pages = null;
+            for (int i = 0, n = normalized.length() - TRIGRAM_LENGTH; i <= n; ++i) {
+                BitSet trigramPages = mTrigramPages.get(getTrigram(normalized, i));
+                if (trigramPages == null) {
+                    return new int[0];
+                }
+                if (pages == null) {
+                    pages = (BitSet) trigramPages.clone();
+                } else {
+                    pages.and(trigramPages);
+                }
+                if (pages.isEmpty()) {
+                    return new int[0];
+                }
+            }
+            if (pages == null) {
+                return new int[0];
+            }
+            int[] result = new int[pages.cardinality()];
+            int count = 0;
+            for (int pageNum = pages.nextSetBit(1); pageNum >= 0 && pageNum <= mPageCount; pageNum = pages.nextSetBit(pageNum + 1)) {
+                result[count++] = pageNum;
+            }
+            if (count < result.length) {
+                int[] trimmed = new int[count];
+                System.arraycopy(result, 0, trimmed, 0, count);
+                result = trimmed;
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public void onBookmarkModified() {
+
+    }
+
+    /**
+     * The overloaded implementation of {@link ToolManager.PdfDocModificationListener#onPagesCropped()}.
+     * Re-indexes all pages since text outside the crop box is not extracted.
+     */
+    @Override
+    public void onPagesCropped() {
+        synchronized (this) {
+            mIndexedPages.clear();
+            mTrigramPages.clear();
+            mStructureVersion++;
+            mDirty = true;
+        }
+        startIndexing();
+    }
+
+    /**
+     * Re-indexes pages whose text has changed, for instance after annotations
+     * have been flattened or redacted.
+     *
+     * @param pageList The page numbers
+     */
+    public void invalidatePages(@Nullable List<Integer> pageList) {
+        if (pageList == null || pageList.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            for (int pageNum : pageList) {
+                if (pageNum <= 0) {
+                    continue;
+                }
+                mIndexedPages.clear(pageNum);
+                for (BitSet bits : mTrigramPages.values()) {
+                    bits.clear(pageNum);
+                }
+            }
+            mStructureVersion++;
+            mDirty = true;
+        }
+        startIndexing();
+    }
+
+    /**
+     * The overloaded implementation of {@link ToolManager.PdfDocModificationListener#onPagesAdded(List)}.
+     * Shifts the pages after the added pages and indexes the new pages.
+     */
+    @Override
+    public void onPagesAdded(List<Integer> pageList) {
+        if (pageList == null || pageList.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            // pages are inserted in ascending order so that each position refers to the final layout
+            Integer[] pages = pageList.toArray(new Integer[pageList.size()]);
+            Arrays.sort(pages);
+            for (int pageNum : pages) {
+                insertPage(mIndexedPages, pageNum);
+                for (BitSet bits : mTrigramPages.values()) {
+                    insertPage(bits, pageNum);
+                }
+                mPageCount++;
+            }
+            mStructureVersion++;
+            mDirty = true;
+        }
+        startIndexing();
+    }
+
+    /**
+     * The overloaded implementation of {@link ToolManager.PdfDocModificationListener#onPagesDeleted(List)}.
+     * Removes the deleted pages from the index and shifts the pages after them.
+     */
+    @Override
+    public void onPagesDeleted(List<Integer> pageList) {
+        if (pageList == null || pageList.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            // pages are removed in descending order so that each position refers to the original layout
+            Integer[] pages = pageList.toArray(new Integer[pageList.size()]);
+            Arrays.sort(pages);
+            for (int i = pages.length - 1; i >= 0; --i) {
+                int pageNum = pages[i];
+                removePage(mIndexedPages, pageNum);
+                for (BitSet bits : mTrigramPages.values()) {
+                    removePage(bits, pageNum);
+                }
+                mPageCount = Math.max(0, mPageCount - 1);
+            }
+            mStructureVersion++;
+            mDirty = true;
+        }
+    }
+
+    /**
+     * The overloaded implementation of {@link ToolManager.PdfDocModificationListener#onPagesRotated(List)}.
+     * Re-indexes the rotated pages since their extracted text may be ordered differently.
+     */
+    @Override
+    public void onPagesRotated(List<Integer> pageList) {
+        invalidatePages(pageList);
+    }
+
+    /**
+     * The overloaded implementation of {@link ToolManager.PdfDocModificationListener#onPageMoved(int, int)}.
+     */
+    @Override
+    public void onPageMoved(int from, int to) {
+        if (from == to) {
+            return;
+        }
+        synchronized (this) {
+            movePage(mIndexedPages, from, to);
+            for (BitSet bits : mTrigramPages.values()) {
+                movePage(bits, from, to);
+            }
+            mStructureVersion++;
+            mDirty = true;
+        }
+    }
+
+    @Override
+    public void onAllAnnotationsRemoved() {
+
+    }
+
+    @Override
+    public void onAnnotationAction() {
+
+    }
+
+    /**
+     * The overloaded implementation of {@link UndoRedoManager.PageEditUndoRedoListener#onPageEditUndoRedo(String, boolean)}.
+     * Applies the inverse page edit for undo, and the original edit for redo.
+     */
+    @Override
+    public void onPageEditUndoRedo(String info, boolean isUndo) {
+        if (UndoRedoManager.isAddPagesAction(mContext, info)) {
+            if (isUndo) {
+                onPagesDeleted(UndoRedoManager.getPageList(info));
+            } else {
+                onPagesAdded(UndoRedoManager.getPageList(info));
+            }
+        } else if (UndoRedoManager.isDeletePagesAction(mContext, info)) {
+            if (isUndo) {
+                onPagesAdded(UndoRedoManager.getPageList(info));
+            } else {
+                onPagesDeleted(UndoRedoManager.getPageList(info));
+            }
+        } else if (UndoRedoManager.isRotatePagesAction(mContext, info)) {
+            onPagesRotated(UndoRedoManager.getPageList(info));
+        } else if (UndoRedoManager.isMovePageAction(mContext, info)) {
+            int from = UndoRedoManager.getPageFrom(info);
+            int to = UndoRedoManager.getPageTo(info);
+            if (isUndo) {
+                onPageMoved(to, from);
+            } else {
+                onPageMoved(from, to);
+            }
+        }
+    }
+
+    private boolean isDocModified() {
+        PDFDoc doc = mPdfViewCtrl.getDoc();
+        return doc == null || Utils.isDocModified(doc);
+    }
+
+    private synchronized void addPage(int pageNum, HashSet<Long> trigrams) {
+        for (Long trigram : trigrams) {
+            BitSet pages = mTrigramPages.get(trigram);
+            if (pages == null) {
+                pages = new BitSet();
+                mTrigramPages.put(trigram, pages);
+            }
+            pages.set(pageNum);
+        }
+        mIndexedPages.set(pageNum);
+        mDirty = true;
+    }
+
+    private void load() {
+        int structureVersion;
+        synchronized (this) {
+            if (mLoaded) {
+                return;
+            }
+            mLoaded = true;
+            structureVersion = mStructureVersion;
+        }
+
+        int pageCount;
+        BitSet indexedPages;
+        HashMap<Long, BitSet> trigramPages;
+        synchronized (mFileLock) {
+            if (!mIndexFile.exists()) {
+                return;
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(mIndexFile)));
+                if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION
+                    || !mDocFile.getAbsolutePath().equals(in.readUTF())
+                    || mDocFile.lastModified() != in.readLong()
+                    || mDocFile.length() != in.readLong()) {
+                    // index is for a different file or the file has changed since
+                    if (sDebug)
+                        Log.d(TAG, "discard stale index for " + mDocFile.getAbsolutePath());
+                    return;
+                }
+                pageCount = in.readInt();
+                indexedPages = readBitSet(in);
+                int trigramCount = in.readInt();
+                trigramPages = new HashMap<>(trigramCount * 4 / 3 + 1);
+                for (int i = 0; i < trigramCount; ++i) {
+                    long trigram = in.readLong();
+                    trigramPages.put(trigram, readBitSet(in));
+                }
+            } catch (IOException e) {
+                AnalyticsHandlerAdapter.getInstance().sendException(e);
+                return;
+            } finally {
+                Utils.closeQuietly(in);
+            }
+            // the modification time orders saved indexes by last use when the folder is trimmed
+            //noinspection ResultOfMethodCallIgnored
+            mIndexFile.setLastModified(System.currentTimeMillis());
+        }
+
+        synchronized (this) {
+            if (structureVersion != mStructureVersion) {
+                // pages changed while loading, the saved index may not match anymore
+                return;
+            }
+            mPageCount = pageCount;
+            mIndexedPages.clear();
+            mIndexedPages.or(indexedPages);
+            mTrigramPages.clear();
+            mTrigramPages.putAll(trigramPages);
+            mDirty = false;
+        }
+        if (sDebug)
+            Log.d(TAG, "loaded index of " + indexedPages.cardinality() + " pages for " + mDocFile.getAbsolutePath());
+    }
+
+    private void save() {
+        if (!mDocFile.exists()) {
+            return;
+        }
+
+        // copy the index so that queries and page edits are not blocked while writing
+        int pageCount;
+        BitSet indexedPages;
+        HashMap<Long, BitSet> trigramPages;
+        synchronized (this) {
+            if (!mDirty) {
+                return;
+            }
+            pageCount = mPageCount;
+            indexedPages = (BitSet) mIndexedPages.clone();
+            trigramPages = new HashMap<>(mTrigramPages.size() * 4 / 3 + 1);
+            for (Map.Entry<Long, BitSet> entry : mTrigramPages.entrySet()) {
+                trigramPages.put(entry.getKey(), (BitSet) entry.getValue().clone());
+            }
+            mDirty = false;
+        }
+
+        boolean success = false;
+        synchronized (mFileLock) {
+            File folder = mIndexFile.getParentFile();
+            if (folder.exists() || folder.mkdirs()) {
+                File tempFile = new File(folder, mIndexFile.getName() + ".tmp");
+                DataOutputStream out = null;
+                try {
+                    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+                    out.writeInt(INDEX_MAGIC);
+                    out.writeInt(INDEX_VERSION);
+                    out.writeUTF(mDocFile.getAbsolutePath());
+                    out.writeLong(mDocFile.lastModified());
+                    out.writeLong(mDocFile.length());
+                    out.writeInt(pageCount);
+                    writeBitSet(out, indexedPages);
+                    out.writeInt(trigramPages.size());
+                    for (Map.Entry<Long, BitSet> entry : trigramPages.entrySet()) {
+                        out.writeLong(entry.getKey());
+                        writeBitSet(out, entry.getValue());
+                    }
+                    out.close();
+                    out = null;
+                    success = tempFile.renameTo(mIndexFile);
+                    if (!success) {
+                        //noinspection ResultOfMethodCallIgnored
+                        tempFile.delete();
+                    }
+                } catch (IOException e) {
+                    AnalyticsHandlerAdapter.getInstance().sendException(e);
+                } finally {
+                    Utils.closeQuietly(out);
+                }
+            }
+            if (success) {
+                trimIndexFolder(folder);
+            }
+        }
+
+        if (!success) {
+            synchronized (this) {
+                mDirty = true;
+            }
+        }
+    }
+
+    private void trimIndexFolder(File folder) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        long size = 0;
+        final HashMap<File, Long> lastUsed = new HashMap<>();
+        for (File file : files) {
+            size += file.length();
+            lastUsed.put(file, file.lastModified());
+        }
+        if (size <= MAX_INDEX_FOLDER_SIZE) {
+            return;
+        }
+
+        // least recently used first
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsTime = lastUsed.get(lhs);
+                long rhsTime = lastUsed.get(rhs);
+                return lhsTime < rhsTime ? -1 : (lhsTime == rhsTime ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (size <= MAX_INDEX_FOLDER_SIZE) {
+                break;
+            }
+            if (file.equals(mIndexFile)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private class IndexTask extends AsyncTask<Void, Void, Void> {
+        private volatile boolean mSaveOnStop;
+
+        @Override
+        protected Void doInBackground(Void... voids) {
+            PDFDoc doc = mPdfViewCtrl.getDoc();
+            if (doc == null) {
+                return null;
+            }
+
+            load();
+
+            int pageCount = 0;
+            boolean shouldUnlockRead = false;
+            try {
+                doc.lockRead();
+                shouldUnlockRead = true;
+                pageCount = doc.getPageCount();
+            } catch (Exception e) {
+                AnalyticsHandlerAdapter.getInstance().sendException(e);
+            } finally {
+                if (shouldUnlockRead) {
+                    Utils.unlockReadQuietly(doc);
+                }
+            }
+            if (pageCount <= 0) {
+                return null;
+            }
+            synchronized (TextSearchIndex.this) {
+                if (mPageCount != pageCount) {
+                    // saved index does not match the document, start over
+                    mPageCount = pageCount;
+                    mIndexedPages.clear();
+                    mTrigramPages.clear();
+                    mDirty = true;
+                }
+            }
+
+            TextExtractor textExtractor = new TextExtractor();
+            while (!isCancelled()) {
+                int pageNum;
+                int structureVersion;
+                synchronized (TextSearchIndex.this) {
+                    pageNum = mIndexedPages.nextClearBit(1);
+                    if (pageNum > mPageCount) {
+                        break;
+                    }
+                    structureVersion = mStructureVersion;
+                }
+
+                String text;
+                shouldUnlockRead = false;
+                try {
+                    // only lock for one page at a time so writers are not blocked
+                    doc.lockRead();
+                    shouldUnlockRead = true;
+                    Page page = doc.getPage(pageNum);
+                    if (page == null || !page.isValid()) {
+                        break;
+                    }
+                    textExtractor.begin(page);
+                    text = textExtractor.getAsText();
+                } catch (Exception e) {
+                    // leave the index incomplete, queries will fall back to a full search
+                    AnalyticsHandlerAdapter.getInstance().sendException(e);
+                    break;
+                } finally {
+                    if (shouldUnlockRead) {
+                        Utils.unlockReadQuietly(doc);
+                    }
+                }
+
+                HashSet<Long> trigrams = getTrigrams(normalize(text));
+                synchronized (TextSearchIndex.this) {
+                    if (structureVersion != mStructureVersion) {
+                        // pages changed while extracting, page number may be stale
+                        continue;
+                    }
+                    addPage(pageNum, trigrams);
+                }
+            }
+
+            // when cancelled by close() the document may already be closed,
+            // so rely on the state it captured instead of querying the document
+            if (isCancelled() ? mSaveOnStop : !isDocModified()) {
+                save();
+            }
+            return null;
+        }
+    }
+
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        // compatibility decomposition so that ligatures and full-width forms match plain letters
+        text = Normalizer.normalize(text, Normalizer.Form.NFKC);
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0, n = text.length(); i < n; ++i) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static HashSet<Long> getTrigrams(String normalized) {
+        HashSet<Long> trigrams = new HashSet<>();
+        for (int i = 0, n = normalized.length() - TRIGRAM_LENGTH; i <= n; ++i) {
+            trigrams.add(getTrigram(normalized, i));
+        }
+        return trigrams;
+    }
+
+    private static long getTrigram(String normalized, int start) {
+        return ((long) normalized.charAt(start) << 32)
+            | ((long) normalized.charAt(start + 1) << 16)
+            | (long) normalized.charAt(start + 2);
+    }
+
+    private static boolean isRightToLeft(String pattern) {
+        // RTL patterns are reordered before searching, see Utils#getBidiString
+        for (int i = 0, n = pattern.length(); i < n; ++i) {
+            byte directionality = Character.getDirectionality(pattern.charAt(i));
+            if (directionality == Character.DIRECTIONALITY_RIGHT_TO_LEFT
+                || directionality == Character.DIRECTIONALITY_RIGHT_TO_LEFT_ARABIC) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void insertPage(BitSet bits, int pageNum) {
+        int length = bits.length();
+        if (length <= pageNum) {
+            return;
+        }
+        BitSet tail = bits.get(pageNum, length);
+        bits.clear(pageNum, length);
+        for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+            bits.set(pageNum + i + 1);
+        }
+    }
+
+    private static void removePage(BitSet bits, int pageNum) {
+        int length = bits.length();
+        if (length <= pageNum) {
+            return;
+        }
+        BitSet tail = bits.get(pageNum + 1, Math.max(pageNum + 1, length));
+        bits.clear(pageNum, length);
+        for (int i = tail.nextSetBit(0); i >= 0; i = tail.nextSetBit(i + 1)) {
+            bits.set(pageNum + i);
+        }
+    }
+
+    private static void movePage(BitSet bits, int from, int to) {
+        boolean isSet = bits.get(from);
+        removePage(bits, from);
+        insertPage(bits, to);
+        bits.set(to, isSet);
+    }
+
+    // BitSet#toLongArray requires API 19, store the set page numbers instead
+    private static void writeBitSet(DataOutputStream out, BitSet bits) throws IOException {
+        out.writeInt(bits.cardinality());
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            out.writeInt(i);
+        }
+    }
+
+    private static BitSet readBitSet(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        BitSet bits = new BitSet();
+        for (int i = 0; i < count; ++i) {
+            bits.set(in.readInt());
+        }
+        return bits;
+    }
+
+    public static void setDebug(boolean debug) {
+        sDebug = debug;
+    }
+}
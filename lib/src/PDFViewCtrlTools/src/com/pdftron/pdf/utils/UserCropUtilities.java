@@ -8,6 +8,7 @@ package com.pdftron.pdf.utils;
 import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.util.Log;
 
 import com.pdftron.common.PDFNetException;
 import com.pdftron.pdf.PDFDoc;
@@ -19,6 +20,11 @@ import com.pdftron.pdf.tools.R;
 import com.pdftron.sdf.Obj;
 
 import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A utility class for user crop
@@ -31,9 +37,13 @@ public class UserCropUtilities {
     static public class AutoCropInBackgroundTask extends CustomAsyncTask<Void, Integer, Boolean> {
 
         private static final String TAG = AutoCropInBackgroundTask.class.getName();
+        private static boolean sDebug;
 
         private static final int MINIMUM_CROP_RECT_SIZE = 10;
         private static final int CROP_RECT_WHITE_SPACE_MARGIN = 2;
+        private static final int DETECTION_CHUNK_SIZE = 16;
+        private static final int MAX_DETECTION_THREADS = 4;
+        private static final int WRITE_SLICE_SIZE = 32;
 
         private WeakReference<PDFViewCtrl> mPdfViewCtrlRef;
         private PDFDoc mDoc;
@@ -112,30 +122,27 @@ public class UserCropUtilities {
 
         @Override
         protected Boolean doInBackground(Void... params) {
-            boolean success = false;
-            Rect previousRect = null;
-            boolean shouldUnlockRead = false;
-
-            try {
-                mDoc.lockRead();
-                shouldUnlockRead = true;
-
-                PageIterator itr = mDoc.getPageIterator();
-                int lastPageDone = 0;
+            long startTime = System.currentTimeMillis();
+            Rect[] cropRects = new Rect[mMaxPages];
+            double[][] visibleBoxes = new double[mMaxPages][];
+            if (!detectContentBoxes(cropRects, visibleBoxes) || isCancelled()) {
+                return false;
+            }
 
-                while (!isCancelled() && itr.hasNext()) {
-                    Object obj = itr.next();
-                    Page page = (Page) obj;
+            Rect previousRect = null;
+            for (int i = 0; i < mMaxPages; ++i) {
+                Rect cropRect = cropRects[i];
+                double[] box = visibleBoxes[i];
+                if (cropRect != null && box != null) {
                     try {
-                        Rect cropRect = page.getCropBox();
-                        Rect visibleRect = page.getVisibleContentBox();
+                        Rect visibleRect = new Rect(box[0], box[1], box[2], box[3]);
                         visibleRect.inflate(CROP_RECT_WHITE_SPACE_MARGIN);
 
                         boolean intersects = visibleRect.intersectRect(visibleRect, cropRect);
                         if (intersects
                                 && (cropRect.getWidth() - visibleRect.getWidth() > 0.5 || cropRect.getHeight() - visibleRect.getHeight() > 0.5)
                                 && (visibleRect.getHeight() > MINIMUM_CROP_RECT_SIZE && visibleRect.getWidth() > MINIMUM_CROP_RECT_SIZE)) {
-                            mUserCropRects[lastPageDone] = visibleRect;
+                            mUserCropRects[i] = visibleRect;
                         } else if (previousRect != null) { // just center a crop rect on the page with the same size as the last crop rect
                             visibleRect.set(cropRect.getX1(), cropRect.getY1(), cropRect.getX2(), cropRect.getY2());
                             double prevWidth = previousRect.getWidth();
@@ -150,58 +157,163 @@ public class UserCropUtilities {
                                 visibleRect.setY1(visibleRect.getY1() + newMargin);
                                 visibleRect.setY2(visibleRect.getY2() - newMargin);
                             }
-                            mUserCropRects[lastPageDone] = visibleRect;
+                            mUserCropRects[i] = visibleRect;
                         }
                     } catch (PDFNetException ignored) {
 
                     }
-                    previousRect = mUserCropRects[lastPageDone];
-                    lastPageDone++;
-                    publishProgress(lastPageDone);
                 }
-            } catch (PDFNetException e) {
+                previousRect = mUserCropRects[i];
+            }
+            if (sDebug) Log.d(TAG, "detected content of " + mMaxPages + " pages in " + (System.currentTimeMillis() - startTime) + "ms");
+
+            boolean success = applyUserCropRects();
+            if (sDebug) Log.d(TAG, "auto cropped " + mMaxPages + " pages in " + (System.currentTimeMillis() - startTime) + "ms");
+            return success;
+        }
+
+        /**
+         * Finds the visible content box of every page, in chunks of pages processed by a few
+         * worker threads. Each chunk holds the read lock only while its pages are processed.
+         *
+         * @return True if the content boxes have been found
+         */
+        private boolean detectContentBoxes(final Rect[] cropRects, final double[][] visibleBoxes) {
+            Context context = getContext();
+            final ContentBoxCache cache = context == null ? null : ContentBoxCache.getInstance(context);
+            String docKey = null;
+            boolean shouldUnlockRead = false;
+            try {
+                mDoc.lockRead();
+                shouldUnlockRead = true;
+                // only documents opened from a file can be identified later
+                docKey = ContentBoxCache.getDocKey(mDoc);
+            } catch (Exception e) {
                 AnalyticsHandlerAdapter.getInstance().sendException(e, "USER_CROP");
             } finally {
                 if (shouldUnlockRead) {
                     Utils.unlockReadQuietly(mDoc);
                 }
             }
-
-            boolean shouldUnlock = false;
+            final String cacheDocKey = docKey;
+
+            final int chunkCount = (mMaxPages + DETECTION_CHUNK_SIZE - 1) / DETECTION_CHUNK_SIZE;
+            int threadCount = Math.max(1, Math.min(MAX_DETECTION_THREADS, Math.min(Runtime.getRuntime().availableProcessors(), chunkCount)));
+            final AtomicInteger nextChunk = new AtomicInteger();
+            final AtomicInteger pagesDone = new AtomicInteger();
+            final AtomicInteger cachedCount = new AtomicInteger();
+            final AtomicBoolean failed = new AtomicBoolean();
+
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            for (int t = 0; t < threadCount; ++t) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        int chunk;
+                        while (!isCancelled() && !failed.get() && (chunk = nextChunk.getAndIncrement()) < chunkCount) {
+                            int first = chunk * DETECTION_CHUNK_SIZE;
+                            int last = Math.min(mMaxPages, first + DETECTION_CHUNK_SIZE);
+                            boolean shouldUnlockRead = false;
+                            try {
+                                mDoc.lockRead();
+                                shouldUnlockRead = true;
+                                if (mDoc.getPageCount() != mMaxPages) {
+                                    // pages were added or removed meanwhile
+                                    failed.set(true);
+                                    break;
+                                }
+                                for (int i = first; i < last && !isCancelled(); ++i) {
+                                    try {
+                                        Page page = mDoc.getPage(i + 1);
+                                        cropRects[i] = page.getCropBox();
+                                        String key = cacheDocKey == null || cache == null ? null : ContentBoxCache.getKey(cacheDocKey, page);
+                                        double[] box = key == null ? null : cache.get(key);
+                                        if (box == null) {
+                                            Rect visibleRect = page.getVisibleContentBox();
+                                            box = new double[]{visibleRect.getX1(), visibleRect.getY1(), visibleRect.getX2(), visibleRect.getY2()};
+                                            if (key != null) {
+                                                cache.put(key, box);
+                                            }
+                                        } else {
+                                            cachedCount.incrementAndGet();
+                                        }
+                                        visibleBoxes[i] = box;
+                                    } catch (PDFNetException ignored) {
+
+                                    }
+                                    publishProgress(pagesDone.incrementAndGet(), 0);
+                                }
+                            } catch (PDFNetException e) {
+                                failed.set(true);
+                                AnalyticsHandlerAdapter.getInstance().sendException(e, "USER_CROP");
+                            } finally {
+                                if (shouldUnlockRead) {
+                                    Utils.unlockReadQuietly(mDoc);
+                                }
+                            }
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
             try {
-                mDoc.lock();
-                shouldUnlock = true;
+                while (!executor.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+                    // wait for the workers, which stop by themselves if the task is cancelled
+                }
+            } catch (InterruptedException e) {
+                failed.set(true);
+                executor.shutdownNow();
+            }
 
-                // too late to cancel now, as we are actually modifying the document
-                // this part should be fairly quick though
-                PageIterator itr = mDoc.getPageIterator();
-                int lastPageDone = 0;
+            if (cache != null) {
+                cache.save();
+            }
+            if (sDebug) Log.d(TAG, cachedCount.get() + " of " + mMaxPages + " content boxes were cached");
+            return !failed.get();
+        }
 
-                while (!isCancelled() && itr.hasNext()) {
-                    Object obj = itr.next();
-                    Page page = (Page) obj;
+        /**
+         * Sets the user crop boxes, locking the document for a few pages at a time
+         * so that the viewer is not blocked for the whole document. Stops if pages are
+         * added or removed between two slices, since the crop boxes would not match the pages.
+         *
+         * @return True if the user crop boxes have been set
+         */
+        private boolean applyUserCropRects() {
+            // too late to cancel now, as we are actually modifying the document
+            for (int first = 0; first < mMaxPages; first += WRITE_SLICE_SIZE) {
+                int last = Math.min(mMaxPages, first + WRITE_SLICE_SIZE);
+                boolean shouldUnlock = false;
+                try {
+                    mDoc.lock();
+                    shouldUnlock = true;
+                    if (mDoc.getPageCount() != mMaxPages) {
+                        if (sDebug) Log.d(TAG, "page count changed, auto crop stopped at page " + (first + 1));
+                        return false;
+                    }
+                    for (int i = first; i < last; ++i) {
+                        try {
+                            Page page = mDoc.getPage(i + 1);
+                            if (mUserCropRects[i] != null) {
+                                page.setBox(Page.e_user_crop, mUserCropRects[i]);
+                            } else {
+                                removeUserCropFromPage(page);
+                            }
+                        } catch (PDFNetException ignored) {
 
-                    try {
-                        if (mUserCropRects[lastPageDone] != null) {
-                            page.setBox(Page.e_user_crop, mUserCropRects[lastPageDone]);
-                        } else {
-                            removeUserCropFromPage(page);
                         }
-                    } catch (PDFNetException ignored) {
-
                     }
-                    lastPageDone++;
-                }
-                success = true;
-            } catch (PDFNetException e) {
-                AnalyticsHandlerAdapter.getInstance().sendException(e, "USER_CROP");
-            } finally {
-                if (shouldUnlock) {
-                    Utils.unlockQuietly(mDoc);
+                } catch (PDFNetException e) {
+                    AnalyticsHandlerAdapter.getInstance().sendException(e, "USER_CROP");
+                    return false;
+                } finally {
+                    if (shouldUnlock) {
+                        Utils.unlockQuietly(mDoc);
+                    }
                 }
+                publishProgress(mMaxPages, last);
             }
-
-            return success;
+            return true;
         }
 
         @Override
@@ -211,6 +323,8 @@ public class UserCropUtilities {
             if (mAutoCropProgressDialog != null) {
                 int pagesDone = values[0];
                 mAutoCropProgressDialog.setProgress(pagesDone);
+                // pages whose user crop box is set
+                mAutoCropProgressDialog.setSecondaryProgress(values[1]);
                 if (pagesDone == mMaxPages) {
                     mAutoCropProgressDialog.setCancelable(false);
                 }
@@ -262,6 +376,10 @@ public class UserCropUtilities {
                 mAutoCropTaskListener.onAutoCropTaskDone();
             }
         }
+
+        public static void setDebug(boolean debug) {
+            sDebug = debug;
+        }
     }
 
     // The name of the user crop box in a PDF Page
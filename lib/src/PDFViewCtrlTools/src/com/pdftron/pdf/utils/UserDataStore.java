@@ -0,0 +1,440 @@
+//---------------------------------------------------------------------------------------
+// Copyright (c) 2001-2018 by PDFTron Systems Inc. All Rights Reserved.
+// Consult legal.txt regarding legal and license information.
+//---------------------------------------------------------------------------------------
+
+package com.pdftron.pdf.utils;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small SQLite database that stores the user bookmarks of files and the lists of
+ * files managed by {@link FileInfoManager}, such as recent and favorite files.
+ * <p>
+ * User bookmarks are indexed by file path, so that reading or writing the bookmarks of
+ * a file does not touch the bookmarks of other files. Writes are queued and committed on
+ * a background thread; writes queued before the thread runs are committed in a single
+ * transaction, and reads return queued values until they are committed. A failed write is
+ * retried with a growing delay, and queued writes are flushed when the app goes to the
+ * background.
+ * <p>
+ * The database is opened, and created if needed, on the background thread as soon as the store
+ * is created. Data saved by older versions is imported on the same thread, see
+ * {@link #importUserBookmarks(Map, Runnable)} and {@link #importFileList(String, List, Runnable)}.
+ */
+public class UserDataStore extends SQLiteOpenHelper {
+
+    private static final String TAG = UserDataStore.class.getName();
+    private static boolean sDebug;
+
+    private static final String DATABASE_NAME = "pdftron_user_data.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_USER_BOOKMARKS = "user_bookmarks";
+    private static final String COLUMN_FILE_PATH = "file_path";
+    private static final String COLUMN_BOOKMARKS = "bookmarks";
+
+    private static final String TABLE_FILE_LISTS = "file_lists";
+    private static final String COLUMN_LIST_KEY = "list_key";
+    private static final String COLUMN_POSITION = "position";
+    private static final String COLUMN_FILE_INFO = "file_info";
+
+    private static final long RETRY_DELAY = 1000; // ms
+    private static final int MAX_RETRIES = 6;
+
+    private static UserDataStore sInstance;
+
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    // queued writes, a null value removes the bookmarks of a file
+    private final HashMap<String, String> mPendingBookmarks = new HashMap<>();
+    private final HashMap<String, List<String>> mPendingFileLists = new HashMap<>();
+    // queued imports, only written if the store has no value yet
+    private final HashMap<String, String> mImportedBookmarks = new HashMap<>();
+    private final HashMap<String, List<String>> mImportedFileLists = new HashMap<>();
+    private final ArrayList<Runnable> mImportCallbacks = new ArrayList<>();
+    private boolean mWriteScheduled;
+    private ScheduledFuture<?> mRetryFuture;
+    private int mRetryCount;
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+
+    private final ComponentCallbacks2 mComponentCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                flush();
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            flush();
+        }
+    };
+
+    /**
+     * Returns the shared store.
+     *
+     * @param context The context
+     * @return The store
+     */
+    public static synchronized UserDataStore getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new UserDataStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private UserDataStore(@NonNull Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        context.registerComponentCallbacks(mComponentCallbacks);
+        // create or open the database before it is first read
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getWritableDatabase();
+                } catch (Exception e) {
+                    AnalyticsHandlerAdapter.getInstance().sendException(e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_USER_BOOKMARKS + " ("
+            + COLUMN_FILE_PATH + " TEXT PRIMARY KEY, "
+            + COLUMN_BOOKMARKS + " TEXT NOT NULL)");
+        db.execSQL("CREATE TABLE " + TABLE_FILE_LISTS + " ("
+            + COLUMN_LIST_KEY + " TEXT NOT NULL, "
+            + COLUMN_POSITION + " INTEGER NOT NULL, "
+            + COLUMN_FILE_INFO + " TEXT NOT NULL, "
+            + "PRIMARY KEY (" + COLUMN_LIST_KEY + ", " + COLUMN_POSITION + "))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    }
+
+    /**
+     * Returns the serialized user bookmarks of a file.
+     *
+     * @param filePath The file path
+     * @return The serialized bookmarks, or null if the file has no bookmarks
+     */
+    @Nullable
+    public String getUserBookmarks(@NonNull String filePath) {
+        synchronized (this) {
+            if (mPendingBookmarks.containsKey(filePath)) {
+                return mPendingBookmarks.get(filePath);
+            }
+        }
+
+        Cursor cursor = null;
+        try {
+            cursor = getReadableDatabase().query(TABLE_USER_BOOKMARKS, new String[]{COLUMN_BOOKMARKS},
+                COLUMN_FILE_PATH + " = ?", new String[]{filePath}, null, null, null);
+            if (cursor.moveToFirst()) {
+                return cursor.getString(0);
+            }
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        synchronized (this) {
+            return mImportedBookmarks.get(filePath);
+        }
+    }
+
+    /**
+     * Queues the user bookmarks of a file to be saved.
+     *
+     * @param filePath  The file path
+     * @param bookmarks The serialized bookmarks, or null to remove the bookmarks of the file
+     */
+    public synchronized void putUserBookmarks(@NonNull String filePath, @Nullable String bookmarks) {
+        mPendingBookmarks.put(filePath, bookmarks);
+        scheduleWrite();
+    }
+
+    /**
+     * Queues the user bookmarks of files to be saved, unless bookmarks were already saved for a file.
+     * Used to import bookmarks saved by older versions. Reads return the imported bookmarks
+     * until they are committed.
+     *
+     * @param bookmarks  The serialized bookmarks by file path
+     * @param onImported Called on the background thread once the bookmarks are committed,
+     *                   e.g. to remove them from where older versions saved them
+     */
+    public synchronized void importUserBookmarks(@NonNull Map<String, String> bookmarks, @Nullable Runnable onImported) {
+        mImportedBookmarks.putAll(bookmarks);
+        if (onImported != null) {
+            mImportCallbacks.add(onImported);
+        }
+        scheduleWrite();
+    }
+
+    /**
+     * Returns a list of serialized files.
+     *
+     * @param listKey The key of the list
+     * @return The serialized files, in order
+     */
+    @NonNull
+    public List<String> getFileList(@NonNull String listKey) {
+        synchronized (this) {
+            List<String> pending = mPendingFileLists.get(listKey);
+            if (pending != null) {
+                return new ArrayList<>(pending);
+            }
+        }
+
+        List<String> files = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = getReadableDatabase().query(TABLE_FILE_LISTS, new String[]{COLUMN_FILE_INFO},
+                COLUMN_LIST_KEY + " = ?", new String[]{listKey}, null, null, COLUMN_POSITION);
+            while (cursor.moveToNext()) {
+                files.add(cursor.getString(0));
+            }
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        if (files.isEmpty()) {
+            synchronized (this) {
+                List<String> imported = mImportedFileLists.get(listKey);
+                if (imported != null) {
+                    return new ArrayList<>(imported);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Queues a list of serialized files to be saved, replacing the previous list.
+     *
+     * @param listKey The key of the list
+     * @param files   The serialized files, in order
+     */
+    public synchronized void putFileList(@NonNull String listKey, @NonNull List<String> files) {
+        mPendingFileLists.put(listKey, new ArrayList<>(files));
+        scheduleWrite();
+    }
+
+    /**
+     * Queues a list of serialized files to be saved, unless the list is not empty.
+     * Used to import lists saved by older versions. Reads return the imported list
+     * until it is committed.
+     *
+     * @param listKey    The key of the list
+     * @param files      The serialized files, in order
+     * @param onImported Called on the background thread once the list is committed,
+     *                   e.g. to remove it from where older versions saved it
+     */
+    public synchronized void importFileList(@NonNull String listKey, @NonNull List<String> files, @Nullable Runnable onImported) {
+        mImportedFileLists.put(listKey, new ArrayList<>(files));
+        if (onImported != null) {
+            mImportCallbacks.add(onImported);
+        }
+        scheduleWrite();
+    }
+
+    /**
+     * Writes queued values right away, without waiting for a failed write to be retried.
+     */
+    public synchronized void flush() {
+        if (mPendingBookmarks.isEmpty() && mPendingFileLists.isEmpty()
+            && mImportedBookmarks.isEmpty() && mImportedFileLists.isEmpty()) {
+            return;
+        }
+        mRetryCount = 0;
+        if (mRetryFuture != null) {
+            mRetryFuture.cancel(false);
+            mRetryFuture = null;
+            mWriteScheduled = false;
+        }
+        scheduleWrite();
+    }
+
+    // should be called while holding this
+    private void scheduleWrite() {
+        if (!mWriteScheduled) {
+            mWriteScheduled = true;
+            mExecutor.execute(mWriteRunnable);
+        }
+    }
+
+    @WorkerThread
+    private void writePending() {
+        HashMap<String, String> bookmarks;
+        HashMap<String, List<String>> fileLists;
+        HashMap<String, String> importedBookmarks;
+        HashMap<String, List<String>> importedFileLists;
+        ArrayList<Runnable> importCallbacks;
+        synchronized (this) {
+            mWriteScheduled = false;
+            mRetryFuture = null;
+            bookmarks = new HashMap<>(mPendingBookmarks);
+            fileLists = new HashMap<>(mPendingFileLists);
+            importedBookmarks = new HashMap<>(mImportedBookmarks);
+            importedFileLists = new HashMap<>(mImportedFileLists);
+            importCallbacks = new ArrayList<>(mImportCallbacks);
+        }
+        if (bookmarks.isEmpty() && fileLists.isEmpty()
+            && importedBookmarks.isEmpty() && importedFileLists.isEmpty()) {
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        boolean success = false;
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                ContentValues values = new ContentValues();
+                for (Map.Entry<String, String> entry : importedBookmarks.entrySet()) {
+                    values.put(COLUMN_FILE_PATH, entry.getKey());
+                    values.put(COLUMN_BOOKMARKS, entry.getValue());
+                    db.insertWithOnConflict(TABLE_USER_BOOKMARKS, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+                }
+                for (Map.Entry<String, List<String>> entry : importedFileLists.entrySet()) {
+                    if (isFileListEmpty(db, entry.getKey())) {
+                        insertFileList(db, entry.getKey(), entry.getValue());
+                    }
+                }
+                values.clear();
+                for (Map.Entry<String, String> entry : bookmarks.entrySet()) {
+                    if (entry.getValue() == null) {
+                        db.delete(TABLE_USER_BOOKMARKS, COLUMN_FILE_PATH + " = ?", new String[]{entry.getKey()});
+                    } else {
+                        values.put(COLUMN_FILE_PATH, entry.getKey());
+                        values.put(COLUMN_BOOKMARKS, entry.getValue());
+                        db.insertWithOnConflict(TABLE_USER_BOOKMARKS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                    }
+                }
+                for (Map.Entry<String, List<String>> entry : fileLists.entrySet()) {
+                    db.delete(TABLE_FILE_LISTS, COLUMN_LIST_KEY + " = ?", new String[]{entry.getKey()});
+                    insertFileList(db, entry.getKey(), entry.getValue());
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            success = true;
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        }
+        if (!success) {
+            // reads keep returning the queued values until the write is retried
+            synchronized (this) {
+                if (mRetryCount < MAX_RETRIES && !mWriteScheduled) {
+                    long delay = RETRY_DELAY << mRetryCount;
+                    ++mRetryCount;
+                    mWriteScheduled = true;
+                    mRetryFuture = mExecutor.schedule(mWriteRunnable, delay, TimeUnit.MILLISECONDS);
+                    if (sDebug) Log.d(TAG, "write failed, retry in " + delay + "ms");
+                }
+            }
+            return;
+        }
+
+        synchronized (this) {
+            mRetryCount = 0;
+            for (Map.Entry<String, String> entry : importedBookmarks.entrySet()) {
+                if (mImportedBookmarks.get(entry.getKey()) == entry.getValue()) {
+                    mImportedBookmarks.remove(entry.getKey());
+                }
+            }
+            for (Map.Entry<String, List<String>> entry : importedFileLists.entrySet()) {
+                if (mImportedFileLists.get(entry.getKey()) == entry.getValue()) {
+                    mImportedFileLists.remove(entry.getKey());
+                }
+            }
+            mImportCallbacks.removeAll(importCallbacks);
+            // keep the values that were queued again while writing
+            for (Map.Entry<String, String> entry : bookmarks.entrySet()) {
+                String filePath = entry.getKey();
+                if (mPendingBookmarks.containsKey(filePath) && mPendingBookmarks.get(filePath) == entry.getValue()) {
+                    mPendingBookmarks.remove(filePath);
+                }
+            }
+            for (Map.Entry<String, List<String>> entry : fileLists.entrySet()) {
+                if (mPendingFileLists.get(entry.getKey()) == entry.getValue()) {
+                    mPendingFileLists.remove(entry.getKey());
+                }
+            }
+        }
+        for (Runnable callback : importCallbacks) {
+            try {
+                callback.run();
+            } catch (Exception e) {
+                AnalyticsHandlerAdapter.getInstance().sendException(e);
+            }
+        }
+        if (sDebug) Log.d(TAG, "wrote bookmarks of " + bookmarks.size() + " files and "
+            + fileLists.size() + " file lists in " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    private static boolean isFileListEmpty(SQLiteDatabase db, String listKey) {
+        Cursor cursor = db.query(TABLE_FILE_LISTS, new String[]{COLUMN_POSITION},
+            COLUMN_LIST_KEY + " = ?", new String[]{listKey}, null, null, null, "1");
+        try {
+            return !cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void insertFileList(SQLiteDatabase db, String listKey, List<String> files) {
+        ContentValues values = new ContentValues();
+        int position = 0;
+        for (String file : files) {
+            values.put(COLUMN_LIST_KEY, listKey);
+            values.put(COLUMN_POSITION, position++);
+            values.put(COLUMN_FILE_INFO, file);
+            db.insert(TABLE_FILE_LISTS, null, values);
+        }
+    }
+
+    public static void setDebug(boolean debug) {
+        sDebug = debug;
+    }
+}
@@ -2465,6 +2465,34 @@ public class Utils {
         return "";
     }
 
+    /**
+     * Returns a key of a string for case-insensitive sorting. Comparing two keys with
+     * {@link String#compareTo(String)} gives the same result as comparing the strings with
+     * {@link String#compareToIgnoreCase(String)}, without folding each character on each
+     * comparison.
+     *
+     * @param str The string
+     * @return The sort key, or empty string if input is null
+     */
+    @NonNull
+    public static String getCaseInsensitiveSortKey(@Nullable String str) {
+        if (str == null) {
+            return "";
+        }
+        char[] chars = null;
+        for (int i = 0, len = str.length(); i < len; ++i) {
+            char c = str.charAt(i);
+            char folded = Character.toLowerCase(Character.toUpperCase(c));
+            if (folded != c) {
+                if (chars == null) {
+                    chars = str.toCharArray();
+                }
+                chars[i] = folded;
+            }
+        }
+        return chars == null ? str : new String(chars);
+    }
+
     /**
      * Copies a large file.
      *
@@ -0,0 +1,212 @@
+package com.pdftron.demo;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.support.test.InstrumentationRegistry;
+
+import com.pdftron.common.Matrix2D;
+import com.pdftron.common.PDFNetException;
+import com.pdftron.pdf.ColorPt;
+import com.pdftron.pdf.ColorSpace;
+import com.pdftron.pdf.Element;
+import com.pdftron.pdf.ElementBuilder;
+import com.pdftron.pdf.ElementWriter;
+import com.pdftron.pdf.Font;
+import com.pdftron.pdf.Image;
+import com.pdftron.pdf.PDFDoc;
+import com.pdftron.pdf.Page;
+import com.pdftron.pdf.Rect;
+import com.pdftron.pdf.utils.AppUtils;
+import com.pdftron.pdf.utils.Utils;
+import com.pdftron.sdf.SDFDoc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+
+/**
+ * Generates the documents used by instrumented tests and benchmarks, so that no test corpus
+ * needs to be shipped. Pages have text, vector graphics and an image at random positions inside
+ * random margins, so that pages differ in their content and visible content box.
+ */
+public class TestDocuments {
+
+    private static final double PAGE_WIDTH = 612;
+    private static final double PAGE_HEIGHT = 792;
+    private static final int LINES_PER_PAGE = 30;
+    private static final String WORDS = "lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod "
+        + "tempor incididunt ut labore et dolore magna aliqua";
+
+    private static boolean sInitialized;
+
+    /**
+     * Initializes PDFNet once for the instrumented tests.
+     */
+    public static synchronized void initializePDFNet() throws PDFNetException {
+        if (!sInitialized) {
+            AppUtils.initializePDFNetApplication(getContext().getApplicationContext());
+            sInitialized = true;
+        }
+    }
+
+    /**
+     * @return The context of the library under test
+     */
+    public static Context getContext() {
+        return InstrumentationRegistry.getTargetContext();
+    }
+
+    /**
+     * Creates an empty folder in the cache folder of the context.
+     *
+     * @param name The name of the folder
+     * @return The folder
+     */
+    public static File createFolder(String name) {
+        File folder = new File(getContext().getCacheDir(), name);
+        deleteRecursively(folder);
+        //noinspection ResultOfMethodCallIgnored
+        folder.mkdirs();
+        return folder;
+    }
+
+    /**
+     * Deletes a file or a folder and its content.
+     *
+     * @param file The file or folder
+     */
+    public static void deleteRecursively(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteRecursively(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    /**
+     * Creates a PDF file.
+     *
+     * @param file      The file
+     * @param pageCount The number of pages
+     * @param seed      The seed of the generated content
+     * @return The file
+     */
+    public static File createPdf(File file, int pageCount, long seed) throws Exception {
+        Random random = new Random(seed);
+        Bitmap bitmap = createBitmap(random, 200, 150);
+        PDFDoc doc = null;
+        try {
+            doc = new PDFDoc();
+            ElementBuilder builder = new ElementBuilder();
+            ElementWriter writer = new ElementWriter();
+            Font font = Font.create(doc, Font.e_helvetica, false);
+            Image image = Image.create(doc.getSDFDoc(), bitmap);
+            for (int i = 0; i < pageCount; ++i) {
+                Page page = doc.pageCreate(new Rect(0, 0, PAGE_WIDTH, PAGE_HEIGHT));
+                writer.begin(page);
+                writePageContent(writer, builder, font, image, random);
+                writer.end();
+                doc.pagePushBack(page);
+            }
+            doc.save(file.getAbsolutePath(), SDFDoc.SaveMode.REMOVE_UNUSED, null);
+        } finally {
+            Utils.closeQuietly(doc);
+            bitmap.recycle();
+        }
+        return file;
+    }
+
+    /**
+     * Draws more content over a page, such as an annotation flattened by a user.
+     *
+     * @param page The page
+     * @param seed The seed of the generated content
+     */
+    public static void addContent(Page page, long seed) throws PDFNetException {
+        ElementBuilder builder = new ElementBuilder();
+        ElementWriter writer = new ElementWriter();
+        writer.begin(page, ElementWriter.e_overlay);
+        writeRect(writer, builder, new Random(seed), 20, 20, 100, 40);
+        writer.end();
+    }
+
+    /**
+     * Creates a PNG image file, which is converted when it is opened as a document.
+     *
+     * @param file   The file
+     * @param width  The width of the image
+     * @param height The height of the image
+     * @param seed   The seed of the generated content
+     * @return The file
+     */
+    public static File createImage(File file, int width, int height, long seed) throws Exception {
+        Bitmap bitmap = createBitmap(new Random(seed), width, height);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } finally {
+            Utils.closeQuietly(out);
+            bitmap.recycle();
+        }
+        return file;
+    }
+
+    private static void writePageContent(ElementWriter writer, ElementBuilder builder, Font font,
+                                         Image image, Random random) throws PDFNetException {
+        double left = 36 + random.nextInt(72);
+        double top = PAGE_HEIGHT - 36 - random.nextInt(72);
+        double fontSize = 9 + random.nextInt(4);
+
+        writer.writeElement(builder.createTextBegin(font, fontSize));
+        String[] words = WORDS.split(" ");
+        for (int line = 0; line < LINES_PER_PAGE; ++line) {
+            StringBuilder text = new StringBuilder();
+            int wordCount = 4 + random.nextInt(8);
+            for (int w = 0; w < wordCount; ++w) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            Element run = builder.createTextRun(text.toString());
+            run.setTextMatrix(1, 0, 0, 1, left, top - (line + 1) * fontSize * 1.4);
+            writer.writeElement(run);
+        }
+        writer.writeElement(builder.createTextEnd());
+
+        for (int i = 0; i < 5; ++i) {
+            writeRect(writer, builder, random, left + random.nextInt(300), 80 + random.nextInt(200),
+                20 + random.nextInt(100), 10 + random.nextInt(60));
+        }
+
+        Element element = builder.createImage(image, new Matrix2D(image.getImageWidth(), 0, 0,
+            image.getImageHeight(), left + random.nextInt(200), 60));
+        writer.writePlacedElement(element);
+    }
+
+    private static void writeRect(ElementWriter writer, ElementBuilder builder, Random random,
+                                  double x, double y, double width, double height) throws PDFNetException {
+        Element rect = builder.createRect(x, y, width, height);
+        rect.setPathFill(true);
+        rect.setPathStroke(false);
+        rect.getGState().setFillColorSpace(ColorSpace.createDeviceRGB());
+        rect.getGState().setFillColor(new ColorPt(random.nextDouble(), random.nextDouble(), random.nextDouble()));
+        writer.writePlacedElement(rect);
+    }
+
+    private static Bitmap createBitmap(Random random, int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.WHITE);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        for (int i = 0; i < 20; ++i) {
+            paint.setColor(Color.rgb(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            canvas.drawCircle(random.nextInt(width), random.nextInt(height), 5 + random.nextInt(width / 4), paint);
+        }
+        return bitmap;
+    }
+}
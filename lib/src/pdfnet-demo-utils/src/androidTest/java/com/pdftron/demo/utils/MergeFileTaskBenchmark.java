@@ -0,0 +1,146 @@
+package com.pdftron.demo.utils;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.pdftron.demo.TestDocuments;
+import com.pdftron.pdf.Convert;
+import com.pdftron.pdf.DocumentConversion;
+import com.pdftron.pdf.PDFDoc;
+import com.pdftron.pdf.Page;
+import com.pdftron.pdf.PageIterator;
+import com.pdftron.pdf.model.BaseFileInfo;
+import com.pdftron.pdf.model.FileInfo;
+import com.pdftron.pdf.utils.Utils;
+import com.pdftron.sdf.SDFDoc;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Instrumented benchmark of {@link FileManager.MergeFileTask} over a generated corpus of PDF and
+ * image files, compared to opening and importing the inputs one after the other.
+ * It needs the PDFNet native library, so it runs on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MergeFileTaskBenchmark {
+
+    private static final String TAG = MergeFileTaskBenchmark.class.getName();
+
+    private static final int PDF_COUNT = 12;
+    private static final int PAGES_PER_PDF = 20;
+    private static final int IMAGE_COUNT = 8;
+
+    private static File sFolder;
+    private static ArrayList<FileInfo> sInputs;
+    private static int sPageCount;
+
+    @BeforeClass
+    public static void setUpCorpus() throws Exception {
+        TestDocuments.initializePDFNet();
+        sFolder = TestDocuments.createFolder("merge_benchmark");
+        sInputs = new ArrayList<>();
+        // images are converted when they are opened, which is where opening ahead helps most
+        for (int i = 0; i < PDF_COUNT; ++i) {
+            File pdf = TestDocuments.createPdf(new File(sFolder, "input" + i + ".pdf"), PAGES_PER_PDF, i);
+            sInputs.add(new FileInfo(BaseFileInfo.FILE_TYPE_FILE, pdf));
+            sPageCount += PAGES_PER_PDF;
+            if (i < IMAGE_COUNT) {
+                File image = TestDocuments.createImage(new File(sFolder, "input" + i + ".png"), 1600, 1200, i);
+                sInputs.add(new FileInfo(BaseFileInfo.FILE_TYPE_FILE, image));
+                sPageCount += 1;
+            }
+        }
+    }
+
+    @AfterClass
+    public static void tearDownCorpus() {
+        TestDocuments.deleteRecursively(sFolder);
+    }
+
+    @Test
+    public void merge() throws Exception {
+        // warm up the converter and the file cache
+        mergeSequentially(new File(sFolder, "warmup.pdf"));
+
+        File sequentialFile = new File(sFolder, "sequential.pdf");
+        long startTime = System.currentTimeMillis();
+        mergeSequentially(sequentialFile);
+        long sequentialTime = System.currentTimeMillis() - startTime;
+
+        final File mergedFile = new File(sFolder, "merged.pdf");
+        final FileManager.MergeFileTask[] task = new FileManager.MergeFileTask[1];
+        // like an AsyncTask, the task is created on the UI thread
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                task[0] = new FileManager.MergeFileTask(TestDocuments.getContext(), sInputs, new ArrayList<FileInfo>(),
+                    new FileInfo(BaseFileInfo.FILE_TYPE_FILE, mergedFile), false, null);
+            }
+        });
+        startTime = System.currentTimeMillis();
+        task[0].doInBackground();
+        long mergeTime = System.currentTimeMillis() - startTime;
+
+        assertEquals(sPageCount, getPageCount(sequentialFile));
+        assertEquals(sPageCount, getPageCount(mergedFile));
+        Log.i(TAG, "merged " + sInputs.size() + " files, " + sPageCount + " pages: MergeFileTask "
+            + mergeTime + "ms (" + (sPageCount * 1000L / Math.max(1, mergeTime)) + " pages/s), one input at a time "
+            + sequentialTime + "ms (" + (sPageCount * 1000L / Math.max(1, sequentialTime)) + " pages/s)");
+    }
+
+    /**
+     * Merges the inputs the way the task did before inputs were opened ahead.
+     */
+    private static void mergeSequentially(File target) throws Exception {
+        PDFDoc mergedDoc = null;
+        try {
+            mergedDoc = new PDFDoc();
+            mergedDoc.initSecurityHandler();
+            for (FileInfo fileInfo : sInputs) {
+                PDFDoc inDoc = null;
+                try {
+                    if (Utils.isNotPdf(fileInfo.getAbsolutePath())) {
+                        DocumentConversion conv = Convert.universalConversion(fileInfo.getAbsolutePath(), null);
+                        conv.convert();
+                        inDoc = conv.getDoc();
+                    } else {
+                        inDoc = new PDFDoc(fileInfo.getAbsolutePath());
+                    }
+                    Page[] copyPages = new Page[inDoc.getPageCount()];
+                    PageIterator iterator = inDoc.getPageIterator();
+                    int j = 0;
+                    while (iterator.hasNext()) {
+                        copyPages[j++] = iterator.next();
+                    }
+                    for (Page page : mergedDoc.importPages(copyPages, true)) {
+                        mergedDoc.pagePushBack(page);
+                    }
+                } finally {
+                    Utils.closeQuietly(inDoc);
+                }
+            }
+            mergedDoc.save(target.getAbsolutePath(), SDFDoc.SaveMode.REMOVE_UNUSED, null);
+        } finally {
+            Utils.closeQuietly(mergedDoc);
+        }
+    }
+
+    private static int getPageCount(File file) throws Exception {
+        PDFDoc doc = null;
+        try {
+            doc = new PDFDoc(file.getAbsolutePath());
+            return doc.getPageCount();
+        } finally {
+            Utils.closeQuietly(doc);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.pdftron.pdf.utils;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.pdftron.demo.TestDocuments;
+import com.pdftron.pdf.PDFDoc;
+import com.pdftron.pdf.Page;
+import com.pdftron.pdf.Rect;
+import com.pdftron.sdf.SDFDoc;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Instrumented tests of the keys of {@link ContentBoxCache} on a generated document, and a
+ * benchmark of computing the keys against finding the visible content boxes they stand for.
+ * They need the PDFNet native library, so they run on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ContentBoxCacheBenchmark {
+
+    private static final String TAG = ContentBoxCacheBenchmark.class.getName();
+
+    private static final int PAGE_COUNT = 200;
+
+    private static File sFolder;
+    private static File sPdfFile;
+
+    @BeforeClass
+    public static void setUpDocument() throws Exception {
+        TestDocuments.initializePDFNet();
+        sFolder = TestDocuments.createFolder("content_box_benchmark");
+        sPdfFile = TestDocuments.createPdf(new File(sFolder, "crop.pdf"), PAGE_COUNT, 1);
+    }
+
+    @AfterClass
+    public static void tearDownDocument() {
+        TestDocuments.deleteRecursively(sFolder);
+    }
+
+    @Test
+    public void getKey_sameDocument_isStable() throws Exception {
+        String[] keys = getKeys(sPdfFile);
+        assertArrayEquals(keys, getKeys(sPdfFile));
+    }
+
+    @Test
+    public void getKey_changedPage_isChanged() throws Exception {
+        File file = new File(sFolder, "changed.pdf");
+        copy(sPdfFile, file);
+        String[] keys = getKeys(file);
+
+        PDFDoc doc = new PDFDoc(file.getAbsolutePath());
+        try {
+            doc.lock();
+            try {
+                TestDocuments.addContent(doc.getPage(2), 1);
+            } finally {
+                doc.unlock();
+            }
+            // an incremental save keeps the identifier of the document
+            doc.save(file.getAbsolutePath(), SDFDoc.SaveMode.INCREMENTAL, null);
+        } finally {
+            Utils.closeQuietly(doc);
+        }
+
+        String[] changedKeys = getKeys(file);
+        assertEquals(keys.length, changedKeys.length);
+        for (int i = 0; i < keys.length; ++i) {
+            if (i == 1) {
+                assertNotEquals(keys[i], changedKeys[i]);
+            } else {
+                assertEquals(keys[i], changedKeys[i]);
+            }
+        }
+    }
+
+    @Test
+    public void getKey_isFasterThanContentBox() throws Exception {
+        PDFDoc doc = new PDFDoc(sPdfFile.getAbsolutePath());
+        try {
+            doc.lockRead();
+            try {
+                String docKey = ContentBoxCache.getDocKey(doc);
+                assertNotNull(docKey);
+
+                long startTime = System.nanoTime();
+                for (int i = 1; i <= PAGE_COUNT; ++i) {
+                    Rect box = doc.getPage(i).getVisibleContentBox();
+                    assertNotNull(box);
+                }
+                long contentBoxTime = System.nanoTime() - startTime;
+
+                startTime = System.nanoTime();
+                for (int i = 1; i <= PAGE_COUNT; ++i) {
+                    ContentBoxCache.getKey(docKey, doc.getPage(i));
+                }
+                long keyTime = System.nanoTime() - startTime;
+
+                Log.i(TAG, PAGE_COUNT + " pages: visible content boxes " + (contentBoxTime / 1000000) + "ms, keys "
+                    + (keyTime / 1000000) + "ms");
+            } finally {
+                doc.unlockRead();
+            }
+        } finally {
+            Utils.closeQuietly(doc);
+        }
+    }
+
+    private static String[] getKeys(File file) throws Exception {
+        PDFDoc doc = new PDFDoc(file.getAbsolutePath());
+        try {
+            doc.lockRead();
+            try {
+                String docKey = ContentBoxCache.getDocKey(doc);
+                assertNotNull(docKey);
+                String[] keys = new String[doc.getPageCount()];
+                for (int i = 0; i < keys.length; ++i) {
+                    Page page = doc.getPage(i + 1);
+                    keys[i] = ContentBoxCache.getKey(docKey, page);
+                }
+                return keys;
+            } finally {
+                doc.unlockRead();
+            }
+        } finally {
+            Utils.closeQuietly(doc);
+        }
+    }
+
+    private static void copy(File source, File destination) throws Exception {
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new FileInputStream(source);
+            out = new FileOutputStream(destination);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            Utils.closeQuietly(in);
+            Utils.closeQuietly(out);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.pdftron.pdf.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PathMeasure;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.MotionEvent;
+
+import com.pdftron.demo.TestDocuments;
+import com.pdftron.pdf.annots.Ink;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented tests and frame-time benchmark of {@link IncrementalInkPath}, fed by synthetic
+ * handwriting of 100 to 10,000 move events. Each frame adds the point of a move event and draws
+ * the path of the stroke, the way {@code FreehandCreate} does; it is compared to smoothing the
+ * whole stroke again with {@link Ink#getBezierControlPoints(double[])} on every frame, which is
+ * what was done before. It needs the PDFNet native library for the comparison, so it runs on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class IncrementalInkPathBenchmark {
+
+    private static final String TAG = IncrementalInkPathBenchmark.class.getName();
+
+    private static final int[] STROKE_LENGTHS = {100, 1000, 10000};
+    // frames of the rebuilt stroke are only timed at the end of the stroke, since timing every
+    // frame of the longest stroke would take minutes
+    private static final int SAMPLE_FRAMES = 50;
+    private static final int SIZE = 1080;
+
+    private Bitmap mBitmap;
+    private Canvas mCanvas;
+    private Paint mPaint;
+
+    @BeforeClass
+    public static void setUpPDFNet() throws Exception {
+        TestDocuments.initializePDFNet();
+    }
+
+    @Before
+    public void setUp() {
+        mBitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mBitmap);
+        mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeWidth(4);
+        mPaint.setColor(Color.BLACK);
+    }
+
+    @After
+    public void tearDown() {
+        mBitmap.recycle();
+    }
+
+    @Test
+    public void getPath_matchesBezierCtrlPts() {
+        float[] points = createStroke(500);
+        IncrementalInkPath inkPath = new IncrementalInkPath();
+        inkPath.reset(true);
+        for (int i = 0; i < points.length; i += 2) {
+            inkPath.addPoint(points[i], points[i + 1]);
+            // the finished stroke has to be drawn where the stroke was drawn at any time
+            if (i % 50 == 0) {
+                assertPathEquals(createPath(IncrementalInkPath.getBezierCtrlPts(points, i / 2 + 1)), inkPath.getPath());
+            }
+        }
+        assertPathEquals(createPath(IncrementalInkPath.getBezierCtrlPts(points, points.length / 2)), inkPath.getPath());
+    }
+
+    @Test
+    public void getBezierCtrlPts_passesThroughPoints() {
+        float[] points = createStroke(100);
+        int pointCount = points.length / 2;
+        float[] ctrlPts = IncrementalInkPath.getBezierCtrlPts(points, pointCount);
+        assertEquals(2 + (pointCount - 1) * 6, ctrlPts.length);
+        assertEquals(points[0], ctrlPts[0], 0);
+        assertEquals(points[1], ctrlPts[1], 0);
+        for (int i = 1; i < pointCount; ++i) {
+            assertEquals(points[i * 2], ctrlPts[2 + i * 6 - 2], 0);
+            assertEquals(points[i * 2 + 1], ctrlPts[2 + i * 6 - 1], 0);
+        }
+        assertEquals(2, IncrementalInkPath.getBezierCtrlPts(points, 1).length);
+        assertEquals(0, IncrementalInkPath.getBezierCtrlPts(points, 0).length);
+    }
+
+    @Test
+    public void frameTime() throws Exception {
+        // warm up
+        drawIncrementally(createStroke(1000));
+        drawRebuilt(createStroke(1000));
+
+        for (int length : STROKE_LENGTHS) {
+            float[] points = createStroke(length);
+            long[] incremental = drawIncrementally(points);
+            long[] rebuilt = drawRebuilt(points);
+            Log.i(TAG, length + " points: incremental path " + describe(incremental)
+                + ", stroke smoothed again per frame " + describe(rebuilt));
+        }
+    }
+
+    /**
+     * @return The time of each frame in nanoseconds
+     */
+    private long[] drawIncrementally(float[] points) {
+        IncrementalInkPath inkPath = new IncrementalInkPath();
+        inkPath.reset(true);
+        int pointCount = points.length / 2;
+        long[] frameTimes = new long[Math.min(pointCount, SAMPLE_FRAMES)];
+        long downTime = SystemClock.uptimeMillis();
+        for (int i = 0; i < pointCount; ++i) {
+            MotionEvent event = obtainMoveEvent(downTime, i, points);
+            long startTime = System.nanoTime();
+            inkPath.addPoint(event.getX(), event.getY());
+            drawFrame(inkPath.getPath());
+            long frameTime = System.nanoTime() - startTime;
+            event.recycle();
+
+            int sample = i - (pointCount - frameTimes.length);
+            if (sample >= 0) {
+                frameTimes[sample] = frameTime;
+            }
+        }
+        return frameTimes;
+    }
+
+    /**
+     * Draws the last frames of the stroke the way they were drawn before {@link IncrementalInkPath}.
+     *
+     * @return The time of each frame in nanoseconds
+     */
+    private long[] drawRebuilt(float[] points) throws Exception {
+        int pointCount = points.length / 2;
+        long[] frameTimes = new long[Math.min(pointCount, SAMPLE_FRAMES)];
+        double[] inputLine = new double[points.length];
+        long downTime = SystemClock.uptimeMillis();
+        int firstSample = pointCount - frameTimes.length;
+        for (int i = 0; i < pointCount; ++i) {
+            MotionEvent event = obtainMoveEvent(downTime, i, points);
+            inputLine[i * 2] = event.getX();
+            inputLine[i * 2 + 1] = event.getY();
+            event.recycle();
+            if (i < firstSample) {
+                continue;
+            }
+
+            long startTime = System.nanoTime();
+            double[] ctrlPts = Ink.getBezierControlPoints(Arrays.copyOf(inputLine, (i + 1) * 2));
+            Path path = new Path();
+            path.moveTo((float) ctrlPts[0], (float) ctrlPts[1]);
+            for (int j = 2; j < ctrlPts.length; j += 6) {
+                path.cubicTo((float) ctrlPts[j], (float) ctrlPts[j + 1], (float) ctrlPts[j + 2],
+                    (float) ctrlPts[j + 3], (float) ctrlPts[j + 4], (float) ctrlPts[j + 5]);
+            }
+            drawFrame(path);
+            frameTimes[i - firstSample] = System.nanoTime() - startTime;
+        }
+        return frameTimes;
+    }
+
+    private void drawFrame(Path path) {
+        mCanvas.drawColor(Color.WHITE);
+        mCanvas.drawPath(path, mPaint);
+    }
+
+    private static MotionEvent obtainMoveEvent(long downTime, int index, float[] points) {
+        return MotionEvent.obtain(downTime, downTime + index * 8, MotionEvent.ACTION_MOVE,
+            points[index * 2], points[index * 2 + 1], 0);
+    }
+
+    /**
+     * Creates the points of cursive handwriting that fills lines across the canvas.
+     */
+    private static float[] createStroke(int pointCount) {
+        float[] points = new float[pointCount * 2];
+        int lineLength = 400;
+        for (int i = 0; i < pointCount; ++i) {
+            int line = (i / lineLength) % 20;
+            float t = i % lineLength;
+            points[i * 2] = 40 + t * 2.5f + 12 * (float) Math.sin(t * 0.4);
+            points[i * 2 + 1] = 60 + line * 50 + 18 * (float) Math.cos(t * 0.4) + 6 * (float) Math.sin(t * 0.05);
+        }
+        return points;
+    }
+
+    private static Path createPath(float[] ctrlPts) {
+        Path path = new Path();
+        if (ctrlPts.length <= 2) {
+            return path;
+        }
+        path.moveTo(ctrlPts[0], ctrlPts[1]);
+        for (int i = 2; i < ctrlPts.length; i += 6) {
+            path.cubicTo(ctrlPts[i], ctrlPts[i + 1], ctrlPts[i + 2], ctrlPts[i + 3], ctrlPts[i + 4], ctrlPts[i + 5]);
+        }
+        return path;
+    }
+
+    private static void assertPathEquals(Path expected, Path actual) {
+        PathMeasure expectedMeasure = new PathMeasure(expected, false);
+        PathMeasure actualMeasure = new PathMeasure(actual, false);
+        float length = expectedMeasure.getLength();
+        assertEquals(length, actualMeasure.getLength(), 0.01f);
+        float[] expectedPos = new float[2];
+        float[] actualPos = new float[2];
+        for (int i = 0; i <= 20; ++i) {
+            float distance = length * i / 20;
+            assertTrue(expectedMeasure.getPosTan(distance, expectedPos, null));
+            assertTrue(actualMeasure.getPosTan(distance, actualPos, null));
+            assertEquals(expectedPos[0], actualPos[0], 0.01f);
+            assertEquals(expectedPos[1], actualPos[1], 0.01f);
+        }
+    }
+
+    private static String describe(long[] frameTimes) {
+        long total = 0;
+        long max = 0;
+        for (long frameTime : frameTimes) {
+            total += frameTime;
+            max = Math.max(max, frameTime);
+        }
+        return "mean " + (total / frameTimes.length / 1000) + "us, max " + (max / 1000)
+            + "us over the last " + frameTimes.length + " frames";
+    }
+}
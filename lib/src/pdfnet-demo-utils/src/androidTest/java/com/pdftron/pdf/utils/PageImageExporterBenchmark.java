@@ -0,0 +1,117 @@
+package com.pdftron.pdf.utils;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.pdftron.demo.TestDocuments;
+import com.pdftron.pdf.PDFDoc;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented benchmark of {@link PageImageExporter}, exporting a generated document with one
+ * worker and with the default number of workers. It needs the PDFNet native library to render
+ * pages, so it runs on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PageImageExporterBenchmark {
+
+    private static final String TAG = PageImageExporterBenchmark.class.getName();
+
+    private static final int PAGE_COUNT = 40;
+    private static final long TIMEOUT = 5; // minutes
+
+    private static File sFolder;
+    private static File sPdfFile;
+
+    @BeforeClass
+    public static void setUpDocument() throws Exception {
+        TestDocuments.initializePDFNet();
+        sFolder = TestDocuments.createFolder("export_benchmark");
+        sPdfFile = TestDocuments.createPdf(new File(sFolder, "export.pdf"), PAGE_COUNT, 1);
+    }
+
+    @AfterClass
+    public static void tearDownDocument() {
+        TestDocuments.deleteRecursively(sFolder);
+    }
+
+    @Test
+    public void export() throws Exception {
+        // warm up the renderer
+        export(1, PAGE_COUNT / 4, "warmup");
+
+        long singleTime = export(1, PAGE_COUNT, "single");
+        long defaultTime = export(0, PAGE_COUNT, "default");
+        Log.i(TAG, "exported " + PAGE_COUNT + " pages: 1 worker " + singleTime + "ms ("
+            + (PAGE_COUNT * 1000L / Math.max(1, singleTime)) + " pages/s), default workers " + defaultTime + "ms ("
+            + (PAGE_COUNT * 1000L / Math.max(1, defaultTime)) + " pages/s)");
+    }
+
+    /**
+     * @param workerCount The number of workers, or 0 for the default
+     * @return The time the export took in milliseconds
+     */
+    private static long export(final int workerCount, final int pageCount, String name) throws Exception {
+        final File outputFolder = new File(sFolder, name);
+        assertTrue(outputFolder.mkdirs());
+        final CountDownLatch done = new CountDownLatch(1);
+        final long[] time = new long[1];
+        final Exception[] failure = new Exception[1];
+        final PDFDoc doc = new PDFDoc(sPdfFile.getAbsolutePath());
+        try {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    PageImageExporter exporter = new PageImageExporter(doc);
+                    if (workerCount > 0) {
+                        exporter.setWorkerCount(workerCount);
+                    }
+                    exporter.export(1, pageCount, outputFolder, new PageImageExporter.ExportListener() {
+                        @Override
+                        public void onPageExported(int pageNum, @NonNull File file, int exportedCount, int pageCount) {
+                        }
+
+                        @Override
+                        public void onExportFinished(int pageCount, long exportTime) {
+                            time[0] = exportTime;
+                            done.countDown();
+                        }
+
+                        @Override
+                        public void onExportCancelled() {
+                            done.countDown();
+                        }
+
+                        @Override
+                        public void onExportFailed(int pageNum, @NonNull Exception e) {
+                            failure[0] = e;
+                            done.countDown();
+                        }
+                    });
+                }
+            });
+            assertTrue(done.await(TIMEOUT, TimeUnit.MINUTES));
+        } finally {
+            Utils.closeQuietly(doc);
+        }
+
+        assertNull(failure[0]);
+        File[] files = outputFolder.listFiles();
+        assertEquals(pageCount, files == null ? 0 : files.length);
+        return time[0];
+    }
+}
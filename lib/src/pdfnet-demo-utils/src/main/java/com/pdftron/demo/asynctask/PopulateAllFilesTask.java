@@ -11,6 +11,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.pdftron.demo.utils.AllFilesIndex;
 import com.pdftron.demo.utils.MiscUtils;
 import com.pdftron.pdf.model.BaseFileInfo;
 import com.pdftron.pdf.model.FileInfo;
@@ -19,8 +20,6 @@ import com.pdftron.pdf.utils.Constants;
 import com.pdftron.pdf.utils.CustomAsyncTask;
 import com.pdftron.pdf.utils.Utils;
 
-import org.apache.commons.io.FilenameUtils;
-
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -28,6 +27,7 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static com.pdftron.pdf.model.BaseFileInfo.FILE_TYPE_FOLDER;
 
@@ -39,6 +39,9 @@ public class PopulateAllFilesTask extends CustomAsyncTask<Void, Void, Void> {
     private static final String TAG = PopulateAllFilesTask.class.getName();
     private static final boolean DEBUG = false;
 
+    // minimum time between two partial results
+    private static final long PROGRESS_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(250);
+
     private File mRootFolder;
     private final List<FileInfo> mOriginalFileInfoList;
     private final Object mOriginalFileInfoListLock;
@@ -50,6 +53,12 @@ public class PopulateAllFilesTask extends CustomAsyncTask<Void, Void, Void> {
     private Set<String> mSuffixSet = new HashSet<>();
     private boolean mEmulatedExist;
 
+    private AllFilesIndex mIndex;
+    private HashSet<String> mVisitedFolders = new HashSet<>();
+    private long mLastProgressTime;
+    private int mPublishedCount;
+    private int mReusedFolderCount;
+
     /**
      * @param context          The context
      * @param rootFolder       The root folder; null if it is the root of storage
@@ -101,14 +110,21 @@ public class PopulateAllFilesTask extends CustomAsyncTask<Void, Void, Void> {
         File emulate = new File("/storage/emulated");
         mEmulatedExist = emulate.exists();
 
+        Context context = getContext();
+        if (context != null) {
+            mIndex = AllFilesIndex.getInstance(context);
+        }
+
         if (DEBUG) Log.d(TAG, "get root folders");
         List<FileInfo> rootFolders = getRootFolders();
+        Set<String> rootPaths = new HashSet<>();
         for (FileInfo folderInfo : rootFolders) {
             if (isCancelled()) {
                 return null;
             }
             File folder = folderInfo.getFile();
             if (DEBUG) Log.d(TAG, "traverse " + folder.getName());
+            rootPaths.add(folder.getAbsolutePath());
             traverseFiles(folder);
         }
 
@@ -116,6 +132,13 @@ public class PopulateAllFilesTask extends CustomAsyncTask<Void, Void, Void> {
             return null;
         }
 
+        if (mIndex != null) {
+            mIndex.retainVisited(rootPaths, mVisitedFolders);
+            mIndex.save();
+            if (DEBUG)
+                Log.d(TAG, "reused " + mReusedFolderCount + " of " + mVisitedFolders.size() + " indexed folders");
+        }
+
         MiscUtils.sortFileInfoList(mFileInfoList, mSortMode);
 
         synchronized (mOriginalFileInfoListLock) {
@@ -215,52 +238,121 @@ public class PopulateAllFilesTask extends CustomAsyncTask<Void, Void, Void> {
         @Nullable File folder
     ) {
 
-        if (folder == null || !folder.isDirectory() || isCancelled()) {
+        if (folder == null || isCancelled()) {
             return;
         }
 
         try {
-            File[] files = folder.listFiles();
-            if (files != null) {
-                ArrayList<FileInfo> folderInfoList = new ArrayList<>();
-                ArrayList<FileInfo> fileInfoList = new ArrayList<>();
-                for (File file : files) {
-                    if (accept(file)) {
-                        if (file.isDirectory()) {
-                            folderInfoList.add(new FileInfo(FILE_TYPE_FOLDER, file));
-                        } else {
-                            fileInfoList.add(new FileInfo(BaseFileInfo.FILE_TYPE_FILE, file));
-                        }
-                    }
+            long lastModified = folder.lastModified();
+            AllFilesIndex.Folder entry = mIndex != null ? mIndex.get(folder, lastModified) : null;
+            if (entry != null) {
+                // the folder content has not changed since it was indexed
+                mReusedFolderCount++;
+            } else {
+                if (!folder.isDirectory()) {
+                    return;
                 }
-
-                if (isCancelled()) {
+                entry = listFolder(folder, lastModified);
+                if (entry == null) {
                     return;
                 }
-
-                if (!fileInfoList.isEmpty()) {
-                    MiscUtils.sortFileInfoList(fileInfoList, mSortMode);
-                    mFileInfoList.addAll(fileInfoList);
-                    if (mUpdateProgress) {
-                        synchronized (mOriginalFileInfoListLock) {
-                            mOriginalFileInfoList.clear();
-                            mOriginalFileInfoList.addAll(mFileInfoList);
-                        }
-                        publishProgress();
-                    }
+                if (mIndex != null) {
+                    mIndex.put(folder, entry);
                 }
+            }
+            mVisitedFolders.add(folder.getAbsolutePath());
+
+            String[] fileNames = entry.getFileNames();
+            String[] folderNames = entry.getFolderNames();
+            ArrayList<FileInfo> folderInfoList = new ArrayList<>(folderNames.length);
+            ArrayList<FileInfo> fileInfoList = new ArrayList<>(fileNames.length);
+            for (String name : folderNames) {
+                folderInfoList.add(new FileInfo(FILE_TYPE_FOLDER, new File(folder, name)));
+            }
+            for (String name : fileNames) {
+                fileInfoList.add(new FileInfo(BaseFileInfo.FILE_TYPE_FILE, new File(folder, name)));
+            }
 
-                MiscUtils.sortFileInfoList(folderInfoList, mSortMode);
-                for (FileInfo folderInfo : folderInfoList) {
-                    traverseFiles(folderInfo.getFile());
+            if (isCancelled()) {
+                return;
+            }
+
+            if (!fileInfoList.isEmpty()) {
+                MiscUtils.sortFileInfoList(fileInfoList, mSortMode);
+                mFileInfoList.addAll(fileInfoList);
+                if (mUpdateProgress) {
+                    publishPartialResult();
                 }
             }
+
+            MiscUtils.sortFileInfoList(folderInfoList, mSortMode);
+            for (FileInfo folderInfo : folderInfoList) {
+                traverseFiles(folderInfo.getFile());
+            }
         } catch (Exception e) {
             AnalyticsHandlerAdapter.getInstance().sendException(e);
         }
 
     }
 
+    /**
+     * Lists the accepted documents and sub-folders of a folder.
+     *
+     * @return The folder content, or null if the folder cannot be listed
+     */
+    @Nullable
+    private AllFilesIndex.Folder listFolder(
+        @NonNull File folder,
+        long lastModified
+    ) {
+
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return null;
+        }
+
+        ArrayList<String> fileNames = new ArrayList<>();
+        ArrayList<String> folderNames = new ArrayList<>();
+        for (File file : files) {
+            if (accept(file)) {
+                if (file.isDirectory()) {
+                    folderNames.add(file.getName());
+                } else {
+                    fileNames.add(file.getName());
+                }
+            }
+        }
+        return new AllFilesIndex.Folder(lastModified,
+            fileNames.toArray(new String[fileNames.size()]),
+            folderNames.toArray(new String[folderNames.size()]));
+
+    }
+
+    /**
+     * Publishes the files found so far, at most once per {@link #PROGRESS_INTERVAL_NS}
+     * so that large trees are not copied to the original list for every folder.
+     */
+    private void publishPartialResult(
+    ) {
+
+        long now = System.nanoTime();
+        if (mPublishedCount > 0 && now - mLastProgressTime < PROGRESS_INTERVAL_NS) {
+            return;
+        }
+        mLastProgressTime = now;
+        synchronized (mOriginalFileInfoListLock) {
+            // only the files found since the last update need to be appended
+            if (mOriginalFileInfoList.size() != mPublishedCount) {
+                mOriginalFileInfoList.clear();
+                mPublishedCount = 0;
+            }
+            mOriginalFileInfoList.addAll(mFileInfoList.subList(mPublishedCount, mFileInfoList.size()));
+            mPublishedCount = mFileInfoList.size();
+        }
+        publishProgress();
+
+    }
+
     private boolean accept(
         @Nullable File file
     ) {
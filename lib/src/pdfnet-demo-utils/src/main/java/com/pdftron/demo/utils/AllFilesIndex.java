@@ -0,0 +1,257 @@
+//---------------------------------------------------------------------------------------
+// Copyright (c) 2001-2018 by PDFTron Systems Inc. All Rights Reserved.
+// Consult legal.txt regarding legal and license information.
+//---------------------------------------------------------------------------------------
+
+package com.pdftron.demo.utils;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.pdftron.pdf.utils.AnalyticsHandlerAdapter;
+import com.pdftron.pdf.utils.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A persistent index of the document files found under the storage folders, used by
+ * {@link com.pdftron.demo.asynctask.PopulateAllFilesTask}.
+ * <p>
+ * For every visited folder the index keeps the modification time of the folder together with
+ * the names of the accepted documents and sub-folders it contains. Since the modification time of
+ * a folder changes whenever an entry is added, removed or renamed in it, a folder whose time is
+ * unchanged does not need to be listed again; only its sub-folders need to be checked.
+ * <p>
+ * File sizes and modification dates are not indexed since {@link com.pdftron.pdf.model.FileInfo}
+ * always reads them from the file itself.
+ */
+public class AllFilesIndex {
+
+    private static final String TAG = AllFilesIndex.class.getName();
+    private static final boolean DEBUG = false;
+
+    private static final String INDEX_FILE_NAME = "all_files_index.bin";
+    private static final int INDEX_MAGIC = 0x41464958;
+    private static final int INDEX_VERSION = 1;
+
+    private static AllFilesIndex sInstance;
+
+    private final File mIndexFile;
+    private final HashMap<String, Folder> mFolders = new HashMap<>();
+    private boolean mLoaded;
+    private boolean mDirty;
+
+    /**
+     * The indexed content of a folder.
+     */
+    public static class Folder {
+        final long mLastModified;
+        final String[] mFileNames;
+        final String[] mFolderNames;
+
+        public Folder(long lastModified, @NonNull String[] fileNames, @NonNull String[] folderNames) {
+            mLastModified = lastModified;
+            mFileNames = fileNames;
+            mFolderNames = folderNames;
+        }
+
+        /**
+         * @return The names of the documents in the folder
+         */
+        @NonNull
+        public String[] getFileNames() {
+            return mFileNames;
+        }
+
+        /**
+         * @return The names of the sub-folders of the folder
+         */
+        @NonNull
+        public String[] getFolderNames() {
+            return mFolderNames;
+        }
+    }
+
+    /**
+     * Returns the shared index, loading it from disk the first time.
+     * Should not be called from the UI thread.
+     *
+     * @param context The context
+     * @return The index
+     */
+    public static synchronized AllFilesIndex getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new AllFilesIndex(new File(context.getCacheDir(), INDEX_FILE_NAME));
+        }
+        sInstance.load();
+        return sInstance;
+    }
+
+    // package-private for tests
+    AllFilesIndex(@NonNull File indexFile) {
+        mIndexFile = indexFile;
+    }
+
+    /**
+     * Returns the indexed content of the folder if the folder has not changed since it was indexed.
+     *
+     * @param folder       The folder
+     * @param lastModified The current modification time of the folder
+     * @return The indexed content, or null if the folder has to be listed again
+     */
+    @Nullable
+    public synchronized Folder get(@NonNull File folder, long lastModified) {
+        Folder entry = mFolders.get(folder.getAbsolutePath());
+        if (entry != null && entry.mLastModified == lastModified && lastModified != 0) {
+            return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Updates the indexed content of a folder.
+     *
+     * @param folder The folder
+     * @param entry  The content of the folder
+     */
+    public synchronized void put(@NonNull File folder, @NonNull Folder entry) {
+        mFolders.put(folder.getAbsolutePath(), entry);
+        mDirty = true;
+    }
+
+    /**
+     * Removes the folders under the specified root folders that were not visited
+     * during the last traversal, i.e. folders that were deleted or became hidden.
+     *
+     * @param rootPaths    The absolute paths of the traversed root folders
+     * @param visitedPaths The absolute paths of the visited folders
+     */
+    public synchronized void retainVisited(@NonNull Set<String> rootPaths, @NonNull HashSet<String> visitedPaths) {
+        Iterator<Map.Entry<String, Folder>> it = mFolders.entrySet().iterator();
+        while (it.hasNext()) {
+            String path = it.next().getKey();
+            if (!visitedPaths.contains(path) && isUnder(path, rootPaths)) {
+                it.remove();
+                mDirty = true;
+            }
+        }
+    }
+
+    private static boolean isUnder(String path, Set<String> rootPaths) {
+        for (String rootPath : rootPaths) {
+            if (path.equals(rootPath) || path.startsWith(rootPath.endsWith(File.separator) ? rootPath : rootPath + File.separator)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Saves the index to disk if it has changed.
+     */
+    public synchronized void save() {
+        if (!mDirty) {
+            return;
+        }
+
+        File tempFile = new File(mIndexFile.getAbsolutePath() + ".tmp");
+        DataOutputStream out = null;
+        boolean success = false;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(mFolders.size());
+            for (Map.Entry<String, Folder> entry : mFolders.entrySet()) {
+                Folder folder = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(folder.mLastModified);
+                writeNames(out, folder.mFileNames);
+                writeNames(out, folder.mFolderNames);
+            }
+            out.flush();
+            success = true;
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+        } finally {
+            Utils.closeQuietly(out);
+        }
+
+        if (success && tempFile.renameTo(mIndexFile)) {
+            mDirty = false;
+            if (DEBUG) Log.d(TAG, "saved " + mFolders.size() + " folders");
+        } else {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Loads the index from disk, once.
+     */
+    synchronized void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mIndexFile.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mIndexFile)));
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                String path = in.readUTF();
+                long lastModified = in.readLong();
+                String[] fileNames = readNames(in);
+                String[] folderNames = readNames(in);
+                mFolders.put(path, new Folder(lastModified, fileNames, folderNames));
+            }
+            if (DEBUG) Log.d(TAG, "loaded " + count + " folders");
+        } catch (Exception e) {
+            // an incomplete index is rebuilt from scratch
+            mFolders.clear();
+            if (DEBUG) Log.d(TAG, "failed to load index: " + e.getMessage());
+        } finally {
+            Utils.closeQuietly(in);
+        }
+    }
+
+    private static void writeNames(DataOutputStream out, String[] names) throws IOException {
+        out.writeInt(names.length);
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    private static String[] readNames(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("invalid name count: " + count);
+        }
+        String[] names = new String[count];
+        for (int i = 0; i < count; ++i) {
+            names[i] = in.readUTF();
+        }
+        return names;
+    }
+}
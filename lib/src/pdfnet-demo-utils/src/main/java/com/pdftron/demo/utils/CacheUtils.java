@@ -9,13 +9,26 @@ import com.google.gson.reflect.TypeToken;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -41,6 +54,15 @@ public class CacheUtils {
 
     private static final String ENCODING = "utf8";
     private static final String FILE_SUFFIX = ".txt";
+    private static final String RECORD_FILE_SUFFIX = ".bin";
+    private static final Charset RECORD_CHARSET = Charset.forName("UTF-8");
+    private static final int RECORD_FILE_MAGIC = 0x43555246;
+    private static final int RECORD_FILE_VERSION = 1;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte RECORD_LIVE = 0;
+    private static final byte RECORD_REMOVED = 1;
+    // removed records are compacted away once they outnumber the live ones
+    private static final int MIN_REMOVED_RECORDS_TO_COMPACT = 64;
     public static String BASE_CACHE_PATH;
     public static final String CACHE_HEADER_LIST_OBJECT = "cache_header_list_object_v2";
 
@@ -58,6 +80,10 @@ public class CacheUtils {
         return BASE_CACHE_PATH + File.separator + name + FILE_SUFFIX;
     }
 
+    private static String pathForRecordEntry(String name) {
+        return BASE_CACHE_PATH + File.separator + name + RECORD_FILE_SUFFIX;
+    }
+
     private static <T> LinkedHashMap<String, T> dataMapsFromJson(String dataString) {
         if (TextUtils.isEmpty(dataString))
             return new LinkedHashMap<>();
@@ -221,6 +247,338 @@ public class CacheUtils {
         return new File(pathForCacheEntry(fileName)).exists();
     }
 
+    /**
+     * Callback invoked for each live record of a record file.
+     */
+    public interface RecordVisitor {
+        /**
+         * @param key the key of the record
+         * @param value the value of the record
+         */
+        void onRecord(String key, int value);
+    }
+
+    /**
+     * check if there is a record file with fileName
+     * @param fileName the name of the file
+     * @return true if the file exits, false otherwise
+     */
+    public static boolean hasRecordFile(String fileName) {
+        return new File(pathForRecordEntry(fileName)).exists();
+    }
+
+    /**
+     * delete the record file with fileName
+     * @param fileName the name of the file
+     */
+    public static void deleteRecordFile(String fileName) {
+        FileUtils.deleteQuietly(new File(pathForRecordEntry(fileName)));
+    }
+
+    /**
+     * Replaces the content of a record file.
+     *
+     * A record file is a versioned binary file of (key, value) records, which can be
+     * appended to and have records removed in place without rewriting the whole file.
+     *
+     * @param fileName the name of the file
+     * @param records the records in order
+     * @return true if the file was written
+     */
+    public static boolean writeRecordFile(String fileName, Map<String, Integer> records) {
+        File file = new File(pathForRecordEntry(fileName));
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+        DataOutputStream out = null;
+        boolean success = false;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(RECORD_FILE_MAGIC);
+            out.writeInt(RECORD_FILE_VERSION);
+            for (Map.Entry<String, Integer> entry : records.entrySet()) {
+                writeRecord(out, entry.getKey(), entry.getValue());
+            }
+            out.flush();
+            success = true;
+        } catch (IOException e) {
+            Log.d(TAG, "write record file failure" + e.toString());
+        } finally {
+            Utils.closeQuietly(out);
+        }
+        if (success && tempFile.renameTo(file)) {
+            return true;
+        }
+        FileUtils.deleteQuietly(tempFile);
+        return false;
+    }
+
+    /**
+     * Appends records to the end of a record file, creating the file if needed.
+     *
+     * @param fileName the name of the file
+     * @param records the records to append
+     * @return true if the records were appended
+     */
+    public static boolean appendRecords(String fileName, Map<String, Integer> records) {
+        if (!hasRecordFile(fileName)) {
+            return writeRecordFile(fileName, records);
+        }
+        if (records.isEmpty()) {
+            return true;
+        }
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(pathForRecordEntry(fileName), true)));
+            for (Map.Entry<String, Integer> entry : records.entrySet()) {
+                writeRecord(out, entry.getKey(), entry.getValue());
+            }
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            Log.d(TAG, "append record file failure" + e.toString());
+            return false;
+        } finally {
+            Utils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Removes records and appends new ones. Existing records with the same keys as the new
+     * records are removed first, so that a key is never recorded twice.
+     *
+     * @param fileName the name of the file
+     * @param removeKeys the keys of the records to remove
+     * @param records the records to append
+     * @return true if the file was updated
+     */
+    public static boolean replaceRecords(String fileName, Collection<String> removeKeys, Map<String, Integer> records) {
+        if (hasRecordFile(fileName)) {
+            LinkedHashSet<String> keys = new LinkedHashSet<>(removeKeys);
+            keys.addAll(records.keySet());
+            if (removeRecords(fileName, keys) < 0) {
+                return false;
+            }
+        }
+        return appendRecords(fileName, records);
+    }
+
+    /**
+     * Marks the records having the specified keys as removed, in place.
+     * Only the keys of the records are compared; their values are not decoded.
+     *
+     * @param fileName the name of the file
+     * @param keys the keys of the records to remove
+     * @return the number of records removed, -1 if the file could not be read
+     */
+    public static int removeRecords(String fileName, Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        HashMap<Integer, List<byte[]>> keysByHash = new HashMap<>();
+        for (String key : keys) {
+            byte[] bytes = key.getBytes(RECORD_CHARSET);
+            int hash = Arrays.hashCode(bytes);
+            List<byte[]> list = keysByHash.get(hash);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                keysByHash.put(hash, list);
+            }
+            list.add(bytes);
+        }
+
+        File file = new File(pathForRecordEntry(fileName));
+        ArrayList<Long> offsets = new ArrayList<>();
+        int liveCount = 0;
+        int removedCount = 0;
+        boolean truncated = false;
+        long validLength;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (!readRecordHeader(in)) {
+                return -1;
+            }
+            long offset = RECORD_HEADER_SIZE;
+            long fileLength = file.length();
+            while (true) {
+                byte status;
+                byte[] key;
+                try {
+                    status = in.readByte();
+                    in.readInt();
+                    int length = in.readInt();
+                    if (length < 0 || offset + 1 + 4 + 4 + length > fileLength) {
+                        throw new EOFException();
+                    }
+                    key = new byte[length];
+                    in.readFully(key);
+                } catch (EOFException e) {
+                    // a truncated last record is dropped, see readRecordFile
+                    truncated = offset < fileLength;
+                    break;
+                }
+                if (status == RECORD_LIVE) {
+                    List<byte[]> candidates = keysByHash.get(Arrays.hashCode(key));
+                    if (candidates != null && containsKey(candidates, key)) {
+                        offsets.add(offset);
+                        ++removedCount;
+                    } else {
+                        ++liveCount;
+                    }
+                } else {
+                    ++removedCount;
+                }
+                offset += 1 + 4 + 4 + key.length;
+            }
+            validLength = offset;
+        } catch (IOException e) {
+            Log.d(TAG, "read record file failure" + e.toString());
+            return -1;
+        } finally {
+            Utils.closeQuietly(in);
+        }
+        if (truncated && !truncateRecordFile(file, validLength)) {
+            return -1;
+        }
+
+        if (offsets.isEmpty()) {
+            return 0;
+        }
+
+        if (removedCount >= MIN_REMOVED_RECORDS_TO_COMPACT && removedCount > liveCount) {
+            // rewrite the file with the live records only
+            final LinkedHashMap<String, Integer> liveRecords = new LinkedHashMap<>();
+            if (readRecordFile(fileName, new RecordVisitor() {
+                @Override
+                public void onRecord(String key, int value) {
+                    liveRecords.put(key, value);
+                }
+            })) {
+                for (String key : keys) {
+                    liveRecords.remove(key);
+                }
+                if (writeRecordFile(fileName, liveRecords)) {
+                    return offsets.size();
+                }
+            }
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            for (long offset : offsets) {
+                raf.seek(offset);
+                raf.writeByte(RECORD_REMOVED);
+            }
+            return offsets.size();
+        } catch (IOException e) {
+            Log.d(TAG, "update record file failure" + e.toString());
+            return -1;
+        } finally {
+            Utils.closeQuietly(raf);
+        }
+    }
+
+    /**
+     * Reads the live records of a record file in order. A truncated last record,
+     * left by an append that was interrupted, is skipped and cut off the file.
+     *
+     * @param fileName the name of the file
+     * @param visitor the visitor invoked for each live record
+     * @return true if the file was read; false if there is no such file,
+     * or it was written by another version
+     */
+    public static boolean readRecordFile(String fileName, RecordVisitor visitor) {
+        File file = new File(pathForRecordEntry(fileName));
+        if (!file.exists()) {
+            return false;
+        }
+        boolean truncated = false;
+        long validLength;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (!readRecordHeader(in)) {
+                return false;
+            }
+            byte[] buffer = new byte[256];
+            long offset = RECORD_HEADER_SIZE;
+            long fileLength = file.length();
+            while (true) {
+                byte status;
+                int value;
+                int length;
+                try {
+                    status = in.readByte();
+                    value = in.readInt();
+                    length = in.readInt();
+                    if (length < 0 || offset + 1 + 4 + 4 + length > fileLength) {
+                        throw new EOFException();
+                    }
+                    if (length > buffer.length) {
+                        buffer = new byte[Math.max(length, buffer.length * 2)];
+                    }
+                    in.readFully(buffer, 0, length);
+                } catch (EOFException e) {
+                    truncated = offset < fileLength;
+                    break;
+                }
+                offset += 1 + 4 + 4 + length;
+                if (status != RECORD_LIVE) {
+                    continue;
+                }
+                // only live records are decoded
+                visitor.onRecord(new String(buffer, 0, length, RECORD_CHARSET), value);
+            }
+            validLength = offset;
+        } catch (IOException e) {
+            Log.d(TAG, "read record file failure" + e.toString());
+            return false;
+        } finally {
+            Utils.closeQuietly(in);
+        }
+        if (truncated) {
+            // records appended later would not be readable after the partial record
+            truncateRecordFile(file, validLength);
+        }
+        return true;
+    }
+
+    private static boolean truncateRecordFile(File file, long length) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(length);
+            return true;
+        } catch (IOException e) {
+            Log.d(TAG, "truncate record file failure" + e.toString());
+            return false;
+        } finally {
+            Utils.closeQuietly(raf);
+        }
+    }
+
+    private static boolean readRecordHeader(DataInputStream in) throws IOException {
+        return in.readInt() == RECORD_FILE_MAGIC && in.readInt() == RECORD_FILE_VERSION;
+    }
+
+    private static void writeRecord(DataOutputStream out, String key, int value) throws IOException {
+        byte[] bytes = key.getBytes(RECORD_CHARSET);
+        out.writeByte(RECORD_LIVE);
+        out.writeInt(value);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static boolean containsKey(List<byte[]> keys, byte[] key) {
+        for (byte[] candidate : keys) {
+            if (Arrays.equals(candidate, key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     static Gson buildGson() {
         GsonBuilder b = new GsonBuilder();
         b.registerTypeAdapter(Date.class, new TypeAdapter<Date>() {
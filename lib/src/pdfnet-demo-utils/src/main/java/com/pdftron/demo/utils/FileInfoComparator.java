@@ -10,6 +10,12 @@ import com.pdftron.pdf.model.FileInfo;
 
 import java.util.Comparator;
 
+/**
+ * Comparators of files. Comparators use the sort keys of files, which are captured once per file,
+ * instead of querying the file system and folding the case of names on each comparison.
+ *
+ * @see FileInfo#captureSortKeys()
+ */
 public class FileInfoComparator {
 
     private static Comparator<ExternalFileInfo> EXTERNAL_PATH_ORDER;
@@ -36,7 +42,7 @@ public class FileInfoComparator {
                     } else if (!lhs.isDirectory() && rhs.isDirectory()) {
                         return 1;
                     } else {
-                        return lhs.getFileName().compareToIgnoreCase(rhs.getFileName());
+                        return lhs.getNameSortKey().compareTo(rhs.getNameSortKey());
                     }
                 }
             };
@@ -60,7 +66,7 @@ public class FileInfoComparator {
                     } else if (!lhs.isDirectory() && rhs.isDirectory()) {
                         return 1;
                     } else {
-                        return rhs.getRawModifiedDate().compareTo(lhs.getRawModifiedDate());
+                        return compareDates(rhs.getModifiedDateSortKey(), lhs.getModifiedDateSortKey());
                     }
                 }
             };
@@ -81,7 +87,7 @@ public class FileInfoComparator {
                 @Override
                 public int compare(FileInfo lhs, FileInfo rhs) {
                     if (lhs.getType() == rhs.getType()) {
-                        return lhs.getAbsolutePath().compareToIgnoreCase(rhs.getAbsolutePath());
+                        return lhs.getPathSortKey().compareTo(rhs.getPathSortKey());
                     } else {
                         return lhs.getType() <= rhs.getType() ? -1 : 1;
                     }
@@ -103,7 +109,7 @@ public class FileInfoComparator {
                 @Override
                 public int compare(FileInfo lhs, FileInfo rhs) {
                     if (lhs.getType() == rhs.getType()) {
-                        return rhs.getRawModifiedDate().compareTo(lhs.getRawModifiedDate());
+                        return compareDates(rhs.getModifiedDateSortKey(), lhs.getModifiedDateSortKey());
                     } else {
                         return lhs.getType() <= rhs.getType() ? -1 : 1;
                     }
@@ -124,12 +130,12 @@ public class FileInfoComparator {
             ABSOLUTE_PATH_ORDER = new Comparator<FileInfo>() {
                 @Override
                 public int compare(FileInfo lhs, FileInfo rhs) {
-                    int parentPathCmp = lhs.getParentDirectoryPath().compareToIgnoreCase(rhs.getParentDirectoryPath());
+                    int parentPathCmp = lhs.getParentPathSortKey().compareTo(rhs.getParentPathSortKey());
                     if (parentPathCmp != 0) {
                         return parentPathCmp;
                     }
 
-                    return lhs.getAbsolutePath().compareToIgnoreCase(rhs.getAbsolutePath());
+                    return lhs.getPathSortKey().compareTo(rhs.getPathSortKey());
                 }
             };
         }
@@ -147,7 +153,7 @@ public class FileInfoComparator {
             FILE_NAME_ORDER = new Comparator<FileInfo>() {
                 @Override
                 public int compare(FileInfo lhs, FileInfo rhs) {
-                    return lhs.getName().compareToIgnoreCase(rhs.getName());
+                    return lhs.getNameSortKey().compareTo(rhs.getNameSortKey());
                 }
             };
         }
@@ -165,11 +171,11 @@ public class FileInfoComparator {
             MODIFIED_DATE_ORDER = new Comparator<FileInfo>() {
                 @Override
                 public int compare(FileInfo lhs, FileInfo rhs) {
-                    int parentPathCmp = lhs.getParentDirectoryPath().compareToIgnoreCase(rhs.getParentDirectoryPath());
+                    int parentPathCmp = lhs.getParentPathSortKey().compareTo(rhs.getParentPathSortKey());
                     if (parentPathCmp != 0) {
                         return parentPathCmp;
                     }
-                    return rhs.getRawModifiedDate().compareTo(lhs.getRawModifiedDate());
+                    return compareDates(rhs.getModifiedDateSortKey(), lhs.getModifiedDateSortKey());
                 }
             };
         }
@@ -187,7 +193,7 @@ public class FileInfoComparator {
             MODIFIED_DATE_ORDER_ONLY = new Comparator<FileInfo>() {
                 @Override
                 public int compare(FileInfo lhs, FileInfo rhs) {
-                    return rhs.getRawModifiedDate().compareTo(lhs.getRawModifiedDate());
+                    return compareDates(rhs.getModifiedDateSortKey(), lhs.getModifiedDateSortKey());
                 }
             };
         }
@@ -195,4 +201,8 @@ public class FileInfoComparator {
 
     }
 
+    private static int compareDates(long lhs, long rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+
 }
@@ -21,6 +21,7 @@ import android.system.OsConstants;
 import android.text.Editable;
 import android.text.Html;
 import android.text.TextWatcher;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnFocusChangeListener;
@@ -62,11 +63,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.Adler32;
 import java.util.zip.CheckedInputStream;
 import java.util.zip.CheckedOutputStream;
@@ -76,6 +82,7 @@ import java.util.zip.CheckedOutputStream;
  */
 public class FileManager {
     private static final String TAG = FileManager.class.getName();
+    private static final boolean DEBUG = false;
     public static final String CACHE_FILE_LIST_OBJECT_OLD = "cache_fileinfo_map";
     public static final String CACHE_FILE_LIST_OBJECT = "cache_fileinfo_map_v2";
 
@@ -141,15 +148,40 @@ public class FileManager {
 
     public static void merge(Context context, ArrayList<FileInfo> filesToMerge, ArrayList<FileInfo> filesToDelete,
                              final FileInfo targetFile, final FileManagementListener listener) {
-        new FileManager.MergeFileTask(context, filesToMerge, filesToDelete, targetFile, listener).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        merge(context, filesToMerge, filesToDelete, targetFile, false, listener);
     }
 
+    /**
+     * Merges files into a PDF file.
+     *
+     * @param context       The context
+     * @param filesToMerge  The files to merge, in order
+     * @param filesToDelete The temporary files to be deleted once merged
+     * @param targetFile    The merged file
+     * @param linearized    True if the merged file should be linearized (fast web view),
+     *                      so that it can be displayed while it is being streamed
+     * @param listener      The listener
+     */
+    public static void merge(Context context, ArrayList<FileInfo> filesToMerge, ArrayList<FileInfo> filesToDelete,
+                             final FileInfo targetFile, boolean linearized, final FileManagementListener listener) {
+        new FileManager.MergeFileTask(context, filesToMerge, filesToDelete, targetFile, linearized, listener).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Merges files into a PDF file.
+     * <p>
+     * Input files are opened, and converted if they are not PDF files, on a few threads while
+     * the pages of previous files are being imported. The number of inputs opened ahead is
+     * bounded, so that only a few input documents are in memory at any time. Inputs are imported
+     * in order and closed as soon as their pages have been imported.
+     */
     static class MergeFileTask extends CustomAsyncTask<Void, Integer, Void> {
 
         private ArrayList<FileInfo> mFiles;
         private ArrayList<FileInfo> mTempFiles;
 
         private FileInfo mTargetFile;
+        private boolean mLinearized;
         private FileManagementListener mListener;
         private ProgressDialog mProgressDialog;
         private Boolean mSuccess;
@@ -158,13 +190,38 @@ public class FileManager {
         final private Object mSetupProgressLock;
 
         private static final int SETUP_PROGRESS_FOR_MERGE = 1;
+        private static final int PROGRESS_FILE_MERGED = 2;
+
+        private static final int MAX_OPEN_THREADS = 3;
+        // inputs opened ahead of the one being imported
+        private static final int MAX_OPEN_INPUTS = 4;
+
+        /**
+         * An opened input document and the streams it is read from
+         */
+        private static class MergeInput {
+            PDFDoc mDoc; // null if the input is skipped
+            boolean mFailed;
+            SecondaryFileFilter mFilter;
+            InputStream mInputStream;
+
+            void close() {
+                Utils.closeQuietly(mDoc);
+                Utils.closeQuietly(mFilter);
+                Utils.closeQuietly(mInputStream);
+                mDoc = null;
+                mFilter = null;
+                mInputStream = null;
+            }
+        }
 
         MergeFileTask(Context context, ArrayList<FileInfo> filesToMerge, ArrayList<FileInfo> filesToDelete,
-                      FileInfo targetFile, FileManagementListener listener) {
+                      FileInfo targetFile, boolean linearized, FileManagementListener listener) {
             super(context);
             mFiles = filesToMerge;
             mTempFiles = filesToDelete;
             mTargetFile = targetFile;
+            mLinearized = linearized;
             mListener = listener;
             mSuccess = true;
             mSetupProgressLock = new Object();
@@ -177,7 +234,11 @@ public class FileManager {
             }
             mProgressDialog = new ProgressDialog(context);
             mProgressDialog.setTitle("");
-            mProgressDialog.setIndeterminate(true);
+            mProgressDialog.setIndeterminate(false);
+            mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            mProgressDialog.setProgress(0);
+            mProgressDialog.setMax(mFiles.size());
+            mProgressDialog.setProgressPercentFormat(null);
             mProgressDialog.setCancelable(false);
             mProgressDialog.setMessage(context.getResources().getString(R.string.merging_wait));
             if (!mProgressDialog.isShowing()) {
@@ -207,119 +268,177 @@ public class FileManager {
                 return null;
             }
             PDFDoc mergedDoc = null;
-            PDFDoc inDoc = null;
+            MergeInput input = null;
             boolean shouldUnlockRead = false;
             SecondaryFileFilter filter = null;
-            InputStream inputStream = null;
+            int fileCount = mFiles.size();
+            int threadCount = Math.max(1, Math.min(MAX_OPEN_THREADS, Math.min(Runtime.getRuntime().availableProcessors(), fileCount)));
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            ArrayDeque<Future<MergeInput>> openingInputs = new ArrayDeque<>();
+            long startTime = System.currentTimeMillis();
+            int pageCount = 0;
             try {
                 mergedDoc = new PDFDoc();
                 mergedDoc.initSecurityHandler();
 
-                for (int i = 0; i < mFiles.size(); i++) {
-                    // Add pages to end of merged doc
-                    FileInfo fileInfo = mFiles.get(i);
-                    int infoType = fileInfo.getType();
-                    ContentResolver cr = Utils.getContentResolver(getContext());
-                    if (cr == null) {
-                        return null;
-                    }
-                    switch (infoType) {
-                        case BaseFileInfo.FILE_TYPE_FILE:
-                            if (Utils.isNotPdf(fileInfo.getAbsolutePath())) {
-                                DocumentConversion conv = Convert.universalConversion(fileInfo.getAbsolutePath(), null);
-                                conv.convert();
-                                if (conv.getDoc() == null) {
-                                    mSuccess = false;
-                                    return null;
-                                }
-                                inDoc = conv.getDoc();
-                            } else {
-                                inDoc = new PDFDoc(fileInfo.getAbsolutePath());
-                            }
-                            break;
-                        case BaseFileInfo.FILE_TYPE_EXTERNAL:
-                        case BaseFileInfo.FILE_TYPE_OFFICE_URI:
-                            Uri uri = Uri.parse(fileInfo.getAbsolutePath());
-                            filter = new SecondaryFileFilter(getContext(), uri);
-
-                            if (Utils.isNotPdf(cr, uri)) {
-                                DocumentConversion conv = Convert.universalConversion(filter, null);
-                                conv.convert();
-                                if (conv.getDoc() == null) {
-                                    mSuccess = false;
-                                    return null;
-                                }
-                                inDoc = conv.getDoc();
-                            } else {
-                                inDoc = new PDFDoc(filter);
-                            }
-                            break;
-                        case BaseFileInfo.FILE_TYPE_EDIT_URI:
-                            inputStream = cr.openInputStream(Uri.parse(fileInfo.getAbsolutePath()));
-                            if (inputStream == null) {
-                                mSuccess = false;
-                                return null;
+                int nextInput = 0;
+                for (int i = 0; i < fileCount; i++) {
+                    // open the next inputs while this one is imported
+                    for (; nextInput < fileCount && nextInput <= i + MAX_OPEN_INPUTS; ++nextInput) {
+                        final FileInfo fileInfo = mFiles.get(nextInput);
+                        openingInputs.add(executor.submit(new Callable<MergeInput>() {
+                            @Override
+                            public MergeInput call() throws Exception {
+                                return openInput(fileInfo);
                             }
-                            inDoc = new PDFDoc(inputStream);
-                            break;
-                        default:
-                            continue;
+                        }));
                     }
-                    inDoc.lockRead();
-                    shouldUnlockRead = true;
-
-                    Page[] copyPages = new Page[inDoc.getPageCount()];
-                    PageIterator iterator = inDoc.getPageIterator();
-                    int j = 0;
-                    while (iterator.hasNext()) {
-                        Page page = iterator.next();
-                        copyPages[j++] = page;
+
+                    long fileStartTime = System.currentTimeMillis();
+                    input = openingInputs.poll().get();
+                    if (input.mFailed) {
+                        mSuccess = false;
+                        return null;
                     }
+                    if (input.mDoc != null) {
+                        // Add pages to end of merged doc
+                        PDFDoc inDoc = input.mDoc;
+                        inDoc.lockRead();
+                        shouldUnlockRead = true;
+
+                        Page[] copyPages = new Page[inDoc.getPageCount()];
+                        PageIterator iterator = inDoc.getPageIterator();
+                        int j = 0;
+                        while (iterator.hasNext()) {
+                            Page page = iterator.next();
+                            copyPages[j++] = page;
+                        }
 
-                    Page[] importedPages = mergedDoc.importPages(copyPages, true);
+                        Page[] importedPages = mergedDoc.importPages(copyPages, true);
 
-                    // Add imported pages to the merged doc's page sequence
-                    for (Page page : importedPages) {
-                        mergedDoc.pagePushBack(page);
-                    }
+                        // Add imported pages to the merged doc's page sequence
+                        for (Page page : importedPages) {
+                            mergedDoc.pagePushBack(page);
+                        }
+                        pageCount += importedPages.length;
 
-                    inDoc.unlockRead();
-                    shouldUnlockRead = false;
-                    Utils.closeQuietly(inDoc);
-                    Utils.closeQuietly(filter);
-                    inDoc = null;
-                    filter = null;
+                        inDoc.unlockRead();
+                        shouldUnlockRead = false;
+                        if (DEBUG) Log.d(TAG, "merged " + importedPages.length + " pages of file " + (i + 1)
+                            + "/" + fileCount + " in " + (System.currentTimeMillis() - fileStartTime) + "ms");
+                    }
+                    input.close();
+                    input = null;
+                    publishProgress(PROGRESS_FILE_MERGED, i + 1);
                 }
+
+                // linearized output also removes unused objects
+                SDFDoc.SaveMode saveMode = mLinearized ? SDFDoc.SaveMode.LINEARIZED : SDFDoc.SaveMode.REMOVE_UNUSED;
                 if (mTargetFile.getType() == BaseFileInfo.FILE_TYPE_FILE) {
-                    mergedDoc.save(mTargetFile.getAbsolutePath(), SDFDoc.SaveMode.REMOVE_UNUSED, null);
+                    mergedDoc.save(mTargetFile.getAbsolutePath(), saveMode, null);
                 } else if (mTargetFile.getType() == BaseFileInfo.FILE_TYPE_EXTERNAL) {
                     ContentResolver cr = Utils.getContentResolver(getContext());
                     if (cr == null) {
                         return null;
                     }
                     filter = new SecondaryFileFilter(getContext(), Uri.parse(mTargetFile.getAbsolutePath()));
-                    mergedDoc.save(filter, SDFDoc.SaveMode.REMOVE_UNUSED);
+                    mergedDoc.save(filter, saveMode);
                 } else {
                     mSuccess = false;
                     return null;
                 }
 
+                if (DEBUG) {
+                    long time = Math.max(1, System.currentTimeMillis() - startTime);
+                    Log.d(TAG, "merged " + fileCount + " files, " + pageCount + " pages in " + time + "ms ("
+                        + (pageCount * 1000L / time) + " pages/s, " + (mTargetFile.getSize() * 1000L / 1024 / time) + " KB/s)");
+                }
                 mSuccess = true;
             } catch (Exception e) {
                 mSuccess = false;
                 AnalyticsHandlerAdapter.getInstance().sendException(e);
             } finally {
                 if (shouldUnlockRead) {
-                    Utils.unlockReadQuietly(inDoc);
+                    Utils.unlockReadQuietly(input.mDoc);
+                }
+                if (input != null) {
+                    input.close();
                 }
-                Utils.closeQuietly(inDoc);
+                closeInputs(executor, openingInputs);
                 Utils.closeQuietly(mergedDoc);
                 Utils.closeQuietly(filter);
-                Utils.closeQuietly(inputStream);
             }
             return null;
         }
 
+        /**
+         * Opens an input file, converting it to PDF if needed. Called on the opening threads.
+         */
+        private MergeInput openInput(FileInfo fileInfo) throws Exception {
+            MergeInput input = new MergeInput();
+            ContentResolver cr = Utils.getContentResolver(getContext());
+            if (cr == null) {
+                input.mFailed = true;
+                return input;
+            }
+            try {
+                switch (fileInfo.getType()) {
+                    case BaseFileInfo.FILE_TYPE_FILE:
+                        if (Utils.isNotPdf(fileInfo.getAbsolutePath())) {
+                            DocumentConversion conv = Convert.universalConversion(fileInfo.getAbsolutePath(), null);
+                            conv.convert();
+                            input.mDoc = conv.getDoc();
+                            input.mFailed = input.mDoc == null;
+                        } else {
+                            input.mDoc = new PDFDoc(fileInfo.getAbsolutePath());
+                        }
+                        break;
+                    case BaseFileInfo.FILE_TYPE_EXTERNAL:
+                    case BaseFileInfo.FILE_TYPE_OFFICE_URI:
+                        Uri uri = Uri.parse(fileInfo.getAbsolutePath());
+                        input.mFilter = new SecondaryFileFilter(getContext(), uri);
+
+                        if (Utils.isNotPdf(cr, uri)) {
+                            DocumentConversion conv = Convert.universalConversion(input.mFilter, null);
+                            conv.convert();
+                            input.mDoc = conv.getDoc();
+                            input.mFailed = input.mDoc == null;
+                        } else {
+                            input.mDoc = new PDFDoc(input.mFilter);
+                        }
+                        break;
+                    case BaseFileInfo.FILE_TYPE_EDIT_URI:
+                        input.mInputStream = cr.openInputStream(Uri.parse(fileInfo.getAbsolutePath()));
+                        if (input.mInputStream == null) {
+                            input.mFailed = true;
+                        } else {
+                            input.mDoc = new PDFDoc(input.mInputStream);
+                        }
+                        break;
+                }
+            } catch (Exception e) {
+                input.close();
+                throw e;
+            }
+            return input;
+        }
+
+        /**
+         * Stops opening inputs and closes the inputs that were opened but not imported.
+         */
+        private static void closeInputs(ExecutorService executor, ArrayDeque<Future<MergeInput>> openingInputs) {
+            executor.shutdown();
+            for (Future<MergeInput> future : openingInputs) {
+                if (!future.cancel(false)) {
+                    try {
+                        future.get().close();
+                    } catch (Exception ignored) {
+                    }
+                }
+            }
+            openingInputs.clear();
+        }
+
         @Override
         public void onProgressUpdate(Integer... val) {
             super.onProgressUpdate(val);
@@ -333,6 +452,8 @@ public class FileManager {
                 synchronized (mSetupProgressLock) {
                     mSetupProgressLock.notify();
                 }
+            } else if (val[0] == PROGRESS_FILE_MERGED && mProgressDialog != null) {
+                mProgressDialog.setProgress(val[1]);
             }
         }
 
@@ -1017,7 +1138,12 @@ public class FileManager {
             fileInfoMap.put(fileName, fileType);
         }
         try {
-            CacheUtils.writeDataMapFile(CACHE_FILE_LIST_OBJECT, fileInfoMap);
+            if (CacheUtils.writeRecordFile(CACHE_FILE_LIST_OBJECT, fileInfoMap)) {
+                // the json cache of previous versions is superseded
+                if (CacheUtils.hasCache(CACHE_FILE_LIST_OBJECT)) {
+                    CacheUtils.deleteFile(CACHE_FILE_LIST_OBJECT);
+                }
+            }
         } catch (OutOfMemoryError oom) {
             MiscUtils.manageOOM(null);
         } catch (Exception e) {
@@ -1028,15 +1154,19 @@ public class FileManager {
     public static ArrayList<FileInfo> retrieveCache() throws IllegalStateException {
         MiscUtils.throwIfOnMainThread();
         try {
-            // note the second entry should be considered as Double rather than Integer: https://goo.gl/XzXD5D
-            LinkedHashMap<String, Double> fileInfoMap = CacheUtils.readDataMapFile(CACHE_FILE_LIST_OBJECT);
-            ArrayList<FileInfo> result = new ArrayList<>();
-            for (Map.Entry<String, Double> entry : fileInfoMap.entrySet()) {
-                String filename = entry.getKey();
-                double value = entry.getValue();
-                int fileType = (int) value;
-                FileInfo fileInfo = new FileInfo(fileType, new File(filename));
-                result.add(fileInfo);
+            final ArrayList<FileInfo> result = new ArrayList<>();
+            if (CacheUtils.readRecordFile(CACHE_FILE_LIST_OBJECT, new CacheUtils.RecordVisitor() {
+                @Override
+                public void onRecord(String key, int value) {
+                    result.add(new FileInfo(value, new File(key)));
+                }
+            })) {
+                return result;
+            }
+            if (CacheUtils.hasCache(CACHE_FILE_LIST_OBJECT)) {
+                // migrate the json cache of previous versions
+                result.addAll(retrieveJsonCache());
+                saveCache(result);
             }
             return result;
         } catch (Exception e) {
@@ -1045,6 +1175,59 @@ public class FileManager {
         }
     }
 
+    /**
+     * Updates the cached file list in place, without reading and rewriting the whole cache.
+     *
+     * @param removeList the files to remove from the cache
+     * @param addList the files to add to the cache
+     * @return true if the cache was updated; false if there is no cache yet
+     */
+    public static boolean updateCache(List<FileInfo> removeList, List<FileInfo> addList) throws IllegalStateException {
+        MiscUtils.throwIfOnMainThread();
+        if (!CacheUtils.hasRecordFile(CACHE_FILE_LIST_OBJECT)) {
+            if (!CacheUtils.hasCache(CACHE_FILE_LIST_OBJECT)) {
+                return false;
+            }
+            // migrate the json cache of previous versions first
+            if (retrieveCache() == null) {
+                return false;
+            }
+        }
+        try {
+            ArrayList<String> keys = new ArrayList<>();
+            if (removeList != null) {
+                for (FileInfo fileInfo : removeList) {
+                    keys.add(fileInfo.getAbsolutePath());
+                }
+            }
+            // files already in the cache are replaced, not recorded twice
+            LinkedHashMap<String, Integer> fileInfoMap = new LinkedHashMap<>();
+            if (addList != null) {
+                for (FileInfo fileInfo : addList) {
+                    fileInfoMap.put(fileInfo.getAbsolutePath(), fileInfo.getType());
+                }
+            }
+            return CacheUtils.replaceRecords(CACHE_FILE_LIST_OBJECT, keys, fileInfoMap);
+        } catch (Exception e) {
+            AnalyticsHandlerAdapter.getInstance().sendException(e);
+            return false;
+        }
+    }
+
+    private static ArrayList<FileInfo> retrieveJsonCache() {
+        // note the second entry should be considered as Double rather than Integer: https://goo.gl/XzXD5D
+        LinkedHashMap<String, Double> fileInfoMap = CacheUtils.readDataMapFile(CACHE_FILE_LIST_OBJECT);
+        ArrayList<FileInfo> result = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : fileInfoMap.entrySet()) {
+            String filename = entry.getKey();
+            double value = entry.getValue();
+            int fileType = (int) value;
+            FileInfo fileInfo = new FileInfo(fileType, new File(filename));
+            result.add(fileInfo);
+        }
+        return result;
+    }
+
     private static class DuplicateFileTask extends CustomAsyncTask<Void, Void, Void> {
 
         private FileManagementListener mFileManagementListener;
@@ -1434,7 +1617,6 @@ public class FileManager {
     public static class ChangeCacheFileTask extends AsyncTask<Void, Void, Void> {
         ArrayList<FileInfo> deleteFiles;
         ArrayList<FileInfo> addFiles;
-        ArrayList<FileInfo> cacheFiles;
         private boolean isChanged = false;
         final private Object cacheLock;
 
@@ -1481,36 +1663,13 @@ public class FileManager {
 
         @Override
         protected Void doInBackground(Void... params) {
-            synchronized (cacheLock) {
-                cacheFiles = retrieveCache();
-            }
-            if (cacheFiles == null) {
+            if (deleteFiles.isEmpty() && addFiles.isEmpty()) {
                 return null;
             }
-            if (null != deleteFiles && !deleteFiles.isEmpty()) {
-                Logger.INSTANCE.LogD(TAG, "deleteFiles.size = " + deleteFiles.size());
-
-                for (FileInfo file : deleteFiles) {
-                    for (int i = 0; i < cacheFiles.size(); i++) {
-                        if (file.getAbsolutePath().equals(cacheFiles.get(i).getAbsolutePath())) {
-                            cacheFiles.remove(i);
-                            isChanged = true;
-                            break;
-                        }
-                    }
-                }
-            }
-
-            if (null != addFiles && !addFiles.isEmpty()) {
-                Logger.INSTANCE.LogD(TAG, "addFiles.size = " + addFiles.size());
-                cacheFiles.addAll(addFiles);
-                isChanged = true;
-            }
-
-            if (isChanged && cacheFiles != null) {
-                Logger.INSTANCE.LogD(TAG, "save cache file to cache");
-
-                saveCache(cacheFiles);
+            Logger.INSTANCE.LogD(TAG, "deleteFiles.size = " + deleteFiles.size() + ", addFiles.size = " + addFiles.size());
+            synchronized (cacheLock) {
+                // records are removed and appended in place; the cache is not read back
+                isChanged = updateCache(deleteFiles, addFiles);
             }
             return null;
         }
@@ -571,7 +571,8 @@ public class MiscUtils {
     }
 
     /**
-     * Sorts file info list according to sort setting
+     * Sorts file info list according to sort setting. The sort keys of files are
+     * captured before sorting, so that each file is queried once.
      *
      * @param list     A list of file info
      * @param sortMode The sort mode
@@ -583,6 +584,9 @@ public class MiscUtils {
 
         MiscUtils.throwIfOnMainThread();
         try {
+            for (int i = 0, count = list.size(); i < count; ++i) {
+                list.get(i).captureSortKeys();
+            }
             Collections.sort(list, sortMode);
         } catch (Exception e) {
             AnalyticsHandlerAdapter.getInstance().sendException(e, "mode: " + sortMode.toString());
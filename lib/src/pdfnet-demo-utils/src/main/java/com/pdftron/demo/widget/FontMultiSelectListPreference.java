@@ -14,19 +14,13 @@ import android.util.AttributeSet;
 import android.util.Log;
 
 import com.pdftron.demo.R;
-import com.pdftron.pdf.PDFNet;
-import com.pdftron.pdf.model.FontResource;
 import com.pdftron.pdf.tools.Tool;
 import com.pdftron.pdf.utils.AnalyticsHandlerAdapter;
+import com.pdftron.pdf.utils.FontCatalog;
 import com.pdftron.pdf.utils.PdfViewCtrlSettingsManager;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
 
 public class FontMultiSelectListPreference extends MultiSelectListPreference {
 
@@ -72,7 +66,7 @@ public class FontMultiSelectListPreference extends MultiSelectListPreference {
         setPositiveButtonText(null);
 
         // start to collect entries in background process
-        mPopulateFontInfoTask = new PopulateFontInfoTask();
+        mPopulateFontInfoTask = new PopulateFontInfoTask(getContext());
         mPopulateFontInfoTask.setCallback(new PopulateFontInfoTask.Callback() {
             @Override
             public void getFontInfo(HashSet<String> defaultValues, CharSequence[] entries, CharSequence[] entryValues) {
@@ -179,26 +173,9 @@ public class FontMultiSelectListPreference extends MultiSelectListPreference {
                 };
     }
 
-    private static class FontPreferenceResource {
-        private CharSequence mEntry;
-        private CharSequence mEntryValue;
-
-        FontPreferenceResource(CharSequence entry, CharSequence entryValue) {
-            mEntry = entry;
-            mEntryValue = entryValue;
-        }
-
-        CharSequence getEntry() {
-            return mEntry;
-        }
-
-        CharSequence getEntryValue() {
-            return mEntryValue;
-        }
-    }
-
     private static class PopulateFontInfoTask extends AsyncTask<Void, Void, Exception> {
 
+        Context mContext;
         Callback mCallback;
         CharSequence[] mEntries;
         CharSequence[] mEntryValues;
@@ -211,6 +188,10 @@ public class FontMultiSelectListPreference extends MultiSelectListPreference {
             void getFontInfo(HashSet<String> defaultValues, CharSequence[] entries, CharSequence[] entryValues);
         }
 
+        PopulateFontInfoTask(Context context) {
+            mContext = context.getApplicationContext();
+        }
+
         /**
          * Sets the callback listener.
          *
@@ -225,57 +206,26 @@ public class FontMultiSelectListPreference extends MultiSelectListPreference {
         @Override
         protected Exception doInBackground(Void... params) {
             try {
-                String fontInfo = PDFNet.getSystemFontList();
+                List<FontCatalog.Font> fonts = FontCatalog.getInstance(mContext).getFonts();
 
                 if (isCancelled()) {
                     return null;
                 }
 
-                fontInfo = FontResource.whiteListFonts(fontInfo);
-
-                JSONObject systemFontObject = new JSONObject(fontInfo);
-                JSONArray systemFontArray = systemFontObject.getJSONArray(Tool.ANNOTATION_FREE_TEXT_JSON_FONT);
-
-                ArrayList<FontPreferenceResource> tempEntries = new ArrayList<>();
-
-                for (int i = 0, cnt = systemFontArray.length(); i < cnt; i++) {
-                    JSONObject font = systemFontArray.getJSONObject(i);
-                    String entry = font.getString(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_DISPLAY_NAME);
-                    String entryValue = font.getString(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_FILE_PATH);
-                    tempEntries.add(new FontPreferenceResource(entry, entryValue));
+                // the catalog is sorted by display name already
+                int count = fonts.size();
+                mEntries = new CharSequence[count];
+                mEntryValues = new CharSequence[count];
+                for (int i = 0; i < count; i++) {
+                    FontCatalog.Font font = fonts.get(i);
+                    mEntries[i] = font.getDisplayName();
+                    mEntryValues[i] = font.getFilePath();
 
                     // set default values
-                    String whiteList = font.getString(Tool.ANNOTATION_FREE_TEXT_JSON_FONT_DISPLAY_IN_LIST);
-                    if (whiteList.equals("true")) {
-                        mDefaultValues.add(entryValue);
+                    if (font.isWhiteListed()) {
+                        mDefaultValues.add(font.getFilePath());
                     }
                 }
-
-                if (isCancelled()) {
-                    return null;
-                }
-
-                // sort entries and entry values
-                Collections.sort(tempEntries, new Comparator<FontPreferenceResource>() {
-                    @Override
-                    public int compare(FontPreferenceResource lhs, FontPreferenceResource rhs) {
-                        String lhsEntry = lhs.getEntry().toString();
-                        String rhsEntry = rhs.getEntry().toString();
-                        return lhsEntry.compareTo(rhsEntry);
-                    }
-                });
-
-                if (isCancelled()) {
-                    return null;
-                }
-
-                // set arrays
-                mEntries = new CharSequence[systemFontArray.length()];
-                mEntryValues = new CharSequence[systemFontArray.length()];
-                for (int i = 0; i < systemFontArray.length(); i++) {
-                    mEntries[i] = tempEntries.get(i).getEntry();
-                    mEntryValues[i] = tempEntries.get(i).getEntryValue();
-                }
             } catch (Exception e) {
                 return e;
             }
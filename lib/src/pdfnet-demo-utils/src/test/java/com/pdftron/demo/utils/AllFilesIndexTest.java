@@ -0,0 +1,190 @@
+package com.pdftron.demo.utils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests of {@link AllFilesIndex}.
+ */
+public class AllFilesIndexTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mIndexFile;
+    private File mRoot;
+
+    @Before
+    public void setUp() throws Exception {
+        mIndexFile = new File(mFolder.getRoot(), "index.bin");
+        mRoot = mFolder.newFolder("storage");
+    }
+
+    @Test
+    public void get_unchangedFolder_isReused() throws Exception {
+        File folder = newFolder("docs", 1000000L);
+        AllFilesIndex index = newIndex();
+        index.put(folder, folder(folder, new String[]{"a.pdf", "b.pdf"}, new String[]{"sub"}));
+
+        AllFilesIndex.Folder entry = index.get(folder, folder.lastModified());
+        assertNotNull(entry);
+        assertArrayEquals(new String[]{"a.pdf", "b.pdf"}, entry.getFileNames());
+        assertArrayEquals(new String[]{"sub"}, entry.getFolderNames());
+    }
+
+    @Test
+    public void get_changedFolder_isListedAgain() throws Exception {
+        File folder = newFolder("docs", 1000000L);
+        AllFilesIndex index = newIndex();
+        index.put(folder, folder(folder, new String[]{"a.pdf"}, new String[0]));
+
+        // adding a file changes the modification time of the folder
+        assertTrue(new File(folder, "b.pdf").createNewFile());
+        assertTrue(folder.setLastModified(2000000L));
+        assertNull(index.get(folder, folder.lastModified()));
+    }
+
+    @Test
+    public void get_unknownTime_isNotTrusted() throws Exception {
+        File folder = new File(mRoot, "missing");
+        AllFilesIndex index = newIndex();
+        index.put(folder, new AllFilesIndex.Folder(0, new String[]{"a.pdf"}, new String[0]));
+
+        // File.lastModified() returns 0 for a folder that cannot be read
+        assertNull(index.get(folder, 0));
+    }
+
+    @Test
+    public void saveAndLoad_keepsFolders() throws Exception {
+        File docs = newFolder("docs", 1000000L);
+        File music = newFolder("music", 3000000L);
+        AllFilesIndex index = newIndex();
+        index.put(docs, folder(docs, new String[]{"a.pdf", "ü ß.docx"}, new String[]{"sub"}));
+        index.put(music, folder(music, new String[0], new String[0]));
+        index.save();
+        assertTrue(mIndexFile.exists());
+
+        AllFilesIndex loaded = newIndex();
+        AllFilesIndex.Folder entry = loaded.get(docs, docs.lastModified());
+        assertNotNull(entry);
+        assertArrayEquals(new String[]{"a.pdf", "ü ß.docx"}, entry.getFileNames());
+        assertArrayEquals(new String[]{"sub"}, entry.getFolderNames());
+        entry = loaded.get(music, music.lastModified());
+        assertNotNull(entry);
+        assertEquals(0, entry.getFileNames().length);
+        assertEquals(0, entry.getFolderNames().length);
+    }
+
+    @Test
+    public void save_unchanged_doesNotWrite() throws Exception {
+        File docs = newFolder("docs", 1000000L);
+        AllFilesIndex index = newIndex();
+        index.put(docs, folder(docs, new String[]{"a.pdf"}, new String[0]));
+        index.save();
+        assertTrue(mIndexFile.setLastModified(5000000L));
+
+        index.save();
+        newIndex().save();
+        assertEquals(5000000L, mIndexFile.lastModified());
+    }
+
+    @Test
+    public void load_corruptIndex_startsEmpty() throws Exception {
+        File docs = newFolder("docs", 1000000L);
+        AllFilesIndex index = newIndex();
+        index.put(docs, folder(docs, new String[]{"a.pdf"}, new String[0]));
+        index.save();
+
+        // truncate the index in the middle of an entry
+        byte[] data = new byte[(int) mIndexFile.length() - 4];
+        FileInputStream in = new FileInputStream(mIndexFile);
+        try {
+            assertEquals(data.length, in.read(data));
+        } finally {
+            in.close();
+        }
+        FileOutputStream out = new FileOutputStream(mIndexFile);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+
+        assertNull(newIndex().get(docs, docs.lastModified()));
+    }
+
+    @Test
+    public void retainVisited_removesFoldersNotVisitedUnderRoots() throws Exception {
+        File docs = newFolder("docs", 1000000L);
+        File deleted = newFolder("deleted", 1000000L);
+        File other = new File(mFolder.getRoot(), "storage2");
+        File otherDocs = new File(other, "docs");
+        assertTrue(otherDocs.mkdirs());
+        assertTrue(otherDocs.setLastModified(1000000L));
+        // shares a prefix with the root, but is not under it
+        File sibling = new File(mRoot.getAbsolutePath() + "-sibling");
+        assertTrue(sibling.mkdirs());
+        assertTrue(sibling.setLastModified(1000000L));
+
+        AllFilesIndex index = newIndex();
+        for (File folder : Arrays.asList(mRoot, docs, deleted, otherDocs, sibling)) {
+            index.put(folder, folder(folder, new String[0], new String[0]));
+        }
+        HashSet<String> visited = new HashSet<>(Arrays.asList(mRoot.getAbsolutePath(), docs.getAbsolutePath()));
+        index.retainVisited(Collections.singleton(mRoot.getAbsolutePath()), visited);
+
+        assertNotNull(index.get(mRoot, mRoot.lastModified()));
+        assertNotNull(index.get(docs, docs.lastModified()));
+        assertNull(index.get(deleted, deleted.lastModified()));
+        // folders of roots that were not traversed are kept
+        assertNotNull(index.get(otherDocs, otherDocs.lastModified()));
+        assertNotNull(index.get(sibling, sibling.lastModified()));
+    }
+
+    @Test
+    public void retainVisited_allVisited_doesNotWrite() throws Exception {
+        File docs = newFolder("docs", 1000000L);
+        AllFilesIndex index = newIndex();
+        index.put(docs, folder(docs, new String[0], new String[0]));
+        index.save();
+        assertTrue(mIndexFile.setLastModified(5000000L));
+
+        AllFilesIndex loaded = newIndex();
+        loaded.retainVisited(Collections.singleton(mRoot.getAbsolutePath()),
+            new HashSet<>(Collections.singletonList(docs.getAbsolutePath())));
+        loaded.save();
+        assertEquals(5000000L, mIndexFile.lastModified());
+    }
+
+    private AllFilesIndex newIndex() {
+        AllFilesIndex index = new AllFilesIndex(mIndexFile);
+        index.load();
+        return index;
+    }
+
+    private File newFolder(String name, long lastModified) {
+        File folder = new File(mRoot, name);
+        assertTrue(folder.mkdirs());
+        assertTrue(folder.setLastModified(lastModified));
+        return folder;
+    }
+
+    private static AllFilesIndex.Folder folder(File folder, String[] fileNames, String[] folderNames) {
+        return new AllFilesIndex.Folder(folder.lastModified(), fileNames, folderNames);
+    }
+}
@@ -0,0 +1,101 @@
+package com.pdftron.demo.utils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests of the record files of {@link CacheUtils}.
+ */
+public class CacheUtilsTest {
+
+    private static final String FILE_NAME = "records";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        CacheUtils.BASE_CACHE_PATH = mFolder.getRoot().getAbsolutePath();
+    }
+
+    @Test
+    public void writeAndRead_keepsOrder() throws Exception {
+        CacheUtils.writeRecordFile(FILE_NAME, records("/a.pdf", 1, "/b.pdf", 2, "/c.pdf", 3));
+        assertEquals(Arrays.asList("/a.pdf=1", "/b.pdf=2", "/c.pdf=3"), read());
+    }
+
+    @Test
+    public void replaceRecords_doesNotDuplicateExistingKeys() throws Exception {
+        CacheUtils.writeRecordFile(FILE_NAME, records("/a.pdf", 1, "/b.pdf", 2));
+
+        // adding a file that is already recorded replaces it
+        assertTrue(CacheUtils.replaceRecords(FILE_NAME, Collections.<String>emptyList(), records("/a.pdf", 1)));
+        assertTrue(CacheUtils.replaceRecords(FILE_NAME, Collections.<String>emptyList(), records("/a.pdf", 1)));
+        assertEquals(Arrays.asList("/b.pdf=2", "/a.pdf=1"), read());
+
+        // moving a file removes the old path and adds the new one
+        assertTrue(CacheUtils.replaceRecords(FILE_NAME, Collections.singletonList("/b.pdf"), records("/d/b.pdf", 2)));
+        assertEquals(Arrays.asList("/a.pdf=1", "/d/b.pdf=2"), read());
+    }
+
+    @Test
+    public void replaceRecords_compactsRemovedRecords() throws Exception {
+        CacheUtils.writeRecordFile(FILE_NAME, records("/a.pdf", 1));
+        for (int i = 0; i < 200; ++i) {
+            assertTrue(CacheUtils.replaceRecords(FILE_NAME, Collections.<String>emptyList(), records("/b.pdf", 2)));
+        }
+        assertEquals(Arrays.asList("/a.pdf=1", "/b.pdf=2"), read());
+    }
+
+    @Test
+    public void readRecordFile_skipsTruncatedLastRecord() throws Exception {
+        CacheUtils.writeRecordFile(FILE_NAME, records("/a.pdf", 1, "/b.pdf", 2));
+        File file = new File(mFolder.getRoot(), FILE_NAME + ".bin");
+        long length = file.length();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // cut the last record in the middle of its key
+            raf.setLength(length - 3);
+        } finally {
+            raf.close();
+        }
+
+        assertEquals(Collections.singletonList("/a.pdf=1"), read());
+
+        // records appended after the partial record are readable
+        assertTrue(CacheUtils.appendRecords(FILE_NAME, records("/c.pdf", 3)));
+        assertEquals(Arrays.asList("/a.pdf=1", "/c.pdf=3"), read());
+    }
+
+    private static LinkedHashMap<String, Integer> records(Object... keysAndValues) {
+        LinkedHashMap<String, Integer> records = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            records.put((String) keysAndValues[i], (Integer) keysAndValues[i + 1]);
+        }
+        return records;
+    }
+
+    private static List<String> read() {
+        final ArrayList<String> result = new ArrayList<>();
+        assertTrue(CacheUtils.readRecordFile(FILE_NAME, new CacheUtils.RecordVisitor() {
+            @Override
+            public void onRecord(String key, int value) {
+                result.add(key + "=" + value);
+            }
+        }));
+        return result;
+    }
+}
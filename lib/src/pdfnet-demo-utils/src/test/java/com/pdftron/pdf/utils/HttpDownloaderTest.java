@@ -0,0 +1,215 @@
+package com.pdftron.pdf.utils;
+
+import android.content.ContextWrapper;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit tests of {@link HttpDownloader}, against a local stand-in server.
+ */
+public class HttpDownloaderTest {
+
+    private static final String URL = "http://example.com/file.pdf";
+    private static final int FILE_SIZE = 10 * 1024 * 1024; // large enough to be downloaded in ranges
+    private static final String ETAG = "\"v1\"";
+
+    private enum Mode {
+        RANGES, // answers ranges with 206
+        IGNORE_RANGES, // answers every request with the whole file
+        WRONG_RANGES // answers ranges with 206, always from the start of the file
+    }
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private HttpServer mServer;
+    private byte[] mData;
+    private volatile Mode mMode = Mode.RANGES;
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mRangeRequests = new AtomicInteger();
+    private final AtomicInteger mWholeFileRequests = new AtomicInteger();
+    private final AtomicInteger mNotModified = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        mData = new byte[FILE_SIZE];
+        new Random(1).nextBytes(mData);
+
+        mServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void download_inRanges() throws Exception {
+        File destination = mFolder.newFile("ranges.pdf");
+        assertTrue(newDownloader().download(destination));
+
+        assertArrayEquals(mData, read(destination));
+        // the first range is read from the initial response
+        assertEquals(3, mRequests.get());
+        assertEquals(2, mRangeRequests.get());
+    }
+
+    @Test
+    public void download_rangesIgnored_restartsInOneRange() throws Exception {
+        mMode = Mode.IGNORE_RANGES;
+        File destination = mFolder.newFile("ignored.pdf");
+        assertTrue(newDownloader().download(destination));
+
+        assertArrayEquals(mData, read(destination));
+        // the whole file sent for a range is used to start over, without a new request
+        assertEquals(1, mWholeFileRequests.get());
+    }
+
+    @Test
+    public void download_wrongContentRange_fails() throws Exception {
+        mMode = Mode.WRONG_RANGES;
+        File destination = mFolder.newFile("wrong.pdf");
+        try {
+            newDownloader().download(destination);
+            fail("a range that does not start at the requested offset must not be written");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("unexpected range"));
+        }
+    }
+
+    @Test
+    public void download_notModified_usesCachedFile() throws Exception {
+        assertTrue(newDownloader().download(mFolder.newFile("first.pdf")));
+        int requests = mRequests.get();
+
+        File destination = mFolder.newFile("second.pdf");
+        assertTrue(newDownloader().download(destination));
+
+        assertArrayEquals(mData, read(destination));
+        assertEquals(requests + 1, mRequests.get());
+        assertEquals(1, mNotModified.get());
+    }
+
+    @Test
+    public void cancel_returnsFalse() throws Exception {
+        HttpDownloader downloader = newDownloader();
+        downloader.cancel();
+        assertFalse(downloader.download(mFolder.newFile("cancelled.pdf")));
+    }
+
+    private HttpDownloader newDownloader() throws IOException {
+        final File cacheDir = mFolder.getRoot();
+        ContextWrapper context = new ContextWrapper(null) {
+            @Override
+            public File getCacheDir() {
+                return cacheDir;
+            }
+        };
+        final int port = mServer.getAddress().getPort();
+        return new HttpDownloader(context, URL) {
+            @Override
+            protected HttpURLConnection openConnection(URL url) throws IOException {
+                return super.openConnection(new URL("http", "localhost", port, url.getFile()));
+            }
+        };
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        mRequests.incrementAndGet();
+        exchange.getResponseHeaders().add("ETag", ETAG);
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+
+        if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            mNotModified.incrementAndGet();
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+            exchange.close();
+            return;
+        }
+
+        int start = 0;
+        int end = mData.length; // exclusive
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range == null) {
+            mWholeFileRequests.incrementAndGet();
+        }
+        if (range != null && mMode != Mode.IGNORE_RANGES) {
+            mRangeRequests.incrementAndGet();
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            start = Integer.parseInt(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Integer.parseInt(bounds[1]) + 1;
+            }
+            int sentStart = mMode == Mode.WRONG_RANGES ? 0 : start;
+            int sentEnd = sentStart + end - start;
+            exchange.getResponseHeaders().add("Content-Range",
+                "bytes " + sentStart + "-" + (sentEnd - 1) + "/" + mData.length);
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_PARTIAL, sentEnd - sentStart);
+            start = sentStart;
+            end = sentEnd;
+        } else {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, mData.length);
+        }
+
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(mData, start, end - start);
+        } catch (IOException ignored) {
+            // the client stopped reading
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read == -1) {
+                    break;
+                }
+                offset += read;
+            }
+        } finally {
+            in.close();
+        }
+        return Arrays.copyOf(data, (int) file.length());
+    }
+}
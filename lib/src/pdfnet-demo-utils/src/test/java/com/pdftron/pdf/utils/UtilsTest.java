@@ -0,0 +1,161 @@
+package com.pdftron.pdf.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests of the case-insensitive sort keys of {@link Utils}.
+ */
+public class UtilsTest {
+
+    // characters whose upper and lower case do not map back to each other
+    private static final String[] SPECIAL_STRINGS = {
+        "", "a", "A", "b", "B", "z", "Z", "_", "0",
+        "straße", "STRASSE", "strasse", "Straße", "ß", "ẞ", "ss", "SS",
+        "İstanbul", "istanbul", "Istanbul", "ıstanbul", "İ", "I", "i", "ı",
+        "ſ", "s", "S", "ſtop", "stop", "STOP",
+        "σ", "ς", "Σ", "ΟΔΟΣ", "οδος", "οδοσ", "οδος.pdf",
+        "ǅ", "ǆ", "Ǆ", "K", "k", "K", "Å", "å", "Å", "µ", "μ", "Μ",
+        "file.pdf", "File.PDF", "file1.pdf", "file10.pdf", "file2.pdf", "FILE_2.pdf"
+    };
+
+    // a mix of ASCII, Latin, Greek and Cyrillic letters, digits and punctuation of file names
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 ._-()"
+        + "ßẞİıſÅåKµσςΣΟΔοδǅǆǄéÉüÜøØæÆабвгдАБВГДёЁ";
+
+    private static final int[] BENCHMARK_SIZES = {1000, 10000, 50000};
+
+    @Test
+    public void getCaseInsensitiveSortKey_null() {
+        assertEquals("", Utils.getCaseInsensitiveSortKey(null));
+    }
+
+    @Test
+    public void getCaseInsensitiveSortKey_specialCharacters() {
+        for (String a : SPECIAL_STRINGS) {
+            for (String b : SPECIAL_STRINGS) {
+                assertSameOrder(a, b);
+            }
+        }
+    }
+
+    @Test
+    public void getCaseInsensitiveSortKey_allCharacters() {
+        // every character of the Basic Multilingual Plane against its case variants and neighbours
+        for (int i = 0; i <= Character.MAX_VALUE; ++i) {
+            char c = (char) i;
+            if (Character.isSurrogate(c)) {
+                continue;
+            }
+            String str = String.valueOf(c);
+            assertSameOrder(str, String.valueOf(Character.toUpperCase(c)));
+            assertSameOrder(str, String.valueOf(Character.toLowerCase(c)));
+            assertSameOrder(str, String.valueOf(Character.toTitleCase(c)));
+            if (i > 0) {
+                assertSameOrder(str, String.valueOf((char) (i - 1)));
+            }
+        }
+    }
+
+    @Test
+    public void getCaseInsensitiveSortKey_randomNames() {
+        Random random = new Random(1);
+        List<String> names = randomNames(random, 2000);
+        for (int i = 1; i < names.size(); ++i) {
+            assertSameOrder(names.get(i - 1), names.get(i));
+        }
+    }
+
+    /**
+     * Sorts 1k, 10k and 50k names by comparing them with {@link String#compareToIgnoreCase(String)}
+     * and by comparing their sort keys, which includes the time to compute the keys.
+     */
+    @Test
+    public void getCaseInsensitiveSortKey_sortBenchmark() {
+        Random random = new Random(2);
+        for (int size : BENCHMARK_SIZES) {
+            List<String> names = randomNames(random, size);
+
+            // warm up
+            sortIgnoreCase(new ArrayList<>(names));
+            sortByKey(new ArrayList<>(names));
+
+            List<String> ignoreCase = new ArrayList<>(names);
+            long start = System.nanoTime();
+            sortIgnoreCase(ignoreCase);
+            long ignoreCaseTime = System.nanoTime() - start;
+
+            List<String> byKey = new ArrayList<>(names);
+            start = System.nanoTime();
+            sortByKey(byKey);
+            long byKeyTime = System.nanoTime() - start;
+
+            assertEquals(ignoreCase, byKey);
+            System.out.println(String.format("sorted %d names: compareToIgnoreCase %.2fms, sort keys %.2fms",
+                size, ignoreCaseTime / 1e6, byKeyTime / 1e6));
+        }
+    }
+
+    private static void assertSameOrder(String a, String b) {
+        int expected = Integer.signum(a.compareToIgnoreCase(b));
+        int actual = Integer.signum(Utils.getCaseInsensitiveSortKey(a).compareTo(Utils.getCaseInsensitiveSortKey(b)));
+        assertEquals("\"" + a + "\" vs \"" + b + "\"", expected, actual);
+    }
+
+    private static List<String> randomNames(Random random, int count) {
+        List<String> names = new ArrayList<>(count);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            builder.setLength(0);
+            int length = 1 + random.nextInt(30);
+            for (int j = 0; j < length; ++j) {
+                builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            names.add(builder.toString());
+        }
+        return names;
+    }
+
+    private static void sortIgnoreCase(List<String> names) {
+        Collections.sort(names, new Comparator<String>() {
+            @Override
+            public int compare(String lhs, String rhs) {
+                return lhs.compareToIgnoreCase(rhs);
+            }
+        });
+    }
+
+    private static void sortByKey(List<String> names) {
+        // the keys are computed once per name, as the file infos do
+        List<Entry> entries = new ArrayList<>(names.size());
+        for (String name : names) {
+            entries.add(new Entry(name));
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                return lhs.mKey.compareTo(rhs.mKey);
+            }
+        });
+        for (int i = 0; i < entries.size(); ++i) {
+            names.set(i, entries.get(i).mName);
+        }
+    }
+
+    private static class Entry {
+        final String mName;
+        final String mKey;
+
+        Entry(String name) {
+            mName = name;
+            mKey = Utils.getCaseInsensitiveSortKey(name);
+        }
+    }
+}